@@ -0,0 +1,94 @@
+package com.computenet.broker.persistence;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.metrics.BrokerMetrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of journaled TaskManager updates at each durability level, with eight threads
+ * recording sub-task results as the completion endpoint does. NONE is the in-memory baseline;
+ * the gap between GROUP_COMMIT and SYNC is what fsync batching buys. The WAL lives in a
+ * temporary directory, so the disk under java.io.tmpdir is what gets measured.
+ *
+ * Run: java -jar target/benchmarks.jar WriteAheadLogBenchmark
+ *      java -jar target/benchmarks.jar WriteAheadLogBenchmark -p durability=GROUP_COMMIT -p syncIntervalMs=0,1,5
+ *
+ * With an interval, GROUP_COMMIT callers wait up to a full interval per record, which only pays
+ * off when fsync itself is slow; the default 0 fsyncs back to back and batches what arrives meanwhile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+    private static final int TASKS = 1000;
+    private static final int SUB_TASKS = 8;
+    
+    @Param({"NONE", "ASYNC", "GROUP_COMMIT", "SYNC"})
+    public DurabilityLevel durability;
+    
+    @Param({"0"})
+    public long syncIntervalMs;
+    
+    private Path directory;
+    private TaskManager taskManager;
+    private TaskStateStore store;
+    private int firstTaskId;
+    
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-bench-");
+        taskManager = new TaskManager();
+        for (int i = 0; i < SUB_TASKS; i++) {
+            taskManager.registerWorker("127.0.0.1", 6000 + i);
+        }
+        if (durability != DurabilityLevel.NONE) {
+            // Long snapshot interval: only the log is measured
+            store = TaskStateStore.open(new PersistenceConfig(directory, durability, syncIntervalMs, 3600, 64L * 1024 * 1024),
+                                        taskManager, new BrokerMetrics());
+        }
+        firstTaskId = taskManager.createTask("bench-0", "payload", SUB_TASKS);
+        for (int i = 1; i < TASKS; i++) {
+            taskManager.createTask("bench-" + i, "payload", SUB_TASKS);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    @Benchmark
+    public void recordResult() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        taskManager.submitSubTaskResult(firstTaskId + random.nextInt(TASKS), 1 + random.nextInt(SUB_TASKS), "Completed");
+    }
+}
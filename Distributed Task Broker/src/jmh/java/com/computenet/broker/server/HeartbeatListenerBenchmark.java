@@ -0,0 +1,106 @@
+package com.computenet.broker.server;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heartbeats per second through WorkerUdpListener over loopback: binary heartbeats of registered
+ * workers, each with capacity attributes and a list of cached payloads, sent in bursts of 64 and
+ * drained with receiveBatch on the same thread, ACKs included. The broker should sustain 50,000
+ * heartbeats/s, e.g. 50,000 workers on one-second heartbeats; the score is per heartbeat and counts
+ * sending them too, so the listener alone has more headroom than it shows.
+ * ackEvery=1 answers every heartbeat as before, 10 is the default suppression.
+ *
+ * Run: java -jar target/benchmarks.jar HeartbeatListenerBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeartbeatListenerBenchmark {
+
+    private static final int BURST = 64;
+    
+    @Param({"1", "10"})
+    public int ackEvery;
+    
+    @Param({"5000"})
+    public int workers;
+    
+    private WorkerUdpListener listener;
+    private DatagramChannel sender;
+    private List<ByteBuffer> heartbeats;
+    private int next;
+    
+    @Setup
+    public void setUp() throws IOException {
+        TaskManager taskManager = new TaskManager();
+        listener = new WorkerUdpListener(taskManager, new BrokerMetrics(), 0, 256, ackEvery);
+        listener.open();
+        sender = DatagramChannel.open().connect(new InetSocketAddress("127.0.0.1", listener.localPort()));
+        
+        heartbeats = new ArrayList<>(workers);
+        StringBuilder cached = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            cached.append(i > 0 ? "," : "").append(String.format("%032x", i));
+        }
+        for (int i = 0; i < workers; i++) {
+            int tcpPort = 10000 + i;
+            taskManager.registerWorker("127.0.0.1", tcpPort, WireCodec.VERSION, Set.of(WireMessage.FEATURE_PAYLOAD_CACHE));
+            WireMessage heartbeat = WireMessage.heartbeat(tcpPort)
+                    .withAttribute(WireMessage.CORES, "8")
+                    .withAttribute(WireMessage.SLOTS, "8")
+                    .withAttribute(WireMessage.FREE_MEMORY, "1073741824")
+                    .withAttribute(WireMessage.LOAD, "3")
+                    .withAttribute(WireMessage.CACHED, cached.toString());
+            heartbeats.add(ByteBuffer.wrap(WireCodec.encode(heartbeat)));
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        listener.stop();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int heartbeatBurst() throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            sender.write(heartbeats.get(next).duplicate());
+            next = (next + 1) % heartbeats.size();
+        }
+        // Loopback does not lose datagrams at this rate, the deadline only keeps a lost one from hanging the run
+        int received = 0;
+        long giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        while (received < BURST && System.nanoTime() - giveUpAt < 0) {
+            received += listener.receiveBatch();
+        }
+        return received;
+    }
+}
@@ -0,0 +1,107 @@
+package com.computenet.broker.server;
+
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-message decode cost on the broker's two worker-facing listeners.
+ * NIO: a read buffer holding a batch of worker messages, drained with
+ * WorkerNIOHandler.decodeTextLine (text) or WireCodec.decode (binary).
+ * UDP: one datagram decoded with WorkerUdpListener.decodeDatagram, text and binary.
+ * Scores are per message.
+ *
+ * Run: java -jar target/benchmarks.jar MessageParsingBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageParsingBenchmark {
+
+    private static final int BATCH = 64;
+    
+    private ByteBuffer nioText;
+    private ByteBuffer nioBinary;
+    private byte[] udpRegisterText;
+    private byte[] udpRegisterBinary;
+    private byte[] udpHeartbeatText;
+    private byte[] udpHeartbeatBinary;
+    
+    @Setup
+    public void setUp() {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (int i = 0; i < BATCH; i++) {
+            WireMessage result = WireMessage.result(1000 + i, 1 + i % 8,
+                    ("Completed partition " + i).getBytes(StandardCharsets.UTF_8));
+            text.writeBytes((TextCodec.encode(result) + "\n").getBytes(StandardCharsets.UTF_8));
+            binary.writeBytes(WireCodec.encode(result));
+        }
+        nioText = ByteBuffer.wrap(text.toByteArray());
+        nioBinary = ByteBuffer.wrap(binary.toByteArray());
+        
+        udpRegisterText = TextCodec.encode(WireMessage.register(6000, null)).getBytes(StandardCharsets.UTF_8);
+        udpRegisterBinary = WireCodec.encode(WireMessage.register(6000, null));
+        udpHeartbeatText = TextCodec.encode(WireMessage.heartbeat(6000)).getBytes(StandardCharsets.UTF_8);
+        udpHeartbeatBinary = WireCodec.encode(WireMessage.heartbeat(6000));
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void nioTextLines(Blackhole blackhole) {
+        ByteBuffer buffer = nioText.duplicate();
+        WireMessage message;
+        while ((message = WorkerNIOHandler.decodeTextLine(buffer)) != null) {
+            blackhole.consume(message);
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void nioBinaryFrames(Blackhole blackhole) throws WireCodec.WireFormatException {
+        ByteBuffer buffer = nioBinary.duplicate();
+        WireMessage message;
+        while ((message = WireCodec.decode(buffer)) != null) {
+            blackhole.consume(message);
+        }
+    }
+    
+    @Benchmark
+    public WireMessage udpRegisterText() throws WireCodec.WireFormatException {
+        return WorkerUdpListener.decodeDatagram(udpRegisterText, udpRegisterText.length);
+    }
+    
+    @Benchmark
+    public WireMessage udpRegisterBinary() throws WireCodec.WireFormatException {
+        return WorkerUdpListener.decodeDatagram(udpRegisterBinary, udpRegisterBinary.length);
+    }
+    
+    @Benchmark
+    public WireMessage udpHeartbeatText() throws WireCodec.WireFormatException {
+        return WorkerUdpListener.decodeDatagram(udpHeartbeatText, udpHeartbeatText.length);
+    }
+    
+    @Benchmark
+    public WireMessage udpHeartbeatBinary() throws WireCodec.WireFormatException {
+        return WorkerUdpListener.decodeDatagram(udpHeartbeatBinary, udpHeartbeatBinary.length);
+    }
+}
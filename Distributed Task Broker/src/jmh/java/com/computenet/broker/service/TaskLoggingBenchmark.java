@@ -0,0 +1,122 @@
+package com.computenet.broker.service;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cost of logging on the task bookkeeping path, with dispatcher-like contention.
+ * One operation is the TaskManager work for a whole task: create it, then assign,
+ * complete and record the result of each sub-task, as the broker does per task.
+ *
+ * Logging modes:
+ *   off         - every com.computenet logger disabled (lower bound)
+ *   info        - shipped levels, per-sub-task events at DEBUG are skipped, task creation is sampled
+ *   debug-sync  - every event formatted and written by the calling thread
+ *   debug-async - every event queued to a non-blocking AsyncAppender, as in logback.xml
+ * Output goes to a null stream so the numbers show logging overhead, not terminal speed.
+ *
+ * Run: java -jar target/benchmarks.jar TaskLoggingBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TaskLoggingBenchmark {
+
+    private static final int SUB_TASKS = 4;
+    
+    @Param({"off", "info", "debug-sync", "debug-async"})
+    public String mode;
+    
+    private TaskManager taskManager;
+    private Appender<ILoggingEvent> appender;
+    
+    @Setup
+    public void configureLogging() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{HH:mm:ss.SSS} %-5level [%thread] %logger{0} - %msg%n");
+        encoder.start();
+        
+        OutputStreamAppender<ILoggingEvent> sink = new OutputStreamAppender<>();
+        sink.setContext(context);
+        sink.setEncoder(encoder);
+        sink.setOutputStream(OutputStream.nullOutputStream());
+        sink.start();
+        appender = sink;
+        
+        if (mode.equals("debug-async")) {
+            AsyncAppender async = new AsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.setDiscardingThreshold(1024);
+            async.setNeverBlock(true);
+            async.addAppender(sink);
+            async.start();
+            appender = async;
+        }
+        
+        Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        root.addAppender(appender);
+        root.setLevel(Level.INFO);
+        context.getLogger("com.computenet").setLevel(switch (mode) {
+            case "off" -> Level.OFF;
+            case "info" -> Level.INFO;
+            default -> Level.DEBUG;
+        });
+    }
+    
+    /** Fresh state per iteration so the task map does not grow across the whole run. */
+    @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+    public void newTaskManager() {
+        taskManager = new TaskManager();
+        for (int i = 0; i < SUB_TASKS; i++) {
+            taskManager.registerWorker("127.0.0.1", 6000 + i);
+        }
+    }
+    
+    @TearDown
+    public void stopLogging() {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+    }
+    
+    @Benchmark
+    public int taskLifecycle() {
+        int taskId = taskManager.createTask("bench", "payload", SUB_TASKS);
+        for (int subTaskId = 1; subTaskId <= SUB_TASKS; subTaskId++) {
+            String workerKey = "127.0.0.1:" + (5999 + subTaskId);
+            taskManager.assignSubTaskToWorker(workerKey, taskId, subTaskId);
+            taskManager.completeSubTaskForWorker(workerKey, taskId, subTaskId);
+            taskManager.submitSubTaskResult(taskId, subTaskId, "Completed");
+        }
+        return taskId;
+    }
+}
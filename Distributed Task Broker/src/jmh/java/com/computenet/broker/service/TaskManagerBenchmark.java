@@ -0,0 +1,128 @@
+package com.computenet.broker.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TaskManager operations under contention, as seen from the dispatcher threads
+ * (createTask, submitSubTaskResult) and the dashboard polling endpoints
+ * (getWorkerStatistics, getTaskOverview).
+ * State is rebuilt every iteration so createTask does not grow the task map without bound.
+ *
+ * The readWrite group runs three result-recording threads against one thread polling the
+ * task overview, which is the broker's steady state while the web UI is open.
+ *
+ * Run: java -jar target/benchmarks.jar TaskManagerBenchmark
+ *      java -jar target/benchmarks.jar TaskManagerBenchmark.getTaskOverview -p tasks=10000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskManagerBenchmark {
+
+    private static final int SUB_TASKS = 4;
+    
+    /** Registered workers, drives getWorkerStatistics. */
+    @Param({"16", "256"})
+    public int workers;
+    
+    /** Tasks already in the map, drives getTaskOverview. */
+    @Param({"100", "10000"})
+    public int tasks;
+    
+    private TaskManager taskManager;
+    private int firstTaskId;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        taskManager = new TaskManager();
+        for (int i = 0; i < workers; i++) {
+            taskManager.registerWorker("127.0.0.1", 6000 + i);
+        }
+        for (int i = 0; i < tasks; i++) {
+            int taskId = taskManager.createTask("bench-" + i, "payload", SUB_TASKS);
+            if (i == 0) {
+                firstTaskId = taskId;
+            }
+            // Leave every other task half done so the overview has both pending and completed entries
+            for (int subTaskId = 1; subTaskId <= SUB_TASKS; subTaskId++) {
+                taskManager.assignSubTaskToWorker(workerKey(taskId + subTaskId), taskId, subTaskId);
+                if (i % 2 == 0 || subTaskId <= SUB_TASKS / 2) {
+                    taskManager.submitSubTaskResult(taskId, subTaskId, "Completed");
+                }
+            }
+        }
+    }
+    
+    private String workerKey(int index) {
+        return "127.0.0.1:" + (6000 + Math.floorMod(index, workers));
+    }
+    
+    private int randomTaskId() {
+        return firstTaskId + ThreadLocalRandom.current().nextInt(tasks);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public int createTask() {
+        return taskManager.createTask("bench", "payload", SUB_TASKS);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void submitSubTaskResult() {
+        taskManager.submitSubTaskResult(randomTaskId(), 1 + ThreadLocalRandom.current().nextInt(SUB_TASKS), "Completed");
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Map<String, TaskManager.WorkerStats> getWorkerStatistics() {
+        return taskManager.getWorkerStatistics();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Map<String, Object> getTaskOverview() {
+        return taskManager.getTaskOverview();
+    }
+    
+    /** Result path as BrokerServer runs it for /api/worker-complete. */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public void recordCompletion() {
+        int taskId = randomTaskId();
+        int subTaskId = 1 + ThreadLocalRandom.current().nextInt(SUB_TASKS);
+        String workerKey = workerKey(taskId + subTaskId);
+        taskManager.assignSubTaskToWorker(workerKey, taskId, subTaskId);
+        taskManager.submitSubTaskResult(taskId, subTaskId, "Completed");
+        taskManager.completeSubTaskForWorker(workerKey, taskId, subTaskId);
+    }
+    
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Object pollOverview() {
+        return List.of(taskManager.getTaskOverview(), taskManager.getWorkerStatistics());
+    }
+}
@@ -0,0 +1,52 @@
+package com.computenet.broker.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of TaskSubmissionHandler.splitTaskIntoSubTasks, the step between accepting a task
+ * and broadcasting its configuration, across task sizes and split counts.
+ *
+ * Run: java -jar target/benchmarks.jar TaskSplitBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskSplitBenchmark {
+
+    @Param({"64", "65536"})
+    public int taskDataLength;
+    
+    @Param({"4", "64"})
+    public int subTasks;
+    
+    private TaskSubmissionHandler handler;
+    private String taskData;
+    
+    @Setup
+    public void setUp() {
+        // Splitting needs none of the collaborators
+        handler = new TaskSubmissionHandler(null, null, null, null, null);
+        // 64-byte records, so the default splitter has line breaks to cut at
+        taskData = ("x".repeat(63) + "\n").repeat(taskDataLength / 64);
+    }
+    
+    @Benchmark
+    public List<String> splitTaskIntoSubTasks() {
+        return handler.splitTaskIntoSubTasks(taskData, subTasks, null);
+    }
+}
@@ -0,0 +1,111 @@
+package com.computenet.broker.split;
+
+import com.computenet.broker.storage.InputPartition;
+import com.computenet.broker.storage.InputSpool;
+import com.computenet.broker.storage.SpoolWriter;
+import com.computenet.broker.storage.SpooledInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Split throughput of each TaskSplitter over a spooled input of CSV-like lines
+ * ("user42,17;903;payload...\n", about 80 bytes each), 1 GB by default. Throughput in MB/s
+ * is inputMb divided by the reported seconds per operation.
+ *
+ * scan: the splitter alone, into a sink that only counts bytes.
+ * partition: the full broker path into SpooledPartitionSink; range splitters only
+ * record offsets, hash writes every record into a partition file.
+ *
+ * The input is written to java.io.tmpdir once per trial and read through the page cache.
+ * Run: java -jar target/benchmarks.jar TaskSplitterBenchmark
+ *      java -jar target/benchmarks.jar TaskSplitterBenchmark -p inputMb=64 -p splitter=lines,hash
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+@State(Scope.Benchmark)
+public class TaskSplitterBenchmark {
+
+    @Param({"1024"})
+    public int inputMb;
+    
+    @Param({"bytes", "bytes:raw", "lines", "delimiter:;", "hash"})
+    public String splitter;
+    
+    @Param({"16"})
+    public int partitions;
+    
+    private InputSpool spool;
+    private SpooledInput input;
+    private TaskSplitter taskSplitter;
+    
+    @Setup
+    public void setUp() throws IOException {
+        spool = InputSpool.temporary();
+        input = writeInput(spool, (long) inputMb * 1024 * 1024);
+        taskSplitter = TaskSplitter.parse(splitter);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        input.close();
+    }
+    
+    @Benchmark
+    public long scan() throws IOException {
+        long[] total = new long[1];
+        taskSplitter.split(SplitInput.of(input), partitions, (partition, offset, length, bytes) -> total[0] += length);
+        return total[0];
+    }
+    
+    @Benchmark
+    public long partition() throws IOException {
+        List<InputPartition> result;
+        try (SpooledPartitionSink sink = new SpooledPartitionSink(input, partitions)) {
+            taskSplitter.split(SplitInput.of(input), partitions, sink);
+            result = sink.finish();
+        }
+        long total = 0;
+        for (InputPartition partition : result) {
+            total += partition.length();
+            if (partition.input() != input) {
+                partition.input().close();
+            }
+        }
+        return total;
+    }
+    
+    /** Lines drawn from a fixed pool, so generating 1 GB takes seconds rather than minutes. */
+    private static SpooledInput writeInput(InputSpool spool, long size) throws IOException {
+        Random random = new Random(42);
+        byte[][] lines = new byte[4096][];
+        for (int i = 0; i < lines.length; i++) {
+            String line = "user" + random.nextInt(10_000) + "," + random.nextInt(1000) + ";" + random.nextInt(1000)
+                          + ";" + "x".repeat(40 + random.nextInt(40)) + "\n";
+            lines[i] = line.getBytes(StandardCharsets.UTF_8);
+        }
+        SpoolWriter writer = spool.newWriter();
+        while (writer.size() < size) {
+            writer.write(ByteBuffer.wrap(lines[random.nextInt(lines.length)]));
+        }
+        return writer.finish();
+    }
+}
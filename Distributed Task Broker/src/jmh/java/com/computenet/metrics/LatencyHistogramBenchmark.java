@@ -0,0 +1,44 @@
+package com.computenet.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording one latency sample from several threads at once,
+ * i.e. the overhead the instrumentation adds to each pipeline stage.
+ * recordSince includes the System.nanoTime() call every stage pays.
+ *
+ * Run: java -jar target/benchmarks.jar LatencyHistogramBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    
+    @Benchmark
+    public void record() {
+        // Spread samples over ~1us - 1ms so threads touch different buckets, as real latencies do
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000, 1_000_000));
+    }
+    
+    @Benchmark
+    public void recordSince() {
+        histogram.recordSince(System.nanoTime() - 5_000);
+    }
+}
@@ -0,0 +1,105 @@
+package com.computenet.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing a /api/worker-complete body.
+ * Compares the removed indexOf-based extractJsonValue (five scans per body),
+ * the streaming JsonCodec reader and plain ObjectMapper data binding.
+ *
+ * Run: java -jar target/benchmarks.jar CompletionParsingBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompletionParsingBenchmark {
+
+    /** Size of the "result" field, to show how each approach scales with body length. */
+    @Param({"9", "1024"})
+    public int resultLength;
+    
+    private String body;
+    private byte[] bodyBytes;
+    
+    @Setup
+    public void setUp() {
+        String result = "Completed" + "x".repeat(Math.max(0, resultLength - 9));
+        body = "{\"workerAddress\":\"127.0.0.1\",\"workerPort\":\"6000\",\"taskId\":\"1001\","
+                + "\"subTaskId\":\"3\",\"result\":\"" + result + "\"}";
+        bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public WorkerCompletionRequest legacyExtractJsonValue() {
+        String workerAddress = extractJsonValue(body, "workerAddress");
+        String workerPort = extractJsonValue(body, "workerPort");
+        String taskId = extractJsonValue(body, "taskId");
+        String subTaskId = extractJsonValue(body, "subTaskId");
+        String result = extractJsonValue(body, "result");
+        return new WorkerCompletionRequest(workerAddress, Integer.parseInt(workerPort),
+                Integer.parseInt(taskId), Integer.parseInt(subTaskId), result);
+    }
+    
+    @Benchmark
+    public WorkerCompletionRequest streamingJsonCodec() throws IOException {
+        return JsonCodec.readCompletion(bodyBytes);
+    }
+    
+    @Benchmark
+    public LegacyCompletionBody objectMapperDataBind() throws IOException {
+        return JsonCodec.MAPPER.readValue(bodyBytes, LegacyCompletionBody.class);
+    }
+    
+    /** Mirrors the quoted-string shape that workers used to send. */
+    public record LegacyCompletionBody(String workerAddress, String workerPort, String taskId,
+                                       String subTaskId, String result) {
+    }
+    
+    /** Copy of the parser BrokerServer used before JsonCodec, kept here as the baseline. */
+    private static String extractJsonValue(String json, String key) {
+        try {
+            String searchKey = "\"" + key + "\":";
+            int startIndex = json.indexOf(searchKey);
+            if (startIndex == -1) return null;
+            
+            startIndex += searchKey.length();
+            while (startIndex < json.length() && Character.isWhitespace(json.charAt(startIndex))) {
+                startIndex++;
+            }
+            
+            if (json.charAt(startIndex) == '"') {
+                startIndex++;
+                int endIndex = json.indexOf('"', startIndex);
+                if (endIndex == -1) return null;
+                return json.substring(startIndex, endIndex);
+            } else {
+                int endIndex = startIndex;
+                while (endIndex < json.length() &&
+                       json.charAt(endIndex) != ',' &&
+                       json.charAt(endIndex) != '}' &&
+                       json.charAt(endIndex) != ']') {
+                    endIndex++;
+                }
+                return json.substring(startIndex, endIndex).trim();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.computenet.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of PayloadCompressor per sub-task payload at each Deflater level, to weigh against
+ * the bytes saved. Payloads are CSV-like lines, as sub-task slices usually are.
+ * The compression ratio for each level is printed once per trial.
+ *
+ * Run: java -jar target/benchmarks.jar PayloadCompressionBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadCompressionBenchmark {
+
+    @Param({"1", "6", "9"})
+    public int level;
+    
+    @Param({"4096", "262144"})
+    public int payloadBytes;
+    
+    private PayloadCompressor compressor;
+    private WireMessage message;
+    private WireMessage compressed;
+    
+    @Setup
+    public void setUp() {
+        compressor = new PayloadCompressor(level, PayloadCompressor.DEFAULT_THRESHOLD);
+        Random random = new Random(42);
+        StringBuilder data = new StringBuilder(payloadBytes + 100);
+        while (data.length() < payloadBytes) {
+            data.append("user").append(random.nextInt(10_000)).append(',').append(random.nextInt(1000))
+                .append(';').append(random.nextInt(1000)).append(";payload-").append(random.nextInt(50)).append('\n');
+        }
+        message = WireMessage.subTask(1001, 1, data.substring(0, payloadBytes).getBytes(StandardCharsets.UTF_8));
+        compressed = compressor.compress(message);
+        System.out.printf("%nLevel %d, %d bytes: compressed to %d bytes (%.1f%%)%n", level, payloadBytes,
+                          compressed.payload().length, 100.0 * compressed.payload().length / payloadBytes);
+    }
+    
+    @Benchmark
+    public WireMessage compress() {
+        return compressor.compress(message);
+    }
+    
+    @Benchmark
+    public WireMessage decompress() throws WireCodec.WireFormatException {
+        return compressor.decompress(compressed);
+    }
+}
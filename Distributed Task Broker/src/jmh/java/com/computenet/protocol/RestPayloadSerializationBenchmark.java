@@ -0,0 +1,103 @@
+package com.computenet.protocol;
+
+import com.computenet.broker.service.TaskManager;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON serialization cost of the broker's REST and WebSocket payloads, using the
+ * shared JsonCodec mapper that Javalin is configured with. Payloads are built once
+ * in setup, so only serialization is measured.
+ *
+ * Run: java -jar target/benchmarks.jar RestPayloadSerializationBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestPayloadSerializationBenchmark {
+
+    /** Workers registered and tasks created, sizes /api/workers, /api/worker-stats and /api/task-overview. */
+    @Param({"10", "1000"})
+    public int entries;
+    
+    private List<TaskManager.WorkerDetails> workers;
+    private Map<String, TaskManager.WorkerStats> workerStats;
+    private Map<String, Object> taskOverview;
+    private TaskSubmissionResponse submissionResponse;
+    private ApiResponse apiResponse;
+    private Map<String, Object> progressBroadcast;
+    
+    @Setup
+    public void setUp() {
+        TaskManager taskManager = new TaskManager();
+        for (int i = 0; i < entries; i++) {
+            taskManager.registerWorker("127.0.0.1", 6000 + i);
+        }
+        for (int i = 0; i < entries; i++) {
+            int taskId = taskManager.createTask("task-" + i, "payload", 4);
+            taskManager.assignSubTaskToWorker("127.0.0.1:" + (6000 + i), taskId, 1);
+            if (i % 2 == 0) {
+                for (int subTaskId = 1; subTaskId <= 4; subTaskId++) {
+                    taskManager.submitSubTaskResult(taskId, subTaskId, "Completed");
+                }
+            }
+        }
+        workers = taskManager.getAvailableWorkers();
+        workerStats = taskManager.getWorkerStatistics();
+        taskOverview = taskManager.getTaskOverview();
+        
+        submissionResponse = new TaskSubmissionResponse(true, "Task 'demo' submitted successfully via TCP",
+                                                        1001, "t-1", "demo", 4);
+        apiResponse = ApiResponse.ok("Sub-task completion recorded");
+        progressBroadcast = Map.of(
+            "type", "NIO_BROADCAST",
+            "message", "PROGRESS:1001:50% (2/4)",
+            "timestamp", 1_700_000_000_000L
+        );
+    }
+    
+    @Benchmark
+    public byte[] workers() {
+        return JsonCodec.toBytes(workers);
+    }
+    
+    @Benchmark
+    public byte[] workerStats() {
+        return JsonCodec.toBytes(workerStats);
+    }
+    
+    @Benchmark
+    public byte[] taskOverview() {
+        return JsonCodec.toBytes(taskOverview);
+    }
+    
+    @Benchmark
+    public byte[] submissionResponse() {
+        return JsonCodec.toBytes(submissionResponse);
+    }
+    
+    @Benchmark
+    public byte[] apiResponse() {
+        return JsonCodec.toBytes(apiResponse);
+    }
+    
+    @Benchmark
+    public String progressBroadcast() {
+        return JsonCodec.toJson(progressBroadcast);
+    }
+}
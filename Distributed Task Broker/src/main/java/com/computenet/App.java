@@ -1,6 +1,8 @@
 package com.computenet;
 
 import com.computenet.broker.server.BrokerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * App - Main entry point
@@ -8,9 +10,10 @@ import com.computenet.broker.server.BrokerServer;
  */
 public class App {
     
+    private static final Logger log = LoggerFactory.getLogger(App.class);
+    
     public static void main(String[] args) {
-        System.out.println("Starting Distributed Task Broker...");
-        System.out.println("=====================================");
+        log.info("Starting Distributed Task Broker...");
         
         try {
             // Initialize and start BrokerServer
@@ -19,13 +22,12 @@ public class App {
             
             // Add shutdown hook for graceful shutdown
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutting down Broker Server...");
+                log.info("Shutting down Broker Server...");
                 brokerServer.stop();
             }));
             
         } catch (Exception e) {
-            System.err.println("Failed to start Broker Server: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to start Broker Server", e);
             System.exit(1);
         }
     }
@@ -0,0 +1,20 @@
+package com.computenet.broker.persistence;
+
+/**
+ * DurabilityLevel - How far a TaskManager change must get before the caller continues
+ * Ordered from cheapest to safest; WriteAheadLogBenchmark measures the cost of each.
+ */
+public enum DurabilityLevel {
+
+    /** No log at all, state is lost when the broker exits. */
+    NONE,
+    
+    /** Records are buffered and fsynced every sync interval; callers never wait. A crash loses up to one interval. */
+    ASYNC,
+    
+    /** As ASYNC, but each caller waits for the fsync that covers its record, so concurrent callers share one fsync. */
+    GROUP_COMMIT,
+    
+    /** Every record is written and fsynced on its own before the caller continues. */
+    SYNC
+}
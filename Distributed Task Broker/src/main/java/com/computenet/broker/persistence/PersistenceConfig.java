@@ -0,0 +1,51 @@
+package com.computenet.broker.persistence;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Where and how durably the broker keeps its TaskManager state.
+ *
+ * @param dataDirectory           Directory holding WAL segments and snapshots
+ * @param durability              What an acknowledged change survives
+ * @param syncIntervalMillis      Time between WAL fsyncs for ASYNC and GROUP_COMMIT; 0 = start the next fsync as soon as the previous one ends, so records arriving during an fsync form the next batch
+ * @param snapshotIntervalSeconds Time between snapshots, after which older WAL segments are deleted
+ * @param segmentBytes            Size at which the WAL rolls over to a new segment file
+ */
+public record PersistenceConfig(Path dataDirectory, DurabilityLevel durability, long syncIntervalMillis,
+                                long snapshotIntervalSeconds, long segmentBytes) {
+    
+    public PersistenceConfig {
+        if (syncIntervalMillis < 0 || snapshotIntervalSeconds <= 0 || segmentBytes <= 0) {
+            throw new IllegalArgumentException("Invalid persistence settings: sync interval " + syncIntervalMillis
+                    + " ms, snapshot interval " + snapshotIntervalSeconds + " s, segment size " + segmentBytes);
+        }
+    }
+    
+    /**
+     * Reads -Dbroker.data.dir (default broker-data), -Dbroker.durability (none, async,
+     * group_commit or sync; default group_commit), -Dbroker.wal.sync.ms (default 0),
+     * -Dbroker.snapshot.interval.s (default 60) and -Dbroker.wal.segment.mb (default 64).
+     */
+    public static PersistenceConfig fromSystemProperties() {
+        return new PersistenceConfig(
+            Path.of(System.getProperty("broker.data.dir", "broker-data")),
+            DurabilityLevel.valueOf(System.getProperty("broker.durability", "group_commit").toUpperCase(Locale.ROOT)),
+            Long.getLong("broker.wal.sync.ms", 0),
+            Long.getLong("broker.snapshot.interval.s", 60),
+            Long.getLong("broker.wal.segment.mb", 64) * 1024 * 1024
+        );
+    }
+    
+    public PersistenceConfig withDurability(DurabilityLevel durability) {
+        return new PersistenceConfig(dataDirectory, durability, syncIntervalMillis, snapshotIntervalSeconds, segmentBytes);
+    }
+    
+    public PersistenceConfig withDataDirectory(Path dataDirectory) {
+        return new PersistenceConfig(dataDirectory, durability, syncIntervalMillis, snapshotIntervalSeconds, segmentBytes);
+    }
+    
+    public boolean enabled() {
+        return durability != DurabilityLevel.NONE;
+    }
+}
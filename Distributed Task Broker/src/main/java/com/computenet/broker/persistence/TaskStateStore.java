@@ -0,0 +1,253 @@
+package com.computenet.broker.persistence;
+
+import com.computenet.broker.service.TaskJournal;
+import com.computenet.broker.service.TaskManager;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.JsonCodec;
+import com.computenet.util.RateLimitedLogger;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TaskStateStore - Makes TaskManager state survive a broker restart
+ * Recovery loads the newest snapshot and replays the WAL records after it. From then on
+ * every TaskManager change is appended to the WAL (this class is the TaskManager's journal),
+ * and a snapshot is written every snapshot interval, after which the WAL segments it covers
+ * are deleted.
+ *
+ * Snapshots are fuzzy: the WAL is rotated first, then TaskManager is copied while updates
+ * continue. Every change is applied in memory before it is logged, so the copy contains at
+ * least everything up to the rotation LSN, and replaying the later records over it is
+ * idempotent.
+ */
+public final class TaskStateStore implements TaskJournal, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskStateStore.class);
+    private static final RateLimitedLogger asyncErrorLog = RateLimitedLogger.perSecond(log, 5);
+    
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".json";
+    
+    private static final ObjectWriter SNAPSHOT_WRITER = JsonCodec.MAPPER.writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    
+    /** Snapshot file contents: the state plus the last WAL record it is known to include. */
+    record SnapshotFile(long lastLsn, TaskManager.Snapshot state) {}
+    
+    private final PersistenceConfig config;
+    private final TaskManager taskManager;
+    private final BrokerMetrics metrics;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService snapshotScheduler;
+    private long lastSnapshotLsn;
+    
+    private TaskStateStore(PersistenceConfig config, TaskManager taskManager, BrokerMetrics metrics,
+                           WriteAheadLog wal, long lastSnapshotLsn) {
+        this.config = config;
+        this.taskManager = taskManager;
+        this.metrics = metrics;
+        this.wal = wal;
+        this.lastSnapshotLsn = lastSnapshotLsn;
+        this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Rebuilds the TaskManager from the data directory, then attaches the WAL as its journal.
+     * Must run before any component can change the TaskManager.
+     */
+    public static TaskStateStore open(PersistenceConfig config, TaskManager taskManager, BrokerMetrics metrics)
+            throws IOException {
+        Path directory = config.dataDirectory();
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        
+        long snapshotLsn = 0;
+        Path snapshotPath = newestSnapshot(directory);
+        if (snapshotPath != null) {
+            SnapshotFile snapshot = JsonCodec.MAPPER.readValue(snapshotPath.toFile(), SnapshotFile.class);
+            taskManager.restore(snapshot.state());
+            snapshotLsn = snapshot.lastLsn();
+        }
+        TaskJournal target = taskManager.recoveryTarget();
+        long lastLsn = WriteAheadLog.replay(directory, snapshotLsn, record -> record.replayInto(target));
+        
+        // Result bytes are flushed with each WAL fsync, before the records that reference them
+        WriteAheadLog wal = WriteAheadLog.open(config, lastLsn + 1, metrics, taskManager.getResultStore()::forceDirty);
+        TaskStateStore store = new TaskStateStore(config, taskManager, metrics, wal, snapshotLsn);
+        taskManager.setJournal(store);
+        log.info("TaskStateStore: Recovered {} workers and {} tasks from {} (snapshot LSN {}, {} log records replayed) in {} ms, durability {}",
+                 taskManager.getWorkerCount(), taskManager.getTaskCount(), directory, snapshotLsn, lastLsn - snapshotLsn,
+                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), config.durability());
+        
+        if (lastLsn > snapshotLsn) {
+            // Fold the replayed records into a snapshot so the next restart does not replay them again
+            store.snapshot();
+        }
+        long interval = config.snapshotIntervalSeconds();
+        store.snapshotScheduler.scheduleWithFixedDelay(store::scheduledSnapshot, interval, interval, TimeUnit.SECONDS);
+        return store;
+    }
+    
+    // --- TaskJournal ---
+    
+    @Override
+    public void taskCreated(int taskId, String taskName, String taskData, int totalSubTasks, String combiner,
+                            long deadline) {
+        append(new WalRecord.TaskCreated(taskId, taskName, taskData, totalSubTasks, combiner, deadline));
+    }
+    
+    @Override
+    public void workerRegistered(TaskManager.WorkerDetails worker) {
+        append(new WalRecord.WorkerRegistered(worker.address(), worker.tcpPort(), worker.protocolVersion(),
+                                              worker.features()));
+    }
+    
+    @Override
+    public void subTaskAssigned(String workerKey, int taskId, int subTaskId) {
+        appendAsync(new WalRecord.SubTaskAssigned(workerKey, taskId, subTaskId));
+    }
+    
+    @Override
+    public CompletableFuture<Void> subTaskResult(int taskId, int subTaskId, ResultRef result) {
+        return appendAsync(new WalRecord.SubTaskResult(taskId, subTaskId, result));
+    }
+    
+    @Override
+    public void subTaskReleased(String workerKey, int taskId, int subTaskId) {
+        appendAsync(new WalRecord.SubTaskReleased(workerKey, taskId, subTaskId));
+    }
+    
+    private void append(WalRecord record) {
+        try {
+            wal.append(record);
+        } catch (IOException e) {
+            // The change is in memory but not durable; the caller must not acknowledge it
+            throw new UncheckedIOException("Could not log " + record, e);
+        }
+    }
+    
+    // Failures are logged here, since most callers do not wait for the outcome
+    private CompletableFuture<Void> appendAsync(WalRecord record) {
+        CompletableFuture<Void> logged = new CompletableFuture<>();
+        try {
+            wal.appendAsync(record).whenComplete((lsn, e) -> {
+                if (e == null) {
+                    logged.complete(null);
+                } else {
+                    asyncErrorLog.warn("TaskStateStore: Could not log {}", record, e);
+                    logged.completeExceptionally(new UncheckedIOException("Could not log " + record,
+                            e instanceof IOException io ? io : new IOException(e)));
+                }
+            });
+        } catch (IOException e) {
+            asyncErrorLog.warn("TaskStateStore: Could not log {}", record, e);
+            logged.completeExceptionally(new UncheckedIOException("Could not log " + record, e));
+        }
+        return logged;
+    }
+    
+    // --- Snapshots ---
+    
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("TaskStateStore: Snapshot failed, the log keeps growing until one succeeds", e);
+        }
+    }
+    
+    /** Writes a snapshot covering every record logged so far and deletes the segments it replaces. */
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        long lsn = wal.rotate();
+        if (lsn == lastSnapshotLsn) {
+            return;
+        }
+        TaskManager.Snapshot state = taskManager.snapshot();
+        // The snapshot refers to results by location in the memory-mapped ResultStore, including results
+        // appended after the rotate whose records are in no segment the snapshot keeps. Their bytes must be
+        // on disk before the snapshot is, or a crash leaves it pointing at data that was never written.
+        taskManager.getResultStore().forceDirty();
+        
+        Path directory = config.dataDirectory();
+        Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The channel has to stay open for the fsync, so Jackson must not close it
+            SNAPSHOT_WRITER.writeValue(Channels.newOutputStream(channel), new SnapshotFile(lsn, state));
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+        
+        for (Path old : listSnapshots(directory)) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        wal.deleteSegmentsThrough(lsn);
+        lastSnapshotLsn = lsn;
+        metrics.snapshotWrite.recordSince(start);
+        log.debug("TaskStateStore: Snapshot at LSN {} written ({} tasks)", lsn, state.tasks().size());
+    }
+    
+    /** Flushes the rename itself; not supported on every platform, where it is skipped. */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("TaskStateStore: Directory fsync not supported: {}", e.getMessage());
+        }
+    }
+    
+    private static Path newestSnapshot(Path directory) throws IOException {
+        List<Path> snapshots = listSnapshots(directory);
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+    
+    private static List<Path> listSnapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }).sorted().forEach(snapshots::add);
+        }
+        return snapshots;
+    }
+    
+    /** Final snapshot, then closes the log. Changes made after this fail instead of being lost silently. */
+    @Override
+    public void close() throws IOException {
+        snapshotScheduler.shutdownNow();
+        try {
+            snapshot();
+        } finally {
+            wal.close();
+        }
+    }
+}
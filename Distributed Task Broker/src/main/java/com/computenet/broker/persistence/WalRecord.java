@@ -0,0 +1,174 @@
+package com.computenet.broker.persistence;
+
+import com.computenet.broker.service.TaskJournal;
+import com.computenet.broker.service.TaskManager;
+import com.computenet.broker.storage.ResultRef;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One TaskManager state change as stored in the write-ahead log.
+ * Body layout: type(1) followed by the record's fields, ints as 4 bytes, longs as 8 and strings as
+ * length(4, -1 for null) plus UTF-8 bytes. Framing and checksums are added by WriteAheadLog.
+ * Fields added later are appended at the end of a record and read only if the body has them,
+ * so logs written by older brokers still replay.
+ */
+sealed interface WalRecord {
+
+    byte TASK_CREATED = 1;
+    byte WORKER_REGISTERED = 2;
+    byte SUBTASK_ASSIGNED = 3;
+    byte SUBTASK_RESULT = 4;
+    byte SUBTASK_RELEASED = 5;
+    
+    void writeTo(DataOutput out) throws IOException;
+    
+    /** Applies the change to a TaskManager during recovery. */
+    void replayInto(TaskJournal target);
+    
+    /** combiner: the ResultCombiner spec, null if none; deadline: epoch milliseconds, 0 if none. Both absent in older logs. */
+    record TaskCreated(int taskId, String taskName, String taskData, int totalSubTasks, String combiner,
+                       long deadline) implements WalRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(TASK_CREATED);
+            out.writeInt(taskId);
+            writeString(out, taskName);
+            writeString(out, taskData);
+            out.writeInt(totalSubTasks);
+            writeString(out, combiner);
+            out.writeLong(deadline);
+        }
+        
+        @Override
+        public void replayInto(TaskJournal target) {
+            target.taskCreated(taskId, taskName, taskData, totalSubTasks, combiner, deadline);
+        }
+    }
+    
+    /** features: count(4) followed by the feature strings, absent in older logs. */
+    record WorkerRegistered(String address, int tcpPort, int protocolVersion, Set<String> features) implements WalRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(WORKER_REGISTERED);
+            writeString(out, address);
+            out.writeInt(tcpPort);
+            out.writeInt(protocolVersion);
+            out.writeInt(features.size());
+            for (String feature : features) {
+                writeString(out, feature);
+            }
+        }
+        
+        @Override
+        public void replayInto(TaskJournal target) {
+            target.workerRegistered(new TaskManager.WorkerDetails(address, tcpPort, "IDLE", protocolVersion, features));
+        }
+    }
+    
+    record SubTaskAssigned(String workerKey, int taskId, int subTaskId) implements WalRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SUBTASK_ASSIGNED);
+            writeString(out, workerKey);
+            out.writeInt(taskId);
+            out.writeInt(subTaskId);
+        }
+        
+        @Override
+        public void replayInto(TaskJournal target) {
+            target.subTaskAssigned(workerKey, taskId, subTaskId);
+        }
+    }
+    
+    /** The result bytes are in the ResultStore, which is forced before this record is logged. */
+    record SubTaskResult(int taskId, int subTaskId, ResultRef result) implements WalRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SUBTASK_RESULT);
+            out.writeInt(taskId);
+            out.writeInt(subTaskId);
+            out.writeInt(result.segment());
+            out.writeInt(result.offset());
+            out.writeInt(result.length());
+        }
+        
+        @Override
+        public void replayInto(TaskJournal target) {
+            target.subTaskResult(taskId, subTaskId, result);
+        }
+    }
+    
+    record SubTaskReleased(String workerKey, int taskId, int subTaskId) implements WalRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SUBTASK_RELEASED);
+            writeString(out, workerKey);
+            out.writeInt(taskId);
+            out.writeInt(subTaskId);
+        }
+        
+        @Override
+        public void replayInto(TaskJournal target) {
+            target.subTaskReleased(workerKey, taskId, subTaskId);
+        }
+    }
+    
+    static WalRecord readFrom(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TASK_CREATED:
+                return new TaskCreated(in.readInt(), readString(in), readString(in), in.readInt(),
+                                       in.available() > 0 ? readString(in) : null,
+                                       in.available() > 0 ? in.readLong() : 0);
+            case WORKER_REGISTERED:
+                return new WorkerRegistered(readString(in), in.readInt(), in.readInt(), readOptionalStrings(in));
+            case SUBTASK_ASSIGNED:
+                return new SubTaskAssigned(readString(in), in.readInt(), in.readInt());
+            case SUBTASK_RESULT:
+                return new SubTaskResult(in.readInt(), in.readInt(), new ResultRef(in.readInt(), in.readInt(), in.readInt()));
+            case SUBTASK_RELEASED:
+                return new SubTaskReleased(readString(in), in.readInt(), in.readInt());
+            default:
+                throw new IOException("Unknown WAL record type " + type);
+        }
+    }
+    
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /** A count-prefixed string set, or an empty set if the body ends before it. */
+    private static Set<String> readOptionalStrings(DataInputStream in) throws IOException {
+        if (in.available() == 0) {
+            return Set.of();
+        }
+        int count = in.readInt();
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+    
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,505 @@
+package com.computenet.broker.persistence;
+
+import com.computenet.metrics.BrokerMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WriteAheadLog - Append-only log of TaskManager changes, split into segment files
+ *
+ * Record framing: bodyLength(4) crc32c(4) body, see WalRecord for the body. Records are
+ * numbered by a log sequence number (LSN); a segment is named after the LSN of its first
+ * record, so LSNs are not stored. A record that fails its length or checksum test at the end
+ * of the newest segment is a torn write from a crash and is cut off during replay.
+ *
+ * Appends are encoded into an in-memory batch under one lock. For ASYNC and GROUP_COMMIT a
+ * background thread writes and fsyncs the batch every sync interval, so one fsync covers
+ * every record appended in that interval; GROUP_COMMIT callers block until it has run.
+ * SYNC writes and fsyncs inside append. appendAsync never waits: its future completes on the
+ * background thread once the record is as durable as the level requires, and with SYNC that
+ * thread fsyncs as soon as such a record arrives.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+    
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER = 8;
+    private static final int BATCH_BYTES = 1024 * 1024;
+    private static final int MAX_RECORD_BYTES = 256 * 1024 * 1024;
+    
+    /** ByteArrayOutputStream whose array can be read without copying. */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+        
+        byte[] array() {
+            return buf;
+        }
+    }
+    
+    private final Path directory;
+    private final DurabilityLevel durability;
+    private final long syncIntervalNanos;
+    private final long segmentBytes;
+    private final BrokerMetrics metrics;
+    private final Runnable beforeSync;
+    
+    // Guards everything below up to durableLsn
+    private final Object lock = new Object();
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private FileChannel segment;
+    private long segmentFirstLsn;
+    private long segmentSize;
+    private long nextLsn;
+    private long writtenLsn;
+    private boolean syncThreadWaiting;
+    private boolean closed;
+    
+    // Highest LSN known to be on disk; waiters block on durableMonitor
+    private final Object durableMonitor = new Object();
+    private volatile long durableLsn;
+    private volatile IOException syncFailure;
+    
+    /** An appendAsync caller to tell once its record is durable. */
+    private record Waiter(long lsn, CompletableFuture<Long> durable) {}
+    
+    // Guarded by durableMonitor, lowest LSN first
+    private final PriorityQueue<Waiter> asyncWaiters = new PriorityQueue<>(Comparator.comparingLong(Waiter::lsn));
+    
+    private final Thread syncThread;
+    
+    private WriteAheadLog(Path directory, DurabilityLevel durability, long syncIntervalMillis, long segmentBytes,
+                          long nextLsn, BrokerMetrics metrics, Runnable beforeSync) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        // With SYNC the background thread only serves appendAsync, as soon as there is a record
+        this.syncIntervalNanos = durability == DurabilityLevel.SYNC ? 0 : syncIntervalMillis * 1_000_000L;
+        this.segmentBytes = segmentBytes;
+        this.metrics = metrics;
+        this.beforeSync = beforeSync;
+        this.nextLsn = nextLsn;
+        this.writtenLsn = nextLsn - 1;
+        this.durableLsn = nextLsn - 1;
+        openSegment();
+        
+        syncThread = new Thread(this::syncLoop, "wal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+    
+    /**
+     * Opens a new segment in the directory; nextLsn must follow the last replayed record.
+     * beforeSync runs ahead of every fsync, for data the records refer to that must be durable first.
+     */
+    static WriteAheadLog open(PersistenceConfig config, long nextLsn, BrokerMetrics metrics, Runnable beforeSync)
+            throws IOException {
+        if (!config.enabled()) {
+            throw new IllegalArgumentException("WAL requested with durability NONE");
+        }
+        Files.createDirectories(config.dataDirectory());
+        return new WriteAheadLog(config.dataDirectory(), config.durability(), config.syncIntervalMillis(),
+                                 config.segmentBytes(), nextLsn, metrics, beforeSync);
+    }
+    
+    // --- Appending ---
+    
+    /**
+     * Appends a record and returns once it is as durable as the configured level requires.
+     *
+     * @return the record's LSN
+     */
+    long append(WalRecord record) throws IOException {
+        long lsn;
+        synchronized (lock) {
+            lsn = enqueue(record);
+            if (durability == DurabilityLevel.SYNC) {
+                writeBatch();
+                long start = System.nanoTime();
+                beforeSync.run();
+                segment.force(false);
+                metrics.walSync.recordSince(start);
+                metrics.walSyncs.increment();
+                markDurable(writtenLsn);
+                return lsn;
+            }
+        }
+        if (durability == DurabilityLevel.GROUP_COMMIT) {
+            awaitDurable(lsn);
+        }
+        return lsn;
+    }
+    
+    /**
+     * Appends a record without waiting for the disk, for callers that must not block on an fsync.
+     *
+     * @return the record's LSN, once it is as durable as the configured level requires; completed on
+     *         the background thread, so dependent actions must be quick or moved to another thread
+     */
+    CompletableFuture<Long> appendAsync(WalRecord record) throws IOException {
+        long lsn;
+        synchronized (lock) {
+            lsn = enqueue(record);
+        }
+        if (durability == DurabilityLevel.ASYNC) {
+            return CompletableFuture.completedFuture(lsn);
+        }
+        synchronized (durableMonitor) {
+            if (syncFailure != null) {
+                return CompletableFuture.failedFuture(new IOException("WAL fsync failed", syncFailure));
+            }
+            if (durableLsn >= lsn) {
+                return CompletableFuture.completedFuture(lsn);
+            }
+            CompletableFuture<Long> durable = new CompletableFuture<>();
+            asyncWaiters.add(new Waiter(lsn, durable));
+            return durable;
+        }
+    }
+    
+    // Caller holds lock; encodes the record into the batch and wakes the background thread
+    private long enqueue(WalRecord record) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        recordBuffer.reset();
+        record.writeTo(recordOut);
+        int length = recordBuffer.size();
+        crc.reset();
+        crc.update(recordBuffer.array(), 0, length);
+        
+        if (batch.remaining() < FRAME_HEADER + length) {
+            writeBatch();
+        }
+        if (batch.remaining() >= FRAME_HEADER + length) {
+            batch.putInt(length).putInt((int) crc.getValue()).put(recordBuffer.array(), 0, length);
+        } else {
+            // Larger than the whole batch buffer, written straight to the segment
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER).putInt(length).putInt((int) crc.getValue()).flip();
+            writeFully(header, ByteBuffer.wrap(recordBuffer.array(), 0, length));
+        }
+        long lsn = nextLsn++;
+        metrics.walRecords.increment();
+        if (syncThreadWaiting) {
+            lock.notify();
+        }
+        return lsn;
+    }
+    
+    private void awaitDurable(long lsn) throws IOException {
+        if (durableLsn >= lsn) {
+            return;
+        }
+        synchronized (durableMonitor) {
+            while (durableLsn < lsn) {
+                if (syncFailure != null) {
+                    throw new IOException("WAL fsync failed", syncFailure);
+                }
+                try {
+                    durableMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for WAL fsync");
+                }
+            }
+        }
+    }
+    
+    private void markDurable(long lsn) {
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (durableMonitor) {
+            if (lsn > durableLsn) {
+                durableLsn = lsn;
+            }
+            durableMonitor.notifyAll();
+            while (!asyncWaiters.isEmpty() && asyncWaiters.peek().lsn() <= durableLsn) {
+                ready.add(asyncWaiters.poll());
+            }
+        }
+        // Outside the monitor, as completing runs the callers' dependent actions
+        for (Waiter waiter : ready) {
+            waiter.durable().complete(waiter.lsn());
+        }
+    }
+    
+    // Caller holds lock
+    private void writeBatch() throws IOException {
+        if (batch.position() > 0) {
+            batch.flip();
+            writeFully(batch);
+            batch.clear();
+        }
+        writtenLsn = nextLsn - 1;
+        if (segmentSize >= segmentBytes) {
+            rollSegment();
+        }
+    }
+    
+    // Caller holds lock
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = segment.write(buffers);
+            remaining -= written;
+            segmentSize += written;
+        }
+    }
+    
+    /** Background group commit: one write plus fsync per sync interval for everything appended since the last one. */
+    private void syncLoop() {
+        while (true) {
+            if (syncIntervalNanos > 0) {
+                LockSupport.parkNanos(syncIntervalNanos);
+            }
+            FileChannel channel;
+            long target;
+            synchronized (lock) {
+                while (!closed && syncIntervalNanos == 0 && batch.position() == 0 && writtenLsn == durableLsn) {
+                    syncThreadWaiting = true;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // close() interrupts to stop the loop
+                    } finally {
+                        syncThreadWaiting = false;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                if (batch.position() == 0 && writtenLsn == durableLsn) {
+                    continue;
+                }
+                try {
+                    writeBatch();
+                } catch (IOException e) {
+                    failSync(e);
+                    return;
+                }
+                channel = segment;
+                target = writtenLsn;
+            }
+            // fsync outside the lock so appends keep filling the next batch meanwhile
+            long start = System.nanoTime();
+            try {
+                beforeSync.run();
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Rolled or closed concurrently; both force the segment before closing it
+            } catch (IOException e) {
+                failSync(e);
+                return;
+            } catch (UncheckedIOException e) {
+                failSync(e.getCause());
+                return;
+            }
+            metrics.walSync.recordSince(start);
+            metrics.walSyncs.increment();
+            markDurable(target);
+        }
+    }
+    
+    private void failSync(IOException e) {
+        log.error("WriteAheadLog: fsync failed, acknowledgements are blocked until restart", e);
+        List<Waiter> failed;
+        synchronized (durableMonitor) {
+            syncFailure = e;
+            durableMonitor.notifyAll();
+            failed = new ArrayList<>(asyncWaiters);
+            asyncWaiters.clear();
+        }
+        for (Waiter waiter : failed) {
+            waiter.durable().completeExceptionally(new IOException("WAL fsync failed", e));
+        }
+    }
+    
+    // --- Segments ---
+    
+    // Caller holds lock (or is the constructor)
+    private void openSegment() throws IOException {
+        segmentFirstLsn = nextLsn;
+        segmentSize = 0;
+        segment = FileChannel.open(segmentPath(directory, segmentFirstLsn),
+                                   StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    // Caller holds lock, batch already written
+    private void rollSegment() throws IOException {
+        beforeSync.run();
+        segment.force(false);
+        segment.close();
+        markDurable(writtenLsn);
+        openSegment();
+    }
+    
+    /**
+     * Makes every appended record durable and starts a new segment, so the caller can snapshot
+     * state that covers all records up to the returned LSN and then drop the older segments.
+     */
+    long rotate() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            writeBatch();
+            if (nextLsn > segmentFirstLsn) {
+                rollSegment();
+            }
+            return nextLsn - 1;
+        }
+    }
+    
+    /** Deletes segments holding only records at or below the given LSN. */
+    void deleteSegmentsThrough(long lsn) throws IOException {
+        List<Path> segments = listSegments(directory);
+        // A segment ends where the next one starts; the newest segment is never deleted
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstLsn(segments.get(i + 1)) <= lsn + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeBatch();
+                beforeSync.run();
+                segment.force(false);
+                markDurable(writtenLsn);
+            } finally {
+                segment.close();
+                lock.notifyAll();
+            }
+        }
+        syncThread.interrupt();
+        try {
+            syncThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // --- Replay ---
+    
+    /**
+     * Feeds every record after afterLsn to the consumer, oldest first.
+     * A torn record at the end of the newest segment is truncated away; damage anywhere else
+     * means acknowledged changes are missing, which is reported rather than skipped.
+     *
+     * @return LSN of the last valid record, or afterLsn if there is none after it
+     */
+    static long replay(Path directory, long afterLsn, Consumer<WalRecord> consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return afterLsn;
+        }
+        List<Path> segments = listSegments(directory);
+        long lastLsn = afterLsn;
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            boolean newest = i == segments.size() - 1;
+            long lsn = firstLsn(path);
+            if (lsn > lastLsn + 1) {
+                throw new IOException("WAL gap: expected LSN " + (lastLsn + 1) + " but " + path.getFileName() + " starts at " + lsn);
+            }
+            
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            CRC32C crc = new CRC32C();
+            while (data.remaining() >= FRAME_HEADER) {
+                int start = data.position();
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || length > data.remaining()) {
+                    data.position(start);
+                    break;
+                }
+                crc.reset();
+                crc.update(data.array(), data.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    data.position(start);
+                    break;
+                }
+                WalRecord record = WalRecord.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(data.array(), data.position(), length)));
+                data.position(data.position() + length);
+                if (lsn > afterLsn) {
+                    consumer.accept(record);
+                }
+                lastLsn = Math.max(lastLsn, lsn);
+                lsn++;
+            }
+            
+            if (data.hasRemaining()) {
+                if (!newest) {
+                    throw new IOException("WAL segment " + path.getFileName() + " is corrupt at byte " + data.position());
+                }
+                log.warn("WriteAheadLog: Truncating torn record at byte {} of {} ({} bytes dropped)",
+                         data.position(), path.getFileName(), data.remaining());
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(data.position());
+                    channel.force(true);
+                }
+            }
+        }
+        return lastLsn;
+    }
+    
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(WriteAheadLog::isSegment).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+    
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+    
+    private static Path segmentPath(Path directory, long firstLsn) {
+        // Zero-padded so lexical order is LSN order
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+    
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
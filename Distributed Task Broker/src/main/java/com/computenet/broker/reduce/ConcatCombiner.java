@@ -0,0 +1,70 @@
+package com.computenet.broker.reduce;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Joins results in sub-task order. Results that arrive before an earlier sub-task's are held
+ * back until the gap is filled, so only out-of-order results are kept separately.
+ */
+class ConcatCombiner implements ResultCombiner {
+
+    private final String spec;
+    private final String separator;
+    private final StringBuilder joined = new StringBuilder();
+    private final Map<Integer, String> waiting = new HashMap<>();
+    private int nextSubTaskId = 1;
+    private boolean empty = true;
+    
+    ConcatCombiner(String spec, String separator) {
+        this.spec = spec;
+        this.separator = separator;
+    }
+    
+    @Override
+    public void add(int subTaskId, String result) {
+        if (subTaskId != nextSubTaskId) {
+            waiting.put(subTaskId, result);
+            return;
+        }
+        append(result);
+        for (String next; (next = waiting.remove(nextSubTaskId)) != null; ) {
+            append(next);
+        }
+    }
+    
+    private void append(String result) {
+        if (!empty) {
+            joined.append(separator);
+        }
+        joined.append(result);
+        empty = false;
+        nextSubTaskId++;
+    }
+    
+    /** Results still waiting for an earlier one are appended after the contiguous part, in sub-task order. */
+    @Override
+    public String result() {
+        if (waiting.isEmpty()) {
+            return joined.toString();
+        }
+        StringBuilder result = new StringBuilder(joined);
+        waiting.keySet().stream().sorted().forEach(subTaskId -> {
+            if (result.length() > 0) {
+                result.append(separator);
+            }
+            result.append(waiting.get(subTaskId));
+        });
+        return result.toString();
+    }
+    
+    @Override
+    public String spec() {
+        return spec;
+    }
+    
+    @Override
+    public boolean keepsPartitions() {
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.computenet.broker.reduce;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges results that are each a sorted list of lines into one sorted list, as the last step
+ * of a distributed sort. Every arriving result is merged into the list so far in one pass.
+ * Lines are compared as text, or by their leading number when numeric (lines without one sort first).
+ */
+class MergeSortedCombiner implements ResultCombiner {
+
+    private final String spec;
+    private final Comparator<String> order;
+    private List<String> merged = new ArrayList<>();
+    
+    MergeSortedCombiner(String spec, boolean numeric) {
+        this.spec = spec;
+        this.order = numeric
+                ? Comparator.comparingDouble(MergeSortedCombiner::leadingNumber).thenComparing(Comparator.naturalOrder())
+                : Comparator.naturalOrder();
+    }
+    
+    @Override
+    public void add(int subTaskId, String result) {
+        List<String> lines = result.lines().filter(line -> !line.isEmpty()).toList();
+        List<String> next = new ArrayList<>(merged.size() + lines.size());
+        int i = 0;
+        int j = 0;
+        while (i < merged.size() && j < lines.size()) {
+            next.add(order.compare(merged.get(i), lines.get(j)) <= 0 ? merged.get(i++) : lines.get(j++));
+        }
+        next.addAll(merged.subList(i, merged.size()));
+        next.addAll(lines.subList(j, lines.size()));
+        merged = next;
+    }
+    
+    private static double leadingNumber(String line) {
+        String trimmed = line.strip();
+        int end = 0;
+        while (end < trimmed.length() && "+-.0123456789eE".indexOf(trimmed.charAt(end)) >= 0) {
+            end++;
+        }
+        try {
+            return Double.parseDouble(trimmed.substring(0, end));
+        } catch (NumberFormatException e) {
+            return Double.NEGATIVE_INFINITY;
+        }
+    }
+    
+    @Override
+    public String result() {
+        return String.join("\n", merged);
+    }
+    
+    @Override
+    public String spec() {
+        return spec;
+    }
+}
@@ -0,0 +1,59 @@
+package com.computenet.broker.reduce;
+
+import com.computenet.broker.storage.ResultRef;
+
+/**
+ * Reduction - The reduce stage of one task
+ * Feeds sub-task results to the task's ResultCombiner as they arrive and produces the
+ * aggregated result once every sub-task has been folded in. A result the combiner cannot
+ * take (a failed sub-task, or one of the wrong shape) fails the reduction; later results are
+ * then ignored and the aggregate is "FAILED: " followed by the reason, as failed sub-tasks report.
+ */
+public final class Reduction {
+
+    private final ResultCombiner combiner;
+    private final int totalSubTasks;
+    private int folded;
+    private String failure;
+    private volatile ResultRef aggregate;
+    
+    public Reduction(ResultCombiner combiner, int totalSubTasks) {
+        this.combiner = combiner;
+        this.totalSubTasks = totalSubTasks;
+    }
+    
+    /**
+     * Folds in one sub-task's result; the caller passes each sub-task's result once.
+     * @return the aggregated result if this was the last sub-task, otherwise null
+     */
+    public synchronized String fold(int subTaskId, String result) {
+        if (failure == null) {
+            if (result.startsWith("FAILED:")) {
+                failure = "sub-task " + subTaskId + " " + result;
+            } else {
+                try {
+                    combiner.add(subTaskId, result);
+                } catch (RuntimeException e) {
+                    failure = combiner.spec() + ": " + e.getMessage();
+                }
+            }
+        }
+        if (++folded < totalSubTasks) {
+            return null;
+        }
+        return failure != null ? "FAILED: " + failure : combiner.result();
+    }
+    
+    /** Location of the aggregated result in the ResultStore, or null until it is complete. */
+    public ResultRef aggregate() {
+        return aggregate;
+    }
+    
+    public void setAggregate(ResultRef aggregate) {
+        this.aggregate = aggregate;
+    }
+    
+    public String spec() {
+        return combiner.spec();
+    }
+}
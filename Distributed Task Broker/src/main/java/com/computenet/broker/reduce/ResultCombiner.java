@@ -0,0 +1,86 @@
+package com.computenet.broker.reduce;
+
+import java.util.ServiceLoader;
+
+/**
+ * ResultCombiner - Folds a task's sub-task results into one result as they arrive
+ * One instance per task, holding only what the combination needs so far (a running sum, the
+ * top K), not every partial result. TaskManager calls add() once per sub-task, in arrival
+ * order and never concurrently, and stores result() as the task's result after the last one.
+ *
+ * Specs, as given in the "Combine:" submission field, the TASK_UPLOAD "combine" attribute or
+ * the upload endpoint's combine parameter:
+ * <pre>
+ *   concat[:&lt;sep&gt;]        results in sub-task order, joined by sep (default \n; \n and \t escapes allowed)
+ *   sum                   numbers added up; JSON objects of numbers added up per key
+ *   merge-sorted[:numeric]  sorted lines merged into one sorted list, by leading number if numeric
+ *   top:&lt;k&gt;               the k highest-scoring items of JSON objects of numbers or "item score" lines
+ *   &lt;name&gt;[:&lt;arg&gt;]         a ResultCombinerFactory registered with ServiceLoader
+ * </pre>
+ */
+public interface ResultCombiner {
+
+    /** Folds in the result of one sub-task. */
+    void add(int subTaskId, String result);
+    
+    /** The combination of every result added so far. */
+    String result();
+    
+    /** The spec this combiner is parsed from, for the journal. */
+    String spec();
+    
+    /**
+     * Whether the combined result is the sub-task results side by side, so a consumer loses nothing by
+     * taking each one as it arrives instead of waiting for result(); WorkflowManager then streams them
+     * into the next stage.
+     */
+    default boolean keepsPartitions() {
+        return false;
+    }
+    
+    /**
+     * Creates a fresh combiner, with no results added yet.
+     * @throws IllegalArgumentException if the spec is not recognised
+     */
+    static ResultCombiner parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.equals("concat")) {
+            return new ConcatCombiner(trimmed, "\n");
+        }
+        if (trimmed.startsWith("concat:")) {
+            // Untrimmed, the separator itself may be whitespace
+            return new ConcatCombiner(trimmed, unescape(spec.substring(spec.indexOf("concat:") + "concat:".length())));
+        }
+        if (trimmed.equals("sum")) {
+            return new SumCombiner();
+        }
+        if (trimmed.equals("merge-sorted") || trimmed.equals("merge-sorted:numeric")) {
+            return new MergeSortedCombiner(trimmed, trimmed.endsWith(":numeric"));
+        }
+        if (trimmed.startsWith("top:")) {
+            try {
+                int k = Integer.parseInt(trimmed.substring("top:".length()).trim());
+                if (k < 1) {
+                    throw new IllegalArgumentException("top needs k >= 1: " + spec);
+                }
+                return new TopKCombiner(trimmed, k);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid k in '" + spec + "'");
+            }
+        }
+        
+        int colon = trimmed.indexOf(':');
+        String name = colon >= 0 ? trimmed.substring(0, colon) : trimmed;
+        String argument = colon >= 0 ? trimmed.substring(colon + 1) : null;
+        for (ResultCombinerFactory factory : ServiceLoader.load(ResultCombinerFactory.class)) {
+            if (factory.name().equals(name)) {
+                return factory.create(trimmed, argument);
+            }
+        }
+        throw new IllegalArgumentException("Unknown combine spec '" + spec + "'");
+    }
+    
+    private static String unescape(String value) {
+        return value.replace("\\n", "\n").replace("\\t", "\t").replace("\\r", "\r");
+    }
+}
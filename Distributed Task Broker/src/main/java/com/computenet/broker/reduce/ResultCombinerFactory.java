@@ -0,0 +1,19 @@
+package com.computenet.broker.reduce;
+
+/**
+ * ResultCombinerFactory - Adds a combiner to the ones ResultCombiner.parse() knows
+ * Found with ServiceLoader: list implementations in
+ * META-INF/services/com.computenet.broker.reduce.ResultCombinerFactory on the broker's classpath.
+ */
+public interface ResultCombinerFactory {
+
+    /** Name used in specs, the part before the first ':'. */
+    String name();
+    
+    /**
+     * @param spec     The whole spec, to be returned by the combiner's spec()
+     * @param argument What follows the first ':', or null if there is none
+     * @throws IllegalArgumentException if the argument is invalid
+     */
+    ResultCombiner create(String spec, String argument);
+}
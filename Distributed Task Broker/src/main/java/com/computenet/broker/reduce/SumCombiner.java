@@ -0,0 +1,76 @@
+package com.computenet.broker.reduce;
+
+import com.computenet.protocol.JsonCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adds up results that are numbers, or JSON objects of numbers (per key, e.g. word counts).
+ * Sums are exact decimals. The first result decides which kind the task produces.
+ */
+class SumCombiner implements ResultCombiner {
+
+    private BigDecimal total;
+    private Map<String, BigDecimal> totals;
+    
+    @Override
+    public void add(int subTaskId, String result) {
+        String trimmed = result.trim();
+        if (trimmed.startsWith("{")) {
+            addObject(subTaskId, trimmed);
+        } else {
+            if (totals != null) {
+                throw new IllegalArgumentException("Sub-task " + subTaskId + ": expected a JSON object, got '" + trimmed + "'");
+            }
+            try {
+                BigDecimal value = new BigDecimal(trimmed);
+                total = total != null ? total.add(value) : value;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Sub-task " + subTaskId + ": not a number: '" + trimmed + "'");
+            }
+        }
+    }
+    
+    private void addObject(int subTaskId, String json) {
+        if (total != null) {
+            throw new IllegalArgumentException("Sub-task " + subTaskId + ": expected a number, got a JSON object");
+        }
+        JsonNode node;
+        try {
+            node = JsonCodec.MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Sub-task " + subTaskId + ": invalid JSON: " + e.getOriginalMessage());
+        }
+        if (totals == null) {
+            totals = new TreeMap<>();
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().isNumber()) {
+                throw new IllegalArgumentException("Sub-task " + subTaskId + ": '" + field.getKey() + "' is not a number");
+            }
+            totals.merge(field.getKey(), field.getValue().decimalValue(), BigDecimal::add);
+        }
+    }
+    
+    @Override
+    public String result() {
+        if (totals != null) {
+            try {
+                return JsonCodec.MAPPER.writeValueAsString(totals);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return total != null ? total.toPlainString() : "0";
+    }
+    
+    @Override
+    public String spec() {
+        return "sum";
+    }
+}
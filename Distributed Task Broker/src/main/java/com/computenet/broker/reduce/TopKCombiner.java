@@ -0,0 +1,109 @@
+package com.computenet.broker.reduce;
+
+import com.computenet.protocol.JsonCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k highest-scoring items over all results, in a heap of k entries.
+ * Items are the entries of a JSON object of numbers (e.g. word counts) or lines ending in a
+ * number ("item score"). The result is a JSON object from highest to lowest score.
+ * An item that appears in several results has its scores added up while it is in the top k;
+ * scores of an item that dropped out are lost, so for exact totals the task should be split
+ * so that each item goes to one sub-task, e.g. with Split:hash.
+ */
+class TopKCombiner implements ResultCombiner {
+
+    private record Item(String name, double score) {}
+    
+    private static final Comparator<Item> BY_SCORE = Comparator.comparingDouble(Item::score)
+                                                               .thenComparing(Item::name, Comparator.reverseOrder());
+    
+    private final String spec;
+    private final int k;
+    private final PriorityQueue<Item> top = new PriorityQueue<>(BY_SCORE); // Lowest score first
+    private final Map<String, Item> byName = new HashMap<>();
+    
+    TopKCombiner(String spec, int k) {
+        this.spec = spec;
+        this.k = k;
+    }
+    
+    @Override
+    public void add(int subTaskId, String result) {
+        String trimmed = result.trim();
+        if (trimmed.startsWith("{")) {
+            JsonNode node;
+            try {
+                node = JsonCodec.MAPPER.readTree(trimmed);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Sub-task " + subTaskId + ": invalid JSON: " + e.getOriginalMessage());
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getValue().isNumber()) {
+                    offer(new Item(field.getKey(), field.getValue().doubleValue()));
+                }
+            }
+            return;
+        }
+        trimmed.lines().forEach(line -> {
+            int space = line.stripTrailing().lastIndexOf(' ');
+            if (space > 0) {
+                try {
+                    offer(new Item(line.substring(0, space).strip(), Double.parseDouble(line.substring(space + 1).strip())));
+                } catch (NumberFormatException e) {
+                    // Not an "item score" line
+                }
+            }
+        });
+    }
+    
+    private void offer(Item item) {
+        Item existing = byName.remove(item.name());
+        if (existing != null) {
+            top.remove(existing);
+            item = new Item(item.name(), existing.score() + item.score());
+        }
+        if (top.size() < k) {
+            add(item);
+        } else if (BY_SCORE.compare(item, top.peek()) > 0) {
+            byName.remove(top.poll().name());
+            add(item);
+        }
+    }
+    
+    private void add(Item item) {
+        top.add(item);
+        byName.put(item.name(), item);
+    }
+    
+    @Override
+    public String result() {
+        List<Item> items = new ArrayList<>(top);
+        items.sort(BY_SCORE.reversed());
+        Map<String, Object> ranked = new LinkedHashMap<>();
+        for (Item item : items) {
+            double score = item.score();
+            ranked.put(item.name(), score == Math.rint(score) && Math.abs(score) < 1e15 ? (Object) (long) score : score);
+        }
+        try {
+            return JsonCodec.MAPPER.writeValueAsString(ranked);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    @Override
+    public String spec() {
+        return spec;
+    }
+}
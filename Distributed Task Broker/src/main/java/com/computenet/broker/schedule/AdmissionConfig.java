@@ -0,0 +1,37 @@
+package com.computenet.broker.schedule;
+
+/**
+ * When AdmissionController turns new tasks away.
+ *
+ * @param maxOutstandingSubTasks Sub-tasks of accepted tasks that have no result yet
+ * @param maxQueuedTasks         Tasks waiting in the TaskScheduler plus jobs waiting for an executor thread
+ * @param maxHeapFraction        Share of the maximum heap still in use after the last garbage collection
+ * @param retryAfterMillis       Retry hint for a broker just past a limit; it grows with the overload
+ * @param maxRetryAfterMillis    Longest retry hint given
+ */
+public record AdmissionConfig(int maxOutstandingSubTasks, int maxQueuedTasks, double maxHeapFraction,
+                              long retryAfterMillis, long maxRetryAfterMillis) {
+    
+    public AdmissionConfig {
+        if (maxOutstandingSubTasks < 1 || maxQueuedTasks < 1 || maxHeapFraction <= 0 || maxHeapFraction > 1
+                || retryAfterMillis < 1 || maxRetryAfterMillis < retryAfterMillis) {
+            throw new IllegalArgumentException("Invalid admission settings: " + maxOutstandingSubTasks + " outstanding sub-tasks, "
+                    + maxQueuedTasks + " queued tasks, heap " + maxHeapFraction + ", retry after "
+                    + retryAfterMillis + "-" + maxRetryAfterMillis + " ms");
+        }
+    }
+    
+    /**
+     * Reads -Dbroker.admission.maxOutstandingSubTasks (default 10000), -Dbroker.admission.maxQueuedTasks
+     * (default 1000), -Dbroker.admission.maxHeapFraction (default 0.9), -Dbroker.admission.retryAfterMillis
+     * (default 1000) and -Dbroker.admission.maxRetryAfterMillis (default 30000).
+     */
+    public static AdmissionConfig fromSystemProperties() {
+        return new AdmissionConfig(
+            Integer.getInteger("broker.admission.maxOutstandingSubTasks", 10_000),
+            Integer.getInteger("broker.admission.maxQueuedTasks", 1000),
+            Double.parseDouble(System.getProperty("broker.admission.maxHeapFraction", "0.9")),
+            Long.getLong("broker.admission.retryAfterMillis", 1000L),
+            Long.getLong("broker.admission.maxRetryAfterMillis", 30_000L));
+    }
+}
@@ -0,0 +1,110 @@
+package com.computenet.broker.schedule;
+
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.util.RateLimitedLogger;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AdmissionController - Decides whether the broker takes on another task
+ * Checked on every submission path before the task is created, so an overloaded broker
+ * turns work away with a retry hint instead of letting its queues and heap grow without bound.
+ * A task is rejected when it would push the outstanding sub-tasks past the limit, when too
+ * many tasks are already waiting for the scheduler or an executor thread, or when the heap
+ * is nearly full after the last garbage collection; garbage not yet collected does not count.
+ * The retry hint grows with how far the broker is over the limit.
+ */
+public class AdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+    private static final RateLimitedLogger rejectLog = RateLimitedLogger.perSecond(log, 1);
+    
+    /** Why a task was turned away and how long the originator should wait before trying again. */
+    public record Rejection(String reason, long retryAfterMillis) {}
+    
+    private final AdmissionConfig config;
+    private final IntSupplier outstandingSubTasks;
+    private final IntSupplier queuedTasks;
+    private final List<MemoryPoolMXBean> heapPools;
+    private final Map<String, LongAdder> rejections = new HashMap<>();
+    
+    /**
+     * @param outstandingSubTasks Sub-tasks of accepted tasks without a result
+     * @param queuedTasks         Tasks not yet dispatched: in the TaskScheduler or waiting for an executor thread
+     */
+    public AdmissionController(AdmissionConfig config, IntSupplier outstandingSubTasks, IntSupplier queuedTasks,
+                               BrokerMetrics metrics) {
+        this.config = config;
+        this.outstandingSubTasks = outstandingSubTasks;
+        this.queuedTasks = queuedTasks;
+        this.heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+                .toList();
+        for (String limit : List.of("subtasks", "queue", "heap")) {
+            rejections.put(limit, new LongAdder());
+        }
+        metrics.counterFamily("broker_admission_rejected_total", "Tasks turned away by admission control", "limit",
+                              () -> {
+                                  Map<String, Long> values = new HashMap<>();
+                                  rejections.forEach((limit, count) -> values.put(limit, count.sum()));
+                                  return values;
+                              });
+    }
+    
+    /**
+     * @param subTaskCount Sub-tasks the new task asks for
+     * @return null if the task may be accepted, otherwise the reason and retry hint
+     */
+    public Rejection check(int subTaskCount) {
+        int outstanding = outstandingSubTasks.getAsInt();
+        // A task larger than the whole limit is still accepted by an idle broker
+        if (outstanding > 0 && outstanding + subTaskCount > config.maxOutstandingSubTasks()) {
+            return reject("subtasks", outstanding + " sub-tasks outstanding",
+                          (double) (outstanding + subTaskCount) / config.maxOutstandingSubTasks());
+        }
+        int queued = queuedTasks.getAsInt();
+        if (queued >= config.maxQueuedTasks()) {
+            return reject("queue", queued + " tasks waiting for dispatch", (double) (queued + 1) / config.maxQueuedTasks());
+        }
+        double heap = heapUsedAfterGc();
+        if (heap >= config.maxHeapFraction()) {
+            return reject("heap", String.format("%.0f%% of the heap in use", heap * 100), heap / config.maxHeapFraction());
+        }
+        return null;
+    }
+    
+    private Rejection reject(String limit, String reason, double overload) {
+        rejections.get(limit).increment();
+        long retryAfter = Math.min(Math.max((long) (config.retryAfterMillis() * overload), config.retryAfterMillis()),
+                                   config.maxRetryAfterMillis());
+        rejectLog.warn("AdmissionController: Rejecting task, {}; retry after {} ms", reason, retryAfter);
+        return new Rejection("Broker overloaded: " + reason, retryAfter);
+    }
+    
+    /** Share of the maximum heap in use after the last collection, or in use now if the JVM does not report that. */
+    private double heapUsedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = 0;
+        boolean measured = false;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+                measured = true;
+            }
+        }
+        if (!measured) {
+            used = runtime.totalMemory() - runtime.freeMemory();
+        }
+        return (double) used / runtime.maxMemory();
+    }
+}
@@ -0,0 +1,29 @@
+package com.computenet.broker.schedule;
+
+/**
+ * How LocalityPlacer trades waiting for a worker that holds a sub-task's data against sending the data elsewhere.
+ *
+ * @param enabled     False to place sub-tasks round-robin, as before workers advertised their caches
+ * @param delayMillis Longest a sub-task waits for a worker holding its data to have room
+ * @param maxPending  A worker with this many sub-tasks outstanding per compute slot has no room for another one
+ */
+public record LocalityConfig(boolean enabled, long delayMillis, int maxPending) {
+
+    public LocalityConfig {
+        if (delayMillis < 0 || maxPending < 1) {
+            throw new IllegalArgumentException("Invalid locality settings: delay " + delayMillis + " ms, "
+                    + maxPending + " pending sub-tasks");
+        }
+    }
+    
+    /**
+     * Reads -Dbroker.locality.enabled (default true), -Dbroker.locality.delayMillis (default 500)
+     * and -Dbroker.locality.maxPending (default 2).
+     */
+    public static LocalityConfig fromSystemProperties() {
+        return new LocalityConfig(
+            Boolean.parseBoolean(System.getProperty("broker.locality.enabled", "true")),
+            Long.getLong("broker.locality.delayMillis", 500L),
+            Integer.getInteger("broker.locality.maxPending", 2));
+    }
+}
@@ -0,0 +1,161 @@
+package com.computenet.broker.schedule;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.WireMessage;
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LocalityPlacer - Places sub-tasks on workers that already hold their data
+ * Payload-cache workers list the data they hold in their heartbeats, and TaskManager adds the data
+ * they acknowledge in between. A sub-task whose data some workers hold goes to the least loaded of
+ * them that has room, where the SUBTASK_REF hits the cache and the data is not sent at all.
+ *
+ * If all of them are full, the sub-task waits for one to catch up, but only for delayMillis: delay
+ * scheduling, since a worker holding the data usually frees up sooner than it takes to ship the data
+ * and run the sub-task from scratch. After that it goes to the least loaded worker. Sub-tasks whose
+ * data no worker holds go to the least loaded worker at once.
+ *
+ * Load is pending sub-tasks per compute slot the worker reported, so a worker with eight threads
+ * takes eight times the sub-tasks of a single-threaded one before it counts as equally busy.
+ */
+public class LocalityPlacer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalityPlacer.class);
+    
+    // How often a waiting sub-task looks for room on the workers holding its data
+    private static final long RECHECK_MILLIS = 10;
+    
+    private final TaskManager taskManager;
+    private final LocalityConfig config;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder localPlacements = new LongAdder();
+    private final LongAdder fallbackPlacements = new LongAdder();
+    private final LongAdder uncachedPlacements = new LongAdder();
+    
+    public LocalityPlacer(TaskManager taskManager, LocalityConfig config, BrokerMetrics metrics) {
+        this.taskManager = taskManager;
+        this.config = config;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "locality-placer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.counterFamily("broker_locality_placements_total",
+                              "Sub-tasks placed: on a worker holding their data, elsewhere after the delay, or with no holder",
+                              "outcome", () -> Map.of("local", localPlacements.sum(), "fallback", fallbackPlacements.sum(),
+                                                      "uncached", uncachedPlacements.sum()));
+        metrics.gauge("broker_locality_waiting_subtasks", "Sub-tasks waiting for a worker holding their data to have room",
+                      waiting::get);
+        log.info("LocalityPlacer: {}", config.enabled()
+                 ? "waiting up to " + config.delayMillis() + " ms for a worker with the data and fewer than "
+                   + config.maxPending() + " pending sub-tasks per slot"
+                 : "off, sub-tasks placed round-robin");
+    }
+    
+    /**
+     * Chooses a worker for a sub-task, assigns the sub-task to it in TaskManager and hands it to dispatch.
+     * dispatch runs on the calling thread, or on the placer's thread if the sub-task had to wait, so it
+     * must not block.
+     *
+     * @param payloadHash Content hash of the sub-task's data
+     * @param workers     The workers to choose from, not empty
+     */
+    public void place(int taskId, int subTaskId, String payloadHash, List<TaskManager.WorkerDetails> workers,
+                      Consumer<TaskManager.WorkerDetails> dispatch) {
+        if (!config.enabled()) {
+            assign(taskId, subTaskId, workers.get((subTaskId - 1) % workers.size()), dispatch);
+            return;
+        }
+        List<TaskManager.WorkerDetails> holders = workers.stream()
+                .filter(worker -> worker.supports(WireMessage.FEATURE_PAYLOAD_CACHE)
+                                  && taskManager.holdsPayload(worker.key(), payloadHash))
+                .toList();
+        if (holders.isEmpty()) {
+            uncachedPlacements.increment();
+            assign(taskId, subTaskId, leastLoaded(workers), dispatch);
+            return;
+        }
+        TaskManager.WorkerDetails holder = withRoom(holders);
+        if (holder != null || config.delayMillis() == 0) {
+            placeOnHolder(taskId, subTaskId, holder, workers, dispatch);
+            return;
+        }
+        waiting.incrementAndGet();
+        log.debug("LocalityPlacer: Sub-task {} of task {} waits for one of {} workers holding its data",
+                  subTaskId, taskId, holders.size());
+        recheck(taskId, subTaskId, holders, workers, dispatch,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.delayMillis()));
+    }
+    
+    private void recheck(int taskId, int subTaskId, List<TaskManager.WorkerDetails> holders,
+                         List<TaskManager.WorkerDetails> workers, Consumer<TaskManager.WorkerDetails> dispatch,
+                         long giveUpAt) {
+        timer.schedule(() -> {
+            TaskManager.WorkerDetails holder = withRoom(holders);
+            if (holder == null && System.nanoTime() - giveUpAt < 0) {
+                recheck(taskId, subTaskId, holders, workers, dispatch, giveUpAt);
+                return;
+            }
+            waiting.decrementAndGet();
+            placeOnHolder(taskId, subTaskId, holder, workers, dispatch);
+        }, Math.min(RECHECK_MILLIS, config.delayMillis()), TimeUnit.MILLISECONDS);
+    }
+    
+    /** Places the sub-task on the holder, or on the least loaded worker if no holder had room in time. */
+    private void placeOnHolder(int taskId, int subTaskId, TaskManager.WorkerDetails holder,
+                               List<TaskManager.WorkerDetails> workers, Consumer<TaskManager.WorkerDetails> dispatch) {
+        if (holder != null) {
+            localPlacements.increment();
+            assign(taskId, subTaskId, holder, dispatch);
+        } else {
+            fallbackPlacements.increment();
+            assign(taskId, subTaskId, leastLoaded(workers), dispatch);
+        }
+    }
+    
+    private void assign(int taskId, int subTaskId, TaskManager.WorkerDetails worker,
+                        Consumer<TaskManager.WorkerDetails> dispatch) {
+        taskManager.assignSubTaskToWorker(worker.key(), taskId, subTaskId);
+        dispatch.accept(worker);
+    }
+    
+    /** The least loaded of the workers with fewer than maxPending sub-tasks outstanding per slot, or null. */
+    private TaskManager.WorkerDetails withRoom(List<TaskManager.WorkerDetails> workers) {
+        TaskManager.WorkerDetails best = null;
+        double bestLoad = config.maxPending();
+        for (TaskManager.WorkerDetails worker : workers) {
+            double load = taskManager.getWorkerLoad(worker.key());
+            if (load < bestLoad) {
+                best = worker;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+    
+    /** Ties go to the earlier worker in the list, so idle workers are filled in turn. */
+    private TaskManager.WorkerDetails leastLoaded(List<TaskManager.WorkerDetails> workers) {
+        return workers.stream()
+                .min(Comparator.comparingDouble(worker -> taskManager.getWorkerLoad(worker.key())))
+                .orElseThrow();
+    }
+    
+    /** Stops placing waiting sub-tasks; they are not dispatched. */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
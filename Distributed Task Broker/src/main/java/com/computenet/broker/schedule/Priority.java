@@ -0,0 +1,38 @@
+package com.computenet.broker.schedule;
+
+import java.util.Locale;
+
+/**
+ * Priority class of a task, given as "Priority:" on the submission line, the TASK_UPLOAD "priority"
+ * attribute or the upload endpoint's priority parameter. A queued task of a higher class is always
+ * dispatched before any of a lower one; tenants share each class by weight.
+ */
+public enum Priority {
+    /** Latency-sensitive work; not held back by the broker-wide in-flight limit. */
+    INTERACTIVE,
+    NORMAL,
+    /** Throughput work that only runs when nothing else is waiting. */
+    BULK;
+    
+    public static final Priority DEFAULT = NORMAL;
+    
+    /**
+     * @return the class with this name, ignoring case; DEFAULT for null
+     * @throws IllegalArgumentException if there is no such class
+     */
+    public static Priority parse(String name) {
+        if (name == null) {
+            return DEFAULT;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown priority '" + name + "', expected interactive, normal or bulk");
+        }
+    }
+    
+    /** Name as used in submissions and metric labels. */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,68 @@
+package com.computenet.broker.schedule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How TaskScheduler shares the broker between tenants.
+ *
+ * @param dispatchSlots         Tasks being split and handed to workers at once; the rest wait in the scheduler's queues
+ * @param maxInFlight           Dispatched tasks not yet completed, over all tenants; INTERACTIVE tasks may exceed it
+ * @param tenantMaxInFlight     Dispatched tasks not yet completed, per tenant
+ * @param inFlightTimeoutMillis Time after which a dispatched task stops counting as in flight even if it never completes
+ * @param weights               Share of each named tenant relative to the others; tenants not listed have weight 1
+ */
+public record SchedulerConfig(int dispatchSlots, int maxInFlight, int tenantMaxInFlight, long inFlightTimeoutMillis,
+                              Map<String, Double> weights) {
+    
+    /** Tenant of submissions that do not name one. */
+    public static final String DEFAULT_TENANT = "default";
+    
+    public SchedulerConfig {
+        if (dispatchSlots < 1 || maxInFlight < 1 || tenantMaxInFlight < 1 || inFlightTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid scheduler settings: " + dispatchSlots + " dispatch slots, "
+                    + maxInFlight + " in flight, " + tenantMaxInFlight + " per tenant, timeout " + inFlightTimeoutMillis + " ms");
+        }
+        weights = Map.copyOf(weights);
+    }
+    
+    /**
+     * Reads -Dbroker.scheduler.dispatchSlots (default 4), -Dbroker.scheduler.maxInFlight (default 256),
+     * -Dbroker.scheduler.tenantMaxInFlight (default 32), -Dbroker.scheduler.inFlightTimeoutMillis
+     * (default 600000) and -Dbroker.scheduler.weights, e.g. "web:4,batch:1".
+     */
+    public static SchedulerConfig fromSystemProperties() {
+        return new SchedulerConfig(
+            Integer.getInteger("broker.scheduler.dispatchSlots", 4),
+            Integer.getInteger("broker.scheduler.maxInFlight", 256),
+            Integer.getInteger("broker.scheduler.tenantMaxInFlight", 32),
+            Long.getLong("broker.scheduler.inFlightTimeoutMillis", 600_000L),
+            parseWeights(System.getProperty("broker.scheduler.weights", ""))
+        );
+    }
+    
+    /** @throws IllegalArgumentException unless every entry is tenant:weight with a positive weight */
+    static Map<String, Double> parseWeights(String spec) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            try {
+                double weight = Double.parseDouble(entry.substring(colon + 1).trim());
+                if (colon <= 0 || !(weight > 0)) {
+                    throw new NumberFormatException();
+                }
+                weights.put(entry.substring(0, colon).trim(), weight);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid tenant weight '" + entry + "', expected tenant:weight");
+            }
+        }
+        return weights;
+    }
+    
+    public double weight(String tenant) {
+        return weights.getOrDefault(tenant, 1.0);
+    }
+}
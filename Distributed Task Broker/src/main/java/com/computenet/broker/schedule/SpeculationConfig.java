@@ -0,0 +1,38 @@
+package com.computenet.broker.schedule;
+
+/**
+ * When StragglerMonitor sends a sub-task to a second worker.
+ *
+ * @param enabled          False to only enforce deadlines, without speculative copies
+ * @param quantile         Share of a task's sub-tasks that must have a result before the others are judged
+ * @param slowdown         A sub-task running this many times the median time of its task's finished ones is a straggler
+ * @param minRuntimeMillis Sub-tasks running for less than this are never copied, however fast the others were
+ * @param maxCopies        Extra copies of one sub-task at most
+ * @param intervalMillis   How often running tasks and deadlines are checked; sub-task times are measured to this precision
+ */
+public record SpeculationConfig(boolean enabled, double quantile, double slowdown, long minRuntimeMillis, int maxCopies,
+                                long intervalMillis) {
+    
+    public SpeculationConfig {
+        if (quantile <= 0 || quantile > 1 || slowdown < 1 || minRuntimeMillis < 0 || maxCopies < 0 || intervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid speculation settings: quantile " + quantile + ", slowdown "
+                    + slowdown + ", min runtime " + minRuntimeMillis + " ms, " + maxCopies + " copies, interval "
+                    + intervalMillis + " ms");
+        }
+    }
+    
+    /**
+     * Reads -Dbroker.speculation.enabled (default true), -Dbroker.speculation.quantile (default 0.75),
+     * -Dbroker.speculation.slowdown (default 1.5), -Dbroker.speculation.minRuntimeMillis (default 1000),
+     * -Dbroker.speculation.maxCopies (default 1) and -Dbroker.speculation.intervalMillis (default 200).
+     */
+    public static SpeculationConfig fromSystemProperties() {
+        return new SpeculationConfig(
+            Boolean.parseBoolean(System.getProperty("broker.speculation.enabled", "true")),
+            Double.parseDouble(System.getProperty("broker.speculation.quantile", "0.75")),
+            Double.parseDouble(System.getProperty("broker.speculation.slowdown", "1.5")),
+            Long.getLong("broker.speculation.minRuntimeMillis", 1000L),
+            Integer.getInteger("broker.speculation.maxCopies", 1),
+            Long.getLong("broker.speculation.intervalMillis", 200L));
+    }
+}
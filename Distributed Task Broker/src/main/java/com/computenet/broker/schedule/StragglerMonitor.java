@@ -0,0 +1,327 @@
+package com.computenet.broker.schedule;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.util.RateLimitedLogger;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StragglerMonitor - Enforces task deadlines and re-runs slow sub-tasks on idle workers
+ * A task is only as fast as its slowest sub-task, so one overloaded or failing worker can hold up a
+ * task whose other sub-tasks finished long ago. Every dispatched task is watched until its last
+ * result: once the configured share of its sub-tasks has reported, an outstanding sub-task that has
+ * been running for longer than slowdown times the median of the finished ones is sent again to an
+ * idle worker, slowest first. TaskManager keeps only the first result of a sub-task, and the workers
+ * still running other copies are told to CANCEL theirs.
+ *
+ * A task with a deadline is copied sooner: once less than two median sub-task times are left, any
+ * sub-task slower than the median is copied, so the copy can still finish in time. When the deadline
+ * passes, TaskManager fails the missing sub-tasks, which completes the task and answers its waiters,
+ * and every copy still running is cancelled.
+ */
+public class StragglerMonitor implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StragglerMonitor.class);
+    private static final RateLimitedLogger copyLog = RateLimitedLogger.perSecond(log, 5);
+    
+    /** How copies of a tracked task's sub-tasks are sent and withdrawn; provided by TaskSubmissionHandler. */
+    public interface SubTaskLauncher {
+        /** Whether the worker can be sent this task's sub-tasks at all, e.g. streamed ones need the binary protocol. */
+        boolean canRun(TaskManager.WorkerDetails worker);
+        
+        /** Sends another copy of the sub-task to the worker, which it is already assigned to; returns at once. */
+        void launch(int subTaskId, TaskManager.WorkerDetails worker);
+        
+        /** Tells the worker to drop its copy of the sub-task; returns at once. */
+        void cancel(int subTaskId, TaskManager.WorkerDetails worker);
+        
+        /** The task is no longer tracked and no more copies are launched, e.g. spooled input may be deleted. */
+        void release();
+    }
+    
+    /** A worker running a sub-task since startedAt, System.nanoTime() of its ACK or, for a copy, of its launch. */
+    private record Copy(TaskManager.WorkerDetails worker, long startedAt, boolean speculative) {}
+    
+    /** A dispatched task being watched, guarded by the monitor's lock. */
+    private static final class TrackedTask {
+        final int taskId;
+        final int totalSubTasks;
+        final long deadline;
+        final SubTaskLauncher launcher;
+        final long trackedAt = System.nanoTime();
+        final Map<Integer, List<Copy>> copies = new HashMap<>(); // Acknowledged copies of sub-tasks without a result
+        final Set<Integer> done = new HashSet<>();
+        final Set<Integer> settling = new HashSet<>(); // Have a result, but the copy that sent it is not known yet
+        final Set<String> refused = new HashSet<>(); // Workers a copy could not be sent to
+        final List<Long> durations = new ArrayList<>(); // Of the done sub-tasks, in nanoseconds
+        
+        TrackedTask(int taskId, int totalSubTasks, long deadline, SubTaskLauncher launcher) {
+            this.taskId = taskId;
+            this.totalSubTasks = totalSubTasks;
+            this.deadline = deadline;
+            this.launcher = launcher;
+        }
+    }
+    
+    private final TaskManager taskManager;
+    private final SpeculationConfig config;
+    private final ScheduledExecutorService timer;
+    private final Map<Integer, TrackedTask> tasks = new HashMap<>(); // Guarded by this
+    private final LongAdder copiesLaunched = new LongAdder();
+    private final LongAdder copiesWon = new LongAdder();
+    private final LongAdder cancels = new LongAdder();
+    private final LongAdder deadlinesMissed = new LongAdder();
+    
+    public StragglerMonitor(TaskManager taskManager, SpeculationConfig config, BrokerMetrics metrics) {
+        this.taskManager = taskManager;
+        this.config = config;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "straggler-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.counter("broker_speculative_copies_total", "Sub-tasks sent to a second worker because the first was slow",
+                        copiesLaunched::sum);
+        metrics.counter("broker_speculative_wins_total", "Speculative copies that delivered their sub-task's result first",
+                        copiesWon::sum);
+        metrics.counter("broker_subtask_cancels_total", "Sub-task copies withdrawn after another copy won or the deadline passed",
+                        cancels::sum);
+        metrics.counter("broker_task_deadlines_missed_total", "Tasks still unfinished at their deadline",
+                        deadlinesMissed::sum);
+        metrics.gauge("broker_straggler_tracked_tasks", "Dispatched tasks watched for stragglers", this::trackedCount);
+    }
+    
+    public void start() {
+        timer.scheduleWithFixedDelay(this::tick, config.intervalMillis(), config.intervalMillis(), TimeUnit.MILLISECONDS);
+        log.info("StragglerMonitor: Checking every {} ms, speculation {}", config.intervalMillis(),
+                 config.enabled() ? "after " + config.quantile() * 100 + "% of sub-tasks, at " + config.slowdown()
+                                    + "x the median, " + config.maxCopies() + " copies" : "off");
+    }
+    
+    /**
+     * Starts watching a task that is being dispatched; called before its sub-tasks go out.
+     * The launcher is released once every sub-task has a result, the deadline has passed, or
+     * TaskManager.MAX_AWAIT_MILLIS have gone by.
+     */
+    public synchronized void track(int taskId, int totalSubTasks, SubTaskLauncher launcher) {
+        TrackedTask previous = tasks.put(taskId, new TrackedTask(taskId, totalSubTasks, taskManager.getTaskDeadline(taskId),
+                                                                 launcher));
+        if (previous != null) {
+            previous.launcher.release();
+        }
+    }
+    
+    /** A worker acknowledged a sub-task, so it counts as running there from now on. */
+    public synchronized void started(int taskId, int subTaskId, TaskManager.WorkerDetails worker) {
+        TrackedTask task = tasks.get(taskId);
+        if (task == null || task.done.contains(subTaskId)) {
+            return;
+        }
+        List<Copy> copies = task.copies.computeIfAbsent(subTaskId, id -> new ArrayList<>());
+        if (copies.stream().noneMatch(copy -> copy.worker().key().equals(worker.key()))) {
+            copies.add(new Copy(worker, System.nanoTime(), false));
+        }
+    }
+    
+    /** A copy could not be sent; the worker is not tried again for this task. */
+    public synchronized void launchFailed(int taskId, int subTaskId, TaskManager.WorkerDetails worker) {
+        taskManager.releaseSubTask(worker.key(), taskId, subTaskId);
+        TrackedTask task = tasks.get(taskId);
+        if (task == null) {
+            return;
+        }
+        task.refused.add(worker.key());
+        List<Copy> copies = task.copies.get(subTaskId);
+        if (copies != null) {
+            copies.removeIf(copy -> copy.speculative() && copy.worker().key().equals(worker.key()));
+        }
+    }
+    
+    private void tick() {
+        try {
+            List<Runnable> actions = new ArrayList<>(); // Network calls, made after the lock is released
+            List<Integer> expired = taskManager.expireOverdueTasks();
+            deadlinesMissed.add(expired.size());
+            synchronized (this) {
+                for (int taskId : expired) {
+                    TrackedTask task = tasks.remove(taskId);
+                    if (task != null) {
+                        abandon(task, actions);
+                    }
+                }
+                long now = System.nanoTime();
+                List<TaskManager.WorkerDetails> workers = tasks.isEmpty() ? List.of() : taskManager.getAvailableWorkers();
+                Set<String> claimed = new HashSet<>(); // Workers sent a copy in this round
+                for (Iterator<TrackedTask> it = tasks.values().iterator(); it.hasNext(); ) {
+                    TrackedTask task = it.next();
+                    if (collectResults(task, now, actions)) {
+                        it.remove();
+                        actions.add(task.launcher::release);
+                    } else if (now - task.trackedAt > TimeUnit.MILLISECONDS.toNanos(TaskManager.MAX_AWAIT_MILLIS)) {
+                        log.warn("StragglerMonitor: Task {} not completed after {} ms, no longer watched", task.taskId,
+                                 TaskManager.MAX_AWAIT_MILLIS);
+                        it.remove();
+                        abandon(task, actions);
+                    } else if (config.enabled()) {
+                        speculate(task, now, workers, claimed, actions);
+                    }
+                }
+            }
+            for (Runnable action : actions) {
+                action.run();
+            }
+        } catch (RuntimeException e) {
+            // Keeps the scheduled check alive
+            log.error("StragglerMonitor: Check failed", e);
+        }
+    }
+    
+    /**
+     * Moves sub-tasks that have a result to done, recording how long they took, and cancels the other copies.
+     * @return true once every sub-task of the task is done
+     */
+    private boolean collectResults(TrackedTask task, long now, List<Runnable> actions) {
+        for (int subTaskId = 1; subTaskId <= task.totalSubTasks; subTaskId++) {
+            if (task.done.contains(subTaskId) || !taskManager.hasSubTaskResult(task.taskId, subTaskId)) {
+                continue;
+            }
+            List<Copy> copies = task.copies.getOrDefault(subTaskId, List.of());
+            // The copy that reported has been released by its completion, the others still hold the sub-task
+            List<Copy> losers = new ArrayList<>();
+            for (Copy copy : copies) {
+                if (taskManager.isSubTaskAssigned(copy.worker().key(), task.taskId, subTaskId)) {
+                    losers.add(copy);
+                }
+            }
+            // A worker's completion is recorded just after its result; give it one more round to arrive
+            if (copies.size() > 1 && losers.size() == copies.size() && task.settling.add(subTaskId)) {
+                continue;
+            }
+            task.done.add(subTaskId);
+            task.settling.remove(subTaskId);
+            task.copies.remove(subTaskId);
+            task.durations.add(now - earliestStart(task, copies));
+            if (copies.size() > 1) {
+                for (Copy copy : copies) {
+                    if (losers.contains(copy)) {
+                        cancel(task, subTaskId, copy, actions);
+                    } else if (copy.speculative()) {
+                        copiesWon.increment();
+                        copyLog.info("StragglerMonitor: Copy of sub-task {} of task {} on {} finished first",
+                                     subTaskId, task.taskId, copy.worker().key());
+                    }
+                }
+            }
+        }
+        return task.done.size() >= task.totalSubTasks;
+    }
+    
+    /** Sends copies of the task's stragglers to idle workers, the longest-running first. */
+    private void speculate(TrackedTask task, long now, List<TaskManager.WorkerDetails> workers, Set<String> claimed,
+                           List<Runnable> actions) {
+        if (task.durations.isEmpty()) {
+            return;
+        }
+        long median = median(task.durations);
+        boolean urgent = task.deadline > 0
+                         && TimeUnit.MILLISECONDS.toNanos(task.deadline - System.currentTimeMillis()) < 2 * median;
+        if (!urgent && task.done.size() < Math.ceil(config.quantile() * task.totalSubTasks)) {
+            return;
+        }
+        long threshold = urgent
+                ? median
+                : Math.max((long) (config.slowdown() * median), TimeUnit.MILLISECONDS.toNanos(config.minRuntimeMillis()));
+        
+        List<Integer> stragglers = new ArrayList<>();
+        task.copies.forEach((subTaskId, copies) -> {
+            long speculative = copies.stream().filter(Copy::speculative).count();
+            if (!copies.isEmpty() && !task.settling.contains(subTaskId) && speculative < config.maxCopies()
+                    && now - earliestStart(task, copies) > threshold) {
+                stragglers.add(subTaskId);
+            }
+        });
+        stragglers.sort(Comparator.comparingLong(subTaskId -> earliestStart(task, task.copies.get(subTaskId))));
+        
+        for (int subTaskId : stragglers) {
+            TaskManager.WorkerDetails worker = idleWorker(task, workers, claimed);
+            if (worker == null) {
+                return;
+            }
+            claimed.add(worker.key());
+            taskManager.assignSubTaskToWorker(worker.key(), task.taskId, subTaskId);
+            task.copies.get(subTaskId).add(new Copy(worker, now, true));
+            copiesLaunched.increment();
+            copyLog.info("StragglerMonitor: Sub-task {} of task {} running for {} ms (median {} ms), copy sent to {}",
+                         subTaskId, task.taskId, TimeUnit.NANOSECONDS.toMillis(now - earliestStart(task, task.copies.get(subTaskId))),
+                         TimeUnit.NANOSECONDS.toMillis(median), worker.key());
+            actions.add(() -> task.launcher.launch(subTaskId, worker));
+        }
+    }
+    
+    /** A worker without pending sub-tasks that can run the task and was not sent a copy in this round, or null. */
+    private TaskManager.WorkerDetails idleWorker(TrackedTask task, List<TaskManager.WorkerDetails> workers,
+                                                 Set<String> claimed) {
+        for (TaskManager.WorkerDetails worker : workers) {
+            if (!claimed.contains(worker.key()) && !task.refused.contains(worker.key()) && task.launcher.canRun(worker)
+                    && taskManager.getWorkerPendingSubTasks(worker.key()) == 0) {
+                return worker;
+            }
+        }
+        return null;
+    }
+    
+    /** Cancels every copy still running and releases the task. */
+    private void abandon(TrackedTask task, List<Runnable> actions) {
+        task.copies.forEach((subTaskId, copies) -> {
+            for (Copy copy : copies) {
+                if (taskManager.isSubTaskAssigned(copy.worker().key(), task.taskId, subTaskId)) {
+                    cancel(task, subTaskId, copy, actions);
+                }
+            }
+        });
+        actions.add(task.launcher::release);
+    }
+    
+    private void cancel(TrackedTask task, int subTaskId, Copy copy, List<Runnable> actions) {
+        taskManager.releaseSubTask(copy.worker().key(), task.taskId, subTaskId);
+        cancels.increment();
+        actions.add(() -> task.launcher.cancel(subTaskId, copy.worker()));
+    }
+    
+    /** When the sub-task started on its first worker; the task's dispatch if no worker has acknowledged it yet. */
+    private static long earliestStart(TrackedTask task, List<Copy> copies) {
+        return copies.stream().mapToLong(Copy::startedAt).min().orElse(task.trackedAt);
+    }
+    
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+    
+    /** Tasks being watched, as shown on /metrics. */
+    public synchronized int trackedCount() {
+        return tasks.size();
+    }
+    
+    /** Stops checking; tracked tasks keep their copies and deadlines are no longer enforced. */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,251 @@
+package com.computenet.broker.schedule;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.metrics.LatencyHistogram;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TaskScheduler - Decides which accepted task is dispatched next
+ * Sits between TaskManager.createTask and TaskSubmissionHandler, so a tenant submitting bulk work
+ * cannot hold up another tenant's interactive tasks. Accepted tasks wait in one FIFO queue per
+ * tenant and priority class; whenever one of the dispatch slots is free, the scheduler thread hands
+ * the next task to the executor.
+ *
+ * The next task comes from the highest priority class that has one allowed to run. Within a class,
+ * tenants share by weighted fair queuing: on arrival a task is tagged with a virtual finish time,
+ * start + cost / weight, where cost is its sub-task count and start is the later of the class's
+ * virtual time and the tenant's previous tag. The smallest tag runs first, so backlogged tenants get
+ * sub-tasks in proportion to their weights, and a tenant that was idle cannot claim the time it missed.
+ *
+ * A task is in flight from its dispatch until TaskManager reports it complete. A tenant at its
+ * in-flight limit waits while others run, and once the broker-wide limit is reached only INTERACTIVE
+ * tasks are dispatched.
+ *
+ * A tenant is forgotten once it has nothing queued or in flight, so tenant names, which come from
+ * submitters, do not pile up. Nothing is lost: its last tag is already behind the virtual time.
+ */
+public class TaskScheduler implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskScheduler.class);
+    
+    private record QueuedTask(int taskId, Tenant tenant, Priority priority, double finishTag, long enqueuedAt,
+                              BooleanSupplier dispatch) {}
+    
+    /** Queues and counters of one submitter, guarded by the scheduler's lock. */
+    private static final class Tenant {
+        final String name;
+        final double weight;
+        final Map<Priority, ArrayDeque<QueuedTask>> queues = new EnumMap<>(Priority.class);
+        final double[] lastFinishTag = new double[Priority.values().length];
+        int queued;
+        int inFlight;
+        long dispatched;
+        
+        Tenant(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+    
+    /** Per-tenant view, as shown on /api/scheduler. */
+    public record TenantStats(String tenant, double weight, int queued, int inFlight, long dispatched) {}
+    
+    private final TaskManager taskManager;
+    private final Executor executor;
+    private final SchedulerConfig config;
+    private final Semaphore dispatchSlots;
+    private final Map<String, LatencyHistogram> queueWait;
+    private final Thread thread;
+    
+    // Guarded by this
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+    private final double[] virtualTime = new double[Priority.values().length];
+    private int inFlight;
+    private int queued;
+    
+    /**
+     * @param executor Runs the dispatches; a slot is held until the dispatch returns
+     */
+    public TaskScheduler(TaskManager taskManager, Executor executor, SchedulerConfig config, BrokerMetrics metrics) {
+        this.taskManager = taskManager;
+        this.executor = executor;
+        this.config = config;
+        this.dispatchSlots = new Semaphore(config.dispatchSlots());
+        this.queueWait = metrics.histogramFamily("broker_scheduler_queue_wait_seconds",
+                "Time from a task's acceptance to its dispatch", "class",
+                Arrays.stream(Priority.values()).map(Priority::label).toList());
+        metrics.gaugeFamily("broker_scheduler_queued_tasks", "Accepted tasks waiting to be dispatched", "tenant",
+                            () -> perTenant(TenantStats::queued));
+        metrics.gaugeFamily("broker_scheduler_inflight_tasks", "Dispatched tasks not yet completed", "tenant",
+                            () -> perTenant(TenantStats::inFlight));
+        metrics.counterFamily("broker_scheduler_dispatched_tasks_total", "Tasks dispatched", "tenant",
+                              () -> perTenant(TenantStats::dispatched));
+        this.thread = new Thread(this::run, "task-scheduler");
+        this.thread.setDaemon(true);
+    }
+    
+    public void start() {
+        thread.start();
+        log.info("TaskScheduler: {} dispatch slots, {} tasks in flight ({} per tenant), weights {}",
+                 config.dispatchSlots(), config.maxInFlight(), config.tenantMaxInFlight(), config.weights());
+    }
+    
+    /**
+     * Queues an accepted task for dispatch.
+     *
+     * @param tenant   Submitter identity, null or blank for SchedulerConfig.DEFAULT_TENANT
+     * @param cost     The task's share of work for fair queuing, its sub-task count
+     * @param dispatch Splits the task and hands it to workers, on an executor thread; returns false
+     *                 if it could not be dispatched at all, which ends its time in flight at once
+     */
+    public synchronized void submit(int taskId, String tenant, Priority priority, int cost, BooleanSupplier dispatch) {
+        String name = tenant != null && !tenant.isBlank() ? tenant.trim() : SchedulerConfig.DEFAULT_TENANT;
+        Tenant owner = tenants.computeIfAbsent(name, key -> new Tenant(key, config.weight(key)));
+        int c = priority.ordinal();
+        double finishTag = Math.max(virtualTime[c], owner.lastFinishTag[c]) + Math.max(cost, 1) / owner.weight;
+        owner.lastFinishTag[c] = finishTag;
+        owner.queues.computeIfAbsent(priority, p -> new ArrayDeque<>())
+             .add(new QueuedTask(taskId, owner, priority, finishTag, System.nanoTime(), dispatch));
+        owner.queued++;
+        queued++;
+        notifyAll();
+    }
+    
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                dispatchSlots.acquire();
+                QueuedTask task = take();
+                try {
+                    executor.execute(() -> dispatch(task));
+                } catch (RejectedExecutionException e) {
+                    log.warn("TaskScheduler: Executor shut down, task {} not dispatched", task.taskId());
+                    dispatchSlots.release();
+                    release(task.tenant());
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    private void dispatch(QueuedTask task) {
+        queueWait.get(task.priority().label()).recordSince(task.enqueuedAt());
+        boolean dispatched = false;
+        try {
+            dispatched = task.dispatch().getAsBoolean();
+        } catch (RuntimeException e) {
+            log.error("TaskScheduler: Dispatch of task {} failed", task.taskId(), e);
+        } finally {
+            dispatchSlots.release();
+        }
+        CompletableFuture<Integer> completion = dispatched ? taskManager.awaitCompletion(task.taskId()) : null;
+        if (completion == null) {
+            release(task.tenant());
+            return;
+        }
+        completion.copy()
+            .orTimeout(config.inFlightTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((taskId, error) -> {
+                if (error != null) {
+                    log.warn("TaskScheduler: Task {} of tenant '{}' not completed after {} ms, no longer counted in flight",
+                             task.taskId(), task.tenant().name, config.inFlightTimeoutMillis());
+                }
+                release(task.tenant());
+            });
+    }
+    
+    private synchronized QueuedTask take() throws InterruptedException {
+        QueuedTask next;
+        while ((next = pickNext()) == null) {
+            wait();
+        }
+        return next;
+    }
+    
+    /** The queued task with the smallest tag in the highest class that has one allowed to run, or null. */
+    private QueuedTask pickNext() {
+        for (Priority priority : Priority.values()) {
+            if (priority != Priority.INTERACTIVE && inFlight >= config.maxInFlight()) {
+                return null;
+            }
+            QueuedTask best = null;
+            for (Tenant tenant : tenants.values()) {
+                ArrayDeque<QueuedTask> queue = tenant.queues.get(priority);
+                if (queue == null || queue.isEmpty() || tenant.inFlight >= config.tenantMaxInFlight()) {
+                    continue;
+                }
+                if (best == null || queue.peek().finishTag() < best.finishTag()) {
+                    best = queue.peek();
+                }
+            }
+            if (best != null) {
+                Tenant tenant = best.tenant();
+                tenant.queues.get(priority).poll();
+                tenant.queued--;
+                queued--;
+                tenant.inFlight++;
+                tenant.dispatched++;
+                inFlight++;
+                virtualTime[priority.ordinal()] = Math.max(virtualTime[priority.ordinal()], best.finishTag());
+                return best;
+            }
+        }
+        return null;
+    }
+    
+    private synchronized void release(Tenant tenant) {
+        tenant.inFlight--;
+        inFlight--;
+        if (tenant.inFlight == 0 && tenant.queued == 0) {
+            tenants.remove(tenant.name, tenant);
+        }
+        notifyAll();
+    }
+    
+    /** Accepted tasks not yet dispatched, over all tenants. */
+    public synchronized int queuedCount() {
+        return queued;
+    }
+    
+    public synchronized List<TenantStats> tenantStats() {
+        List<TenantStats> stats = new ArrayList<>(tenants.size());
+        for (Tenant tenant : tenants.values()) {
+            stats.add(new TenantStats(tenant.name, tenant.weight, tenant.queued, tenant.inFlight, tenant.dispatched));
+        }
+        return stats;
+    }
+    
+    private Map<String, Long> perTenant(ToLongFunction<TenantStats> value) {
+        Map<String, Long> values = new HashMap<>();
+        for (TenantStats stats : tenantStats()) {
+            values.put(stats.tenant(), value.applyAsLong(stats));
+        }
+        return values;
+    }
+    
+    /** Stops dispatching; queued tasks stay undispatched. */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+}
@@ -1,16 +1,62 @@
 package com.computenet.broker.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.nio.channels.Selector;
+import com.computenet.broker.persistence.PersistenceConfig;
+import com.computenet.broker.persistence.TaskStateStore;
+import com.computenet.broker.reduce.ResultCombiner;
+import com.computenet.broker.schedule.AdmissionConfig;
+import com.computenet.broker.schedule.AdmissionController;
+import com.computenet.broker.schedule.LocalityConfig;
+import com.computenet.broker.schedule.LocalityPlacer;
+import com.computenet.broker.schedule.Priority;
+import com.computenet.broker.schedule.SchedulerConfig;
+import com.computenet.broker.schedule.SpeculationConfig;
+import com.computenet.broker.schedule.StragglerMonitor;
+import com.computenet.broker.schedule.TaskScheduler;
 import com.computenet.broker.service.TaskManager;
+import com.computenet.broker.service.TaskUploadHandler;
+import com.computenet.broker.split.TaskSplitter;
+import com.computenet.broker.storage.InputSpool;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.broker.storage.ResultStore;
+import com.computenet.broker.workflow.WorkflowManager;
 import com.computenet.broker.service.TaskConfigMulticaster;
 import com.computenet.client.OriginatorClient;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.metrics.MetricsRegistry;
+import com.computenet.protocol.ApiResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.computenet.protocol.JsonCodec;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.TaskSubmissionRequest;
+import com.computenet.protocol.TaskSubmissionResponse;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WorkerCompletionRequest;
+import com.computenet.protocol.WorkflowRequest;
+import com.computenet.util.RateLimitedLogger;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
 import io.javalin.websocket.WsContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.Set;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * BrokerServer - Main server class
@@ -22,32 +68,106 @@ import java.util.Map;
  * M5: UDP Listener
  */
 public class BrokerServer {
-    private final ExecutorService tcpTaskExecutor = Executors.newFixedThreadPool(10); // M2: Multi-threading
+    private static final Logger log = LoggerFactory.getLogger(BrokerServer.class);
+    private static final RateLimitedLogger apiErrorLog = RateLimitedLogger.perSecond(log, 5);
+    
+    private final ThreadPoolExecutor tcpTaskExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10); // M2: Multi-threading
     private final Selector nioSelector;
-    private final TaskManager taskManager = new TaskManager();
+    private final TaskManager taskManager;
     private final TaskConfigMulticaster taskConfigMulticaster = new TaskConfigMulticaster(); // M4: Multicast Task Config
+    private final BrokerMetrics metrics = new BrokerMetrics(); // Exposed on /metrics
+    private final PayloadCompressor payloadCompressor = PayloadCompressor.fromSystemProperties("broker"); // For workers that accept deflate
+    private final TaskStateStore stateStore; // WAL + snapshots, null when durability is NONE
+    private final InputSpool inputSpool; // Streamed task inputs until their partitions are dispatched
+    private final TaskScheduler taskScheduler; // Orders accepted tasks by priority class and tenant share
+    private final AdmissionController admissionController; // Turns tasks away while the broker is overloaded
+    private final StragglerMonitor stragglerMonitor; // Enforces deadlines, copies slow sub-tasks to idle workers
+    private final LocalityPlacer localityPlacer; // Places sub-tasks on workers that have their data cached
     private WorkerNIOHandler nioHandler; // M3: NIO Handler reference
+    private WorkflowManager workflowManager; // Multi-stage workflows, needs the NIO handler
     private Javalin app;
     
     // Store WebSocket connections for broadcasting M3 NIO updates
     private final Map<String, WsContext> wsClients = new ConcurrentHashMap<>();
 
     public BrokerServer() throws IOException {
+        this(PersistenceConfig.fromSystemProperties());
+    }
+    
+    public BrokerServer(PersistenceConfig persistence) throws IOException {
         this.nioSelector = Selector.open(); // M3: Java NIO
+        // Result bytes are kept off-heap in mapped files, next to the WAL when persistence is on
+        this.taskManager = new TaskManager(persistence.enabled()
+                ? ResultStore.open(persistence.dataDirectory().resolve("results"), ResultStore.DEFAULT_SEGMENT_BYTES)
+                : ResultStore.temporary());
+        // Recover tasks, workers and assignments before any listener can change them
+        this.stateStore = persistence.enabled() ? TaskStateStore.open(persistence, taskManager, metrics) : null;
+        if (stateStore == null) {
+            log.warn("Persistence disabled: tasks and workers are lost when the broker stops");
+        }
+        // Large uploads are spooled next to the data rather than to a possibly memory-backed temp dir
+        this.inputSpool = persistence.enabled()
+                ? InputSpool.open(persistence.dataDirectory().resolve("spool"))
+                : InputSpool.temporary();
+        this.taskScheduler = new TaskScheduler(taskManager, tcpTaskExecutor, SchedulerConfig.fromSystemProperties(), metrics);
+        this.admissionController = new AdmissionController(AdmissionConfig.fromSystemProperties(),
+                taskManager::getOutstandingSubTaskCount,
+                () -> taskScheduler.queuedCount() + tcpTaskExecutor.getQueue().size(), metrics);
+        this.stragglerMonitor = new StragglerMonitor(taskManager, SpeculationConfig.fromSystemProperties(), metrics);
+        this.localityPlacer = new LocalityPlacer(taskManager, LocalityConfig.fromSystemProperties(), metrics);
+        registerGauges();
+    }
+    
+    private void registerGauges() {
+        metrics.gauge("broker_workers_registered", "Workers in the pool",
+                      taskManager::getWorkerCount);
+        metrics.gauge("broker_tasks_pending", "Tasks with sub-tasks not yet completed",
+                      taskManager::getPendingTaskCount);
+        metrics.gauge("broker_nio_channels", "Workers connected to the NIO broadcast channel",
+                      () -> taskManager.getNIOWorkerChannels().size());
+        metrics.gauge("broker_executor_queue_depth", "Submissions and dispatches waiting for an executor thread",
+                      () -> tcpTaskExecutor.getQueue().size());
+        metrics.gauge("broker_executor_active_threads", "Executor threads currently running a submission or dispatch",
+                      tcpTaskExecutor::getActiveCount);
+        metrics.gauge("broker_websocket_clients", "Connected dashboard WebSocket clients",
+                      wsClients::size);
+        metrics.gauge("broker_result_store_bytes", "Sub-task result bytes written to the result store since start",
+                      taskManager.getResultStore()::bytesStored);
+        metrics.gauge("broker_input_spool_bytes", "Streamed task input bytes spooled and not yet dispatched",
+                      inputSpool::bytesSpooled);
+        metrics.gauge("broker_completion_waiters", "Unfinished tasks a long-poll, an originator connection or the scheduler is waiting on",
+                      taskManager::getCompletionWaiterCount);
+        metrics.counter("broker_compression_raw_bytes_total", "Payload bytes that were sent compressed, before compression",
+                        () -> payloadCompressor.stats().rawBytes());
+        metrics.counter("broker_compression_saved_bytes_total", "Payload bytes not sent thanks to compression",
+                        () -> payloadCompressor.stats().bytesSaved());
+        metrics.secondsCounter("broker_compression_seconds_total", "Time spent compressing payloads, including ones left uncompressed",
+                               () -> payloadCompressor.stats().compressNanos());
+        metrics.secondsCounter("broker_decompression_seconds_total", "Time spent inflating compressed results from workers",
+                               () -> payloadCompressor.stats().decompressNanos());
     }
 
     public void start() throws Exception {
+        // M3: Start the single-thread NIO broadcast engine first, the task handlers below are given it
+        nioHandler = new WorkerNIOHandler(nioSelector, taskManager, payloadCompressor);
+        Thread nioBroadcastThread = new Thread(nioHandler);
+        nioBroadcastThread.start();
+        
         // M1: Start the blocking TCP listener in a separate thread
-        Thread tcpListenerThread = new Thread(new TaskTcpReceiver(taskManager, tcpTaskExecutor, getNioHandler(), taskConfigMulticaster)); 
+        taskScheduler.start();
+        stragglerMonitor.start();
+        TaskUploadHandler taskUploadHandler = new TaskUploadHandler(taskManager, inputSpool, tcpTaskExecutor, getNioHandler(),
+                                                                    taskScheduler, stragglerMonitor, metrics);
+        Thread tcpListenerThread = new Thread(new TaskTcpReceiver(taskManager, tcpTaskExecutor, getNioHandler(), taskConfigMulticaster,
+                                                                  taskUploadHandler, taskScheduler, admissionController,
+                                                                  stragglerMonitor, localityPlacer, payloadCompressor, metrics));
         tcpListenerThread.start();
 
-        // M3: Start the single-thread NIO broadcast engine
-        nioHandler = new WorkerNIOHandler(nioSelector, taskManager);
-        Thread nioBroadcastThread = new Thread(nioHandler);
-        nioBroadcastThread.start();
+        workflowManager = new WorkflowManager(taskManager, tcpTaskExecutor, nioHandler, taskScheduler, stragglerMonitor,
+                                              localityPlacer, payloadCompressor, metrics);
 
         // M5: Start the lightweight UDP listener for worker registration
-        Thread udpListenerThread = new Thread(new WorkerUdpListener(taskManager));
+        Thread udpListenerThread = new Thread(new WorkerUdpListener(taskManager, metrics));
         udpListenerThread.start();
 
         // Start the Javalin Web Server for the UI
@@ -55,6 +175,8 @@ public class BrokerServer {
             // Configure static file serving from resources/public
             config.staticFiles.add("/public");
             config.http.prefer405over404 = true;
+            // Share one ObjectMapper between Javalin and the streaming readers
+            config.jsonMapper(new JavalinJackson(JsonCodec.MAPPER, false));
         }).start(8080);
         
         // WebSocket endpoint for real-time dashboard updates
@@ -62,20 +184,24 @@ public class BrokerServer {
             ws.onConnect(ctx -> {
                 String clientId = String.valueOf(ctx.hashCode()); // Use context hashcode as unique ID
                 wsClients.put(clientId, ctx);
-                System.out.println("WebSocket client connected: " + ctx.session.getRemoteAddress() + " (ID: " + clientId + ")");
+                log.info("WebSocket client connected: {} (ID: {})", ctx.session.getRemoteAddress(), clientId);
             });
             
             ws.onMessage(ctx -> {
                 String message = ctx.message();
-                System.out.println("WebSocket message received: " + message);
+                log.debug("WebSocket message received: {}", message);
                 
                 // Handle different message types
                 if (message.contains("REQUEST_STATUS")) {
                     // Send status update to client
-                    String statusJson = String.format(
-                        "{\"type\":\"STATUS_UPDATE\",\"data\":{\"activeWorkers\":%d,\"pendingTasks\":0,\"completedTasks\":0}}",
-                        taskManager.getAvailableWorkers().size()
-                    );
+                    String statusJson = JsonCodec.toJson(Map.of(
+                        "type", "STATUS_UPDATE",
+                        "data", Map.of(
+                            "activeWorkers", taskManager.getAvailableWorkers().size(),
+                            "pendingTasks", 0,
+                            "completedTasks", 0
+                        )
+                    ));
                     ctx.send(statusJson);
                 }
             });
@@ -83,7 +209,7 @@ public class BrokerServer {
             ws.onClose(ctx -> {
                 String clientId = String.valueOf(ctx.hashCode());
                 wsClients.remove(clientId);
-                System.out.println("WebSocket client disconnected: " + ctx.session.getRemoteAddress() + " (ID: " + clientId + ")");
+                log.info("WebSocket client disconnected: {} (ID: {})", ctx.session.getRemoteAddress(), clientId);
             });
         });
         
@@ -102,52 +228,194 @@ public class BrokerServer {
             ctx.json(taskManager.getTaskOverview());
         });
         
+        // Streams a task's results in sub-task order, straight from the mapped result segments
+        app.get("/api/tasks/{id}/results", ctx -> {
+            Map<Integer, ResultRef> results = lookupResults(ctx);
+            if (results != null) {
+                streamResults(ctx, results);
+            }
+        });
+        
+        // Streams a single sub-task's result
+        app.get("/api/tasks/{id}/results/{subTaskId}", ctx -> {
+            Map<Integer, ResultRef> results = lookupResults(ctx);
+            if (results == null) {
+                return;
+            }
+            int subTaskId = ctx.pathParamAsClass("subTaskId", Integer.class).get();
+            ResultRef result = results.get(subTaskId);
+            if (result == null) {
+                ctx.status(404).json(ApiResponse.error("No result for sub-task " + subTaskId));
+                return;
+            }
+            streamResults(ctx, Map.of(subTaskId, result));
+        });
+        
+        // Queued, in-flight and dispatched task counts per tenant, as the TaskScheduler sees them
+        app.get("/api/scheduler", ctx -> {
+            ctx.json(taskScheduler.tenantStats());
+        });
+        
+        // Long-poll: answers with the task's progress as soon as it completes, or 202 after timeout ms
+        app.get("/api/tasks/{id}/await", ctx -> {
+            int taskId = ctx.pathParamAsClass("id", Integer.class).get();
+            CompletableFuture<Integer> completion = taskManager.awaitCompletion(taskId);
+            if (completion == null) {
+                ctx.status(404).json(ApiResponse.error("Unknown task " + taskId));
+                return;
+            }
+            long timeout = Math.max(0, Math.min(ctx.queryParamAsClass("timeout", Long.class).getOrDefault(30_000L),
+                                                TaskManager.MAX_AWAIT_MILLIS));
+            ctx.future(() -> completion.copy()
+                .completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS)
+                .thenAccept(completed -> ctx.status(completed != null ? 200 : 202).json(taskManager.getTaskInfo(taskId))));
+        });
+        
+        // The task's combined result once every sub-task has been folded in; 202 with progress until then
+        app.get("/api/tasks/{id}/result", ctx -> {
+            int taskId = ctx.pathParamAsClass("id", Integer.class).get();
+            TaskManager.TaskAggregate aggregate = taskManager.getTaskAggregate(taskId);
+            if (aggregate == null) {
+                String reason = taskManager.getTaskResults(taskId) == null
+                        ? "Unknown task " + taskId
+                        : "Task " + taskId + " has no combiner, fetch /api/tasks/" + taskId + "/results";
+                ctx.status(404).json(ApiResponse.error(reason));
+                return;
+            }
+            if (aggregate.aggregate() == null) {
+                ctx.status(202).json(aggregate);
+                return;
+            }
+            ctx.header("X-Combiner", aggregate.combiner());
+            streamResults(ctx, Map.of(0, aggregate.aggregate()));
+        });
+        
+        // Prometheus scrape endpoint: counters, gauges and per-stage latency summaries
+        app.get("/metrics", ctx -> {
+            ctx.contentType(MetricsRegistry.CONTENT_TYPE).result(metrics.scrape());
+        });
+        
         // M2: REST endpoint to receive sub-task completion notification from workers
         app.post("/api/worker-complete", ctx -> {
+            long receivedAt = System.nanoTime();
             try {
-                String body = ctx.body();
-                String workerAddress = extractJsonValue(body, "workerAddress");
-                String workerPort = extractJsonValue(body, "workerPort");
-                String taskId = extractJsonValue(body, "taskId");
-                String subTaskId = extractJsonValue(body, "subTaskId");
-                String result = extractJsonValue(body, "result");
+                // Workers compress large results once the broker has told them it accepts deflate
+                InputStream body = PayloadCompressor.CONTENT_ENCODING.equalsIgnoreCase(ctx.header("Content-Encoding"))
+                        ? new ByteArrayInputStream(payloadCompressor.inflate(ctx.bodyAsBytes()))
+                        : ctx.bodyInputStream();
+                WorkerCompletionRequest completion = JsonCodec.readCompletion(body);
                 
-                String workerKey = workerAddress + ":" + workerPort;
-                int tid = Integer.parseInt(taskId);
-                int sid = Integer.parseInt(subTaskId);
+                String workerKey = completion.workerKey();
+                int tid = completion.taskId();
+                int sid = completion.subTaskId();
+                String result = completion.result();
                 
                 // Update TaskManager: increment task completion counter and remove from worker's pending list
-                taskManager.submitSubTaskResult(tid, sid, result != null ? result : "Completed");
+                taskManager.submitSubTaskResult(tid, sid, result != null ? result : "Completed", workerKey);
                 taskManager.completeSubTaskForWorker(workerKey, tid, sid);
+                metrics.subTaskCompleted(tid, sid);
+                metrics.completionHandling.recordSince(receivedAt);
                 
-                System.out.println("BrokerServer: Received completion notification from " + workerKey + 
-                                   " for sub-task " + tid + "-" + sid);
+                log.debug("BrokerServer: Received completion notification from {} for sub-task {}-{}", workerKey, tid, sid);
                 
-                ctx.json(Map.of(
-                    "success", true,
-                    "message", "Sub-task completion recorded"
-                ));
+                ctx.json(ApiResponse.ok("Sub-task completion recorded"));
             } catch (Exception e) {
-                System.err.println("BrokerServer: Error processing completion notification: " + e.getMessage());
-                ctx.status(400).json(Map.of(
-                    "success", false,
-                    "message", "Invalid completion data: " + e.getMessage()
+                metrics.completionErrors.increment();
+                apiErrorLog.warn("BrokerServer: Error processing completion notification: {}", e.getMessage());
+                ctx.status(400).json(ApiResponse.error("Invalid completion data: " + e.getMessage()));
+            }
+        });
+        
+        // Streaming upload: the raw request body, of any length and chunked or not, is the task input
+        app.post("/api/tasks/upload", ctx -> {
+            long receivedAt = System.nanoTime();
+            String taskName = ctx.queryParam("name");
+            if (taskName == null || taskName.isEmpty()) {
+                ctx.status(400).json(ApiResponse.error("Task name is required"));
+                return;
+            }
+            int subTaskCount = ctx.queryParamAsClass("subTasks", Integer.class).getOrDefault(taskManager.getWorkerCount());
+            AdmissionController.Rejection rejection = admissionController.check(Math.min(subTaskCount, taskManager.getWorkerCount()));
+            if (rejection != null) {
+                tooManyRequests(ctx, rejection);
+                return;
+            }
+            try {
+                TaskUploadHandler.AcceptedUpload accepted = taskUploadHandler.accept(
+                        taskName, subTaskCount, ctx.queryParam("split"), ctx.queryParam("combine"),
+                        ctx.queryParam("tenant"), ctx.queryParam("priority"), ctx.queryParam("deadline"),
+                        ctx.queryParam("tags"), ctx.bodyInputStream());
+                metrics.taskAccept.recordSince(receivedAt);
+                ctx.json(new TaskSubmissionResponse(
+                    true,
+                    "Task '" + taskName + "' uploaded (" + accepted.inputBytes() + " bytes)",
+                    accepted.taskId(),
+                    null,
+                    taskName,
+                    accepted.subTaskCount()
                 ));
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(ApiResponse.error(e.getMessage()));
+            } catch (IOException e) {
+                apiErrorLog.warn("BrokerServer: Task upload failed: {}", e.getMessage());
+                ctx.status(500).json(ApiResponse.error("Upload failed: " + e.getMessage()));
             }
         });
         
+        // A DAG of stages, each started when the stages it depends on complete, see WorkflowManager
+        app.post("/api/workflows", ctx -> {
+            WorkflowRequest request;
+            try {
+                request = JsonCodec.readWorkflow(ctx.bodyInputStream());
+            } catch (IOException e) {
+                ctx.status(400).json(ApiResponse.error("Invalid request body: " + e.getMessage()));
+                return;
+            }
+            if (taskManager.getWorkerCount() == 0) {
+                ctx.status(400).json(ApiResponse.error("No workers registered. Start workers first."));
+                return;
+            }
+            // Only the stages that can start at once count towards admission
+            int subTasks = 0;
+            for (WorkflowRequest.Stage stage : request.stages() != null ? request.stages() : List.<WorkflowRequest.Stage>of()) {
+                if (stage != null && (stage.dependsOn() == null || stage.dependsOn().isEmpty())) {
+                    subTasks += Math.min(stage.subTaskCount() != null ? stage.subTaskCount() : Integer.MAX_VALUE,
+                                         taskManager.getWorkerCount());
+                }
+            }
+            AdmissionController.Rejection rejection = admissionController.check(subTasks);
+            if (rejection != null) {
+                tooManyRequests(ctx, rejection);
+                return;
+            }
+            try {
+                ctx.json(workflowManager.submit(request));
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(ApiResponse.error(e.getMessage()));
+            }
+        });
+        
+        // Status of every stage of a workflow
+        app.get("/api/workflows/{id}", ctx -> {
+            int workflowId = ctx.pathParamAsClass("id", Integer.class).get();
+            WorkflowManager.WorkflowView workflow = workflowManager.status(workflowId);
+            if (workflow == null) {
+                ctx.status(404).json(ApiResponse.error("Unknown workflow " + workflowId));
+                return;
+            }
+            ctx.json(workflow);
+        });
+        
         // M1: REST endpoint to submit task via HTTP POST (triggers TCP submission)
         app.post("/api/submit-task", ctx -> {
             try {
                 // Parse request body
-                String body = ctx.body();
-                System.out.println("Received task submission request: " + body);
+                TaskSubmissionRequest request = JsonCodec.readSubmission(ctx.bodyInputStream());
+                log.debug("Received task submission request: {}", request);
                 
-                // Extract fields from JSON
-                String taskId = extractJsonValue(body, "taskId");
-                String taskName = extractJsonValue(body, "taskName");
-                String taskData = extractJsonValue(body, "taskData");
-                String subTaskCountStr = extractJsonValue(body, "subTaskCount");
+                String taskId = request.taskId();
+                String taskName = request.taskName();
+                String taskData = request.taskData();
                 
                 // Validate required fields
                 if (taskId == null || taskId.isEmpty()) {
@@ -155,103 +423,216 @@ public class BrokerServer {
                 }
                 
                 if (taskName == null || taskName.isEmpty()) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "Task name is required"
-                    ));
+                    ctx.status(400).json(ApiResponse.error("Task name is required"));
                     return;
                 }
                 
                 if (taskData == null || taskData.isEmpty()) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "Task data is required"
-                    ));
+                    ctx.status(400).json(ApiResponse.error("Task data is required"));
                     return;
                 }
                 
-                int subTaskCount = 1;
-                try {
-                    subTaskCount = Integer.parseInt(subTaskCountStr);
-                } catch (NumberFormatException e) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "Invalid sub-task count"
-                    ));
+                if (request.subTaskCount() == null) {
+                    ctx.status(400).json(ApiResponse.error("Invalid sub-task count"));
                     return;
                 }
+                int subTaskCount = request.subTaskCount();
                 
                 // Validate sub-task count against worker count
                 int workerCount = taskManager.getAvailableWorkers().size();
                 if (workerCount == 0) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "No workers registered. Start workers first."
-                    ));
+                    ctx.status(400).json(ApiResponse.error("No workers registered. Start workers first."));
                     return;
                 }
                 
                 if (subTaskCount > workerCount) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "Sub-task count (" + subTaskCount + ") exceeds registered workers (" + workerCount + ")"
-                    ));
+                    ctx.status(400).json(ApiResponse.error("Sub-task count (" + subTaskCount + ") exceeds registered workers (" + workerCount + ")"));
                     return;
                 }
                 
                 if (subTaskCount < 1) {
-                    ctx.status(400).json(Map.of(
-                        "success", false,
-                        "message", "Sub-task count must be at least 1"
-                    ));
+                    ctx.status(400).json(ApiResponse.error("Sub-task count must be at least 1"));
                     return;
                 }
                 
-                // Create task message for TCP submission
-                String fullTaskData = "TaskID:" + taskId + " | Name:" + taskName + " | Data:" + taskData + " | SubTasks:" + subTaskCount;
+                // Create task message for TCP submission; every value is escaped, so line breaks and pipes
+                // in it can neither end the line nor start another field
+                String fullTaskData = "TaskID:" + TextCodec.escapeField(taskId) + field("Name", taskName)
+                        + field("Data", taskData) + " | SubTasks:" + subTaskCount;
+                if (request.splitter() != null && !request.splitter().isBlank()) {
+                    try {
+                        TaskSplitter.parse(request.splitter());
+                    } catch (IllegalArgumentException e) {
+                        ctx.status(400).json(ApiResponse.error(e.getMessage()));
+                        return;
+                    }
+                    fullTaskData += field("Split", request.splitter());
+                }
+                if (request.combiner() != null && !request.combiner().isBlank()) {
+                    try {
+                        ResultCombiner.parse(request.combiner());
+                    } catch (IllegalArgumentException e) {
+                        ctx.status(400).json(ApiResponse.error(e.getMessage()));
+                        return;
+                    }
+                    fullTaskData += field("Combine", request.combiner());
+                }
+                if (request.tenant() != null && !request.tenant().isBlank()) {
+                    if (request.tenant().contains("|")) {
+                        ctx.status(400).json(ApiResponse.error("Tenant must not contain '|'"));
+                        return;
+                    }
+                    fullTaskData += field("Tenant", request.tenant());
+                }
+                if (request.priority() != null && !request.priority().isBlank()) {
+                    try {
+                        Priority.parse(request.priority());
+                    } catch (IllegalArgumentException e) {
+                        ctx.status(400).json(ApiResponse.error(e.getMessage()));
+                        return;
+                    }
+                    fullTaskData += field("Priority", request.priority());
+                }
+                if (request.deadlineMillis() != null) {
+                    if (request.deadlineMillis() < 1) {
+                        ctx.status(400).json(ApiResponse.error("Deadline must be at least 1 ms"));
+                        return;
+                    }
+                    fullTaskData += " | Deadline:" + request.deadlineMillis();
+                }
+                if (request.tags() != null && !request.tags().isBlank()) {
+                    if (request.tags().contains("|")) {
+                        ctx.status(400).json(ApiResponse.error("Tags must not contain '|'"));
+                        return;
+                    }
+                    Set<String> tags = TaskManager.parseTags(request.tags());
+                    if (taskManager.getAvailableWorkers().stream()
+                            .noneMatch(worker -> taskManager.getWorkerResources(worker.key()).tags().containsAll(tags))) {
+                        ctx.status(400).json(ApiResponse.error("No registered worker has tags " + tags));
+                        return;
+                    }
+                    fullTaskData += field("Tags", request.tags());
+                }
                 
-                // Submit task via M1 TCP using OriginatorClient
+                AdmissionController.Rejection rejection = admissionController.check(subTaskCount);
+                if (rejection != null) {
+                    tooManyRequests(ctx, rejection);
+                    return;
+                }
+                
+                // Submit task via M1 TCP using OriginatorClient; the caller gets any later rejection as a failure
                 OriginatorClient originator = new OriginatorClient("localhost");
+                originator.setMaxRetries(0);
                 int assignedTaskId = originator.submitTask(fullTaskData);
                 
                 if (assignedTaskId > 0) {
-                    ctx.json(Map.of(
-                        "success", true,
-                        "message", "Task '" + taskName + "' submitted successfully via TCP",
-                        "taskId", assignedTaskId,
-                        "originalTaskId", taskId,
-                        "taskName", taskName,
-                        "subTaskCount", subTaskCount
+                    ctx.json(new TaskSubmissionResponse(
+                        true,
+                        "Task '" + taskName + "' submitted successfully via TCP",
+                        assignedTaskId,
+                        taskId,
+                        taskName,
+                        subTaskCount
                     ));
                 } else {
-                    ctx.status(500).json(Map.of(
-                        "success", false,
-                        "message", "Failed to submit task to broker"
-                    ));
+                    ctx.status(500).json(ApiResponse.error("Failed to submit task to broker"));
                 }
+            } catch (JsonProcessingException e) {
+                ctx.status(400).json(ApiResponse.error("Invalid request body: " + e.getOriginalMessage()));
+            } catch (IllegalArgumentException e) {
+                // JsonCodec's answer to a well-formed body of the wrong shape
+                ctx.status(400).json(ApiResponse.error("Invalid request body: " + e.getMessage()));
             } catch (Exception e) {
-                ctx.status(500).json(Map.of(
-                    "success", false,
-                    "message", "Error submitting task: " + e.getMessage()
-                ));
+                ctx.status(500).json(ApiResponse.error("Error submitting task: " + e.getMessage()));
             }
         });
         
-        System.out.println("Broker Server started successfully!");
-        System.out.println("  TCP Task Receiver: port 5000");
-        System.out.println("  UDP Worker Listener: port 5001");
-        System.out.println("  NIO Broadcast Handler: port 5002");
-        System.out.println("  Multicast Task Config: " + TaskConfigMulticaster.getMulticastAddress() + ":" + TaskConfigMulticaster.getMulticastPort());
-        System.out.println("  Web UI: http://localhost:8080");
-        System.out.println("  WebSocket: ws://localhost:8080/ws");
+        log.info("Broker Server started successfully!");
+        log.info("  TCP Task Receiver: port 5000");
+        log.info("  UDP Worker Listener: port 5001");
+        log.info("  NIO Broadcast Handler: port 5002");
+        log.info("  Multicast Task Config: {}:{}", TaskConfigMulticaster.getMulticastAddress(), TaskConfigMulticaster.getMulticastPort());
+        log.info("  Web UI: http://localhost:8080");
+        log.info("  WebSocket: ws://localhost:8080/ws");
     }
     
     public void stop() {
         if (app != null) {
             app.stop();
         }
+        taskScheduler.close();
+        stragglerMonitor.close();
+        localityPlacer.close();
         tcpTaskExecutor.shutdown();
-        System.out.println("Broker Server stopped");
+        if (stateStore != null) {
+            try {
+                stateStore.close();
+            } catch (IOException e) {
+                log.error("Failed to write the final snapshot, the next start replays the log instead", e);
+            }
+        }
+        try {
+            taskManager.getResultStore().close();
+        } catch (IOException e) {
+            log.warn("Failed to close the result store: {}", e.getMessage());
+        }
+        log.info("Broker Server stopped");
+    }
+    
+    /** Answers 429 with Retry-After in whole seconds, rounded up. */
+    private static void tooManyRequests(Context ctx, AdmissionController.Rejection rejection) {
+        ctx.header("Retry-After", Long.toString((rejection.retryAfterMillis() + 999) / 1000));
+        ctx.status(429).json(ApiResponse.error(rejection.reason()));
+    }
+    
+    /** A " | name:value" field of a submission line, with the value escaped for TaskTcpReceiver. */
+    private static String field(String name, String value) {
+        return " | " + name + ":" + TextCodec.escapeField(value);
+    }
+    
+    /** Results of the task in the {id} path parameter, or null after answering 404. */
+    private Map<Integer, ResultRef> lookupResults(Context ctx) {
+        int taskId = ctx.pathParamAsClass("id", Integer.class).get();
+        Map<Integer, ResultRef> results = taskManager.getTaskResults(taskId);
+        if (results == null) {
+            ctx.status(404).json(ApiResponse.error("Unknown task " + taskId));
+        }
+        return results;
+    }
+    
+    /**
+     * Writes results back to back as application/octet-stream. X-Result-Parts lists
+     * subTaskId:length pairs in body order so clients can split the body.
+     * Jetty writes the mapped buffers to the socket without a heap copy; any other servlet
+     * output gets FileChannel.transferTo through a channel adapter.
+     */
+    private void streamResults(Context ctx, Map<Integer, ResultRef> results) throws IOException {
+        ResultStore store = taskManager.getResultStore();
+        long contentLength = 0;
+        StringJoiner parts = new StringJoiner(",");
+        for (Map.Entry<Integer, ResultRef> entry : results.entrySet()) {
+            contentLength += entry.getValue().length();
+            parts.add(entry.getKey() + ":" + entry.getValue().length());
+        }
+        
+        HttpServletResponse response = ctx.res();
+        response.setStatus(200);
+        response.setContentType("application/octet-stream");
+        response.setContentLengthLong(contentLength);
+        response.setHeader("X-Result-Parts", parts.toString());
+        
+        ServletOutputStream out = response.getOutputStream();
+        if (out instanceof HttpOutput jettyOut) {
+            for (ResultRef result : results.values()) {
+                jettyOut.write(store.read(result));
+            }
+        } else {
+            WritableByteChannel channel = Channels.newChannel(out);
+            for (ResultRef result : results.values()) {
+                store.transferTo(result, channel);
+            }
+        }
+        out.flush();
     }
     
     /**
@@ -265,58 +646,21 @@ public class BrokerServer {
      * Broadcast M3 NIO progress updates to all connected WebSocket clients
      */
     public void broadcastNIOUpdate(String message) {
-        String broadcastJson = String.format(
-            "{\"type\":\"NIO_BROADCAST\",\"message\":\"%s\",\"timestamp\":%d}",
-            message.replace("\"", "\\\""),
-            System.currentTimeMillis()
-        );
+        String broadcastJson = JsonCodec.toJson(Map.of(
+            "type", "NIO_BROADCAST",
+            "message", message,
+            "timestamp", System.currentTimeMillis()
+        ));
         
         wsClients.values().forEach(ctx -> {
             try {
                 ctx.send(broadcastJson);
             } catch (Exception e) {
-                System.err.println("Error broadcasting to WebSocket client: " + e.getMessage());
+                apiErrorLog.warn("Error broadcasting to WebSocket client: {}", e.getMessage());
             }
         });
     }
     
-    /**
-     * Helper method to extract JSON values (simple parsing)
-     */
-    private String extractJsonValue(String json, String key) {
-        try {
-            String searchKey = "\"" + key + "\":";
-            int startIndex = json.indexOf(searchKey);
-            if (startIndex == -1) return null;
-            
-            startIndex += searchKey.length();
-            // Skip whitespace
-            while (startIndex < json.length() && Character.isWhitespace(json.charAt(startIndex))) {
-                startIndex++;
-            }
-            
-            // Check if value is quoted
-            if (json.charAt(startIndex) == '"') {
-                startIndex++; // Skip opening quote
-                int endIndex = json.indexOf('"', startIndex);
-                if (endIndex == -1) return null;
-                return json.substring(startIndex, endIndex);
-            } else {
-                // Unquoted value (number, boolean, etc.)
-                int endIndex = startIndex;
-                while (endIndex < json.length() && 
-                       json.charAt(endIndex) != ',' && 
-                       json.charAt(endIndex) != '}' &&
-                       json.charAt(endIndex) != ']') {
-                    endIndex++;
-                }
-                return json.substring(startIndex, endIndex).trim();
-            }
-        } catch (Exception e) {
-            return null;
-        }
-    }
-    
     /**
      * Main entry point for the BrokerServer application
      */
@@ -326,11 +670,11 @@ public class BrokerServer {
             broker.start();
             
             // Keep the server running
-            System.out.println("\nBroker Server is running. Press Ctrl+C to stop.");
+            log.info("Broker Server is running. Press Ctrl+C to stop.");
             
             // Add shutdown hook for graceful cleanup
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutting down Broker Server...");
+                log.info("Shutting down Broker Server...");
                 broker.stop();
             }));
             
@@ -338,8 +682,7 @@ public class BrokerServer {
             Thread.currentThread().join();
             
         } catch (Exception e) {
-            System.err.println("Failed to start Broker Server: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to start Broker Server", e);
             System.exit(1);
         }
     }
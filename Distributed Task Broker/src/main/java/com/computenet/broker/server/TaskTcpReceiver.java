@@ -3,71 +3,150 @@ package com.computenet.broker.server;
 import com.computenet.broker.service.TaskManager;
 import com.computenet.broker.service.TaskSubmissionHandler;
 import com.computenet.broker.service.TaskConfigMulticaster;
+import com.computenet.broker.service.TaskUploadHandler;
+import com.computenet.broker.reduce.ResultCombiner;
+import com.computenet.broker.schedule.AdmissionController;
+import com.computenet.broker.schedule.Priority;
+import com.computenet.broker.schedule.LocalityPlacer;
+import com.computenet.broker.schedule.StragglerMonitor;
+import com.computenet.broker.schedule.TaskScheduler;
+import com.computenet.broker.split.TaskSplitter;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.TaskChunkInputStream;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.util.RateLimitedLogger;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * M1: Task Submission TCP Handler (Blocking)
  * Receives tasks from originators via TCP and hands them off to the executor service
  * M2: Uses TaskSubmissionHandler to split tasks into sub-tasks
  * M4: Integrates multicast task configuration broadcasting
+ * A connection that starts with a WireCodec frame is a streamed upload (TASK_UPLOAD followed
+ * by TASK_CHUNK frames), handed to TaskUploadHandler; anything else is a submission line.
+ * An originator that asks to await the task (an "Await:true" field, or the "await" attribute
+ * of TASK_UPLOAD) keeps the connection after TASK_ACCEPTED; the final result is pushed on it
+ * when the task completes, from the completion event rather than by polling.
+ * Accepted tasks are dispatched when the TaskScheduler picks them, by their "Tenant:" and
+ * "Priority:" fields or the matching TASK_UPLOAD attributes.
+ * A "Deadline:<ms>" field or "deadline" attribute gives the task that long to complete, see StragglerMonitor.
+ * A "Tags:a,b" field or "tags" attribute restricts the task's sub-tasks to workers with all of those tags.
+ * When the AdmissionController finds the broker overloaded, a submission line is answered with
+ * "TASK_REJECTED:RETRY_AFTER:<ms>" and an upload with a TASK_REJECTED frame instead.
  */
 public class TaskTcpReceiver implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(TaskTcpReceiver.class);
+    private static final RateLimitedLogger acceptLog = RateLimitedLogger.perSecond(log, 20);
+    private static final RateLimitedLogger errorLog = RateLimitedLogger.perSecond(log, 5);
+    
     private ServerSocket serverSocket;
     private final int tcpPort = 5000;
     private final TaskManager taskManager;
     private final ExecutorService tcpTaskExecutor;
     private final TaskSubmissionHandler taskSubmissionHandler;
+    private final TaskUploadHandler taskUploadHandler;
+    private final TaskScheduler taskScheduler;
+    private final AdmissionController admissionController;
     private final WorkerNIOHandler nioHandler; // M3: NIO handler for broadcasts
+    private final BrokerMetrics metrics;
 
     public TaskTcpReceiver(TaskManager taskManager, ExecutorService tcpTaskExecutor, 
-                           WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster) {
+                           WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster,
+                           TaskUploadHandler taskUploadHandler, TaskScheduler taskScheduler,
+                           AdmissionController admissionController, StragglerMonitor stragglerMonitor,
+                           LocalityPlacer localityPlacer, PayloadCompressor payloadCompressor, BrokerMetrics metrics) {
         this.taskManager = taskManager;
         this.tcpTaskExecutor = tcpTaskExecutor;
         this.nioHandler = nioHandler;
+        this.taskUploadHandler = taskUploadHandler;
+        this.taskScheduler = taskScheduler;
+        this.admissionController = admissionController;
+        this.metrics = metrics;
         this.taskSubmissionHandler = new TaskSubmissionHandler(taskManager, tcpTaskExecutor, 
-                                                                nioHandler, taskConfigMulticaster);
+                                                                nioHandler, taskConfigMulticaster, payloadCompressor,
+                                                                stragglerMonitor, localityPlacer, metrics);
     }
 
     @Override
     public void run() {
         try {
             serverSocket = new ServerSocket(tcpPort);
-            System.out.println("M1: TCP Task Receiver listening on port " + tcpPort);
+            log.info("M1: TCP Task Receiver listening on port {}", tcpPort);
             while (!Thread.currentThread().isInterrupted()) {
                 Socket clientSocket = serverSocket.accept(); // BLOCKING CALL
-                System.out.println("M1: Originator connected. Handing off to Executor...");
+                long acceptedAt = System.nanoTime();
+                log.debug("M1: Originator connected. Handing off to Executor...");
                 // M2's Executor is used here to process the reliable submission
-                tcpTaskExecutor.submit(() -> handleClient(clientSocket));
+                tcpTaskExecutor.submit(() -> handleClient(clientSocket, acceptedAt));
             }
         } catch (IOException e) {
-            System.err.println("M1 TCP Receiver error: " + e.getMessage());
+            log.error("M1: TCP Receiver error", e);
         }
     }
 
     /**
      * Handles client connection and task submission
      * Uses BufferedReader/PrintWriter for reliable TCP communication
-     * M2: After accepting task, uses TaskSubmissionHandler to split and dispatch
+     * M2: After accepting task, queues it on the TaskScheduler, which has TaskSubmissionHandler split and dispatch it
+     * 
+     * @param acceptedAt System.nanoTime() when the connection was accepted
      */
-    private void handleClient(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+    private void handleClient(Socket clientSocket, long acceptedAt) {
+        boolean awaiting = false; // The socket then stays open until the task completes
+        try {
+            BufferedInputStream input = new BufferedInputStream(clientSocket.getInputStream());
+            OutputStream output = clientSocket.getOutputStream();
+            
+            // The first byte tells a streamed upload from a submission line
+            input.mark(1);
+            int firstByte = input.read();
+            input.reset();
+            if (firstByte != -1 && WireCodec.isFrameStart(firstByte)) {
+                awaiting = handleUpload(clientSocket, input, output, acceptedAt);
+                return;
+            }
+            
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            PrintWriter out = new PrintWriter(output, true);
             
             // M1: Read task data from client
             String taskData = in.readLine();
-            System.out.println("M1: Received task data: " + taskData);
+            log.debug("M1: Received task data: {}", taskData);
             
             // Parse task data to extract task name and sub-task count
-            // Format: "TaskID:xxx | Name:xxx | Data:xxx | SubTasks:n"
+            // Format: "TaskID:xxx | Name:xxx | Data:xxx | SubTasks:n [| Split:spec] [| Combine:spec] [| Tenant:name] [| Priority:class] [| Deadline:ms] [| Tags:a,b] [| Await:true]"
+            // Fields are escaped with TextCodec.escapeField, so Data can hold several records on one line
             String taskName = "Unnamed Task";
             String actualData = taskData;
             int subTaskCount = taskManager.getAvailableWorkers().size();
+            TaskSplitter splitter = null; // Without a Split field the data is cut into line-aligned byte ranges
+            ResultCombiner combiner = null; // Without a Combine field results are only kept per sub-task
+            String tenant = null; // TaskScheduler's default tenant
+            Priority priority = Priority.DEFAULT;
+            long deadline = 0; // TaskManager's default deadline
+            Set<String> tags = Set.of(); // Any worker may run the sub-tasks
+            boolean await = false;
             
-            if (taskData != null && taskData.contains("|")) {
-                String[] parts = taskData.split("\\|");
+            List<String> parts = taskData == null ? List.of() : TextCodec.splitFields(taskData);
+            if (parts.size() == 1) {
+                actualData = parts.get(0); // A bare line is all data
+            } else {
                 for (String part : parts) {
                     part = part.trim();
                     if (part.startsWith("Name:")) {
@@ -78,30 +157,184 @@ public class TaskTcpReceiver implements Runnable {
                         try {
                             subTaskCount = Integer.parseInt(part.substring(9).trim());
                         } catch (NumberFormatException e) {
-                            System.err.println("M1: Invalid sub-task count, using default");
+                            log.warn("M1: Invalid sub-task count, using default");
+                        }
+                    } else if (part.startsWith("Split:")) {
+                        try {
+                            splitter = TaskSplitter.parse(part.substring(6));
+                        } catch (IllegalArgumentException e) {
+                            log.warn("M1: {}, using the default splitter", e.getMessage());
+                        }
+                    } else if (part.startsWith("Combine:")) {
+                        try {
+                            combiner = ResultCombiner.parse(part.substring(8));
+                        } catch (IllegalArgumentException e) {
+                            log.warn("M1: {}, results will not be combined", e.getMessage());
+                        }
+                    } else if (part.startsWith("Tenant:")) {
+                        tenant = part.substring(7).trim();
+                    } else if (part.startsWith("Priority:")) {
+                        try {
+                            priority = Priority.parse(part.substring(9).trim());
+                        } catch (IllegalArgumentException e) {
+                            log.warn("M1: {}, using {}", e.getMessage(), Priority.DEFAULT.label());
                         }
+                    } else if (part.startsWith("Deadline:")) {
+                        try {
+                            deadline = TaskUploadHandler.parseDeadline(part.substring(9));
+                        } catch (IllegalArgumentException e) {
+                            log.warn("M1: {}, using the default deadline", e.getMessage());
+                        }
+                    } else if (part.startsWith("Tags:")) {
+                        tags = TaskManager.parseTags(part.substring(5));
+                    } else if (part.startsWith("Await:")) {
+                        await = Boolean.parseBoolean(part.substring(6).trim());
                     }
                 }
             }
             
+            AdmissionController.Rejection rejection = admissionController.check(cappedSubTaskCount(subTaskCount));
+            if (rejection != null) {
+                out.println("TASK_REJECTED:RETRY_AFTER:" + rejection.retryAfterMillis());
+                return;
+            }
+            
             // M1: Create task in TaskManager with custom parameters
-            int taskId = taskManager.createTask(taskName, actualData, subTaskCount);
+            int taskId = taskManager.createTask(taskName, actualData, subTaskCount, combiner, deadline);
+            taskManager.setRequiredTags(taskId, tags);
             
             // M1: Send acknowledgment back to client
             out.println("TASK_ACCEPTED:" + taskId);
-            System.out.println("M1: Task '" + taskName + "' accepted with ID: " + taskId);
+            metrics.taskAccept.recordSince(acceptedAt);
+            metrics.tasksAccepted.increment();
+            acceptLog.info("M1: Task '{}' accepted with ID: {}", taskName, taskId);
+            if (await) {
+                pushOnCompletion(clientSocket, output, taskId, false);
+                awaiting = true;
+            }
             
-            // M2: Process task using multi-threading (split into N sub-tasks and dispatch to workers)
-            taskSubmissionHandler.processTask(taskId, taskName, actualData, subTaskCount);
+            // M2: Process task using multi-threading (split into N sub-tasks and dispatch to workers) once scheduled
+            String name = taskName;
+            String data = actualData;
+            int count = subTaskCount;
+            TaskSplitter taskSplitter = splitter;
+            taskScheduler.submit(taskId, tenant, priority, taskManager.getTaskInfo(taskId).totalSubTasks(),
+                () -> taskSubmissionHandler.processTask(taskId, name, data, count, taskSplitter));
             
         } catch (IOException e) {
-            System.err.println("M1: Error handling client: " + e.getMessage());
+            errorLog.warn("M1: Error handling client: {}", e.getMessage());
         } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                System.err.println("M1: Error closing client socket: " + e.getMessage());
+            if (!awaiting) {
+                closeQuietly(clientSocket);
+            }
+        }
+    }
+    
+    /**
+     * Sends the task's final result on the originator's connection once the task completes, then closes it.
+     * Text sessions get a "TASK_COMPLETED:<taskId>:<length>" line, uploads a TASK_COMPLETED frame; the result
+     * follows as length raw bytes: the combined result, or else the sub-task results joined by newlines.
+     * After TaskManager.MAX_AWAIT_MILLIS the originator gets an error instead.
+     */
+    private void pushOnCompletion(Socket socket, OutputStream out, int taskId, boolean binary) {
+        taskManager.awaitCompletion(taskId).copy()
+            .orTimeout(TaskManager.MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+            .whenCompleteAsync((id, error) -> {
+                try {
+                    if (error != null) {
+                        String reason = "Timed out waiting for task " + taskId;
+                        if (binary) {
+                            WireCodec.write(WireMessage.error(reason), out);
+                        } else {
+                            out.write(("ERROR:" + reason + "\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    } else {
+                        writeFinalResult(out, taskId, binary);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    errorLog.warn("M1: Could not deliver task {} to its originator: {}", taskId, e.getMessage());
+                } finally {
+                    closeQuietly(socket);
+                }
+            }, tcpTaskExecutor);
+    }
+    
+    private void writeFinalResult(OutputStream out, int taskId, boolean binary) throws IOException {
+        List<ResultRef> results = taskManager.getFinalResults(taskId);
+        long length = Math.max(results.size() - 1, 0);
+        for (ResultRef result : results) {
+            length += result.length();
+        }
+        if (binary) {
+            WireCodec.write(WireMessage.taskCompleted(taskId, length), out);
+        } else {
+            out.write(("TASK_COMPLETED:" + taskId + ":" + length + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) {
+                out.write('\n');
             }
+            taskManager.getResultStore().transferTo(results.get(i), channel);
+        }
+    }
+    
+    /** The sub-task count TaskManager.createTask will settle on, for admission control. */
+    private int cappedSubTaskCount(int requested) {
+        return Math.max(Math.min(requested, taskManager.getWorkerCount()), 1);
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.warn("M1: Error closing client socket: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Receives a streamed upload: a TASK_UPLOAD header, then the input as TASK_CHUNK frames.
+     * Replies TASK_ACCEPTED:<id> as a frame once the input is spooled, or ERROR:<reason>.
+     * @return true if the originator awaits the task, so the socket must stay open
+     */
+    private boolean handleUpload(Socket socket, InputStream in, OutputStream out, long acceptedAt) throws IOException {
+        WireMessage header = WireCodec.read(in);
+        if (header == null || header.type() != MessageType.TASK_UPLOAD) {
+            WireCodec.write(WireMessage.error("Expected TASK_UPLOAD"), out);
+            return false;
+        }
+        String taskName = header.attribute(WireMessage.NAME) != null ? header.attribute(WireMessage.NAME) : "Unnamed Task";
+        
+        AdmissionController.Rejection rejection = admissionController.check(cappedSubTaskCount(header.id(0)));
+        if (rejection != null) {
+            WireCodec.write(WireMessage.taskRejected(rejection.reason(), rejection.retryAfterMillis()), out);
+            out.flush();
+            // The originator reads the reply once it has sent its input; discarding it costs no spool space
+            new TaskChunkInputStream(in).transferTo(OutputStream.nullOutputStream());
+            return false;
+        }
+
+        WireMessage reply;
+        int taskId = -1;
+        try {
+            TaskUploadHandler.AcceptedUpload accepted = taskUploadHandler.accept(
+                    taskName, header.id(0), header.attribute(WireMessage.SPLIT), header.attribute(WireMessage.COMBINE),
+                    header.attribute(WireMessage.TENANT), header.attribute(WireMessage.PRIORITY),
+                    header.attribute(WireMessage.DEADLINE), header.attribute(WireMessage.TAGS),
+                    new TaskChunkInputStream(in));
+            taskId = accepted.taskId();
+            reply = WireMessage.taskAccepted(taskId);
+            metrics.taskAccept.recordSince(acceptedAt);
+        } catch (IllegalArgumentException e) {
+            reply = WireMessage.error(e.getMessage());
+        }
+        WireCodec.write(reply, out);
+        out.flush();
+        if (taskId > 0 && Boolean.parseBoolean(header.attribute(WireMessage.AWAIT))) {
+            pushOnCompletion(socket, out, taskId, true);
+            return true;
         }
+        return false;
     }
 }
\ No newline at end of file
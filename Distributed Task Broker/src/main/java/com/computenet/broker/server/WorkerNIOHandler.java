@@ -1,30 +1,55 @@
 package com.computenet.broker.server;
 
 import com.computenet.broker.service.TaskManager;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.util.RateLimitedLogger;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * WorkerNIOHandler - Member 3
  * Handles NIO-based communication with workers for non-blocking broadcasts
  * M3: Uses Selector for non-blocking I/O and broadcasts task progress every 2 seconds
+ * Workers that send a binary HELLO frame on connect get WireCodec frames, all other
+ * channels keep receiving the newline-terminated text messages. RESULT frames may arrive
+ * compressed from workers that were told at registration that the broker accepts deflate.
  */
 public class WorkerNIOHandler implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerNIOHandler.class);
+    private static final RateLimitedLogger errorLog = RateLimitedLogger.perSecond(log, 5);
     
     private final Selector selector;
     private final TaskManager taskManager;
+    private final PayloadCompressor payloadCompressor;
     private final int nioPort = 5002;
     private ServerSocketChannel serverChannel;
     private long lastBroadcastTime = 0;
     private static final long BROADCAST_INTERVAL = 2000; // 2 seconds
+    // A text line or frame longer than this closes the channel instead of growing its buffer further
+    private static final int MAX_MESSAGE_LENGTH = WireCodec.MAX_BODY_LENGTH + 16;
     private int currentTaskId = 0; // Track current task for progress updates
     
-    public WorkerNIOHandler(Selector selector, TaskManager taskManager) {
+    /** Per-channel read state, attached to the channel's SelectionKey. */
+    private static final class ChannelState {
+        ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        boolean binary; // Switched on by the worker's HELLO frame
+        String workerKey; // Address and TCP port from the HELLO frame, null until then
+    }
+    
+    public WorkerNIOHandler(Selector selector, TaskManager taskManager, PayloadCompressor payloadCompressor) {
         this.selector = selector;
+        this.payloadCompressor = payloadCompressor;
         this.taskManager = taskManager;
     }
     
@@ -37,8 +62,8 @@ public class WorkerNIOHandler implements Runnable {
             serverChannel.bind(new InetSocketAddress(nioPort));
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
             
-            System.out.println("M3: NIO Handler listening on port " + nioPort);
-            System.out.println("M3: Non-blocking broadcast enabled (every 2 seconds)");
+            log.info("M3: NIO Handler listening on port {}", nioPort);
+            log.info("M3: Non-blocking broadcast enabled (every 2 seconds)");
             
             while (!Thread.currentThread().isInterrupted()) {
                 // M3: Non-blocking select with timeout
@@ -58,7 +83,7 @@ public class WorkerNIOHandler implements Runnable {
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
                 Iterator<SelectionKey> iterator = selectedKeys.iterator();
                 
-                System.out.println("M3: Selector detected " + readyKeys + " ready keys");
+                log.trace("M3: Selector detected {} ready keys", readyKeys);
                 
                 while (iterator.hasNext()) {
                     SelectionKey key = iterator.next();
@@ -76,7 +101,7 @@ public class WorkerNIOHandler implements Runnable {
                 }
             }
         } catch (IOException e) {
-            System.err.println("M3: NIO Handler error: " + e.getMessage());
+            log.error("M3: NIO Handler error", e);
         }
     }
     
@@ -86,41 +111,98 @@ public class WorkerNIOHandler implements Runnable {
         
         if (clientChannel != null) {
             clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
+            clientChannel.register(selector, SelectionKey.OP_READ, new ChannelState());
             
             String workerKey = clientChannel.getRemoteAddress().toString();
             taskManager.registerNIOChannel(clientChannel, workerKey);
-            System.out.println("M3: Worker connected via NIO: " + workerKey);
+            log.info("M3: Worker connected via NIO: {}", workerKey);
         }
     }
     
     private void handleRead(SelectionKey key) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ChannelState state = (ChannelState) key.attachment();
         
-        int bytesRead = channel.read(buffer);
+        int bytesRead = channel.read(state.readBuffer);
         if (bytesRead == -1) {
             channel.close();
             key.cancel();
             return;
         }
         
+        // Decode every complete message in the buffer; keep partial ones for the next read
+        ByteBuffer buffer = state.readBuffer;
         buffer.flip();
-        byte[] data = new byte[buffer.remaining()];
-        buffer.get(data);
-        String message = new String(data).trim();
-        
-        System.out.println("M3: Received from worker: " + message);
+        try {
+            while (buffer.hasRemaining()) {
+                WireMessage message;
+                if (WireCodec.isFrameStart(buffer.get(buffer.position()))) {
+                    message = WireCodec.decode(buffer);
+                } else {
+                    message = decodeTextLine(buffer);
+                }
+                if (message == null) {
+                    break; // Incomplete message
+                }
+                handleMessage(channel, state, message);
+            }
+        } catch (WireCodec.WireFormatException e) {
+            log.warn("M3: Closing channel after malformed frame: {}", e.getMessage());
+            channel.close();
+            key.cancel();
+            return;
+        }
+        buffer.compact();
         
-        // Process worker response (e.g., task results)
-        if (message.startsWith("RESULT:")) {
-            String[] parts = message.split(":");
-            if (parts.length >= 3) {
-                int taskId = Integer.parseInt(parts[1]);
-                int subTaskId = Integer.parseInt(parts[2]);
-                String result = parts.length > 3 ? parts[3] : "";
-                taskManager.submitSubTaskResult(taskId, subTaskId, result);
+        // Grow the buffer if a single message does not fit, up to the largest frame allowed
+        if (!buffer.hasRemaining()) {
+            if (buffer.capacity() >= MAX_MESSAGE_LENGTH) {
+                log.warn("M3: Closing channel after a message larger than {} bytes from {}",
+                         MAX_MESSAGE_LENGTH, channel.getRemoteAddress());
+                channel.close();
+                key.cancel();
+                return;
             }
+            ByteBuffer larger = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, MAX_MESSAGE_LENGTH));
+            buffer.flip();
+            larger.put(buffer);
+            state.readBuffer = larger;
+        }
+    }
+    
+    /**
+     * Consumes one newline-terminated text message from the buffer.
+     * Returns null without consuming anything if no full line is buffered yet.
+     * Package-private for the JMH benchmarks
+     */
+    static WireMessage decodeTextLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                byte[] line = new byte[i - start];
+                buffer.get(line);
+                buffer.get(); // Skip the newline
+                String message = new String(line).trim();
+                log.debug("M3: Received from worker: {}", message);
+                WireMessage decoded = TextCodec.decode(message);
+                return decoded != null ? decoded : WireMessage.error("Unrecognised message");
+            }
+        }
+        return null;
+    }
+    
+    private void handleMessage(SocketChannel channel, ChannelState state, WireMessage message) throws IOException {
+        if (message.type() == MessageType.HELLO) {
+            // Worker speaks WireCodec: switch this channel to binary broadcasts
+            state.binary = true;
+            state.workerKey = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress() + ":" + message.id(0);
+            log.info("M3: Worker {} (TCP port {}) switched NIO channel to binary protocol", channel.getRemoteAddress(), message.id(0));
+        } else if (message.type() == MessageType.RESULT) {
+            // Process worker response (e.g., task results)
+            message = payloadCompressor.decompress(message);
+            // Nothing is acknowledged on this channel, so the selector does not wait for the journal's fsync;
+            // the journal logs a failure itself
+            taskManager.submitSubTaskResultAsync(message.id(0), message.id(1), message.payload(), state.workerKey);
         }
     }
     
@@ -148,30 +230,31 @@ public class WorkerNIOHandler implements Runnable {
         
         // Get current task progress from TaskManager
         String progressMessage = taskManager.getTaskProgress(currentTaskId);
-        String broadcastData = "PROGRESS:" + currentTaskId + ":" + progressMessage + "\n";
-        ByteBuffer buffer = ByteBuffer.wrap(broadcastData.getBytes());
+        WireMessage progress = WireMessage.progress(currentTaskId, progressMessage);
+        String broadcastData = TextCodec.encode(progress) + "\n";
+        
+        // Encode once per format, then reuse the buffers for every channel
+        ByteBuffer textBuffer = ByteBuffer.wrap(broadcastData.getBytes());
+        ByteBuffer binaryBuffer = ByteBuffer.wrap(WireCodec.encode(progress));
         
-        System.out.println("\n========================================");
-        System.out.println("M3: Broadcasting task progress update");
-        System.out.println("M3: Active NIO channels: " + activeChannels);
-        System.out.println("M3: Message: " + broadcastData.trim());
-        System.out.println("========================================");
+        log.debug("M3: Broadcasting task progress update to {} channels: {}", activeChannels, broadcastData.trim());
         
         // Broadcast to all worker channels
         for (SelectionKey key : allKeys) {
             if (key.channel() instanceof SocketChannel && key.isValid()) {
                 SocketChannel channel = (SocketChannel) key.channel();
+                ChannelState state = (ChannelState) key.attachment();
+                ByteBuffer buffer = state != null && state.binary ? binaryBuffer : textBuffer;
                 try {
                     buffer.rewind(); // Reset buffer position for each channel
                     int bytesWritten = channel.write(buffer);
                     
                     if (bytesWritten > 0) {
-                        System.out.println("M3: Broadcast sent to " + channel.getRemoteAddress() + 
-                                         " (" + bytesWritten + " bytes)");
+                        log.trace("M3: Broadcast sent to {} ({} bytes)", channel.getRemoteAddress(), bytesWritten);
                         successfulBroadcasts++;
                     }
                 } catch (IOException e) {
-                    System.err.println("M3: Error broadcasting to channel: " + e.getMessage());
+                    errorLog.warn("M3: Error broadcasting to channel: {}", e.getMessage());
                     // Channel may be closed, cancel the key
                     key.cancel();
                     try {
@@ -183,7 +266,7 @@ public class WorkerNIOHandler implements Runnable {
             }
         }
         
-        System.out.println("M3: Broadcast complete - " + successfulBroadcasts + "/" + activeChannels + " successful\n");
+        log.debug("M3: Broadcast complete - {}/{} successful", successfulBroadcasts, activeChannels);
     }
     
     private void handleWrite(SelectionKey key) throws IOException {
@@ -198,7 +281,7 @@ public class WorkerNIOHandler implements Runnable {
      */
     public void setCurrentTask(int taskId) {
         this.currentTaskId = taskId;
-        System.out.println("M3: Now tracking progress for task " + taskId);
+        log.info("M3: Now tracking progress for task {}", taskId);
     }
     
     public void stop() {
@@ -207,7 +290,7 @@ public class WorkerNIOHandler implements Runnable {
                 serverChannel.close();
             }
         } catch (IOException e) {
-            System.err.println("M3: Error stopping NIO handler: " + e.getMessage());
+            log.warn("M3: Error stopping NIO handler: {}", e.getMessage());
         }
     }
 }
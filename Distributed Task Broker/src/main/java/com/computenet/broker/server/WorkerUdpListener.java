@@ -1,84 +1,299 @@
 package com.computenet.broker.server;
 
 import com.computenet.broker.service.TaskManager;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.util.RateLimitedLogger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * WorkerUdpListener - Member 5
  * Listens for UDP messages from workers for registration and heartbeats
+ * Accepts both binary WireCodec frames and the legacy text messages, and always
+ * answers in the format the datagram arrived in.
+ * Binary registrations negotiate optional features: the worker lists the ones it supports in
+ * REGISTER, the broker lists the ones it accepts from workers in REGISTERED.
+ * Binary heartbeats of payload-cache workers list the hashes of the data they hold, which
+ * TaskManager keeps for placing sub-tasks where their data already is.
+ * Binary registrations and heartbeats also carry the worker's capacity and capability tags.
+ *
+ * The listener runs on a non-blocking DatagramChannel: every wakeup drains up to batchSize
+ * queued datagrams into one reusable direct buffer, and the replies, which never change, are
+ * encoded once. A binary heartbeat is only acknowledged when it is the first since the worker
+ * registered, when the worker's cores, slots or tags changed, and otherwise every
+ * heartbeatAckEvery-th time; workers do not wait for the ACK, so the others only cost a send.
  */
 public class WorkerUdpListener implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerUdpListener.class);
+    
+    // Malformed datagrams can arrive at line rate, so reporting them is capped
+    private static final RateLimitedLogger errorLog = RateLimitedLogger.perSecond(log, 5);
+    
+    // The broker inflates compressed results whatever its own compression settings
+    private static final Map<String, String> BROKER_FEATURES = Map.of(WireMessage.FEATURES, WireMessage.FEATURE_DEFLATE);
+    
+    // Room for heartbeats listing cached payloads
+    private static final int MAX_DATAGRAM = 8192;
+    
+    private static final ByteBuffer REGISTERED_BINARY = encoded(WireCodec.encode(WireMessage.registered(BROKER_FEATURES)));
+    private static final ByteBuffer REGISTERED_TEXT = encoded(TextCodec.encode(WireMessage.registered(BROKER_FEATURES)).getBytes());
+    private static final ByteBuffer HEARTBEAT_ACK_BINARY = encoded(WireCodec.encode(WireMessage.heartbeatAck()));
+    private static final ByteBuffer HEARTBEAT_ACK_TEXT = encoded(TextCodec.encode(WireMessage.heartbeatAck()).getBytes());
     
     private final TaskManager taskManager;
-    private final int udpPort = 5001;
-    private DatagramSocket datagramSocket;
+    private final BrokerMetrics metrics;
+    private final int udpPort;
+    private final int batchSize;
+    private final int heartbeatAckEvery;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final byte[] textBuffer = new byte[MAX_DATAGRAM];
+    private final LongAdder acksSuppressed = new LongAdder();
+    private final LongAdder repliesDropped = new LongAdder();
+    
+    // Heartbeats since the last ACK, per worker; only touched by the listener thread
+    private final Map<String, Integer> heartbeatsSinceAck = new HashMap<>();
     
-    public WorkerUdpListener(TaskManager taskManager) {
+    private DatagramChannel channel;
+    private Selector selector;
+    
+    /**
+     * Listens on port 5001, draining -Dbroker.udp.batchSize datagrams per wakeup (default 256) and
+     * acknowledging every -Dbroker.udp.heartbeatAckEvery-th unchanged heartbeat (default 10, 1 for all).
+     */
+    public WorkerUdpListener(TaskManager taskManager, BrokerMetrics metrics) {
+        this(taskManager, metrics, 5001, Integer.getInteger("broker.udp.batchSize", 256),
+             Integer.getInteger("broker.udp.heartbeatAckEvery", 10));
+    }
+    
+    /** @param udpPort Port to listen on, 0 for any free one */
+    WorkerUdpListener(TaskManager taskManager, BrokerMetrics metrics, int udpPort, int batchSize, int heartbeatAckEvery) {
+        if (batchSize < 1 || heartbeatAckEvery < 1) {
+            throw new IllegalArgumentException("Invalid UDP settings: batch size " + batchSize
+                    + ", heartbeat ACK every " + heartbeatAckEvery);
+        }
         this.taskManager = taskManager;
+        this.metrics = metrics;
+        this.udpPort = udpPort;
+        this.batchSize = batchSize;
+        this.heartbeatAckEvery = heartbeatAckEvery;
+        metrics.counter("broker_heartbeat_acks_suppressed_total", "Heartbeats not acknowledged since nothing changed",
+                        acksSuppressed::sum);
+        metrics.counter("broker_udp_replies_dropped_total", "UDP replies dropped because the socket buffer was full",
+                        repliesDropped::sum);
     }
     
     @Override
     public void run() {
         try {
-            datagramSocket = new DatagramSocket(udpPort);
-            byte[] buffer = new byte[1024];
-            
-            System.out.println("M5: UDP Listener started on port " + udpPort);
+            open();
+            log.info("M5: UDP Listener started on port {} ({} datagrams per batch, heartbeat ACK every {})",
+                     localPort(), batchSize, heartbeatAckEvery);
             
             while (!Thread.currentThread().isInterrupted()) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                datagramSocket.receive(packet); // Blocking call
-                
-                String message = new String(packet.getData(), 0, packet.getLength()).trim();
-                InetAddress clientAddress = packet.getAddress();
-                int clientPort = packet.getPort();
-                
-                System.out.println("M5: Received UDP message: " + message + " from " + clientAddress + ":" + clientPort);
-                
-                // Parse worker registration message
-                // Expected format: "REGISTER:TCP_PORT"
-                if (message.startsWith("REGISTER:")) {
-                    String[] parts = message.split(":");
-                    if (parts.length >= 2) {
-                        int tcpPort = Integer.parseInt(parts[1]);
-                        taskManager.registerWorker(clientAddress.getHostAddress(), tcpPort);
-                        
-                        // Send acknowledgment back to worker
-                        String ack = "REGISTERED";
-                        byte[] ackData = ack.getBytes();
-                        DatagramPacket ackPacket = new DatagramPacket(
-                            ackData, ackData.length, clientAddress, clientPort
-                        );
-                        datagramSocket.send(ackPacket);
-                    }
-                } else if (message.equals("HEARTBEAT")) {
-                    // Handle heartbeat from worker
-                    System.out.println("M5: Heartbeat received from " + clientAddress);
-                    
-                    // Send heartbeat acknowledgment
-                    String ack = "ACK";
-                    byte[] ackData = ack.getBytes();
-                    DatagramPacket ackPacket = new DatagramPacket(
-                        ackData, ackData.length, clientAddress, clientPort
-                    );
-                    datagramSocket.send(ackPacket);
-                }
+                selector.select();
+                selector.selectedKeys().clear();
+                // A full batch may have left datagrams queued; the channel is still readable then
+                receiveBatch();
             }
         } catch (Exception e) {
             if (!Thread.currentThread().isInterrupted()) {
-                System.err.println("M5: UDP Listener error: " + e.getMessage());
+                log.warn("M5: UDP Listener error: {}", e.getMessage());
             }
         } finally {
             stop();
         }
     }
     
+    /** Binds the channel; run does this itself, the JMH benchmarks call it to drive receiveBatch directly. */
+    void open() throws IOException {
+        selector = Selector.open();
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(udpPort));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+    
+    int localPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+    
+    /**
+     * Handles the datagrams queued on the channel, up to batchSize of them, without blocking.
+     * @return the number handled, 0 if none was queued
+     */
+    int receiveBatch() throws IOException {
+        int received = 0;
+        int heartbeats = 0;
+        SocketAddress sender;
+        while (received < batchSize && (sender = channel.receive(buffer.clear())) != null) {
+            received++;
+            buffer.flip();
+            boolean binary = buffer.hasRemaining() && WireCodec.isFrameStart(buffer.get(0));
+            
+            WireMessage message;
+            try {
+                message = decodeDatagram(buffer, textBuffer);
+            } catch (WireCodec.WireFormatException e) {
+                errorLog.warn("M5: Dropping malformed frame from {}: {}", sender, e.getMessage());
+                continue;
+            }
+            
+            if (message == null) {
+                errorLog.warn("M5: Ignoring unrecognised UDP message from {}", sender);
+                continue;
+            }
+            
+            log.debug("M5: Received UDP {}{} from {}", message.type(), (binary ? " frame" : " message"), sender);
+            String host = ((InetSocketAddress) sender).getAddress().getHostAddress();
+            
+            if (message.type() == MessageType.REGISTER) {
+                // Binary registration negotiates the wire protocol for all later traffic with this worker
+                int tcpPort = message.id(0);
+                String workerKey = host + ":" + tcpPort;
+                taskManager.registerWorker(host, tcpPort, binary ? WireCodec.VERSION : 0,
+                                           commaSeparated(message.attribute(WireMessage.FEATURES)));
+                updateResources(workerKey, message);
+                heartbeatsSinceAck.remove(workerKey);
+                metrics.workerRegistrations.increment();
+                
+                // Send acknowledgment back to worker
+                reply(binary ? REGISTERED_BINARY : REGISTERED_TEXT, sender);
+            } else if (message.type() == MessageType.HEARTBEAT) {
+                // Handle heartbeat from worker
+                log.trace("M5: Heartbeat received from {}", sender);
+                heartbeats++;
+                String workerKey = host + ":" + message.id(0);
+                boolean changed = false;
+                if (binary) {
+                    taskManager.updateCachedPayloads(workerKey, commaSeparated(message.attribute(WireMessage.CACHED)));
+                    changed = updateResources(workerKey, message);
+                }
+                
+                // Send heartbeat acknowledgment; text heartbeats do not name their worker, so all are answered
+                if (!binary || acknowledge(workerKey, changed)) {
+                    reply(binary ? HEARTBEAT_ACK_BINARY : HEARTBEAT_ACK_TEXT, sender);
+                } else {
+                    acksSuppressed.increment();
+                }
+            }
+        }
+        metrics.heartbeats.add(heartbeats);
+        return received;
+    }
+    
+    /** Whether a heartbeat gets an ACK: the first after registration, one after a change, else every Nth. */
+    private boolean acknowledge(String workerKey, boolean changed) {
+        Integer since = heartbeatsSinceAck.get(workerKey);
+        boolean ack = since == null || changed || since + 1 >= heartbeatAckEvery;
+        heartbeatsSinceAck.put(workerKey, ack ? 0 : since + 1);
+        return ack;
+    }
+    
+    /**
+     * Decodes one datagram as a binary frame or a legacy text message, by its first byte.
+     * Returns null for unrecognised text. Package-private for the JMH benchmarks
+     */
+    static WireMessage decodeDatagram(byte[] data, int length) throws WireCodec.WireFormatException {
+        return decodeDatagram(ByteBuffer.wrap(data, 0, length), data);
+    }
+    
+    /** As above, for a datagram in a buffer in read mode; text is copied to scratch, which must be large enough. */
+    private static WireMessage decodeDatagram(ByteBuffer datagram, byte[] scratch) throws WireCodec.WireFormatException {
+        if (datagram.hasRemaining() && WireCodec.isFrameStart(datagram.get(datagram.position()))) {
+            return WireCodec.decode(datagram);
+        }
+        int length = datagram.remaining();
+        if (datagram.hasArray()) {
+            return TextCodec.decode(new String(datagram.array(), datagram.arrayOffset() + datagram.position(), length));
+        }
+        datagram.get(scratch, 0, length);
+        return TextCodec.decode(new String(scratch, 0, length));
+    }
+    
+    /** Parses a comma-separated attribute, e.g. the features of a REGISTER, absent for older workers. */
+    private static Set<String> commaSeparated(String attribute) {
+        if (attribute == null || attribute.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(attribute.split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toSet());
+    }
+    
+    /**
+     * Records the capacity a worker reported; older workers report none and stay at one slot without tags.
+     * @return whether its cores, slots or tags differ from the last report
+     */
+    private boolean updateResources(String workerKey, WireMessage message) {
+        if (message.attribute(WireMessage.SLOTS) == null && message.attribute(WireMessage.TAGS) == null) {
+            return false;
+        }
+        TaskManager.WorkerResources previous = taskManager.getWorkerResources(workerKey);
+        TaskManager.WorkerResources resources = new TaskManager.WorkerResources(
+            (int) number(message.attribute(WireMessage.CORES), 0),
+            (int) number(message.attribute(WireMessage.SLOTS), 1),
+            number(message.attribute(WireMessage.FREE_MEMORY), -1),
+            (int) number(message.attribute(WireMessage.LOAD), 0),
+            commaSeparated(message.attribute(WireMessage.TAGS)));
+        taskManager.updateWorkerResources(workerKey, resources);
+        return previous.cores() != resources.cores() || previous.slots() != resources.slots()
+               || !Objects.equals(previous.tags(), resources.tags());
+    }
+    
+    private static long number(String attribute, long fallback) {
+        if (attribute == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(attribute.trim());
+        } catch (NumberFormatException e) {
+            errorLog.warn("M5: Ignoring malformed worker attribute '{}'", attribute);
+            return fallback;
+        }
+    }
+    
+    /** Sends a pre-encoded reply; if the socket buffer is full it is dropped, as the network might have. */
+    private void reply(ByteBuffer encoded, SocketAddress address) throws IOException {
+        if (channel.send(encoded.duplicate(), address) == 0) {
+            repliesDropped.increment();
+        }
+    }
+    
+    private static ByteBuffer encoded(byte[] data) {
+        return ByteBuffer.allocateDirect(data.length).put(data).flip().asReadOnlyBuffer();
+    }
+    
     public void stop() {
-        if (datagramSocket != null && !datagramSocket.isClosed()) {
-            datagramSocket.close();
-            System.out.println("M5: UDP Listener stopped");
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+                log.info("M5: UDP Listener stopped");
+            }
+        } catch (IOException e) {
+            log.warn("M5: Error closing UDP Listener: {}", e.getMessage());
         }
     }
 }
@@ -5,12 +5,18 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.UnknownHostException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * M4: Multicast Task Configuration Broadcaster
  * Broadcasts task configuration to all workers before sub-task dispatch
+ * The data itself is not broadcast, only its ContentHash: workers resolve it from their
+ * payload cache, and the datagram stays small whatever the task size.
  */
 public class TaskConfigMulticaster {
+    private static final Logger log = LoggerFactory.getLogger(TaskConfigMulticaster.class);
+    
     private static final String MULTICAST_ADDRESS = "230.0.0.1";
     private static final int MULTICAST_PORT = 6005;
     private static final int TTL = 1; // Local network only
@@ -20,35 +26,35 @@ public class TaskConfigMulticaster {
     public TaskConfigMulticaster() {
         try {
             this.multicastGroup = InetAddress.getByName(MULTICAST_ADDRESS);
-            System.out.println("M4: Multicast initialized on " + MULTICAST_ADDRESS + ":" + MULTICAST_PORT);
+            log.info("M4: Multicast initialized on {}:{}", MULTICAST_ADDRESS, MULTICAST_PORT);
         } catch (UnknownHostException e) {
-            System.err.println("M4: Failed to initialize multicast group: " + e.getMessage());
+            log.warn("M4: Failed to initialize multicast group: {}", e.getMessage());
         }
     }
     
     /**
      * Broadcasts task configuration to all workers via multicast
-     * Enhanced format: "TASKCONFIG:taskId:taskName:splitCount:taskData:subTask1|subTask2|..."
+     * Format: "TASKCONFIG:taskId:taskName:splitCount:taskDataHash:subTaskHash1|subTaskHash2|..."
      * 
      * @param taskId The unique task identifier
      * @param taskName The task name
      * @param splitCount Number of sub-tasks
-     * @param taskData Original task data
-     * @param subTasks Array of sub-task data strings
+     * @param taskDataHash ContentHash of the original task data
+     * @param subTaskHashes ContentHash of each sub-task's data
      * @return true if broadcast successful, false otherwise
      */
     public boolean broadcastTaskConfig(String taskId, String taskName, int splitCount, 
-                                       String taskData, java.util.List<String> subTasks) {
+                                       String taskDataHash, java.util.List<String> subTaskHashes) {
         if (multicastGroup == null) {
-            System.err.println("M4: Multicast group not initialized");
+            log.warn("M4: Multicast group not initialized");
             return false;
         }
         
         // Join sub-tasks with pipe separator
-        String subTasksJoined = String.join("|", subTasks);
+        String subTasksJoined = String.join("|", subTaskHashes);
         
         String message = String.format("TASKCONFIG:%s:%s:%d:%s:%s", 
-            taskId, taskName, splitCount, taskData, subTasksJoined);
+            taskId, taskName, splitCount, taskDataHash, subTasksJoined);
         
         try (MulticastSocket socket = new MulticastSocket()) {
             socket.setTimeToLive(TTL);
@@ -62,12 +68,11 @@ public class TaskConfigMulticaster {
             );
             
             socket.send(packet);
-            System.out.println("M4: Broadcasted config for task " + taskId + 
-                             " '" + taskName + "' (splits: " + splitCount + ")");
+            log.debug("M4: Broadcasted config for task {} '{}' (splits: {})", taskId, taskName, splitCount);
             return true;
             
         } catch (IOException e) {
-            System.err.println("M4: Broadcast failed: " + e.getMessage());
+            log.warn("M4: Broadcast failed: {}", e.getMessage());
             return false;
         }
     }
@@ -0,0 +1,43 @@
+package com.computenet.broker.service;
+
+import com.computenet.broker.storage.ResultRef;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * TaskJournal - Receives every TaskManager state change, after it has been applied in memory
+ * Implemented by the persistence layer to write a durable log. Each call returns once the
+ * change is as durable as the journal's configured level requires, so a caller that
+ * acknowledges after a TaskManager method returns never acknowledges a lost change.
+ * Sub-task results, assignments and releases are the exception: they are recorded from the
+ * NIO selector and under the StragglerMonitor's lock, so those calls never wait for the disk.
+ */
+public interface TaskJournal {
+
+    /** Journal used when persistence is off; every call is a no-op. */
+    TaskJournal NONE = new TaskJournal() {};
+    
+    /**
+     * combiner is the spec of the task's ResultCombiner, or null if it has none; deadline is in epoch
+     * milliseconds, 0 for none.
+     */
+    default void taskCreated(int taskId, String taskName, String taskData, int totalSubTasks, String combiner,
+                             long deadline) {
+    }
+    
+    default void workerRegistered(TaskManager.WorkerDetails worker) {
+    }
+    
+    default void subTaskAssigned(String workerKey, int taskId, int subTaskId) {
+    }
+    
+    /**
+     * The result bytes are already in the TaskManager's ResultStore; only their location is journaled.
+     * @return completes once the record is durable; callers that acknowledge the result wait for it
+     */
+    default CompletableFuture<Void> subTaskResult(int taskId, int subTaskId, ResultRef result) {
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    default void subTaskReleased(String workerKey, int taskId, int subTaskId) {
+    }
+}
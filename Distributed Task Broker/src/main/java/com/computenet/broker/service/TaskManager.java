@@ -1,12 +1,30 @@
 package com.computenet.broker.service;
 
+import com.computenet.broker.reduce.Reduction;
+import com.computenet.broker.reduce.ResultCombiner;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.broker.storage.ResultStore;
+import com.computenet.util.RateLimitedLogger;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * TaskManager: Manages all in-memory data structures for the Broker Server.
@@ -14,6 +32,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class TaskManager {
 
+    private static final Logger log = LoggerFactory.getLogger(TaskManager.class);
+    
+    // Per-task events are sampled so bulk submissions cannot flood the log
+    private static final RateLimitedLogger taskLog = RateLimitedLogger.perSecond(log, 20);
+
     // --- In-Memory Data Structures ---
 
     // M5: Stores active workers registered via UDP/TCP. Key: Worker IP:Port, Value: Worker details.
@@ -31,42 +54,218 @@ public class TaskManager {
     // Track sub-task assignments per worker (for worker statistics)
     // Key: Worker Key (IP:Port), Value: Set of sub-task keys (taskId-subTaskId)
     private final Map<String, Set<String>> workerSubTasks = new ConcurrentHashMap<>();
+    
+    // Content hashes of the sub-task data each worker holds in its payload cache, for placing sub-tasks where their
+    // data already is. Replaced by every heartbeat that lists them, added to when a worker takes data; not journalled
+    private final Map<String, Set<String>> workerCachedPayloads = new ConcurrentHashMap<>();
+    
+    // What each worker reported about itself at registration and in its last heartbeat. Not journalled,
+    // workers report again within a heartbeat interval
+    private final Map<String, WorkerResources> workerResources = new ConcurrentHashMap<>();
+    
+    // Tags a worker must have to run the task's sub-tasks, for tasks submitted with any; not journalled,
+    // since recovered tasks are not dispatched again
+    private final Map<Integer, Set<String>> requiredTags = new ConcurrentHashMap<>();
+    
+    // Longest a long-poll or an originator push waits for a task before giving up
+    public static final long MAX_AWAIT_MILLIS = Long.getLong("broker.maxAwaitMillis", 3_600_000L);
+    
+    // Deadline of tasks submitted without one, in milliseconds after acceptance; 0 for none
+    public static final long DEFAULT_DEADLINE_MILLIS = Long.getLong("broker.defaultDeadlineMillis", 0L);
+    
+    // Result recorded for every sub-task still missing when its task's deadline passes
+    public static final String DEADLINE_EXCEEDED = "FAILED: Deadline exceeded";
+    
+    // Result recorded for every sub-task of a task that no registered worker has the required tags for
+    public static final String NO_CAPABLE_WORKER = "FAILED: No worker has the required tags";
+    
+    // Completion waiters of unfinished tasks (long-polls, pushes to originators), removed when the task completes
+    private final Map<Integer, CompletableFuture<Integer>> completionWaiters = new ConcurrentHashMap<>();
+    
+    // Deadlines of tasks that have one, soonest first; expireOverdueTasks takes those that have passed
+    private final DelayQueue<TaskDeadline> deadlines = new DelayQueue<>();
+    
+    // Sub-tasks of all tasks that have no result yet, for admission control
+    private final AtomicInteger outstandingSubTasks = new AtomicInteger();
 
     // Used to generate unique IDs for new tasks. Thread-safe counter.
     private final AtomicInteger taskIdGenerator = new AtomicInteger(1000);
+    
+    // Durable log of state changes; NONE until the persistence layer has finished recovery
+    private volatile TaskJournal journal = TaskJournal.NONE;
+    
+    // Sub-task result bytes live here, off-heap; TaskState only keeps their ResultRefs
+    private final ResultStore resultStore;
+    
+    // Told about the first result of every sub-task, e.g. by the WorkflowManager to feed the next stage
+    private final List<SubTaskListener> subTaskListeners = new CopyOnWriteArrayList<>();
+    
+    public TaskManager() {
+        this(ResultStore.temporary());
+    }
+    
+    public TaskManager(ResultStore resultStore) {
+        this.resultStore = resultStore;
+    }
 
     // --- Nested Classes for Data Modeling ---
 
-    /** Simple record to hold details about an active Worker Client. */
-    public record WorkerDetails(String address, int tcpPort, String status) {}
+    /**
+     * Simple record to hold details about an active Worker Client.
+     * protocolVersion is 0 for text-protocol workers, otherwise the WireCodec version negotiated at registration.
+     * features are the optional protocol features the worker announced when registering, e.g. payload-cache.
+     */
+    public record WorkerDetails(String address, int tcpPort, String status, int protocolVersion, Set<String> features) {
+        public WorkerDetails {
+            // Snapshots written before features existed have none
+            features = features != null ? Set.copyOf(features) : Set.of();
+        }
+        
+        public WorkerDetails(String address, int tcpPort, String status, int protocolVersion) {
+            this(address, tcpPort, status, protocolVersion, Set.of());
+        }
+        
+        public boolean usesBinaryProtocol() {
+            return protocolVersion > 0;
+        }
+        
+        public boolean supports(String feature) {
+            return features.contains(feature);
+        }
+        
+        /** Key identifying the worker in sub-task assignments (IP:Port). */
+        public String key() {
+            return address + ":" + tcpPort;
+        }
+    }
 
-    /** State object for tracking a task being processed across the network. */
+    /**
+     * State object for tracking a task being processed across the network. Results are locations in the ResultStore.
+     * reduction is null for tasks submitted without a combiner; deadline is in epoch milliseconds, 0 for none.
+     */
     public record TaskState(
             String taskName,
             String originalTaskData,
             int totalSubTasks,
             AtomicInteger completedSubTasks,
-            Map<Integer, String> results
+            Map<Integer, ResultRef> results,
+            Reduction reduction,
+            long deadline
     ) {}
+    
+    /** Point-in-time copy of everything the journal records, written out as a snapshot. */
+    public record Snapshot(
+            int lastTaskId,
+            List<WorkerDetails> workers,
+            Map<Integer, TaskSnapshot> tasks,
+            Map<String, Set<String>> assignments
+    ) {}
+    
+    /**
+     * TaskState without the live counters; combiner and aggregate are null without a reduce stage, or before it finished.
+     * deadline is 0 for tasks without one, and in snapshots written before deadlines existed.
+     */
+    public record TaskSnapshot(
+            String taskName,
+            String originalTaskData,
+            int totalSubTasks,
+            int completedSubTasks,
+            Map<Integer, ResultRef> results,
+            String combiner,
+            ResultRef aggregate,
+            long deadline
+    ) {}
+    
+    /** Receives sub-task results as they are recorded. */
+    public interface SubTaskListener {
+        /**
+         * Called once per sub-task, for its first result, on the thread that recorded it; must not block.
+         * @param workerKey The worker that computed the result, or null if it did not come from a worker
+         */
+        void subTaskCompleted(int taskId, int subTaskId, String workerKey, ResultRef result);
+    }
+    
+    /**
+     * Capacity and capabilities a worker reports in its binary REGISTER and HEARTBEAT frames.
+     * Workers that report nothing, e.g. text-protocol ones, count as UNKNOWN: one slot and no tags.
+     *
+     * @param cores           Processors available to the worker's JVM, 0 if unknown
+     * @param slots           Sub-tasks it computes at once
+     * @param freeMemoryBytes Heap it can still allocate, -1 if unknown
+     * @param load            Sub-tasks it was running or had queued when it reported
+     * @param tags            Capabilities, e.g. gpu, that tasks can require
+     */
+    public record WorkerResources(int cores, int slots, long freeMemoryBytes, int load, Set<String> tags) {
+        public static final WorkerResources UNKNOWN = new WorkerResources(0, 1, -1, 0, Set.of());
+        
+        public WorkerResources {
+            slots = Math.max(slots, 1);
+            tags = tags != null ? Set.copyOf(tags) : Set.of();
+        }
+    }
+    
+    /** Aggregated result of a task with a reduce stage; aggregate is null until the last sub-task is folded in. */
+    public record TaskAggregate(String combiner, int completedSubTasks, int totalSubTasks, ResultRef aggregate) {}
+    
+    /** A task's deadline as queued in the DelayQueue, due once the wall clock passes it. */
+    private record TaskDeadline(int taskId, long deadline) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((TaskDeadline) other).deadline);
+        }
+    }
 
 
     // --- Core Methods for Network Component Interaction ---
 
     // M5: Called by WorkerUdpListener to register a new worker.
-    public void registerWorker(String ipAddress, int tcpPort) {
+    public void registerWorker(String ipAddress, int tcpPort, int protocolVersion, Set<String> features) {
         String key = ipAddress + ":" + tcpPort;
-        workerPool.put(key, new WorkerDetails(ipAddress, tcpPort, "IDLE"));
-        System.out.println("TaskManager: Worker registered in memory: " + key);
+        WorkerDetails worker = new WorkerDetails(ipAddress, tcpPort, "IDLE", protocolVersion, features);
+        // Workers re-register periodically; only a change needs to reach the journal
+        if (!worker.equals(workerPool.put(key, worker))) {
+            journal.workerRegistered(worker);
+        }
+        log.info("TaskManager: Worker registered in memory: {} (protocol v{}, features {})", key, protocolVersion,
+                 worker.features());
+    }
+    
+    public void registerWorker(String ipAddress, int tcpPort, int protocolVersion) {
+        registerWorker(ipAddress, tcpPort, protocolVersion, Set.of());
+    }
+    
+    // M5: Registers a worker that speaks the text protocol.
+    public void registerWorker(String ipAddress, int tcpPort) {
+        registerWorker(ipAddress, tcpPort, 0);
     }
 
     // M3: Called by WorkerNIOHandler to register a channel for broadcasting.
     public void registerNIOChannel(SocketChannel channel, String workerKey) {
         nioWorkerChannels.put(channel, workerKey);
-        System.out.println("TaskManager: NIO channel registered for broadcast.");
+        log.debug("TaskManager: NIO channel registered for broadcast.");
     }
 
     // M1: Called by TaskTcpReceiver when a new task is reliably submitted.
     public int createTask(String taskName, String taskData, int subTaskCount) {
+        return createTask(taskName, taskData, subTaskCount, null);
+    }
+    
+    // M1: Creates a task whose sub-task results are folded into one by the combiner (null for none)
+    public int createTask(String taskName, String taskData, int subTaskCount, ResultCombiner combiner) {
+        return createTask(taskName, taskData, subTaskCount, combiner, 0);
+    }
+    
+    // M1: Creates a task that must complete within deadlineMillis of now (0 for DEFAULT_DEADLINE_MILLIS);
+    // sub-tasks still missing then are recorded as DEADLINE_EXCEEDED by expireOverdueTasks
+    public int createTask(String taskName, String taskData, int subTaskCount, ResultCombiner combiner,
+                          long deadlineMillis) {
+        long relative = deadlineMillis > 0 ? deadlineMillis : DEFAULT_DEADLINE_MILLIS;
+        long deadline = relative > 0 ? System.currentTimeMillis() + relative : 0;
         int newId = taskIdGenerator.incrementAndGet();
         
         // Validate sub-task count
@@ -74,8 +273,8 @@ public class TaskManager {
         int actualSubTasks = Math.min(subTaskCount, numWorkers);
         
         if (actualSubTasks < subTaskCount) {
-            System.out.println("TaskManager: Requested " + subTaskCount + " sub-tasks, but only " + 
-                             numWorkers + " workers available. Using " + actualSubTasks + " sub-tasks.");
+            log.info("TaskManager: Requested {} sub-tasks, but only {} workers available. Using {} sub-tasks.",
+                     subTaskCount, numWorkers, actualSubTasks);
         }
 
         TaskState newState = new TaskState(
@@ -83,11 +282,16 @@ public class TaskManager {
             taskData,
             actualSubTasks,
             new AtomicInteger(0),
-            new ConcurrentHashMap<>()
+            new ConcurrentHashMap<>(),
+            combiner != null ? new Reduction(combiner, actualSubTasks) : null,
+            deadline
         );
         activeTasks.put(newId, newState);
-        System.out.println("TaskManager: New Task '" + taskName + "' created with ID: " + newId + 
-                         ". Split into " + actualSubTasks + " sub-tasks.");
+        outstandingSubTasks.addAndGet(actualSubTasks);
+        watchDeadline(newId, deadline);
+        journal.taskCreated(newId, taskName, taskData, actualSubTasks, combiner != null ? combiner.spec() : null,
+                            deadline);
+        taskLog.info("TaskManager: New Task '{}' created with ID: {}. Split into {} sub-tasks.", taskName, newId, actualSubTasks);
         return newId;
     }
     
@@ -100,13 +304,205 @@ public class TaskManager {
 
     // M2: Called by the ExecutorService thread when a sub-task result returns.
     public void submitSubTaskResult(int taskId, int subTaskId, String result) {
+        submitSubTaskResult(taskId, subTaskId, result, null);
+    }
+    
+    // Called for /api/worker-complete, which names the worker that computed the result
+    public void submitSubTaskResult(int taskId, int subTaskId, String result, String workerKey) {
+        submitSubTaskResult(taskId, subTaskId, result.getBytes(StandardCharsets.UTF_8), workerKey);
+    }
+    
+    // M3: Binary workers deliver the result as raw bytes, stored without decoding.
+    public void submitSubTaskResult(int taskId, int subTaskId, byte[] result) {
+        submitSubTaskResult(taskId, subTaskId, result, null);
+    }
+    
+    // Records a result computed by the given worker (null if unknown) and returns once it is journaled,
+    // so the caller may acknowledge it.
+    public void submitSubTaskResult(int taskId, int subTaskId, byte[] result, String workerKey) {
+        try {
+            submitSubTaskResultAsync(taskId, subTaskId, result, workerKey).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+    
+    // Records a result without waiting for the journal's fsync, for the NIO selector and other threads that
+    // must not block; the future completes once the result is journaled. Listeners and completion waiters
+    // are told at once, as they only read the result, which is already in the ResultStore.
+    // Only the first result of a sub-task counts; a repeated completion is ignored.
+    // The ResultStore is append-only, so repeats are turned away before they are stored; only one
+    // racing the first result for the same sub-task can still leave its bytes behind unreferenced.
+    public CompletableFuture<Void> submitSubTaskResultAsync(int taskId, int subTaskId, byte[] result, String workerKey) {
+        CompletableFuture<Void> journaled = CompletableFuture.completedFuture(null);
         TaskState state = activeTasks.get(taskId);
         if (state != null) {
-            state.completedSubTasks().incrementAndGet();
-            state.results().put(subTaskId, result);
-            System.out.println("TaskManager: Sub-task " + subTaskId + " completed.");
+            if (state.results().containsKey(subTaskId)) {
+                log.debug("TaskManager: Ignoring repeated result for sub-task {} of task {}.", subTaskId, taskId);
+                return journaled;
+            }
+            ResultRef ref = resultStore.append(result);
+            if (state.results().putIfAbsent(subTaskId, ref) != null) {
+                log.debug("TaskManager: Ignoring repeated result for sub-task {} of task {}.", subTaskId, taskId);
+                return journaled;
+            }
+            countCompleted(state);
+            journaled = journal.subTaskResult(taskId, subTaskId, ref);
+            log.debug("TaskManager: Sub-task {} of task {} completed.", subTaskId, taskId);
+            for (SubTaskListener listener : subTaskListeners) {
+                listener.subTaskCompleted(taskId, subTaskId, workerKey, ref);
+            }
+            if (state.reduction() != null) {
+                reduce(taskId, state.reduction(), subTaskId, new String(result, StandardCharsets.UTF_8));
+            }
+            if (isComplete(state)) {
+                requiredTags.remove(taskId);
+                CompletableFuture<Integer> waiter = completionWaiters.remove(taskId);
+                if (waiter != null) {
+                    waiter.complete(taskId);
+                }
+            }
+        }
+        return journaled;
+    }
+    
+    // A task is complete once every sub-task reported and its reduce stage, if any, stored the combined result
+    private static boolean isComplete(TaskState state) {
+        return state.completedSubTasks().get() >= state.totalSubTasks()
+               && (state.reduction() == null || state.reduction().aggregate() != null);
+    }
+    
+    /**
+     * Completes with the task ID when the task completes, or at once if it already has; null if the task is unknown.
+     * The future is shared by all waiters of the task and completed on the thread that recorded the last result:
+     * add timeouts to a copy() and do slow work in async stages.
+     */
+    public CompletableFuture<Integer> awaitCompletion(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        if (state == null) {
+            return null;
+        }
+        if (isComplete(state)) {
+            return CompletableFuture.completedFuture(taskId);
+        }
+        CompletableFuture<Integer> waiter = completionWaiters.computeIfAbsent(taskId, id -> new CompletableFuture<>());
+        // The last result may have been recorded between the check and the registration
+        if (isComplete(state) && completionWaiters.remove(taskId, waiter)) {
+            waiter.complete(taskId);
+        }
+        return waiter;
+    }
+    
+    public void addSubTaskListener(SubTaskListener listener) {
+        subTaskListeners.add(listener);
+    }
+    
+    // Queues the task's deadline, if it has one
+    private void watchDeadline(int taskId, long deadline) {
+        if (deadline > 0) {
+            deadlines.add(new TaskDeadline(taskId, deadline));
+        }
+    }
+    
+    /**
+     * Records DEADLINE_EXCEEDED for the missing sub-tasks of every task whose deadline has passed, so the task
+     * completes and its waiters are answered; a copy still running somewhere can no longer change the result.
+     * @return IDs of the tasks that were still unfinished at their deadline
+     */
+    public List<Integer> expireOverdueTasks() {
+        List<Integer> expired = new ArrayList<>();
+        TaskDeadline due;
+        while ((due = deadlines.poll()) != null) {
+            TaskState state = activeTasks.get(due.taskId());
+            if (state == null || isComplete(state)) {
+                continue;
+            }
+            int missing = 0;
+            for (int subTaskId = 1; subTaskId <= state.totalSubTasks(); subTaskId++) {
+                if (!state.results().containsKey(subTaskId)) {
+                    // Nothing acknowledges these, so the StragglerMonitor's tick need not wait for the journal
+                    submitSubTaskResultAsync(due.taskId(), subTaskId, DEADLINE_EXCEEDED.getBytes(StandardCharsets.UTF_8), null);
+                    missing++;
+                }
+            }
+            taskLog.warn("TaskManager: Task {} missed its deadline, {} of {} sub-tasks failed.", due.taskId(), missing,
+                         state.totalSubTasks());
+            expired.add(due.taskId());
+        }
+        return expired;
+    }
+    
+    // Deadline of a task in epoch milliseconds; 0 if it has none or is unknown
+    public long getTaskDeadline(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        return state != null ? state.deadline() : 0;
+    }
+    
+    // Whether a sub-task has reported, by any worker
+    public boolean hasSubTaskResult(int taskId, int subTaskId) {
+        TaskState state = activeTasks.get(taskId);
+        return state != null && state.results().containsKey(subTaskId);
+    }
+    
+    // Results beyond the task's sub-task count do not make others outstanding
+    private void countCompleted(TaskState state) {
+        if (state.completedSubTasks().incrementAndGet() <= state.totalSubTasks()) {
+            outstandingSubTasks.decrementAndGet();
+        }
+    }
+    
+    // Sub-tasks of accepted tasks that have no result yet (used by admission control)
+    public int getOutstandingSubTaskCount() {
+        return outstandingSubTasks.get();
+    }
+    
+    // Number of tasks someone is waiting on (used by metrics gauges)
+    public int getCompletionWaiterCount() {
+        return completionWaiters.size();
+    }
+    
+    // Progress of one task, COMPLETED as defined by awaitCompletion; null if the task is unknown
+    public TaskInfo getTaskInfo(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        if (state == null) {
+            return null;
+        }
+        return new TaskInfo(taskId, state.taskName(), state.completedSubTasks().get(), state.totalSubTasks(),
+                            isComplete(state) ? "COMPLETED" : "PENDING");
+    }
+    
+    // What a completed task delivers: its combined result, or else every sub-task result in sub-task order
+    public List<ResultRef> getFinalResults(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        if (state == null) {
+            return List.of();
+        }
+        if (state.reduction() != null && state.reduction().aggregate() != null) {
+            return List.of(state.reduction().aggregate());
+        }
+        return List.copyOf(new TreeMap<>(state.results()).values());
+    }
+    
+    // Folds a result into the task's reduce stage; the last one stores the aggregated result.
+    // The aggregate is not journaled: recovery folds the journaled sub-task results again.
+    private void reduce(int taskId, Reduction reduction, int subTaskId, String result) {
+        String aggregate = reduction.fold(subTaskId, result);
+        if (aggregate != null) {
+            reduction.setAggregate(resultStore.append(aggregate));
+            taskLog.info("TaskManager: Task {} reduced with {}.", taskId, reduction.spec());
         }
     }
+    
+    // Aggregated result of a task, or null if the task is unknown or has no reduce stage
+    public TaskAggregate getTaskAggregate(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        if (state == null || state.reduction() == null) {
+            return null;
+        }
+        Reduction reduction = state.reduction();
+        return new TaskAggregate(reduction.spec(), state.completedSubTasks().get(), state.totalSubTasks(),
+                                 reduction.aggregate());
+    }
 
     // M3: Provides the current progress for the NIO broadcast.
     public String getTaskProgress(int taskId) {
@@ -135,25 +531,158 @@ public class TaskManager {
     public void assignSubTaskToWorker(String workerKey, int taskId, int subTaskId) {
         String subTaskKey = taskId + "-" + subTaskId;
         workerSubTasks.computeIfAbsent(workerKey, k -> ConcurrentHashMap.newKeySet()).add(subTaskKey);
-        System.out.println("TaskManager: Assigned sub-task " + subTaskKey + " to worker " + workerKey);
+        journal.subTaskAssigned(workerKey, taskId, subTaskId);
+        log.debug("TaskManager: Assigned sub-task {} to worker {}", subTaskKey, workerKey);
     }
     
     // M2: Track when a sub-task is completed by a worker
     public void completeSubTaskForWorker(String workerKey, int taskId, int subTaskId) {
         String subTaskKey = taskId + "-" + subTaskId;
         Set<String> tasks = workerSubTasks.get(workerKey);
-        if (tasks != null) {
-            tasks.remove(subTaskKey);
-            System.out.println("TaskManager: Removed completed sub-task " + subTaskKey + " from worker " + workerKey);
+        if (tasks != null && tasks.remove(subTaskKey)) {
+            journal.subTaskReleased(workerKey, taskId, subTaskId);
+            log.debug("TaskManager: Removed completed sub-task {} from worker {}", subTaskKey, workerKey);
+        }
+    }
+    
+    // M2: Track when a worker turned a sub-task down, so it can be assigned to another one
+    public void releaseSubTask(String workerKey, int taskId, int subTaskId) {
+        String subTaskKey = taskId + "-" + subTaskId;
+        Set<String> tasks = workerSubTasks.get(workerKey);
+        if (tasks != null && tasks.remove(subTaskKey)) {
+            journal.subTaskReleased(workerKey, taskId, subTaskId);
+            log.debug("TaskManager: Released sub-task {} from worker {}", subTaskKey, workerKey);
+        }
+    }
+    
+    // Whether the worker still holds the sub-task, i.e. has neither completed nor released it
+    public boolean isSubTaskAssigned(String workerKey, int taskId, int subTaskId) {
+        Set<String> tasks = workerSubTasks.get(workerKey);
+        return tasks != null && tasks.contains(taskId + "-" + subTaskId);
+    }
+    
+    // Called for each heartbeat of a payload-cache worker, with the hashes of all the data it still holds
+    public void updateCachedPayloads(String workerKey, Set<String> hashes) {
+        Set<String> cached = ConcurrentHashMap.newKeySet(hashes.size());
+        cached.addAll(hashes);
+        workerCachedPayloads.put(workerKey, cached);
+    }
+    
+    // Called when a payload-cache worker has acknowledged data, whether sent or found in its cache
+    public void addCachedPayload(String workerKey, String hash) {
+        workerCachedPayloads.computeIfAbsent(workerKey, k -> ConcurrentHashMap.newKeySet()).add(hash);
+    }
+    
+    // Whether the worker is known to hold the data with this content hash
+    public boolean holdsPayload(String workerKey, String hash) {
+        Set<String> cached = workerCachedPayloads.get(workerKey);
+        return cached != null && cached.contains(hash);
+    }
+    
+    // Called by WorkerUdpListener for every binary REGISTER and HEARTBEAT
+    public void updateWorkerResources(String workerKey, WorkerResources resources) {
+        workerResources.put(workerKey, resources);
+    }
+    
+    public WorkerResources getWorkerResources(String workerKey) {
+        return workerResources.getOrDefault(workerKey, WorkerResources.UNKNOWN);
+    }
+    
+    // Pending sub-tasks per slot, for placing sub-tasks by capacity rather than by count
+    public double getWorkerLoad(String workerKey) {
+        return (double) getWorkerPendingSubTasks(workerKey) / getWorkerResources(workerKey).slots();
+    }
+    
+    // Restricts the task's sub-tasks to workers with all of these tags; call before it is dispatched
+    public void setRequiredTags(int taskId, Set<String> tags) {
+        if (!tags.isEmpty()) {
+            requiredTags.put(taskId, Set.copyOf(tags));
         }
     }
     
+    public Set<String> getRequiredTags(int taskId) {
+        return requiredTags.getOrDefault(taskId, Set.of());
+    }
+    
+    // Whether the worker has every tag the task requires
+    public boolean canRun(String workerKey, int taskId) {
+        Set<String> tags = requiredTags.get(taskId);
+        return tags == null || getWorkerResources(workerKey).tags().containsAll(tags);
+    }
+    
+    // The workers among the given ones that may run the task's sub-tasks
+    public List<WorkerDetails> getCapableWorkers(int taskId, List<WorkerDetails> workers) {
+        if (!requiredTags.containsKey(taskId)) {
+            return workers;
+        }
+        return workers.stream().filter(worker -> canRun(worker.key(), taskId)).toList();
+    }
+    
+    // Fails the task's missing sub-tasks with NO_CAPABLE_WORKER, so it completes and its waiters are answered
+    public void failWithoutCapableWorker(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        if (state == null) {
+            return;
+        }
+        taskLog.warn("TaskManager: No worker has tags {} required by task {}, failing it.", getRequiredTags(taskId), taskId);
+        for (int subTaskId = 1; subTaskId <= state.totalSubTasks(); subTaskId++) {
+            if (!state.results().containsKey(subTaskId)) {
+                submitSubTaskResult(taskId, subTaskId, NO_CAPABLE_WORKER);
+            }
+        }
+    }
+    
+    // Parses comma-separated tags, as given by workers and originators; null or blank for none
+    public static Set<String> parseTags(String tags) {
+        if (tags == null || tags.isBlank()) {
+            return Set.of();
+        }
+        Set<String> parsed = new HashSet<>();
+        for (String tag : tags.split(",")) {
+            if (!tag.isBlank()) {
+                parsed.add(tag.trim());
+            }
+        }
+        return parsed;
+    }
+    
     // Get number of pending sub-tasks for a worker
     public int getWorkerPendingSubTasks(String workerKey) {
         Set<String> tasks = workerSubTasks.get(workerKey);
         return tasks != null ? tasks.size() : 0;
     }
     
+    // Number of registered workers, without copying the pool (used by metrics gauges)
+    public int getWorkerCount() {
+        return workerPool.size();
+    }
+    
+    // Results recorded so far for a task, ordered by sub-task ID; null if the task is unknown
+    public Map<Integer, ResultRef> getTaskResults(int taskId) {
+        TaskState state = activeTasks.get(taskId);
+        return state != null ? new TreeMap<>(state.results()) : null;
+    }
+    
+    public ResultStore getResultStore() {
+        return resultStore;
+    }
+    
+    // Number of tasks the broker knows about, finished or not
+    public int getTaskCount() {
+        return activeTasks.size();
+    }
+    
+    // Number of tasks with sub-tasks still outstanding
+    public int getPendingTaskCount() {
+        int pending = 0;
+        for (TaskState state : activeTasks.values()) {
+            if (state.completedSubTasks().get() < state.totalSubTasks()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+    
     // Get worker statistics for all workers
     public Map<String, WorkerStats> getWorkerStatistics() {
         Map<String, WorkerStats> stats = new ConcurrentHashMap<>();
@@ -175,7 +704,8 @@ public class TaskManager {
                 details.address(),
                 details.tcpPort(),
                 status,
-                pendingTasks
+                pendingTasks,
+                getWorkerResources(workerKey)
             ));
         }
         return stats;
@@ -216,8 +746,144 @@ public class TaskManager {
         return overview;
     }
     
+    // --- Persistence ---
+    
+    // Attaches the durable log once recovery has rebuilt the in-memory state
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+    
+    // Copies the journaled state. Runs concurrently with updates, so the copy may already
+    // contain changes logged after the point the caller took it at; replay is idempotent.
+    public Snapshot snapshot() {
+        Map<Integer, TaskSnapshot> tasks = new HashMap<>();
+        for (Map.Entry<Integer, TaskState> entry : activeTasks.entrySet()) {
+            TaskState state = entry.getValue();
+            Reduction reduction = state.reduction();
+            // The count is taken from the copied results: the counter lags a result being recorded
+            Map<Integer, ResultRef> results = new HashMap<>(state.results());
+            tasks.put(entry.getKey(), new TaskSnapshot(
+                state.taskName(),
+                state.originalTaskData(),
+                state.totalSubTasks(),
+                results.size(),
+                results,
+                reduction != null ? reduction.spec() : null,
+                reduction != null ? reduction.aggregate() : null,
+                state.deadline()
+            ));
+        }
+        Map<String, Set<String>> assignments = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : workerSubTasks.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                assignments.put(entry.getKey(), Set.copyOf(entry.getValue()));
+            }
+        }
+        return new Snapshot(taskIdGenerator.get(), List.copyOf(workerPool.values()), tasks, assignments);
+    }
+    
+    // Loads a snapshot during recovery, before any journal records are replayed
+    public void restore(Snapshot snapshot) {
+        taskIdGenerator.accumulateAndGet(snapshot.lastTaskId(), Math::max);
+        for (WorkerDetails worker : snapshot.workers()) {
+            workerPool.put(worker.address() + ":" + worker.tcpPort(), worker);
+        }
+        snapshot.tasks().forEach((taskId, task) -> {
+            // Every result counts once, so the count follows from the results even if an older snapshot's lags
+            int completed = task.results().size();
+            TaskState state = new TaskState(
+                task.taskName(),
+                task.originalTaskData(),
+                task.totalSubTasks(),
+                new AtomicInteger(completed),
+                new ConcurrentHashMap<>(task.results()),
+                newReduction(taskId, task.combiner(), task.totalSubTasks()),
+                task.deadline()
+            );
+            activeTasks.put(taskId, state);
+            outstandingSubTasks.addAndGet(Math.max(task.totalSubTasks() - completed, 0));
+            watchDeadline(taskId, task.deadline());
+            if (state.reduction() != null) {
+                if (task.aggregate() != null) {
+                    state.reduction().setAggregate(task.aggregate());
+                } else {
+                    // The snapshot keeps results, not combiner state: fold them in again
+                    new TreeMap<>(task.results()).forEach((subTaskId, ref) ->
+                        reduce(taskId, state.reduction(), subTaskId, resultStore.readString(ref)));
+                }
+            }
+        });
+        snapshot.assignments().forEach((workerKey, subTaskKeys) ->
+            workerSubTasks.computeIfAbsent(workerKey, k -> ConcurrentHashMap.newKeySet()).addAll(subTaskKeys));
+    }
+    
+    /**
+     * Journal that applies replayed records straight to the maps, without logging them again.
+     * Every operation is idempotent, so records already covered by the snapshot are harmless.
+     */
+    public TaskJournal recoveryTarget() {
+        return new TaskJournal() {
+            @Override
+            public void taskCreated(int taskId, String taskName, String taskData, int totalSubTasks, String combiner,
+                                    long deadline) {
+                if (!activeTasks.containsKey(taskId)) {
+                    activeTasks.put(taskId, new TaskState(taskName, taskData, totalSubTasks, new AtomicInteger(0),
+                                                          new ConcurrentHashMap<>(),
+                                                          newReduction(taskId, combiner, totalSubTasks), deadline));
+                    outstandingSubTasks.addAndGet(totalSubTasks);
+                    watchDeadline(taskId, deadline);
+                }
+                // Never hand out an ID that was used before the restart
+                taskIdGenerator.accumulateAndGet(taskId, Math::max);
+            }
+            
+            @Override
+            public void workerRegistered(WorkerDetails worker) {
+                workerPool.put(worker.address() + ":" + worker.tcpPort(), worker);
+            }
+            
+            @Override
+            public void subTaskAssigned(String workerKey, int taskId, int subTaskId) {
+                workerSubTasks.computeIfAbsent(workerKey, k -> ConcurrentHashMap.newKeySet()).add(taskId + "-" + subTaskId);
+            }
+            
+            @Override
+            public CompletableFuture<Void> subTaskResult(int taskId, int subTaskId, ResultRef result) {
+                TaskState state = activeTasks.get(taskId);
+                if (state != null && state.results().putIfAbsent(subTaskId, result) == null) {
+                    countCompleted(state);
+                    if (state.reduction() != null) {
+                        reduce(taskId, state.reduction(), subTaskId, resultStore.readString(result));
+                    }
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            
+            @Override
+            public void subTaskReleased(String workerKey, int taskId, int subTaskId) {
+                Set<String> tasks = workerSubTasks.get(workerKey);
+                if (tasks != null) {
+                    tasks.remove(taskId + "-" + subTaskId);
+                }
+            }
+        };
+    }
+    
+    // Reduce stage of a recovered task; a combiner that no longer parses (e.g. a removed plugin) leaves it without one
+    private Reduction newReduction(int taskId, String combiner, int totalSubTasks) {
+        if (combiner == null) {
+            return null;
+        }
+        try {
+            return new Reduction(ResultCombiner.parse(combiner), totalSubTasks);
+        } catch (IllegalArgumentException e) {
+            log.warn("TaskManager: Task {} recovered without its reduce stage: {}", taskId, e.getMessage());
+            return null;
+        }
+    }
+    
     // Record to hold worker statistics
-    public record WorkerStats(String address, int tcpPort, String status, int pendingSubTasks) {}
+    public record WorkerStats(String address, int tcpPort, String status, int pendingSubTasks, WorkerResources resources) {}
     
     // Record to hold task information
     public record TaskInfo(int taskId, String taskName, int completedSubTasks, int totalSubTasks, String status) {}
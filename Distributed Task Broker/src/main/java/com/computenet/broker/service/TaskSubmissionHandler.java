@@ -1,13 +1,45 @@
 package com.computenet.broker.service;
 
+import com.computenet.broker.schedule.LocalityPlacer;
+import com.computenet.broker.schedule.StragglerMonitor;
 import com.computenet.broker.server.WorkerNIOHandler;
+import com.computenet.broker.split.HeapPartitionSink;
+import com.computenet.broker.split.SplitInput;
+import com.computenet.broker.split.SpooledPartitionSink;
+import com.computenet.broker.split.TaskSplitter;
+import com.computenet.broker.storage.InputPartition;
+import com.computenet.broker.storage.SpooledInput;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.ContentHash;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.util.ExponentialBackoff;
+import com.computenet.util.RateLimitedLogger;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * M2: TaskSubmissionHandler - Multi-threaded Task Processing
@@ -15,20 +47,89 @@ import java.util.concurrent.Future;
  * using ExecutorService for concurrent processing.
  * M3: Notifies NIO handler when processing new tasks for broadcasts
  * M4: Broadcasts task configuration via multicast before dispatch
+ * A TaskSplitter partitions the data so each sub-task carries only its slice. Streamed inputs
+ * are split into byte ranges of a spool file and sent to workers with FileChannel.transferTo,
+ * without being read into the heap.
+ * Sub-task data is named by its ContentHash. Workers with a payload cache are sent the hash
+ * first and only receive the data on a miss, so repeated data crosses the network once.
+ * Sub-task data sent to workers that accept deflate is compressed by the PayloadCompressor.
+ * The LocalityPlacer picks the worker for each sub-task, preferring workers that already hold
+ * its data, so that the hash is all that has to be sent.
+ * A saturated worker answers BUSY instead of ACK; the sub-task then goes to the least loaded
+ * worker that has not turned it down yet. Once all have, it waits out an exponential backoff and
+ * starts over, until it is acknowledged, has a result or its task completes.
+ * Dispatched tasks are tracked by the StragglerMonitor, which may have copies of slow sub-tasks
+ * sent to idle workers and the losing copies cancelled; this class sends both for it.
  */
 public class TaskSubmissionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskSubmissionHandler.class);
+    private static final RateLimitedLogger taskLog = RateLimitedLogger.perSecond(log, 20);
+    
+    // Dispatch failures tend to come in bursts when a worker dies, one line per sub-task is too many
+    private static final RateLimitedLogger dispatchLog = RateLimitedLogger.perSecond(log, 5);
     
     private final TaskManager taskManager;
     private final ExecutorService executorService;
     private final WorkerNIOHandler nioHandler; // M3: NIO handler for broadcasts
     private final TaskConfigMulticaster taskConfigMulticaster; // M4: Multicast broadcaster
+    private final PayloadCompressor payloadCompressor; // Null: sub-tasks are never compressed
+    private final StragglerMonitor stragglerMonitor; // Null: tasks are not tracked, sub-tasks never copied
+    private final LocalityPlacer localityPlacer; // Null: sub-tasks are placed round-robin
+    private final BrokerMetrics metrics;
+    
+    /** Tasks without a split spec are cut into line-aligned byte ranges. */
+    public static final TaskSplitter DEFAULT_SPLITTER = TaskSplitter.parse("bytes");
+    
+    // A worker that does not answer a CANCEL within this time is left alone; its result is ignored anyway
+    private static final int CANCEL_TIMEOUT_MILLIS = 5000;
+    
+    // Backoff of a sub-task that every worker answered BUSY to, before it starts over
+    private static final long BUSY_RETRY_BASE_MILLIS = Long.getLong("broker.busyRetry.baseMillis", 100L);
+    private static final long BUSY_RETRY_MAX_MILLIS = Long.getLong("broker.busyRetry.maxMillis", 10_000L);
+    
+    // Outcome prefix of a dispatch that ended in the backoff; the sub-task is sent again later
+    private static final String RETRY_QUEUED = "QUEUED";
+    
+    // Waits out the backoffs of all handlers; the retries themselves run on each handler's ExecutorService
+    private static final ScheduledExecutorService busyRetryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "busy-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     public TaskSubmissionHandler(TaskManager taskManager, ExecutorService executorService, 
-                                 WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster) {
+                                 WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster,
+                                 BrokerMetrics metrics) {
+        this(taskManager, executorService, nioHandler, taskConfigMulticaster, null, metrics);
+    }
+    
+    public TaskSubmissionHandler(TaskManager taskManager, ExecutorService executorService, 
+                                 WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster,
+                                 PayloadCompressor payloadCompressor, BrokerMetrics metrics) {
+        this(taskManager, executorService, nioHandler, taskConfigMulticaster, payloadCompressor, null, metrics);
+    }
+    
+    public TaskSubmissionHandler(TaskManager taskManager, ExecutorService executorService,
+                                 WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster,
+                                 PayloadCompressor payloadCompressor, StragglerMonitor stragglerMonitor,
+                                 BrokerMetrics metrics) {
+        this(taskManager, executorService, nioHandler, taskConfigMulticaster, payloadCompressor, stragglerMonitor, null,
+             metrics);
+    }
+    
+    public TaskSubmissionHandler(TaskManager taskManager, ExecutorService executorService,
+                                 WorkerNIOHandler nioHandler, TaskConfigMulticaster taskConfigMulticaster,
+                                 PayloadCompressor payloadCompressor, StragglerMonitor stragglerMonitor,
+                                 LocalityPlacer localityPlacer, BrokerMetrics metrics) {
         this.taskManager = taskManager;
         this.executorService = executorService;
         this.nioHandler = nioHandler;
         this.taskConfigMulticaster = taskConfigMulticaster;
+        this.payloadCompressor = payloadCompressor;
+        this.stragglerMonitor = stragglerMonitor;
+        this.localityPlacer = localityPlacer;
+        this.metrics = metrics;
     }
     
     /**
@@ -43,99 +144,456 @@ public class TaskSubmissionHandler {
      * @param subTaskCount Number of sub-tasks to create
      */
     public void processTask(int taskId, String taskName, String taskData, int subTaskCount) {
-        System.out.println("\n========================================");
-        System.out.println("M2: Starting multi-threaded task processing");
-        System.out.println("M2: Task ID: " + taskId);
-        System.out.println("M2: Task Name: " + taskName);
-        System.out.println("M2: Task Data: " + taskData);
-        System.out.println("M2: Sub-tasks to create: " + subTaskCount);
-        System.out.println("========================================");
+        processTask(taskId, taskName, taskData, subTaskCount, null);
+    }
+    
+    /**
+     * M2: Processes a task whose data is partitioned by the given splitter
+     * 
+     * @param splitter Partitions the data, or null for DEFAULT_SPLITTER
+     * @return false if the task could not be dispatched at all
+     */
+    public boolean processTask(int taskId, String taskName, String taskData, int subTaskCount, TaskSplitter splitter) {
+        return processTask(taskId, taskName, taskData, subTaskCount, splitter, false);
+    }
+    
+    /**
+     * M2: Processes a task whose data is partitioned by the given splitter
+     *
+     * @param keepResults Whether workers should keep the results for a later workflow stage, see WireMessage.KEEP_RESULT
+     * @return false if the task could not be dispatched at all
+     */
+    public boolean processTask(int taskId, String taskName, String taskData, int subTaskCount, TaskSplitter splitter,
+                               boolean keepResults) {
+        taskLog.info("M2: Starting multi-threaded task processing for task {} '{}' ({} sub-tasks)",
+                     taskId, taskName, subTaskCount);
+        log.debug("M2: Task {} data: {}", taskId, taskData);
+        if (alreadyCompleted(taskId)) {
+            return false;
+        }
         
         // M3: Set current task for NIO broadcasts
         if (nioHandler != null) {
             nioHandler.setCurrentTask(taskId);
-            System.out.println("M3: NIO handler notified of new task " + taskId);
+            log.debug("M3: NIO handler notified of new task {}", taskId);
         }
         
         // Get available workers
         List<TaskManager.WorkerDetails> workers = taskManager.getAvailableWorkers();
         
         if (workers.isEmpty()) {
-            System.err.println("M2: ERROR - No workers registered! Cannot process task.");
-            return;
+            log.error("M2: No workers registered! Cannot process task {}.", taskId);
+            return false;
         }
         
         // Validate sub-task count
         int actualSubTasks = Math.min(subTaskCount, workers.size());
         if (actualSubTasks < subTaskCount) {
-            System.out.println("M2: WARNING - Requested " + subTaskCount + " sub-tasks but only " + 
-                             workers.size() + " workers available. Using " + actualSubTasks + " sub-tasks.");
+            log.warn("M2: Requested {} sub-tasks but only {} workers available. Using {} sub-tasks.",
+                     subTaskCount, workers.size(), actualSubTasks);
+        }
+        
+        // A task with required tags is placed on the workers that have them, several sub-tasks each if need be
+        workers = taskManager.getCapableWorkers(taskId, workers);
+        if (workers.isEmpty()) {
+            taskManager.failWithoutCapableWorker(taskId);
+            return false;
         }
         
         // Split task into N sub-tasks FIRST (needed for M4 broadcast)
-        List<String> subTasks = splitTaskIntoSubTasks(taskData, actualSubTasks);
+        long splitStart = System.nanoTime();
+        List<String> subTasks = splitTaskIntoSubTasks(taskData, actualSubTasks, splitter);
+        metrics.taskSplit.recordSince(splitStart);
+        
+        // Name each sub-task's data by content, so the multicast and the dispatch can refer to it by hash
+        List<byte[]> payloads = new ArrayList<>(subTasks.size());
+        List<String> payloadHashes = new ArrayList<>(subTasks.size());
+        for (String subTask : subTasks) {
+            byte[] payload = subTask.getBytes(StandardCharsets.UTF_8);
+            payloads.add(payload);
+            payloadHashes.add(ContentHash.of(payload));
+        }
         
         // M4: Broadcast task configuration via multicast BEFORE dispatching sub-tasks
-        // Now includes task name and all sub-task data
+        // Includes task name and the hashes of the task and sub-task data
         if (taskConfigMulticaster != null) {
+            long multicastStart = System.nanoTime();
             boolean broadcastSuccess = taskConfigMulticaster.broadcastTaskConfig(
                 String.valueOf(taskId),
                 taskName,
                 actualSubTasks,
-                taskData,
-                subTasks
+                ContentHash.of(taskData.getBytes(StandardCharsets.UTF_8)),
+                payloadHashes
             );
+            metrics.multicastSend.recordSince(multicastStart);
             
             if (broadcastSuccess) {
-                System.out.println("M4: Task configuration broadcasted successfully (with " + 
-                                 subTasks.size() + " sub-tasks)");
+                log.debug("M4: Task configuration broadcasted successfully (with {} sub-tasks)", subTasks.size());
                 // Wait 100ms for workers to receive multicast config
                 try {
                     Thread.sleep(100);
-                    System.out.println("M4: Wait complete - workers ready");
+                    log.debug("M4: Wait complete - workers ready");
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
-                    System.err.println("M4: Wait interrupted: " + e.getMessage());
+                    log.warn("M4: Wait interrupted: {}", e.getMessage());
                 }
             } else {
-                System.err.println("M4: WARNING - Multicast broadcast failed, proceeding with dispatch anyway");
+                metrics.multicastFailures.increment();
+                log.warn("M4: Multicast broadcast failed, proceeding with dispatch anyway");
             }
         }
         
-        // Create Callable tasks for each sub-task (round-robin distribution)
-        List<Future<String>> futures = new ArrayList<>();
+        if (stragglerMonitor != null) {
+            stragglerMonitor.track(taskId, actualSubTasks,
+                                   new CopyLauncher(taskId, taskName, payloads, payloadHashes, keepResults));
+        }
         
+        // Each sub-task goes where its data is cached if it can, else round-robin or to the least loaded worker
         for (int i = 0; i < actualSubTasks; i++) {
             final int subTaskId = i + 1;
-            final String subTaskData = subTasks.get(i);
-            final TaskManager.WorkerDetails worker = workers.get(i % workers.size()); // Round-robin
-            
-            // Track sub-task assignment to worker
-            String workerKey = worker.address() + ":" + worker.tcpPort();
-            taskManager.assignSubTaskToWorker(workerKey, taskId, subTaskId);
-            
-            // M2: Create a Callable that will dispatch sub-task to worker via TCP
-            Callable<String> subTaskCallable = new SubTaskDispatcher(
-                taskId, 
-                subTaskId, 
-                subTaskData, 
-                worker,
-                taskManager
-            );
-            
-            // M2: Submit to ExecutorService for concurrent execution
-            Future<String> future = executorService.submit(subTaskCallable);
-            futures.add(future);
-            
-            System.out.println("M2: Thread " + subTaskId + " created for sub-task dispatch to worker " + 
-                             worker.address() + ":" + worker.tcpPort());
+            final byte[] payload = payloads.get(i);
+            final String payloadHash = payloadHashes.get(i);
+            Consumer<TaskManager.WorkerDetails> dispatch = worker -> {
+                // M2: Create a Callable that will dispatch sub-task to worker via TCP
+                Callable<String> subTaskCallable = new SubTaskDispatcher(
+                    taskId, 
+                    subTaskId, 
+                    taskName,
+                    payload,
+                    payloadHash,
+                    worker,
+                    taskManager,
+                    payloadCompressor,
+                    metrics,
+                    (busy, busyWorkers) -> reroute(taskId, subTaskId, busy, busyWorkers, capableWorkers(taskId)),
+                    executorService,
+                    stragglerMonitor,
+                    false,
+                    keepResults
+                );
+                
+                // M2: Submit to ExecutorService for concurrent execution
+                executorService.submit(subTaskCallable);
+                log.debug("M2: Thread {} created for sub-task dispatch to worker {}:{}", subTaskId, worker.address(), worker.tcpPort());
+            };
+            if (localityPlacer != null) {
+                localityPlacer.place(taskId, subTaskId, payloadHash, workers, dispatch);
+            } else {
+                TaskManager.WorkerDetails worker = workers.get(i % workers.size()); // Round-robin
+                taskManager.assignSubTaskToWorker(worker.key(), taskId, subTaskId);
+                dispatch.accept(worker);
+            }
         }
         
-        System.out.println("M2: All " + futures.size() + " sub-tasks submitted to ExecutorService");
-        System.out.println("========================================\n");
+        log.debug("M2: All {} sub-tasks of task {} placed", actualSubTasks, taskId);
         
         // Optional: Wait for all sub-tasks to complete (in a real system, this would be async)
         // For demonstration, we'll let them run independently
+        return true;
+    }
+    
+    /**
+     * Dispatches a spooled task input as partitions made by the splitter, one per sub-task.
+     * Each partition goes out as a SUBTASK_STREAM frame followed by the raw bytes, which
+     * only binary-protocol workers understand, so text-protocol workers are skipped.
+     * The M4 multicast is skipped too: a datagram cannot carry the partitions.
+     * The spool files are deleted once every partition has been sent or has failed.
+     * 
+     * @param taskId The ID of the task to process
+     * @param taskName The name of the task
+     * @param input The spooled task input, owned by this call from now on
+     * @param subTaskCount Number of sub-tasks to create
+     * @param splitter Partitions the input
+     * @return false if the task could not be dispatched at all
+     */
+    public boolean processStreamedTask(int taskId, String taskName, SpooledInput input, int subTaskCount,
+                                    TaskSplitter splitter) {
+        taskLog.info("M2: Starting streamed task processing for task {} '{}' ({} bytes, {} sub-tasks, split '{}')",
+                     taskId, taskName, input.size(), subTaskCount, splitter.spec());
+        
+        if (alreadyCompleted(taskId)) {
+            closeQuietly(input);
+            return false;
+        }
+        if (nioHandler != null) {
+            nioHandler.setCurrentTask(taskId);
+        }
+        
+        List<TaskManager.WorkerDetails> workers = streamingWorkers();
+        if (workers.isEmpty()) {
+            log.error("M2: No binary-protocol workers registered! Cannot process streamed task {}.", taskId);
+            closeQuietly(input);
+            return false;
+        }
+        
+        int partitionCount = Math.min(subTaskCount, workers.size());
+        if (partitionCount < subTaskCount) {
+            log.warn("M2: Requested {} sub-tasks for streamed task {}, using {} ({} binary workers)",
+                     subTaskCount, taskId, partitionCount, workers.size());
+        }
+        workers = taskManager.getCapableWorkers(taskId, workers);
+        if (workers.isEmpty()) {
+            taskManager.failWithoutCapableWorker(taskId);
+            closeQuietly(input);
+            return false;
+        }
+        
+        long splitStart = System.nanoTime();
+        List<InputPartition> partitions;
+        try (SpooledPartitionSink sink = new SpooledPartitionSink(input, partitionCount)) {
+            splitter.split(SplitInput.of(input), partitionCount, sink);
+            partitions = sink.finish();
+        } catch (IOException | RuntimeException e) {
+            log.error("M2: Could not split streamed task {} with '{}': {}", taskId, splitter.spec(), e.getMessage());
+            closeQuietly(input);
+            return false;
+        }
+        metrics.taskSplit.recordSince(splitStart);
+        
+        // The last dispatcher to finish deletes the input and any partition files made from it.
+        // A tracked task keeps them until the StragglerMonitor releases it, for copies of its partitions.
+        Map<SpooledInput, Boolean> files = new IdentityHashMap<>();
+        files.put(input, true);
+        partitions.forEach(partition -> files.put(partition.input(), true));
+        AtomicInteger remaining = new AtomicInteger(partitions.size() + (stragglerMonitor != null ? 1 : 0));
+        Runnable done = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                files.keySet().forEach(TaskSubmissionHandler::closeQuietly);
+            }
+        };
+        if (stragglerMonitor != null) {
+            stragglerMonitor.track(taskId, partitions.size(),
+                                   new StreamedCopyLauncher(taskId, taskName, partitions, remaining, done));
+        }
+        
+        for (InputPartition partition : partitions) {
+            TaskManager.WorkerDetails worker = workers.get((partition.subTaskId() - 1) % workers.size());
+            String workerKey = worker.address() + ":" + worker.tcpPort();
+            taskManager.assignSubTaskToWorker(workerKey, taskId, partition.subTaskId());
+            executorService.submit(new StreamedSubTaskDispatcher(taskId, taskName, partition, worker, taskManager,
+                metrics, done,
+                (busy, busyWorkers) -> reroute(taskId, partition.subTaskId(), busy, busyWorkers,
+                                               taskManager.getCapableWorkers(taskId, streamingWorkers())),
+                executorService, stragglerMonitor, false));
+        }
+        log.debug("M2: All {} partitions of streamed task {} submitted to ExecutorService", partitions.size(), taskId);
+        return true;
+    }
+    
+    /**
+     * Dispatches a single sub-task, for a workflow stage that receives its input one partition at a time.
+     * The sub-task goes to the preferred worker if it is still registered and has the task's required tags,
+     * else to the capable one with the fewest pending sub-tasks per slot; a BUSY answer reroutes it as usual.
+     * It is not tracked by the StragglerMonitor.
+     *
+     * @param preferredWorker Key of the worker to try first, e.g. the one that produced the data, or null
+     * @param keepResult      Whether the worker should keep the result for a later workflow stage
+     * @return the worker the sub-task is sent to, or null if no capable worker is registered
+     */
+    public TaskManager.WorkerDetails dispatchSubTask(int taskId, String taskName, int subTaskId, byte[] payload,
+                                                     String preferredWorker, boolean keepResult) {
+        List<TaskManager.WorkerDetails> workers = capableWorkers(taskId);
+        TaskManager.WorkerDetails worker = workers.stream()
+                .filter(candidate -> candidate.key().equals(preferredWorker))
+                .findFirst()
+                .or(() -> workers.stream()
+                        .min(Comparator.comparingDouble(candidate -> taskManager.getWorkerLoad(candidate.key()))))
+                .orElse(null);
+        if (worker == null) {
+            dispatchLog.warn("M2: No capable workers registered! Cannot dispatch sub-task {} of task {}.", subTaskId, taskId);
+            return null;
+        }
+        taskManager.assignSubTaskToWorker(worker.key(), taskId, subTaskId);
+        executorService.submit(new SubTaskDispatcher(taskId, subTaskId, taskName, payload, ContentHash.of(payload),
+            worker, taskManager, payloadCompressor, metrics,
+            (busy, busyWorkers) -> reroute(taskId, subTaskId, busy, busyWorkers, capableWorkers(taskId)),
+            executorService, null, false, keepResult));
+        return worker;
+    }
+    
+    /** Registered workers that have every tag the task requires. */
+    private List<TaskManager.WorkerDetails> capableWorkers(int taskId) {
+        return taskManager.getCapableWorkers(taskId, taskManager.getAvailableWorkers());
+    }
+    
+    /** Workers that can receive SUBTASK_STREAM, i.e. the ones that registered with the binary protocol. */
+    public List<TaskManager.WorkerDetails> streamingWorkers() {
+        return taskManager.getAvailableWorkers().stream()
+                .filter(TaskManager.WorkerDetails::usesBinaryProtocol)
+                .toList();
+    }
+    
+    /**
+     * Moves a sub-task off a worker that answered BUSY, to the candidate with the fewest pending
+     * sub-tasks per slot among those that have not answered BUSY to it.
+     * @return the new worker, or null if every candidate is busy
+     */
+    private TaskManager.WorkerDetails reroute(int taskId, int subTaskId, TaskManager.WorkerDetails busy,
+                                              Set<String> busyWorkers, List<TaskManager.WorkerDetails> candidates) {
+        taskManager.releaseSubTask(busy.key(), taskId, subTaskId);
+        TaskManager.WorkerDetails next = candidates.stream()
+                .filter(worker -> !busyWorkers.contains(worker.key()))
+                .min(Comparator.comparingDouble(worker -> taskManager.getWorkerLoad(worker.key())))
+                .orElse(null);
+        if (next != null) {
+            taskManager.assignSubTaskToWorker(next.key(), taskId, subTaskId);
+            log.debug("M2: Worker {} busy, sub-task {} of task {} rerouted to {}", busy.key(), subTaskId, taskId, next.key());
+        }
+        return next;
+    }
+    
+    /** True if the task is already complete, e.g. its deadline passed while it waited for the scheduler. */
+    private boolean alreadyCompleted(int taskId) {
+        TaskManager.TaskInfo info = taskManager.getTaskInfo(taskId);
+        if (info != null && "COMPLETED".equals(info.status())) {
+            taskLog.info("M2: Task {} completed before its dispatch, nothing to send", taskId);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Sends a copy of a sub-task on the ExecutorService. A copy is not rerouted when its worker is busy;
+     * if it cannot be delivered, the StragglerMonitor is told so and may pick another worker.
+     */
+    private void launchCopy(SubTaskDispatcher copy) {
+        executorService.submit(() -> {
+            String outcome = copy.call();
+            if (!outcome.startsWith("SUCCESS")) {
+                stragglerMonitor.launchFailed(copy.taskId, copy.subTaskId, copy.worker);
+            }
+            return outcome;
+        });
+    }
+    
+    /** A rerouter for copies: the busy worker is released and no other one is tried. */
+    private Rerouter noReroute(int taskId, int subTaskId) {
+        return (busy, busyWorkers) -> {
+            taskManager.releaseSubTask(busy.key(), taskId, subTaskId);
+            return null;
+        };
+    }
+    
+    /** Tells a worker to drop its copy of a sub-task, in the protocol it registered with, on the ExecutorService. */
+    private void sendCancel(int taskId, int subTaskId, TaskManager.WorkerDetails worker) {
+        executorService.submit(() -> {
+            WireMessage cancel = WireMessage.cancel(taskId, subTaskId);
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(worker.address(), worker.tcpPort()), CANCEL_TIMEOUT_MILLIS);
+                socket.setSoTimeout(CANCEL_TIMEOUT_MILLIS);
+                WireMessage reply;
+                if (worker.usesBinaryProtocol()) {
+                    WireCodec.write(cancel, socket.getOutputStream());
+                    socket.getOutputStream().flush();
+                    reply = WireCodec.read(new BufferedInputStream(socket.getInputStream()));
+                } else {
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    out.println(TextCodec.encode(cancel));
+                    reply = TextCodec.decode(new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine());
+                }
+                if (reply == null || reply.type() != MessageType.SUBTASK_ACK) {
+                    dispatchLog.warn("M2: Worker {} did not acknowledge cancelling sub-task {} of task {}: {}",
+                                     worker.key(), subTaskId, taskId, reply != null ? reply.type() : "connection closed");
+                }
+            } catch (IOException e) {
+                dispatchLog.warn("M2: Could not cancel sub-task {} of task {} on {}: {}", subTaskId, taskId,
+                                 worker.key(), e.getMessage());
+            }
+        });
+    }
+    
+    /** Sends copies of an in-memory task's sub-tasks for the StragglerMonitor. */
+    private class CopyLauncher implements StragglerMonitor.SubTaskLauncher {
+    
+        private final int taskId;
+        private final String taskName;
+        private final List<byte[]> payloads;
+        private final List<String> payloadHashes;
+        private final boolean keepResults;
+        
+        CopyLauncher(int taskId, String taskName, List<byte[]> payloads, List<String> payloadHashes,
+                     boolean keepResults) {
+            this.taskId = taskId;
+            this.taskName = taskName;
+            this.payloads = payloads;
+            this.payloadHashes = payloadHashes;
+            this.keepResults = keepResults;
+        }
+        
+        @Override
+        public boolean canRun(TaskManager.WorkerDetails worker) {
+            return taskManager.canRun(worker.key(), taskId);
+        }
+        
+        @Override
+        public void launch(int subTaskId, TaskManager.WorkerDetails worker) {
+            launchCopy(new SubTaskDispatcher(taskId, subTaskId, taskName, payloads.get(subTaskId - 1),
+                                             payloadHashes.get(subTaskId - 1), worker, taskManager, payloadCompressor, metrics,
+                                             noReroute(taskId, subTaskId), null, stragglerMonitor, true, keepResults));
+        }
+        
+        @Override
+        public void cancel(int subTaskId, TaskManager.WorkerDetails worker) {
+            sendCancel(taskId, subTaskId, worker);
+        }
+        
+        @Override
+        public void release() {
+        }
+    }
+    
+    /** Sends copies of a streamed task's partitions, holding on to the spool files until released. */
+    private class StreamedCopyLauncher implements StragglerMonitor.SubTaskLauncher {
+    
+        private final int taskId;
+        private final String taskName;
+        private final List<InputPartition> partitions;
+        private final AtomicInteger remaining;
+        private final Runnable done;
+        
+        StreamedCopyLauncher(int taskId, String taskName, List<InputPartition> partitions, AtomicInteger remaining,
+                             Runnable done) {
+            this.taskId = taskId;
+            this.taskName = taskName;
+            this.partitions = partitions;
+            this.remaining = remaining;
+            this.done = done;
+        }
+        
+        @Override
+        public boolean canRun(TaskManager.WorkerDetails worker) {
+            return worker.usesBinaryProtocol() && taskManager.canRun(worker.key(), taskId);
+        }
+        
+        @Override
+        public void launch(int subTaskId, TaskManager.WorkerDetails worker) {
+            // The launcher's own share keeps the files until now, so they still exist
+            remaining.incrementAndGet();
+            InputPartition partition = partitions.stream()
+                    .filter(candidate -> candidate.subTaskId() == subTaskId)
+                    .findFirst()
+                    .orElseThrow();
+            launchCopy(new StreamedSubTaskDispatcher(taskId, taskName, partition, worker, taskManager, metrics, done,
+                                                     noReroute(taskId, subTaskId), null, stragglerMonitor, true));
+        }
+        
+        @Override
+        public void cancel(int subTaskId, TaskManager.WorkerDetails worker) {
+            sendCancel(taskId, subTaskId, worker);
+        }
+        
+        @Override
+        public void release() {
+            done.run();
+        }
+    }
+    
+    private static void closeQuietly(SpooledInput input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            log.warn("M2: Could not delete spool file {}: {}", input.path(), e.getMessage());
+        }
     }
     
     /**
@@ -147,23 +605,33 @@ public class TaskSubmissionHandler {
     }
     
     /**
-     * Splits the main task into 5 sub-tasks
-     * Each sub-task represents a portion of the work
+     * Partitions the task data with a splitter, DEFAULT_SPLITTER without one.
+     * Package-private for the JMH benchmarks
      */
-    private List<String> splitTaskIntoSubTasks(String taskData, int numSubTasks) {
-        List<String> subTasks = new ArrayList<>();
-        
-        System.out.println("M2: Splitting task into " + numSubTasks + " sub-tasks...");
-        
-        for (int i = 1; i <= numSubTasks; i++) {
-            // Create sub-task with portion identifier
-            String subTask = String.format("SubTask-%d/%d: %s [Partition %d]", 
-                i, numSubTasks, taskData, i);
-            subTasks.add(subTask);
-            System.out.println("M2:   - Sub-task " + i + " created");
+    List<String> splitTaskIntoSubTasks(String taskData, int numSubTasks, TaskSplitter splitter) {
+        if (splitter == null) {
+            splitter = DEFAULT_SPLITTER;
         }
-        
-        return subTasks;
+        log.debug("M2: Splitting task into {} sub-tasks with '{}'...", numSubTasks, splitter.spec());
+        byte[] bytes = taskData.getBytes(StandardCharsets.UTF_8);
+        HeapPartitionSink sink = new HeapPartitionSink(bytes, numSubTasks);
+        try {
+            splitter.split(SplitInput.of(bytes), numSubTasks, sink);
+        } catch (IOException e) {
+            // An in-memory input cannot fail to read
+            throw new UncheckedIOException(e);
+        }
+        return sink.toStrings();
+    }
+    
+    /** Picks another worker for a sub-task that a worker answered BUSY to. */
+    private interface Rerouter {
+        /**
+         * @param busy        The worker that answered BUSY
+         * @param busyWorkers Keys of all workers that answered BUSY to this sub-task, including busy
+         * @return the worker to try next, or null to give up
+         */
+        TaskManager.WorkerDetails reroute(TaskManager.WorkerDetails busy, Set<String> busyWorkers);
     }
     
     /**
@@ -172,58 +640,285 @@ public class TaskSubmissionHandler {
      */
     private static class SubTaskDispatcher implements Callable<String> {
         
-        private final int taskId;
-        private final int subTaskId;
-        private final String subTaskData;
-        private final TaskManager.WorkerDetails worker;
+        protected final int taskId;
+        protected final int subTaskId;
+        protected final String taskName;
+        private final byte[] payload;
+        private final String payloadHash;
+        protected TaskManager.WorkerDetails worker; // Changes when the sub-task is rerouted
+        private final TaskManager taskManager; // Told which data a payload-cache worker now holds
+        private final PayloadCompressor payloadCompressor;
+        private final BrokerMetrics metrics;
+        private final Rerouter rerouter;
+        private final ExecutorService retryExecutor; // Sends the sub-task again after a BUSY backoff; null: never
+        private ExponentialBackoff busyBackoff; // Created when every worker first answers BUSY
+        private final StragglerMonitor monitor; // Told about the ACK; null if the task is not tracked
+        private final boolean copy; // A speculative copy, left out of the dispatch metrics
+        private final boolean keepResult; // Asks binary workers to keep the result for a later workflow stage
         
-        public SubTaskDispatcher(int taskId, int subTaskId, String subTaskData, 
-                                TaskManager.WorkerDetails worker, TaskManager taskManager) {
+        public SubTaskDispatcher(int taskId, int subTaskId, String taskName, byte[] payload, String payloadHash,
+                                TaskManager.WorkerDetails worker, TaskManager taskManager,
+                                PayloadCompressor payloadCompressor, BrokerMetrics metrics, Rerouter rerouter,
+                                ExecutorService retryExecutor, StragglerMonitor monitor, boolean copy,
+                                boolean keepResult) {
             this.taskId = taskId;
             this.subTaskId = subTaskId;
-            this.subTaskData = subTaskData;
+            this.taskName = taskName;
+            this.payload = payload;
+            this.payloadHash = payloadHash;
+            this.payloadCompressor = payloadCompressor;
             this.worker = worker;
+            this.taskManager = taskManager;
+            this.metrics = metrics;
+            this.rerouter = rerouter;
+            this.retryExecutor = retryExecutor;
+            this.monitor = monitor;
+            this.copy = copy;
+            this.keepResult = keepResult;
         }
         
         @Override
         public String call() throws Exception {
-            String threadName = Thread.currentThread().getName();
-            System.out.println("M2: [Thread " + threadName + "] Dispatching sub-task " + subTaskId + 
-                             " to worker " + worker.address() + ":" + worker.tcpPort());
+            if (busyBackoff == null) {
+                if (!copy) {
+                    metrics.subTaskDispatchStarted(taskId, subTaskId);
+                }
+            } else if (!placeRetry()) {
+                return "DROPPED: Sub-task " + subTaskId;
+            }
+            Set<String> busyWorkers = new HashSet<>();
+            while (true) {
+                // Thread name is included by the log pattern
+                log.debug("M2: Dispatching sub-task {} of task {} to worker {}:{}", subTaskId, taskId, worker.address(), worker.tcpPort());
+                String outcome = dispatch();
+                if (outcome != null) {
+                    return outcome;
+                }
+            
+                // The worker answered BUSY
+                metrics.subTasksBusy.increment();
+                busyWorkers.add(worker.key());
+                TaskManager.WorkerDetails next = rerouter.reroute(worker, busyWorkers);
+                if (next == null && retryExecutor != null) {
+                    return queueRetry(busyWorkers.size());
+                }
+                if (next == null) {
+                    dispatchLog.warn("M2: Sub-task {} of task {} - all {} workers tried are busy", subTaskId, taskId,
+                                     busyWorkers.size());
+                    dispatchFailed();
+                    return "BUSY: Sub-task " + subTaskId;
+                }
+                metrics.subTasksRerouted.increment();
+                worker = next;
+            }
+        }
+        
+        /** Has the sub-task sent again on the retryExecutor once the backoff is over. */
+        private String queueRetry(int busyWorkers) {
+            if (busyBackoff == null) {
+                busyBackoff = new ExponentialBackoff(BUSY_RETRY_BASE_MILLIS, BUSY_RETRY_MAX_MILLIS);
+            }
+            long delayMillis = busyBackoff.nextDelayMillis();
+            dispatchLog.warn("M2: Sub-task {} of task {} - all {} workers tried are busy, trying again in {} ms",
+                             subTaskId, taskId, busyWorkers, delayMillis);
+            busyRetryTimer.schedule(() -> retryExecutor.submit(this), delayMillis, TimeUnit.MILLISECONDS);
+            return RETRY_QUEUED + ": Sub-task " + subTaskId;
+        }
+        
+        /**
+         * Puts a sub-task back on the least loaded worker after its backoff.
+         * @return false if it is no longer needed or no worker is left to take it
+         */
+        private boolean placeRetry() {
+            if (taskManager.hasSubTaskResult(taskId, subTaskId)) {
+                return false;
+            }
+            TaskManager.TaskInfo info = taskManager.getTaskInfo(taskId);
+            if (info == null || "COMPLETED".equals(info.status())) {
+                log.debug("M2: Task {} completed while sub-task {} waited for a free worker", taskId, subTaskId);
+                dispatchFailed();
+                return false;
+            }
+            TaskManager.WorkerDetails next = rerouter.reroute(worker, Set.of());
+            if (next == null) {
+                dispatchLog.warn("M2: Sub-task {} of task {} - no capable workers left to retry on", subTaskId, taskId);
+                dispatchFailed();
+                return false;
+            }
+            worker = next;
+            return true;
+        }
+        
+        /** One attempt with the current worker; null if it answered BUSY. */
+        private String dispatch() {
+            long connectStart = System.nanoTime();
             
             // M2: Establish NEW blocking TCP connection to worker for reliable sub-task dispatch
-            try (Socket workerSocket = new Socket(worker.address(), worker.tcpPort());
-                 PrintWriter out = new PrintWriter(workerSocket.getOutputStream(), true);
-                 BufferedReader in = new BufferedReader(new InputStreamReader(workerSocket.getInputStream()))) {
+            try (Socket workerSocket = connect()) {
+                long sendStart = System.nanoTime();
+                metrics.dispatchConnect.record(sendStart - connectStart);
                 
-                // Send sub-task data to worker
-                String message = "TASK:" + taskId + ":SUBTASK:" + subTaskId + ":" + subTaskData;
-                out.println(message);
+                WireMessage response = exchange(workerSocket);
                 
-                System.out.println("M2: [Thread " + threadName + "] Sub-task " + subTaskId + " sent to worker");
-                
-                // Wait for worker acknowledgment
-                String response = in.readLine();
-                
-                if (response != null && response.startsWith("ACK")) {
-                    System.out.println("M2: [Thread " + threadName + "] Sub-task " + subTaskId + 
-                                     " acknowledged by worker: " + response);
+                if (response != null && response.type() == MessageType.BUSY) {
+                    return null;
+                } else if (response != null && response.type() == MessageType.SUBTASK_ACK) {
+                    metrics.dispatchAck.recordSince(sendStart);
+                    metrics.subTasksDispatched.increment();
+                    log.debug("M2: Sub-task {} of task {} acknowledged by worker", subTaskId, taskId);
+                    if (monitor != null) {
+                        monitor.started(taskId, subTaskId, worker);
+                    }
                     
                     // Note: Task completion is tracked when worker sends completion notification
                     // via /api/worker-complete endpoint, not here at dispatch time
                     
                     return "SUCCESS: Sub-task " + subTaskId + " dispatched";
                 } else {
-                    System.err.println("M2: [Thread " + threadName + "] Sub-task " + subTaskId + 
-                                     " - Invalid response from worker: " + response);
+                    dispatchLog.warn("M2: Sub-task {} of task {} - Invalid response from worker: {}", subTaskId, taskId,
+                                     (response != null ? response.type() : "connection closed"));
+                    dispatchFailed();
                     return "FAILED: Sub-task " + subTaskId;
                 }
                 
             } catch (IOException e) {
-                System.err.println("M2: [Thread " + threadName + "] ERROR dispatching sub-task " + 
-                                 subTaskId + ": " + e.getMessage());
+                dispatchLog.warn("M2: Failed to dispatch sub-task {} of task {} to {}:{}: {}", subTaskId, taskId,
+                                 worker.address(), worker.tcpPort(), e.getMessage());
+                dispatchFailed();
                 return "ERROR: " + e.getMessage();
             }
         }
+        
+        /** A failed copy leaves the original dispatch, and its round trip measurement, in place. */
+        private void dispatchFailed() {
+            if (!copy) {
+                metrics.subTaskDispatchFailed(taskId, subTaskId);
+            }
+        }
+        
+        protected Socket connect() throws IOException {
+            return new Socket(worker.address(), worker.tcpPort());
+        }
+        
+        /** Sends the sub-task and returns the worker's reply, or null if the connection closed first. */
+        protected WireMessage exchange(Socket socket) throws IOException {
+            // Send sub-task data to worker, in the protocol negotiated at registration
+            if (!worker.usesBinaryProtocol()) {
+                return exchangeText(socket, WireMessage.subTask(taskId, subTaskId, payload));
+            }
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            if (!worker.supports(WireMessage.FEATURE_PAYLOAD_CACHE)) {
+                return exchangeBinary(socket, in, binarySubTask());
+            }
+            
+            // Offer the hash first, the data only travels if the worker does not have it cached
+            WireMessage response = exchangeBinary(socket, in,
+                    withAttributes(WireMessage.subTaskRef(taskId, subTaskId, payloadHash, payload.length)));
+            if (response != null && response.type() == MessageType.PAYLOAD_MISS) {
+                metrics.payloadCacheMisses.increment();
+                response = exchangeBinary(socket, in, binarySubTask());
+            } else if (response != null && response.type() == MessageType.SUBTASK_ACK) {
+                metrics.payloadCacheHits.increment();
+                metrics.payloadBytesSaved.add(payload.length);
+            }
+            if (response != null && response.type() == MessageType.SUBTASK_ACK) {
+                // The worker keeps the data it took, later sub-tasks with it can be placed there
+                taskManager.addCachedPayload(worker.key(), payloadHash);
+            }
+            return response;
+        }
+        
+        /** The SUBTASK frame, compressed if the worker accepts deflate. Only built when the data is sent. */
+        private WireMessage binarySubTask() {
+            WireMessage message = withAttributes(WireMessage.subTask(taskId, subTaskId, payload));
+            return payloadCompressor != null && worker.supports(WireMessage.FEATURE_DEFLATE)
+                    ? payloadCompressor.compress(message)
+                    : message;
+        }
+        
+        /** The task name, which selects the worker's executor, and whether to keep the result. */
+        private WireMessage withAttributes(WireMessage message) {
+            return message.withAttribute(WireMessage.NAME, taskName)
+                          .withAttribute(WireMessage.KEEP_RESULT, keepResult ? "true" : null);
+        }
+        
+        private WireMessage exchangeBinary(Socket socket, InputStream in, WireMessage message) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            WireCodec.write(message, out);
+            out.flush();
+            log.debug("M2: Sub-task {} sent to worker (binary {}, {} bytes)", subTaskId, message.type(),
+                      message.payload().length);
+            
+            // Wait for worker acknowledgment
+            return WireCodec.read(in);
+        }
+        
+        private WireMessage exchangeText(Socket socket, WireMessage message) throws IOException {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println(TextCodec.encode(message));
+            log.debug("M2: Sub-task {} sent to worker (text)", subTaskId);
+            
+            // Wait for worker acknowledgment
+            return TextCodec.decode(in.readLine());
+        }
+    }
+    
+    /**
+     * Dispatcher for one partition of a spooled input
+     * Writes the SUBTASK_STREAM header, then lets the kernel copy the byte range from the spool
+     * file into the socket. The worker ACKs after it has read the whole partition.
+     */
+    private static class StreamedSubTaskDispatcher extends SubTaskDispatcher {
+        
+        private final InputPartition partition;
+        private final Runnable done;
+        
+        StreamedSubTaskDispatcher(int taskId, String taskName, InputPartition partition,
+                                  TaskManager.WorkerDetails worker, TaskManager taskManager, BrokerMetrics metrics,
+                                  Runnable done, Rerouter rerouter, ExecutorService retryExecutor,
+                                  StragglerMonitor monitor, boolean copy) {
+            super(taskId, partition.subTaskId(), taskName, null, null, worker, taskManager, null, metrics, rerouter,
+                  retryExecutor, monitor, copy, false);
+            this.partition = partition;
+            this.done = done;
+        }
+        
+        @Override
+        public String call() throws Exception {
+            String outcome = null;
+            try {
+                outcome = super.call();
+                return outcome;
+            } finally {
+                // A sub-task waiting out its BUSY backoff still needs the partition
+                if (outcome == null || !outcome.startsWith(RETRY_QUEUED)) {
+                    done.run();
+                }
+            }
+        }
+        
+        @Override
+        protected Socket connect() throws IOException {
+            // A channel-backed socket, so the spool file can be transferred into it directly
+            return SocketChannel.open(new InetSocketAddress(worker.address(), worker.tcpPort())).socket();
+        }
+        
+        @Override
+        protected WireMessage exchange(Socket socket) throws IOException {
+            SocketChannel channel = socket.getChannel();
+            ByteBuffer header = ByteBuffer.wrap(WireCodec.encode(
+                    WireMessage.subTaskStream(taskId, subTaskId, partition.length())
+                               .withAttribute(WireMessage.NAME, taskName)));
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            partition.transferTo(channel);
+            log.debug("M2: Sub-task {} streamed to worker ({} bytes from offset {})",
+                      subTaskId, partition.length(), partition.offset());
+            
+            // Wait for worker acknowledgment
+            return WireCodec.read(new BufferedInputStream(socket.getInputStream()));
+        }
     }
-}
+}
\ No newline at end of file
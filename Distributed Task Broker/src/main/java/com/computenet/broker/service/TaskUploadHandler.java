@@ -0,0 +1,137 @@
+package com.computenet.broker.service;
+
+import com.computenet.broker.server.WorkerNIOHandler;
+import com.computenet.broker.reduce.ResultCombiner;
+import com.computenet.broker.schedule.Priority;
+import com.computenet.broker.schedule.StragglerMonitor;
+import com.computenet.broker.schedule.TaskScheduler;
+import com.computenet.broker.split.TaskSplitter;
+import com.computenet.broker.storage.InputSpool;
+import com.computenet.broker.storage.SpooledInput;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.util.RateLimitedLogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TaskUploadHandler - Streaming ingest of task inputs too large for a submission line
+ * Shared by the framed TCP upload (TASK_UPLOAD on port 5000) and the HTTP upload endpoint.
+ * The input is spooled to disk as it arrives, the task is created once the input is complete,
+ * and the partitions are dispatched by TaskSubmissionHandler.processStreamedTask when the
+ * TaskScheduler picks the task, and tracked by the StragglerMonitor from then on.
+ * The task's stored data is a short description, the input itself is never held as a String.
+ */
+public class TaskUploadHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskUploadHandler.class);
+    private static final RateLimitedLogger acceptLog = RateLimitedLogger.perSecond(log, 20);
+    
+    private final TaskManager taskManager;
+    private final InputSpool spool;
+    private final TaskSubmissionHandler taskSubmissionHandler;
+    private final TaskScheduler taskScheduler;
+    private final BrokerMetrics metrics;
+    
+    /** Outcome of an accepted upload. */
+    public record AcceptedUpload(int taskId, int subTaskCount, long inputBytes) {}
+    
+    public TaskUploadHandler(TaskManager taskManager, InputSpool spool, ExecutorService executorService,
+                             WorkerNIOHandler nioHandler, TaskScheduler taskScheduler, StragglerMonitor stragglerMonitor,
+                             BrokerMetrics metrics) {
+        this.taskManager = taskManager;
+        this.spool = spool;
+        this.taskScheduler = taskScheduler;
+        this.metrics = metrics;
+        // No multicaster: streamed tasks are not broadcast
+        this.taskSubmissionHandler = new TaskSubmissionHandler(taskManager, executorService, nioHandler, null, null,
+                                                               stragglerMonitor, metrics);
+    }
+    
+    /**
+     * Spools the input, creates the task and schedules its dispatch.
+     * The request is checked before any input is read, so a rejected upload costs no disk space.
+     *
+     * @param taskName The name of the task
+     * @param subTaskCount Requested number of sub-tasks, capped at the binary-protocol worker count
+     * @param splitSpec TaskSplitter spec, or null for line-aligned byte ranges
+     * @param combineSpec ResultCombiner spec, or null to keep the results per sub-task only
+     * @param tenant Submitter identity for the TaskScheduler, or null for the default tenant
+     * @param priority Priority class name, or null for the default class
+     * @param deadlineMillis Milliseconds after acceptance the task must complete in, or null for the broker default
+     * @param tags Comma-separated tags a worker must have to run the sub-tasks, or null for any worker
+     * @param input The task input, read until it ends
+     * @throws IllegalArgumentException if the request cannot be served (bad count, split or combine
+     *                                  spec, priority or deadline, no capable workers, empty input)
+     * @throws IOException if reading the input or writing the spool file fails
+     */
+    public AcceptedUpload accept(String taskName, int subTaskCount, String splitSpec, String combineSpec,
+                                 String tenant, String priority, String deadlineMillis, String tags,
+                                 InputStream input)
+            throws IOException {
+        if (subTaskCount < 1) {
+            throw new IllegalArgumentException("Sub-task count must be at least 1");
+        }
+        long deadline = parseDeadline(deadlineMillis);
+        TaskSplitter splitter = splitSpec != null ? TaskSplitter.parse(splitSpec) : TaskSubmissionHandler.DEFAULT_SPLITTER;
+        ResultCombiner combiner = combineSpec != null ? ResultCombiner.parse(combineSpec) : null;
+        Priority priorityClass = Priority.parse(priority);
+        int workerCount = taskSubmissionHandler.streamingWorkers().size();
+        if (workerCount == 0) {
+            throw new IllegalArgumentException("No binary-protocol workers registered. Start workers first.");
+        }
+        Set<String> requiredTags = TaskManager.parseTags(tags);
+        if (taskSubmissionHandler.streamingWorkers().stream()
+                .noneMatch(worker -> taskManager.getWorkerResources(worker.key()).tags().containsAll(requiredTags))) {
+            throw new IllegalArgumentException("No binary-protocol worker has tags " + requiredTags);
+        }
+        
+        long spoolStart = System.nanoTime();
+        SpooledInput spooled = spool.spool(input);
+        metrics.inputSpool.recordSince(spoolStart);
+        metrics.inputBytesSpooled.add(spooled.size());
+        if (spooled.size() == 0) {
+            spooled.close();
+            throw new IllegalArgumentException("Task input is empty");
+        }
+        
+        int actualSubTasks = (int) Math.min(Math.min(subTaskCount, workerCount), spooled.size());
+        int taskId = taskManager.createTask(taskName, describe(spooled), actualSubTasks, combiner, deadline);
+        taskManager.setRequiredTags(taskId, requiredTags);
+        metrics.tasksAccepted.increment();
+        acceptLog.info("M1: Streamed task '{}' accepted with ID: {} ({} bytes)", taskName, taskId, spooled.size());
+        
+        taskScheduler.submit(taskId, tenant, priorityClass, actualSubTasks,
+            () -> taskSubmissionHandler.processStreamedTask(taskId, taskName, spooled, actualSubTasks, splitter));
+        return new AcceptedUpload(taskId, actualSubTasks, spooled.size());
+    }
+    
+    /**
+     * Parses a relative deadline as sent by originators.
+     * @return milliseconds, or 0 for the broker default if none was given
+     * @throws IllegalArgumentException if it is not a positive number
+     */
+    public static long parseDeadline(String deadlineMillis) {
+        if (deadlineMillis == null || deadlineMillis.isBlank()) {
+            return 0;
+        }
+        long deadline;
+        try {
+            deadline = Long.parseLong(deadlineMillis.trim());
+        } catch (NumberFormatException e) {
+            deadline = 0;
+        }
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("Invalid deadline '" + deadlineMillis + "', expected milliseconds");
+        }
+        return deadline;
+    }
+    
+    /** Stored as the task's data in place of the input itself. */
+    private static String describe(SpooledInput input) {
+        return "[streamed input, " + input.size() + " bytes]";
+    }
+}
@@ -0,0 +1,56 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+
+/**
+ * Equal byte ranges, with each boundary moved forward to the next record end.
+ * Only the bytes between an ideal boundary and the following delimiter are read, so the
+ * cost is independent of the input size. Without a delimiter the ranges are exact.
+ */
+final class ByteRangeSplitter implements TaskSplitter {
+
+    private final byte[] alignment;
+    
+    /** @param alignment record delimiter to align boundaries to, or null for exact ranges */
+    ByteRangeSplitter(byte[] alignment) {
+        this.alignment = alignment;
+    }
+    
+    @Override
+    public void split(SplitInput input, int partitions, PartitionSink sink) throws IOException {
+        long size = input.size();
+        DelimiterScanner scanner = alignment != null ? new DelimiterScanner(input, alignment, false) : null;
+        long start = 0;
+        for (int i = 0; i < partitions; i++) {
+            long end = i == partitions - 1 ? size : Math.max(start, idealBoundary(size, i + 1, partitions));
+            if (scanner != null && end > start && end < size) {
+                end = alignedBoundary(scanner, start, end, size);
+            }
+            sink.append(i, start, end - start, null);
+            start = end;
+        }
+    }
+    
+    /** The first record end at or after the ideal boundary, or the input size. */
+    private long alignedBoundary(DelimiterScanner scanner, long start, long ideal, long size) throws IOException {
+        // A delimiter ending at or after the ideal boundary starts at most its length before it
+        scanner.seek(Math.max(start, ideal - alignment.length));
+        long end;
+        while ((end = scanner.nextRecordEnd()) >= 0) {
+            if (end >= ideal) {
+                return end;
+            }
+        }
+        return size;
+    }
+    
+    private static long idealBoundary(long size, int index, int partitions) {
+        // size * index / partitions, split up so the product cannot overflow
+        return size / partitions * index + size % partitions * index / partitions;
+    }
+    
+    @Override
+    public String spec() {
+        return alignment != null ? "bytes" : "bytes:raw";
+    }
+}
@@ -0,0 +1,138 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the records of a SplitInput through one reusable buffer.
+ * A record ends just past its delimiter; a final record without one ends at the input size.
+ * Without retention only the bytes still needed for matching a delimiter are kept, so memory
+ * stays constant whatever the record length. With retention the current record is kept whole
+ * and readable through record(), growing the buffer up to MAX_RECORD_BYTES if needed.
+ */
+final class DelimiterScanner {
+
+    static final int BUFFER_BYTES = 1024 * 1024;
+    static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    
+    private final SplitInput input;
+    private final byte[] delimiter;
+    private final boolean retainRecords;
+    private final long size;
+    private byte[] buffer = new byte[BUFFER_BYTES];
+    private long bufferStart;   // Input position of buffer[0]
+    private int limit;          // Valid bytes in the buffer
+    private int searchIndex;    // Where the delimiter search resumes
+    private long recordStart;   // Start of the record being scanned
+    private long lastStart;     // Bounds of the record last returned
+    private long lastEnd;
+    
+    DelimiterScanner(SplitInput input, byte[] delimiter, boolean retainRecords) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("Empty delimiter");
+        }
+        this.input = input;
+        this.delimiter = delimiter;
+        this.retainRecords = retainRecords;
+        this.size = input.size();
+    }
+    
+    /** Continues scanning at the given position, treated as the start of a record. */
+    void seek(long position) {
+        bufferStart = position;
+        limit = 0;
+        searchIndex = 0;
+        recordStart = position;
+    }
+    
+    /**
+     * Advances over the next record.
+     * @return the position just past its end, or -1 if the input is exhausted
+     */
+    long nextRecordEnd() throws IOException {
+        while (true) {
+            int found = indexOfDelimiter(searchIndex, limit);
+            if (found >= 0) {
+                searchIndex = found + delimiter.length;
+                return endRecord(bufferStart + searchIndex);
+            }
+            // A delimiter may still start in the last (length - 1) bytes once more input arrives
+            searchIndex = Math.max(searchIndex, limit - delimiter.length + 1);
+            if (bufferStart + limit >= size) {
+                long end = bufferStart + limit;
+                if (recordStart < end) {
+                    searchIndex = limit;
+                    return endRecord(end);
+                }
+                return -1;
+            }
+            fill();
+        }
+    }
+    
+    long recordStart() {
+        return lastStart;
+    }
+    
+    /** Bytes of the record last returned, including its delimiter. Only with retention. */
+    ByteBuffer record() {
+        return ByteBuffer.wrap(buffer, (int) (lastStart - bufferStart), (int) (lastEnd - lastStart));
+    }
+    
+    private long endRecord(long end) {
+        lastStart = recordStart;
+        lastEnd = end;
+        recordStart = end;
+        return end;
+    }
+    
+    /** Drops the bytes no longer needed and reads more input after the rest. */
+    private void fill() throws IOException {
+        int keepFrom = retainRecords ? (int) (recordStart - bufferStart) : searchIndex;
+        if (keepFrom == 0 && limit == buffer.length) {
+            // Only reachable with retention: the current record fills the whole buffer
+            if (buffer.length >= MAX_RECORD_BYTES) {
+                throw new IOException("Record at offset " + recordStart + " is longer than " + MAX_RECORD_BYTES + " bytes");
+            }
+            byte[] larger = new byte[Math.min(buffer.length * 2, MAX_RECORD_BYTES)];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        } else if (keepFrom > 0) {
+            System.arraycopy(buffer, keepFrom, buffer, 0, limit - keepFrom);
+            bufferStart += keepFrom;
+            limit -= keepFrom;
+            searchIndex -= keepFrom;
+        }
+        int n = input.read(bufferStart + limit, ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (n < 0) {
+            throw new IOException("Input ended at " + (bufferStart + limit) + " before its size " + size);
+        }
+        limit += n;
+    }
+    
+    private int indexOfDelimiter(int from, int to) {
+        byte first = delimiter[0];
+        int last = to - delimiter.length;
+        if (delimiter.length == 1) {
+            for (int i = from; i <= last; i++) {
+                if (buffer[i] == first) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
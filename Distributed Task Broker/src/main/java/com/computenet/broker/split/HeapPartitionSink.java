@@ -0,0 +1,38 @@
+package com.computenet.broker.split;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects partitions of an in-memory input, for tasks submitted as a single line.
+ */
+public final class HeapPartitionSink implements PartitionSink {
+
+    private final byte[] input;
+    private final ByteArrayOutputStream[] partitions;
+    
+    public HeapPartitionSink(byte[] input, int partitions) {
+        this.input = input;
+        this.partitions = new ByteArrayOutputStream[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new ByteArrayOutputStream();
+        }
+    }
+    
+    @Override
+    public void append(int partition, long offset, long length, ByteBuffer bytes) {
+        partitions[partition].write(input, (int) offset, (int) length);
+    }
+    
+    /** The partitions decoded as UTF-8; a raw byte split may cut a character at a boundary. */
+    public List<String> toStrings() {
+        List<String> result = new ArrayList<>(partitions.length);
+        for (ByteArrayOutputStream partition : partitions) {
+            result.add(partition.toString(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routes each record by a hash of one of its fields, so records with the same key always land
+ * in the same partition (e.g. for a per-key aggregation on the workers). Records keep their
+ * input order within a partition. Records are handed to the sink with their bytes, since a
+ * partition is scattered over the whole input.
+ */
+final class KeyHashSplitter implements TaskSplitter {
+
+    private final byte[] delimiter;
+    private final byte separator;
+    private final int keyField;
+    
+    KeyHashSplitter(byte[] delimiter, byte separator, int keyField) {
+        if (keyField < 0) {
+            throw new IllegalArgumentException("Key field index must not be negative: " + keyField);
+        }
+        this.delimiter = delimiter;
+        this.separator = separator;
+        this.keyField = keyField;
+    }
+    
+    @Override
+    public void split(SplitInput input, int partitions, PartitionSink sink) throws IOException {
+        DelimiterScanner scanner = new DelimiterScanner(input, delimiter, true);
+        scanner.seek(0);
+        while (scanner.nextRecordEnd() >= 0) {
+            ByteBuffer record = scanner.record();
+            int partition = Math.floorMod(mix(keyHash(record)), partitions);
+            sink.append(partition, scanner.recordStart(), record.remaining(), record);
+        }
+    }
+    
+    /** FNV-1a over the key field; a record without that field hashes as an empty key. */
+    private int keyHash(ByteBuffer record) {
+        byte[] bytes = record.array();
+        int from = record.arrayOffset() + record.position();
+        int to = from + record.remaining();
+        if (endsWithDelimiter(bytes, from, to)) {
+            to -= delimiter.length;
+        }
+        for (int field = 0; field < keyField && from < to; from++) {
+            if (bytes[from] == separator) {
+                field++;
+            }
+        }
+        int hash = 0x811C9DC5;
+        for (int i = from; i < to && bytes[i] != separator; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash;
+    }
+    
+    private boolean endsWithDelimiter(byte[] bytes, int from, int to) {
+        if (to - from < delimiter.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (bytes[to - delimiter.length + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /** Spreads FNV's weak low bits before the modulo. */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+    
+    @Override
+    public String spec() {
+        return "hash:" + new String(new byte[] {separator}, StandardCharsets.UTF_8) + ":" + keyField;
+    }
+}
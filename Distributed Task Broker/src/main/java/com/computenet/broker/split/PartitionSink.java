@@ -0,0 +1,21 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the output of a TaskSplitter, one call per contiguous piece of a partition.
+ * Range splitters make one call per partition; key hash makes one call per record, in input order.
+ */
+public interface PartitionSink {
+
+    /**
+     * Appends bytes of the input to a partition.
+     *
+     * @param partition 0-based partition index
+     * @param offset    Position of the bytes in the input
+     * @param length    Number of bytes, may be 0
+     * @param bytes     The same bytes if the splitter already holds them, else null; only valid during the call
+     */
+    void append(int partition, long offset, long length, ByteBuffer bytes) throws IOException;
+}
@@ -0,0 +1,69 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Equal numbers of records per partition, records ending in a delimiter (a newline for lines).
+ * One pass counts the records and remembers where every SAMPLE_INTERVAL-th one starts; each
+ * boundary is then found by scanning forward from the nearest sample, so the second pass reads
+ * at most SAMPLE_INTERVAL records per partition instead of the whole input again.
+ */
+final class RecordCountSplitter implements TaskSplitter {
+
+    static final int SAMPLE_INTERVAL = 1024;
+    
+    private final byte[] delimiter;
+    
+    RecordCountSplitter(byte[] delimiter) {
+        this.delimiter = delimiter;
+    }
+    
+    @Override
+    public void split(SplitInput input, int partitions, PartitionSink sink) throws IOException {
+        DelimiterScanner scanner = new DelimiterScanner(input, delimiter, false);
+        
+        // Pass 1: count records, sampling record starts
+        long[] samples = new long[64];
+        long records = 0;
+        long start = 0;
+        long end;
+        scanner.seek(0);
+        while ((end = scanner.nextRecordEnd()) >= 0) {
+            if (records % SAMPLE_INTERVAL == 0) {
+                int sample = (int) (records / SAMPLE_INTERVAL);
+                if (sample == samples.length) {
+                    samples = Arrays.copyOf(samples, samples.length * 2);
+                }
+                samples[sample] = start;
+            }
+            records++;
+            start = end;
+        }
+        
+        // Pass 2: locate the first record of each partition
+        long size = input.size();
+        long from = 0;
+        for (int i = 0; i < partitions; i++) {
+            long firstOfNext = i == partitions - 1 ? records : records * (i + 1) / partitions;
+            long to = firstOfNext >= records ? size : recordStart(scanner, samples, firstOfNext);
+            sink.append(i, from, to - from, null);
+            from = to;
+        }
+    }
+    
+    private static long recordStart(DelimiterScanner scanner, long[] samples, long record) throws IOException {
+        long position = samples[(int) (record / SAMPLE_INTERVAL)];
+        scanner.seek(position);
+        for (long skip = record % SAMPLE_INTERVAL; skip > 0; skip--) {
+            position = scanner.nextRecordEnd();
+        }
+        return position;
+    }
+    
+    @Override
+    public String spec() {
+        return Arrays.equals(delimiter, NEWLINE) ? "lines" : "delimiter:" + new String(delimiter, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,52 @@
+package com.computenet.broker.split;
+
+import com.computenet.broker.storage.SpooledInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random-access bytes a TaskSplitter reads: a submitted task line or a spooled upload.
+ */
+public interface SplitInput {
+
+    long size();
+    
+    /**
+     * Reads bytes at the given position into dst, like FileChannel.read(dst, position).
+     * @return the number of bytes read, or -1 at the end of the input
+     */
+    int read(long position, ByteBuffer dst) throws IOException;
+    
+    static SplitInput of(byte[] data) {
+        return new SplitInput() {
+            @Override
+            public long size() {
+                return data.length;
+            }
+            
+            @Override
+            public int read(long position, ByteBuffer dst) {
+                if (position >= data.length) {
+                    return -1;
+                }
+                int n = (int) Math.min(dst.remaining(), data.length - position);
+                dst.put(data, (int) position, n);
+                return n;
+            }
+        };
+    }
+    
+    static SplitInput of(SpooledInput input) {
+        return new SplitInput() {
+            @Override
+            public long size() {
+                return input.size();
+            }
+            
+            @Override
+            public int read(long position, ByteBuffer dst) throws IOException {
+                return input.read(dst, position);
+            }
+        };
+    }
+}
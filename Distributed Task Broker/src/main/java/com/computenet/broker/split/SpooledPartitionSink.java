@@ -0,0 +1,90 @@
+package com.computenet.broker.split;
+
+import com.computenet.broker.storage.InputPartition;
+import com.computenet.broker.storage.SpoolWriter;
+import com.computenet.broker.storage.SpooledInput;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a split of a spooled input into InputPartitions.
+ * As long as a partition's pieces are adjacent they only widen one range of the input, so
+ * range splits copy nothing. The first piece that is not adjacent moves the partition into a
+ * spool file of its own, which then receives every further piece.
+ */
+public final class SpooledPartitionSink implements PartitionSink, Closeable {
+
+    private final SpooledInput source;
+    private final long[] offsets;
+    private final long[] lengths;
+    private final SpoolWriter[] writers;
+    private boolean finished;
+    
+    public SpooledPartitionSink(SpooledInput source, int partitions) {
+        this.source = source;
+        this.offsets = new long[partitions];
+        this.lengths = new long[partitions];
+        this.writers = new SpoolWriter[partitions];
+        Arrays.fill(lengths, -1);
+    }
+    
+    @Override
+    public void append(int partition, long offset, long length, ByteBuffer bytes) throws IOException {
+        SpoolWriter writer = writers[partition];
+        if (writer == null) {
+            if (lengths[partition] < 0) {
+                offsets[partition] = offset;
+                lengths[partition] = length;
+                return;
+            }
+            if (offsets[partition] + lengths[partition] == offset) {
+                lengths[partition] += length;
+                return;
+            }
+            writer = source.spool().newWriter();
+            writers[partition] = writer;
+            writer.transferFrom(source, offsets[partition], lengths[partition]);
+        }
+        if (bytes != null) {
+            writer.write(bytes);
+        } else {
+            writer.transferFrom(source, offset, length);
+        }
+    }
+    
+    /**
+     * The partitions, numbered from sub-task 1. Each points either into the source or
+     * into its own spool file; the caller closes all of them once they are dispatched.
+     */
+    public List<InputPartition> finish() throws IOException {
+        List<InputPartition> partitions = new ArrayList<>(writers.length);
+        for (int i = 0; i < writers.length; i++) {
+            if (writers[i] != null) {
+                SpooledInput own = writers[i].finish();
+                writers[i] = null;
+                partitions.add(new InputPartition(i + 1, own, 0, own.size()));
+            } else {
+                partitions.add(new InputPartition(i + 1, source, Math.max(offsets[i], 0), Math.max(lengths[i], 0)));
+            }
+        }
+        finished = true;
+        return partitions;
+    }
+    
+    /** Deletes the partition files of a split that failed before finish(). */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        for (SpoolWriter writer : writers) {
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+    }
+}
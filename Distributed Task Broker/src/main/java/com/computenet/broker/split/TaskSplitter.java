@@ -0,0 +1,76 @@
+package com.computenet.broker.split;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * TaskSplitter - Partitions a task input so each sub-task carries only its slice
+ * Every byte of the input goes to exactly one partition and records are never cut.
+ * A split always produces the requested number of partitions, some possibly empty, so the
+ * sub-task count fixed when the task was created stays valid.
+ *
+ * Specs, as given in the "Split:" submission field, the TASK_UPLOAD "split" attribute or
+ * the upload endpoint's split parameter:
+ * <pre>
+ *   bytes              equal byte ranges, each moved forward to the next line end
+ *   bytes:raw          exact equal byte ranges, for inputs without records
+ *   lines              equal numbers of lines
+ *   delimiter:&lt;d&gt;      equal numbers of records ending in d (\n and \t escapes allowed)
+ *   hash[:&lt;sep&gt;:&lt;n&gt;]   lines routed by a hash of field n (default 0) split at sep (default ,)
+ * </pre>
+ */
+public interface TaskSplitter {
+
+    byte[] NEWLINE = {'\n'};
+    
+    /**
+     * Splits the input into the given number of partitions and hands them to the sink.
+     */
+    void split(SplitInput input, int partitions, PartitionSink sink) throws IOException;
+    
+    /** The spec this splitter is parsed from. */
+    String spec();
+    
+    /**
+     * @throws IllegalArgumentException if the spec is not recognised
+     */
+    static TaskSplitter parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.equals("bytes")) {
+            return new ByteRangeSplitter(NEWLINE);
+        }
+        if (trimmed.equals("bytes:raw")) {
+            return new ByteRangeSplitter(null);
+        }
+        if (trimmed.equals("lines")) {
+            return new RecordCountSplitter(NEWLINE);
+        }
+        if (trimmed.startsWith("delimiter:") && trimmed.length() > "delimiter:".length()) {
+            // Untrimmed, the delimiter itself may be whitespace
+            String delimiter = spec.substring(spec.indexOf("delimiter:") + "delimiter:".length());
+            return new RecordCountSplitter(unescape(delimiter));
+        }
+        if (trimmed.equals("hash")) {
+            return new KeyHashSplitter(NEWLINE, (byte) ',', 0);
+        }
+        if (trimmed.startsWith("hash:")) {
+            // The separator may itself be a colon, so the field index is after the last one
+            String rest = spec.substring(spec.indexOf("hash:") + "hash:".length());
+            int last = rest.lastIndexOf(':');
+            byte[] separator = last > 0 ? unescape(rest.substring(0, last)) : new byte[0];
+            if (separator.length != 1) {
+                throw new IllegalArgumentException("Hash field separator must be one byte: " + spec);
+            }
+            try {
+                return new KeyHashSplitter(NEWLINE, separator[0], Integer.parseInt(rest.substring(last + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid hash field index: " + spec);
+            }
+        }
+        throw new IllegalArgumentException("Unknown split spec '" + spec + "'");
+    }
+    
+    private static byte[] unescape(String value) {
+        return value.replace("\\n", "\n").replace("\\t", "\t").replace("\\r", "\r").getBytes(StandardCharsets.UTF_8);
+    }
+}
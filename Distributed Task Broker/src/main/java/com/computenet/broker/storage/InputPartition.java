@@ -0,0 +1,21 @@
+package com.computenet.broker.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Byte range of a spooled input that becomes one sub-task.
+ * Contiguous splits point into the uploaded input itself; a partition whose records
+ * were gathered from all over the input points at a spool file of its own.
+ *
+ * @param subTaskId Sub-task the range is dispatched as (1-based)
+ * @param input     Spooled input holding the bytes
+ * @param offset    First byte of the range within the input
+ * @param length    Range length in bytes, 0 for an empty partition
+ */
+public record InputPartition(int subTaskId, SpooledInput input, long offset, long length) {
+
+    public void transferTo(WritableByteChannel target) throws IOException {
+        input.transferTo(offset, length, target);
+    }
+}
@@ -0,0 +1,106 @@
+package com.computenet.broker.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InputSpool - Disk staging area for streamed task inputs
+ * An upload is copied from its stream to a spool file through one fixed-size buffer, so
+ * inputs of any size are accepted with constant heap use. The file lives until every
+ * partition has been sent to a worker; the input itself is not journaled, so spool files
+ * left over from an earlier run are deleted on open.
+ */
+public final class InputSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(InputSpool.class);
+    
+    private static final String FILE_PREFIX = "input-";
+    private static final String FILE_SUFFIX = ".spool";
+    private static final int COPY_BUFFER_BYTES = 1024 * 1024;
+    
+    private final Path directory;
+    private final AtomicLong bytesSpooled = new AtomicLong();
+    
+    private InputSpool(Path directory) {
+        this.directory = directory;
+    }
+    
+    /** Opens the spool in a directory, deleting spool files an earlier run left there. */
+    public static InputSpool open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(InputSpool::isSpoolFile).toList()) {
+                Files.deleteIfExists(path);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("InputSpool: Deleted {} spool files of inputs from an earlier run", deleted);
+        }
+        return new InputSpool(directory);
+    }
+    
+    /** Spool in a new temporary directory, for brokers without persistence. */
+    public static InputSpool temporary() {
+        try {
+            Path directory = Files.createTempDirectory("broker-spool-");
+            directory.toFile().deleteOnExit();
+            return new InputSpool(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a temporary input spool", e);
+        }
+    }
+    
+    /**
+     * Copies the stream to a new spool file until it ends.
+     * The partial file is deleted if the stream fails, e.g. when the client disconnects.
+     */
+    public SpooledInput spool(InputStream in) throws IOException {
+        SpoolWriter writer = newWriter();
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_BYTES];
+            int n;
+            while ((n = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                writer.write(ByteBuffer.wrap(buffer, 0, n));
+            }
+            return writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+    
+    /** Starts a new spool file, e.g. for a partition whose records are scattered over the input. */
+    public SpoolWriter newWriter() throws IOException {
+        Path path = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+        path.toFile().deleteOnExit();
+        return new SpoolWriter(this, path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+    
+    /** Called by SpoolWriter.finish: the file now counts towards bytesSpooled until it is closed. */
+    SpooledInput register(Path path, FileChannel channel, long size) {
+        bytesSpooled.addAndGet(size);
+        return new SpooledInput(this, path, channel, size, () -> bytesSpooled.addAndGet(-size));
+    }
+    
+    /** Bytes currently held in spool files, i.e. inputs not yet fully dispatched. */
+    public long bytesSpooled() {
+        return bytesSpooled.get();
+    }
+    
+    private static boolean isSpoolFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,11 @@
+package com.computenet.broker.storage;
+
+/**
+ * Location of one sub-task result inside a ResultStore.
+ *
+ * @param segment Segment file number
+ * @param offset  Byte offset of the result within the segment
+ * @param length  Result length in bytes
+ */
+public record ResultRef(int segment, int offset, int length) {
+}
@@ -0,0 +1,222 @@
+package com.computenet.broker.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ResultStore - Off-heap storage for sub-task results
+ * Results are appended to memory-mapped segment files and addressed by ResultRef, so the
+ * broker heap holds a few ints per result however large the result is. Space is handed out
+ * under a short lock and the bytes are copied into the mapping outside it, so concurrent
+ * appends only serialize on the offset bump.
+ *
+ * A result larger than the segment size gets a segment of its own. Segments from an earlier
+ * run are mapped again on open and new results go to a fresh segment, so existing ResultRefs
+ * stay valid across restarts. Results are never deleted, like the tasks that own them.
+ */
+public final class ResultStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultStore.class);
+    
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    
+    private static final String SEGMENT_PREFIX = "results-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    
+    private record Segment(int id, FileChannel channel, MappedByteBuffer buffer) {
+    }
+    
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean temporary;
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final Set<Integer> dirtySegments = ConcurrentHashMap.newKeySet();
+    private final LongAdder bytesStored = new LongAdder();
+    
+    // Guarded by this
+    private Segment active;
+    private int activeTail;
+    private int nextSegmentId;
+    
+    private ResultStore(Path directory, long segmentBytes, boolean temporary) {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 byte and 2 GB: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = (int) segmentBytes;
+        this.temporary = temporary;
+    }
+    
+    /** Opens the store in a directory, mapping the segments an earlier run left there. */
+    public static ResultStore open(Path directory, long segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        ResultStore store = new ResultStore(directory, segmentBytes, false);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(ResultStore::isSegment).toList()) {
+                Segment segment = store.mapSegment(segmentId(path), path, Files.size(path));
+                store.nextSegmentId = Math.max(store.nextSegmentId, segment.id() + 1);
+            }
+        }
+        if (!store.segments.isEmpty()) {
+            log.info("ResultStore: Mapped {} existing result segments from {}", store.segments.size(), directory);
+        }
+        return store;
+    }
+    
+    /** Store in a new temporary directory that is deleted on close, for brokers without persistence. */
+    public static ResultStore temporary() {
+        try {
+            Path directory = Files.createTempDirectory("broker-results-");
+            directory.toFile().deleteOnExit();
+            return new ResultStore(directory, DEFAULT_SEGMENT_BYTES, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a temporary result store", e);
+        }
+    }
+    
+    // --- Writing ---
+    
+    public ResultRef append(String result) {
+        return append(result.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    public ResultRef append(byte[] result) {
+        Segment segment;
+        int offset;
+        synchronized (this) {
+            if (result.length > segmentBytes) {
+                segment = createSegment(result.length);
+                offset = 0;
+            } else {
+                if (active == null || segmentBytes - activeTail < result.length) {
+                    active = createSegment(segmentBytes);
+                    activeTail = 0;
+                }
+                segment = active;
+                offset = activeTail;
+                activeTail += result.length;
+            }
+        }
+        // Absolute put leaves the shared buffer's position alone, so disjoint ranges can be written concurrently
+        segment.buffer().put(offset, result);
+        // Marked only once written: a force that ran between marking and writing would miss the bytes
+        dirtySegments.add(segment.id());
+        bytesStored.add(result.length);
+        return new ResultRef(segment.id(), offset, result.length);
+    }
+    
+    /**
+     * Flushes every segment written since the last call. Called by the WAL before each fsync,
+     * so a logged ResultRef never points at bytes that only reached the page cache.
+     * One call covers all results appended before it, like the WAL's group commit.
+     */
+    public void forceDirty() {
+        for (Integer id : dirtySegments) {
+            // Removed first: an append racing with the force marks the segment again
+            dirtySegments.remove(id);
+            segments.get(id).buffer().force();
+        }
+    }
+    
+    // --- Reading ---
+    
+    /** Read-only view of the result, backed by the mapping (no copy). */
+    public ByteBuffer read(ResultRef ref) {
+        return segment(ref).buffer().slice(ref.offset(), ref.length()).asReadOnlyBuffer();
+    }
+    
+    public String readString(ResultRef ref) {
+        return StandardCharsets.UTF_8.decode(read(ref)).toString();
+    }
+    
+    /**
+     * Writes the result to a channel with FileChannel.transferTo, which the kernel performs
+     * without copying through the heap when the target is a socket or a file.
+     */
+    public void transferTo(ResultRef ref, WritableByteChannel target) throws IOException {
+        FileChannel channel = segment(ref).channel();
+        long position = ref.offset();
+        long end = position + ref.length();
+        while (position < end) {
+            position += channel.transferTo(position, end - position, target);
+        }
+    }
+    
+    /** Total result bytes appended since the store was opened. */
+    public long bytesStored() {
+        return bytesStored.sum();
+    }
+    
+    private Segment segment(ResultRef ref) {
+        Segment segment = segments.get(ref.segment());
+        if (segment == null) {
+            throw new IllegalArgumentException("Unknown result segment " + ref.segment());
+        }
+        return segment;
+    }
+    
+    // --- Segments ---
+    
+    // Caller holds this
+    private Segment createSegment(int size) {
+        int id = nextSegmentId++;
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try {
+            if (temporary) {
+                path.toFile().deleteOnExit();
+            }
+            return mapSegment(id, path, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create result segment " + path, e);
+        }
+    }
+    
+    private Segment mapSegment(int id, Path path, long size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        // Mapping past the end grows the file sparsely; unused space costs no disk blocks
+        Segment segment = new Segment(id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segments.put(id, segment);
+        return segment;
+    }
+    
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+    
+    private static int segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    /** Closes the segment files; a temporary store also deletes them. Mappings are released by GC. */
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel().close();
+        }
+        if (temporary) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.computenet.broker.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * SpoolWriter - Builds a new spool file, created by InputSpool.newWriter
+ * Small writes are collected in a buffer; ranges of another spooled input are copied
+ * file to file by the kernel. finish() turns the file into a SpooledInput, abort() deletes it.
+ * Not thread-safe.
+ */
+public final class SpoolWriter {
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+    
+    private final InputSpool spool;
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private long size;
+    
+    SpoolWriter(InputSpool spool, Path path, FileChannel channel) {
+        this.spool = spool;
+        this.path = path;
+        this.channel = channel;
+    }
+    
+    /** Appends the remaining bytes of the source buffer. */
+    public void write(ByteBuffer source) throws IOException {
+        int length = source.remaining();
+        if (length > buffer.remaining()) {
+            flush();
+            if (length >= buffer.capacity()) {
+                writeFully(source);
+                size += length;
+                return;
+            }
+        }
+        buffer.put(source);
+        size += length;
+    }
+    
+    /** Appends a byte range of another spooled input without copying it through the heap. */
+    public void transferFrom(SpooledInput source, long offset, long length) throws IOException {
+        flush();
+        // Writes go to the channel's position, which is always the end of what was written
+        source.transferTo(offset, length, channel);
+        size += length;
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public SpooledInput finish() throws IOException {
+        flush();
+        return spool.register(path, channel, size);
+    }
+    
+    /** Deletes the file, after a failed write or when the result is no longer wanted. */
+    public void abort() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+    
+    private void flush() throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+    }
+    
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.computenet.broker.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SpooledInput - A task input written to a spool file by InputSpool
+ * Sub-tasks are byte ranges of the file (see InputPartition) and are sent with
+ * FileChannel.transferTo, so the input never passes through the heap on its way to the workers.
+ * Reads and transfers are positional and leave the channel position alone, so several
+ * sub-tasks can be sent from the same input concurrently. Closing deletes the file.
+ */
+public final class SpooledInput implements Closeable {
+
+    private final InputSpool spool;
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    
+    SpooledInput(InputSpool spool, Path path, FileChannel channel, long size, Runnable onClose) {
+        this.spool = spool;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+        this.onClose = onClose;
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public Path path() {
+        return path;
+    }
+    
+    /** The spool this input lives in, where files derived from it are created too. */
+    public InputSpool spool() {
+        return spool;
+    }
+    
+    /** Positional read, like FileChannel.read(dst, position). */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return channel.read(dst, position);
+    }
+    
+    /** Writes a byte range to a blocking target, see ResultStore.transferTo. */
+    public void transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent == 0) {
+                // A blocking target always takes something, so the file is shorter than the range
+                throw new IOException("Spool file " + path + " ends at " + position + ", range ends at " + end);
+            }
+            position += sent;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } finally {
+                onClose.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.computenet.broker.workflow;
+
+import com.computenet.broker.reduce.ResultCombiner;
+import com.computenet.broker.schedule.LocalityPlacer;
+import com.computenet.broker.schedule.Priority;
+import com.computenet.broker.schedule.StragglerMonitor;
+import com.computenet.broker.schedule.TaskScheduler;
+import com.computenet.broker.server.WorkerNIOHandler;
+import com.computenet.broker.service.TaskManager;
+import com.computenet.broker.service.TaskSubmissionHandler;
+import com.computenet.broker.split.TaskSplitter;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.broker.storage.ResultStore;
+import com.computenet.metrics.BrokerMetrics;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.WorkflowRequest;
+import com.computenet.util.RateLimitedLogger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WorkflowManager - Runs multi-stage workflows as tasks that trigger each other
+ * A workflow is a DAG of stages, each one a task whose input is the results of the stages it depends
+ * on. A stage starts the moment the last of them completes: their final results are joined, in the
+ * order listed, into its task data, and the task is queued on the TaskScheduler like any other.
+ *
+ * A stage with a single upstream stage, no split spec and the same sub-task count is streamed
+ * instead: its sub-task N takes the result of the upstream's sub-task N and is dispatched as soon as
+ * that result is recorded, not when the whole upstream stage has completed. This needs an upstream
+ * combiner that keeps the partitions apart (none, or concat); a sum or a top K only exists once
+ * complete. The workers running the upstream are asked to keep their results, and each streamed
+ * sub-task is sent to the worker that computed its input, so the data is offered by hash and found
+ * in that worker's payload cache rather than sent back from the broker. Results are still reported
+ * as usual, so they can be fetched, and a sub-task whose worker has left runs elsewhere.
+ *
+ * A failed upstream sub-task ("FAILED: ...") is passed on to the streamed sub-task it feeds without
+ * running it. Stages waiting for a failed stage are skipped, and the workflow fails. Workflows are
+ * not journalled: after a restart their stage tasks are recovered, but no further stages start.
+ * A finished workflow is dropped, and only its final view is kept, for the most recent ones.
+ */
+public class WorkflowManager implements TaskManager.SubTaskListener {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkflowManager.class);
+    private static final RateLimitedLogger stageLog = RateLimitedLogger.perSecond(log, 20);
+    
+    private static final byte[] FAILED = "FAILED:".getBytes(StandardCharsets.UTF_8);
+    
+    // Finished workflows whose final view /api/workflows/{id} still serves, the oldest forgotten first
+    private static final int KEEP_FINISHED = Integer.getInteger("broker.workflows.keepFinished", 1000);
+    
+    /** Progress of a workflow or one of its stages; workflows are only RUNNING, COMPLETED or FAILED. */
+    public enum Status {
+        WAITING,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        /** Never started, because a stage it depends on failed. */
+        SKIPPED;
+        
+        boolean finished() {
+            return this == COMPLETED || this == FAILED || this == SKIPPED;
+        }
+    }
+    
+    /** A workflow as shown on /api/workflows/{id}. */
+    public record WorkflowView(int workflowId, String name, Status status, List<StageView> stages) {}
+    
+    /** taskId is null until the stage has started. */
+    public record StageView(String id, String taskName, List<String> dependsOn, boolean streamed, Status status,
+                            Integer taskId, int completedSubTasks, int totalSubTasks) {}
+    
+    /** A stage's definition and, guarded by its workflow's lock, its progress. */
+    private static final class Stage {
+        final String id;
+        final String taskName;
+        final String data;
+        final Integer subTaskCount;
+        final TaskSplitter splitter;
+        final String combiner;
+        final long deadlineMillis;
+        final Set<String> tags;
+        final List<Stage> upstream = new ArrayList<>();
+        final List<Stage> downstream = new ArrayList<>();
+        boolean streamed; // Set once the workflow is planned
+        Status status = Status.WAITING;
+        int taskId = -1;
+        boolean released; // A streamed stage's turn on the TaskScheduler has come
+        final List<Input> held = new ArrayList<>(); // Inputs of a streamed stage that arrived before its release
+        
+        Stage(WorkflowRequest.Stage spec, TaskSplitter splitter) {
+            this.id = spec.id().trim();
+            this.taskName = spec.taskName();
+            this.data = spec.data();
+            this.subTaskCount = spec.subTaskCount();
+            this.splitter = splitter;
+            this.combiner = spec.combiner() != null && !spec.combiner().isBlank() ? spec.combiner() : null;
+            this.deadlineMillis = spec.deadlineMillis() != null ? spec.deadlineMillis() : 0;
+            this.tags = TaskManager.parseTags(spec.tags());
+        }
+        
+        /** Whether a streamed stage takes this stage's results, so its workers should keep them. */
+        boolean feedsStream() {
+            return downstream.stream().anyMatch(stage -> stage.streamed);
+        }
+    }
+    
+    /** The upstream result of one sub-task of a streamed stage, and the worker that computed it (null if none). */
+    private record Input(int subTaskId, String workerKey, ResultRef result) {}
+    
+    /** The streamed stages a stage's results go to as they arrive. */
+    private record Feed(Workflow workflow, List<Stage> consumers) {}
+    
+    private static final class Workflow {
+        final int id;
+        final String name;
+        final String tenant;
+        final Priority priority;
+        final List<Stage> stages; // Every stage after the ones it depends on
+        volatile Status status = Status.RUNNING;
+        
+        Workflow(int id, String name, String tenant, Priority priority, List<Stage> stages) {
+            this.id = id;
+            this.name = name;
+            this.tenant = tenant;
+            this.priority = priority;
+            this.stages = stages;
+        }
+    }
+    
+    private final TaskManager taskManager;
+    private final TaskScheduler taskScheduler;
+    private final ExecutorService executor;
+    private final TaskSubmissionHandler submissionHandler;
+    private final AtomicInteger workflowIds = new AtomicInteger();
+    private final Map<Integer, Workflow> workflows = new ConcurrentHashMap<>(); // Until every stage has finished
+    private final Map<Integer, WorkflowView> finished = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, WorkflowView> eldest) {
+            return size() > KEEP_FINISHED;
+        }
+    });
+    private final Map<Integer, Feed> feeds = new ConcurrentHashMap<>(); // By upstream task ID, until that task completes
+    private final LongAdder stagesStarted = new LongAdder();
+    private final LongAdder localSubTasks = new LongAdder();
+    private final LongAdder remoteSubTasks = new LongAdder();
+    
+    /**
+     * @param executor Dispatches the stages' sub-tasks and starts stages when the ones they depend on complete
+     */
+    public WorkflowManager(TaskManager taskManager, ExecutorService executor, WorkerNIOHandler nioHandler,
+                           TaskScheduler taskScheduler, StragglerMonitor stragglerMonitor, LocalityPlacer localityPlacer,
+                           PayloadCompressor payloadCompressor, BrokerMetrics metrics) {
+        this.taskManager = taskManager;
+        this.taskScheduler = taskScheduler;
+        this.executor = executor;
+        // No multicaster: stage inputs are not broadcast
+        this.submissionHandler = new TaskSubmissionHandler(taskManager, executor, nioHandler, null, payloadCompressor,
+                                                           stragglerMonitor, localityPlacer, metrics);
+        taskManager.addSubTaskListener(this);
+        metrics.counter("broker_workflow_stages_started_total", "Workflow stages whose task was created",
+                        stagesStarted::sum);
+        metrics.counterFamily("broker_workflow_streamed_subtasks_total",
+                              "Sub-tasks of streamed workflow stages, by whether they went to the worker holding their input",
+                              "placement", () -> Map.of("local", localSubTasks.sum(), "remote", remoteSubTasks.sum()));
+        metrics.gauge("broker_workflows_running", "Workflows with stages still to complete", this::runningCount);
+    }
+    
+    /**
+     * Checks a workflow and starts the stages that depend on nothing.
+     * @throws IllegalArgumentException if a stage is incomplete or refers to an unknown stage, the stages
+     *                                  depend on each other in a cycle, or a spec or priority is not recognised
+     */
+    public WorkflowView submit(WorkflowRequest request) {
+        Workflow workflow = plan(request);
+        workflows.put(workflow.id, workflow);
+        log.info("WorkflowManager: Workflow {} '{}' accepted with {} stages", workflow.id, workflow.name,
+                 workflow.stages.size());
+        synchronized (workflow) {
+            for (Stage stage : workflow.stages) {
+                if (stage.upstream.isEmpty()) {
+                    start(workflow, stage);
+                }
+            }
+        }
+        return view(workflow);
+    }
+    
+    /** @return the workflow's progress, or null if there is no such workflow or it finished too long ago */
+    public WorkflowView status(int workflowId) {
+        Workflow workflow = workflows.get(workflowId);
+        return workflow != null ? view(workflow) : finished.get(workflowId);
+    }
+    
+    private Workflow plan(WorkflowRequest request) {
+        if (request.stages() == null || request.stages().isEmpty()) {
+            throw new IllegalArgumentException("A workflow needs at least one stage");
+        }
+        Priority priority = Priority.parse(request.priority());
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        for (WorkflowRequest.Stage spec : request.stages()) {
+            if (spec == null || spec.id() == null || spec.id().isBlank()) {
+                throw new IllegalArgumentException("Every stage needs an id");
+            }
+            String id = spec.id().trim();
+            if (spec.taskName() == null || spec.taskName().isBlank()) {
+                throw new IllegalArgumentException("Stage '" + id + "' needs a task name");
+            }
+            if (spec.subTaskCount() != null && spec.subTaskCount() < 1) {
+                throw new IllegalArgumentException("Stage '" + id + "': sub-task count must be at least 1");
+            }
+            if (spec.deadlineMillis() != null && spec.deadlineMillis() < 1) {
+                throw new IllegalArgumentException("Stage '" + id + "': deadline must be at least 1 ms");
+            }
+            if (spec.combiner() != null && !spec.combiner().isBlank()) {
+                ResultCombiner.parse(spec.combiner()); // Only checked here, every task gets a fresh combiner
+            }
+            TaskSplitter splitter = spec.splitter() != null && !spec.splitter().isBlank()
+                    ? TaskSplitter.parse(spec.splitter())
+                    : null;
+            if (stages.putIfAbsent(id, new Stage(spec, splitter)) != null) {
+                throw new IllegalArgumentException("Duplicate stage id '" + id + "'");
+            }
+        }
+        for (WorkflowRequest.Stage spec : request.stages()) {
+            Stage stage = stages.get(spec.id().trim());
+            for (String dependency : spec.dependsOn() != null ? spec.dependsOn() : List.<String>of()) {
+                Stage upstream = dependency != null ? stages.get(dependency.trim()) : null;
+                if (upstream == null) {
+                    throw new IllegalArgumentException("Stage '" + stage.id + "' depends on unknown stage '" + dependency + "'");
+                }
+                if (!stage.upstream.contains(upstream)) {
+                    stage.upstream.add(upstream);
+                    upstream.downstream.add(stage);
+                }
+            }
+            boolean hasData = stage.data != null && !stage.data.isEmpty();
+            if (stage.upstream.isEmpty() && !hasData) {
+                throw new IllegalArgumentException("Stage '" + stage.id + "' has neither data nor stages it depends on");
+            }
+            if (!stage.upstream.isEmpty() && hasData) {
+                throw new IllegalArgumentException("Stage '" + stage.id + "' takes its input from the stages it depends on, "
+                                                   + "it cannot have data");
+            }
+        }
+        List<Stage> ordered = dependencyOrder(stages.values());
+        ordered.forEach(stage -> stage.streamed = streams(stage));
+        return new Workflow(workflowIds.incrementAndGet(), request.name(), request.tenant(), priority, ordered);
+    }
+    
+    /**
+     * The stages, each after every stage it depends on.
+     * @throws IllegalArgumentException if some of them depend on each other in a cycle
+     */
+    private static List<Stage> dependencyOrder(Collection<Stage> stages) {
+        Map<Stage, Integer> waitingFor = new HashMap<>();
+        ArrayDeque<Stage> ready = new ArrayDeque<>();
+        for (Stage stage : stages) {
+            waitingFor.put(stage, stage.upstream.size());
+            if (stage.upstream.isEmpty()) {
+                ready.add(stage);
+            }
+        }
+        List<Stage> ordered = new ArrayList<>(stages.size());
+        while (!ready.isEmpty()) {
+            Stage stage = ready.poll();
+            ordered.add(stage);
+            for (Stage next : stage.downstream) {
+                if (waitingFor.merge(next, -1, Integer::sum) == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (ordered.size() < stages.size()) {
+            List<String> stuck = stages.stream().filter(stage -> !ordered.contains(stage)).map(stage -> stage.id).toList();
+            throw new IllegalArgumentException("Stages " + stuck + " are in or after a dependency cycle");
+        }
+        return ordered;
+    }
+    
+    /** Whether a stage can take its upstream stage's results one sub-task at a time, see the class comment. */
+    private static boolean streams(Stage stage) {
+        if (stage.upstream.size() != 1 || stage.splitter != null) {
+            return false;
+        }
+        Stage upstream = stage.upstream.get(0);
+        return Objects.equals(stage.subTaskCount, upstream.subTaskCount)
+               && (upstream.combiner == null || ResultCombiner.parse(upstream.combiner).keepsPartitions());
+    }
+    
+    /**
+     * Creates the task of a stage whose upstream stages have all completed and queues it on the TaskScheduler,
+     * with the tasks of the streamed stages it feeds. Called with the workflow's lock held.
+     */
+    private void start(Workflow workflow, Stage stage) {
+        String data = stage.upstream.isEmpty() ? stage.data : upstreamResults(stage);
+        int requested = stage.subTaskCount != null ? stage.subTaskCount : Math.max(taskManager.getWorkerCount(), 1);
+        int taskId = createTask(workflow, stage, data, requested);
+        int subTasks = taskManager.getTaskInfo(taskId).totalSubTasks();
+        boolean keepResults = stage.feedsStream();
+        // The streamed stages must be listening before the first result can arrive
+        startStreams(workflow, stage, subTasks);
+        taskScheduler.submit(taskId, workflow.tenant, workflow.priority, subTasks,
+            () -> submissionHandler.processTask(taskId, stage.taskName, data, subTasks, stage.splitter, keepResults));
+        watch(workflow, stage);
+    }
+    
+    /**
+     * Creates the tasks of the streamed stages fed by a stage that is about to be queued. Each is queued too, but
+     * its turn on the TaskScheduler only releases the sub-tasks whose inputs have arrived; the others follow them.
+     */
+    private void startStreams(Workflow workflow, Stage upstream, int subTasks) {
+        List<Stage> consumers = upstream.downstream.stream().filter(stage -> stage.streamed).toList();
+        if (consumers.isEmpty()) {
+            return;
+        }
+        feeds.put(upstream.taskId, new Feed(workflow, consumers));
+        for (Stage stage : consumers) {
+            int taskId = createTask(workflow, stage, "[streamed from stage '" + upstream.id + "', task " + upstream.taskId + "]",
+                                    subTasks);
+            startStreams(workflow, stage, subTasks);
+            taskScheduler.submit(taskId, workflow.tenant, workflow.priority, subTasks, () -> release(workflow, stage));
+            watch(workflow, stage);
+        }
+    }
+    
+    private int createTask(Workflow workflow, Stage stage, String data, int subTasks) {
+        ResultCombiner combiner = stage.combiner != null ? ResultCombiner.parse(stage.combiner) : null;
+        stage.taskId = taskManager.createTask(stage.taskName, data, subTasks, combiner, stage.deadlineMillis);
+        taskManager.setRequiredTags(stage.taskId, stage.tags);
+        stage.status = Status.RUNNING;
+        stagesStarted.increment();
+        stageLog.info("WorkflowManager: Stage '{}' of workflow {} started as task {}{}", stage.id, workflow.id, stage.taskId,
+                      stage.streamed ? ", streamed" : "");
+        return stage.taskId;
+    }
+    
+    /** A stage's task data: the final results of the stages it depends on, in the order listed, one per line. */
+    private String upstreamResults(Stage stage) {
+        ResultStore store = taskManager.getResultStore();
+        return stage.upstream.stream()
+                .flatMap(upstream -> taskManager.getFinalResults(upstream.taskId).stream())
+                .map(store::readString)
+                .collect(Collectors.joining("\n"));
+    }
+    
+    private void watch(Workflow workflow, Stage stage) {
+        taskManager.awaitCompletion(stage.taskId).thenRunAsync(() -> completed(workflow, stage), executor);
+    }
+    
+    /** A streamed stage's turn on the TaskScheduler: the inputs held so far go out, later ones as they arrive. */
+    private boolean release(Workflow workflow, Stage stage) {
+        List<Input> held;
+        synchronized (workflow) {
+            stage.released = true;
+            held = new ArrayList<>(stage.held);
+            stage.held.clear();
+        }
+        held.forEach(input -> forward(stage, input));
+        return true;
+    }
+    
+    @Override
+    public void subTaskCompleted(int taskId, int subTaskId, String workerKey, ResultRef result) {
+        Feed feed = feeds.get(taskId);
+        if (feed == null) {
+            return;
+        }
+        Input input = new Input(subTaskId, workerKey, result);
+        for (Stage stage : feed.consumers()) {
+            boolean released;
+            synchronized (feed.workflow()) {
+                released = stage.released;
+                if (!released) {
+                    stage.held.add(input);
+                }
+            }
+            if (released) {
+                forward(stage, input);
+            }
+        }
+    }
+    
+    /** Dispatches a sub-task of a streamed stage with its input, preferably to the worker holding it, or passes on a failure. */
+    private void forward(Stage stage, Input input) {
+        ByteBuffer result = taskManager.getResultStore().read(input.result());
+        if (isFailure(result)) {
+            taskManager.submitSubTaskResult(stage.taskId, input.subTaskId(), StandardCharsets.UTF_8.decode(result).toString());
+            return;
+        }
+        byte[] payload = new byte[result.remaining()];
+        result.get(payload);
+        TaskManager.WorkerDetails worker = submissionHandler.dispatchSubTask(stage.taskId, stage.taskName,
+                input.subTaskId(), payload, input.workerKey(), stage.feedsStream());
+        if (worker == null) {
+            taskManager.submitSubTaskResult(stage.taskId, input.subTaskId(),
+                                            stage.tags.isEmpty() ? "FAILED: No workers registered" : TaskManager.NO_CAPABLE_WORKER);
+        } else if (worker.key().equals(input.workerKey())) {
+            localSubTasks.increment();
+        } else {
+            remoteSubTasks.increment();
+        }
+    }
+    
+    /** A stage's task completed: records whether it failed and starts or skips the stages waiting for it. */
+    private void completed(Workflow workflow, Stage stage) {
+        feeds.remove(stage.taskId);
+        ResultStore store = taskManager.getResultStore();
+        boolean failed = taskManager.getFinalResults(stage.taskId).stream()
+                .anyMatch(ref -> isFailure(store.read(ref)));
+        synchronized (workflow) {
+            stage.status = failed ? Status.FAILED : Status.COMPLETED;
+            stageLog.info("WorkflowManager: Stage '{}' of workflow {} {}", stage.id, workflow.id,
+                          failed ? "failed" : "completed");
+            for (Stage next : stage.downstream) {
+                if (next.status != Status.WAITING) {
+                    continue;
+                }
+                if (next.upstream.stream().anyMatch(upstream -> upstream.status == Status.FAILED
+                                                                || upstream.status == Status.SKIPPED)) {
+                    skip(next);
+                } else if (next.upstream.stream().allMatch(upstream -> upstream.status == Status.COMPLETED)) {
+                    start(workflow, next);
+                }
+            }
+            if (workflow.stages.stream().allMatch(candidate -> candidate.status.finished())) {
+                workflow.status = workflow.stages.stream().allMatch(candidate -> candidate.status == Status.COMPLETED)
+                        ? Status.COMPLETED
+                        : Status.FAILED;
+                log.info("WorkflowManager: Workflow {} '{}' {}", workflow.id, workflow.name,
+                         workflow.status == Status.COMPLETED ? "completed" : "failed");
+                // Its stage tasks, and with them the view's sub-task counts, may be cleaned up from now on
+                finished.put(workflow.id, view(workflow));
+                workflows.remove(workflow.id);
+            }
+        }
+    }
+    
+    /** Marks a stage that can no longer start, and every waiting stage after it. Called with the workflow's lock held. */
+    private static void skip(Stage stage) {
+        stage.status = Status.SKIPPED;
+        for (Stage next : stage.downstream) {
+            if (next.status == Status.WAITING) {
+                skip(next);
+            }
+        }
+    }
+    
+    private static boolean isFailure(ByteBuffer result) {
+        if (result.remaining() < FAILED.length) {
+            return false;
+        }
+        for (int i = 0; i < FAILED.length; i++) {
+            if (result.get(result.position() + i) != FAILED[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private WorkflowView view(Workflow workflow) {
+        synchronized (workflow) {
+            List<StageView> stages = new ArrayList<>(workflow.stages.size());
+            for (Stage stage : workflow.stages) {
+                TaskManager.TaskInfo info = stage.taskId >= 0 ? taskManager.getTaskInfo(stage.taskId) : null;
+                stages.add(new StageView(stage.id, stage.taskName, stage.upstream.stream().map(upstream -> upstream.id).toList(),
+                                         stage.streamed, stage.status, info != null ? stage.taskId : null,
+                                         info != null ? info.completedSubTasks() : 0,
+                                         info != null ? info.totalSubTasks() : 0));
+            }
+            return new WorkflowView(workflow.id, workflow.name, workflow.status, stages);
+        }
+    }
+    
+    /** Workflows with stages still to complete. */
+    public long runningCount() {
+        return workflows.size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.computenet.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdaptiveRateLimiter - Paces an originator's submissions by the broker's rejections
+ * Additive increase, multiplicative decrease: every TASK_REJECTED halves the submission rate
+ * and holds all submissions until its retry hint has passed, every accepted task raises the
+ * rate by one per second again. Until the first rejection submissions are not paced at all,
+ * so an originator of a healthy broker runs at full speed.
+ * Retry hints are stretched by up to 20% at random, so originators turned away together do
+ * not all come back at the same moment.
+ */
+public class AdaptiveRateLimiter {
+
+    private final double minRate;
+    private final double maxRate;
+    private double rate = Double.POSITIVE_INFINITY; // Submissions per second
+    private long nextPermitAt = System.nanoTime(); // Earliest start of the next submission
+    
+    // Submissions accepted since windowStart, to find the rate to halve after the first rejection
+    private long windowStart = System.nanoTime();
+    private int acceptedInWindow;
+    
+    /**
+     * @param minRate Slowest pace after repeated rejections, in submissions per second
+     * @param maxRate Fastest pace once rejections have started, in submissions per second
+     */
+    public AdaptiveRateLimiter(double minRate, double maxRate) {
+        if (minRate <= 0 || maxRate < minRate) {
+            throw new IllegalArgumentException("Invalid rate limits: " + minRate + "-" + maxRate + "/s");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+    }
+    
+    /** Reads -Doriginator.minRate (default 0.5) and -Doriginator.maxRate (default 1000). */
+    public static AdaptiveRateLimiter fromSystemProperties() {
+        return new AdaptiveRateLimiter(
+            Double.parseDouble(System.getProperty("originator.minRate", "0.5")),
+            Double.parseDouble(System.getProperty("originator.maxRate", "1000")));
+    }
+    
+    /** Blocks until the next submission may start. */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextPermitAt);
+            nextPermitAt = Double.isInfinite(rate) ? start : start + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+    
+    public synchronized void onAccepted() {
+        if (Double.isInfinite(rate)) {
+            long now = System.nanoTime();
+            if (now - windowStart > TimeUnit.SECONDS.toNanos(1)) {
+                windowStart = now;
+                acceptedInWindow = 0;
+            }
+            acceptedInWindow++;
+        } else {
+            rate = Math.min(rate + 1, maxRate);
+        }
+    }
+    
+    /** @param retryAfterMillis The broker's retry hint */
+    public synchronized void onRejected(long retryAfterMillis) {
+        if (Double.isInfinite(rate)) {
+            double seconds = Math.max((System.nanoTime() - windowStart) / 1e9, 1);
+            rate = acceptedInWindow / seconds;
+        }
+        rate = Math.min(Math.max(rate / 2, minRate), maxRate);
+        long backoff = (long) (TimeUnit.MILLISECONDS.toNanos(retryAfterMillis) * (1 + ThreadLocalRandom.current().nextDouble(0.2)));
+        nextPermitAt = Math.max(nextPermitAt, System.nanoTime() + backoff);
+    }
+    
+    /** Current pace in submissions per second; infinite until the first rejection. */
+    public synchronized double rate() {
+        return rate;
+    }
+}
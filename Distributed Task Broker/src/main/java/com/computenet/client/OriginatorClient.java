@@ -1,16 +1,71 @@
 package com.computenet.client;
 
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.TaskChunkOutputStream;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * OriginatorClient - The simplified TCP client for web submission
  * Sends tasks to the broker from the web interface or command line
+ * Inputs too large for a submission line are streamed with submitStream, e.g.
+ * OriginatorClient localhost @input.txt 4 lines streams a file as 4 sub-tasks of equal line counts,
+ * OriginatorClient localhost @input.txt 4 lines sum does the same and adds up their results.
+ * submitAndAwait and submitStreamAndAwait keep the connection open and complete a future with
+ * the task's final result when the broker pushes it, so completion needs no polling.
+ * setTenant and setPriority tag every later submission for the broker's TaskScheduler; from the
+ * command line they are read from -Doriginator.tenant and -Doriginator.priority. setDeadlineMillis
+ * likewise gives every later task a deadline, -Doriginator.deadlineMillis from the command line,
+ * and setTags the worker tags it needs, -Doriginator.tags.
+ * Submissions are paced by an AdaptiveRateLimiter that slows down whenever the broker answers
+ * TASK_REJECTED. A rejected submission line is sent again once the broker's retry hint has
+ * passed, up to -Doriginator.maxRetries times; a streamed input cannot be sent again, so a
+ * rejected upload fails and only the submissions after it wait.
  */
 public class OriginatorClient {
+
+    private static final Logger log = LoggerFactory.getLogger(OriginatorClient.class);
     
     private String brokerHost;
     private int brokerPort = 5000; // TCP port for task submission
+    private String tenant; // Null for the broker's default tenant
+    private String priority; // Null for the broker's default class
+    private long deadlineMillis; // 0 for the broker's default deadline
+    private String tags; // Null to let any worker run the sub-tasks
+    private int maxRetries = Integer.getInteger("originator.maxRetries", 5); // Resends of a rejected submission line
+    private final AdaptiveRateLimiter rateLimiter = AdaptiveRateLimiter.fromSystemProperties();
+    
+    /** The broker turned a submission away because it is overloaded; it may be sent again after retryAfterMillis. */
+    public static class TaskRejectedException extends IOException {
+        private final long retryAfterMillis;
+        
+        public TaskRejectedException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+        
+        public long retryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+    
+    // One thread per connection waiting for its task's result; daemon, so waiting never keeps the JVM alive
+    private static final ExecutorService awaitExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "originator-await");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     public static void main(String[] args) {
         System.out.println("Originator Client starting...");
@@ -19,9 +74,27 @@ public class OriginatorClient {
         String taskData = args.length > 1 ? args[1] : "Sample task: Process data";
         
         OriginatorClient originator = new OriginatorClient(brokerHost);
+        originator.setTenant(System.getProperty("originator.tenant"));
+        originator.setPriority(System.getProperty("originator.priority"));
+        originator.setDeadlineMillis(Long.getLong("originator.deadlineMillis", 0L));
+        originator.setTags(System.getProperty("originator.tags"));
         
-        // Submit task
-        int taskId = originator.submitTask(taskData);
+        // Submit task, "@path" streams a file instead
+        int taskId;
+        if (taskData.startsWith("@")) {
+            Path file = Path.of(taskData.substring(1));
+            int subTasks = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+            String split = args.length > 3 ? args[3] : null;
+            String combine = args.length > 4 ? args[4] : null;
+            try (InputStream in = Files.newInputStream(file)) {
+                taskId = originator.submitStream(file.getFileName().toString(), subTasks, split, combine, in);
+            } catch (IOException e) {
+                System.err.println("Cannot read " + file + ": " + e.getMessage());
+                return;
+            }
+        } else {
+            taskId = originator.submitTask(taskData);
+        }
         
         if (taskId > 0) {
             System.out.println("Task submitted successfully with ID: " + taskId);
@@ -34,42 +107,339 @@ public class OriginatorClient {
         this.brokerHost = brokerHost;
     }
     
+    /** @param tenant Submitter identity the broker shares dispatches by, or null for its default tenant */
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+    
+    /** @param priority Priority class: "interactive", "normal" or "bulk", or null for the broker's default */
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+    
+    /**
+     * @param deadlineMillis Time each task has to complete in after the broker accepted it, or 0 for the
+     *                       broker's default; sub-tasks still missing then are reported as failed
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+    
+    /** @param tags Comma-separated tags a worker must all have to run the sub-tasks, or null for any worker */
+    public void setTags(String tags) {
+        this.tags = tags != null && !tags.isBlank() ? tags : null;
+    }
+    
+    /** @param maxRetries Times a submission line the broker rejected is sent again, 0 to fail at once */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+    
     /**
      * Submits a task to the broker via TCP
-     * @param taskData The task data to submit
+     * @param taskData The task data to submit, which may span several lines, or a submission line of
+     *                 '|'-separated fields whose values are escaped with TextCodec.escapeField
      * @return The task ID assigned by the broker, or -1 if failed
      */
     public int submitTask(String taskData) {
-        System.out.println("Submitting task to broker: " + taskData);
+        log.debug("Submitting task to broker: {}", taskData);
         
-        try (Socket socket = new Socket(brokerHost, brokerPort);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        for (int attempt = 0; ; attempt++) {
+            if (!acquirePermit()) {
+                return -1;
+            }
+            try (Socket socket = new Socket(brokerHost, brokerPort);
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
             
-            // Send task data
-            out.println(taskData);
-            System.out.println("Task data sent to broker");
+                // Send task data
+                out.println(withScheduling(taskData));
             
-            // Wait for acknowledgment
-            String response = in.readLine();
-            System.out.println("Broker response: " + response);
+                // Wait for acknowledgment
+                String response = in.readLine();
+                log.debug("Broker response: {}", response);
             
-            // Parse task ID from response
-            if (response != null && response.startsWith("TASK_ACCEPTED:")) {
-                String[] parts = response.split(":");
-                if (parts.length >= 2) {
-                    return Integer.parseInt(parts[1]);
+                // Parse task ID from response
+                if (response != null && response.startsWith("TASK_ACCEPTED:")) {
+                    String[] parts = response.split(":");
+                    if (parts.length >= 2) {
+                        rateLimiter.onAccepted();
+                        return Integer.parseInt(parts[1]);
+                    }
+                }
+                
+                long retryAfter = retryAfter(response);
+                if (retryAfter < 0) {
+                    return -1;
                 }
+                rateLimiter.onRejected(retryAfter);
+                if (attempt >= maxRetries) {
+                    log.warn("Broker overloaded, task rejected {} times", attempt + 1);
+                    return -1;
+                }
+                log.info("Broker overloaded, submitting again in {} ms", retryAfter);
+            
+            } catch (IOException e) {
+                log.warn("Error submitting task: {}", e.getMessage());
+                return -1;
+            }
+        }
+    }
+    
+    /**
+     * Streams a task input of any size to the broker as a TASK_UPLOAD followed by TASK_CHUNK frames.
+     * The broker spools the input to disk and splits it into byte ranges, one per sub-task.
+     * @param taskName The task name
+     * @param subTaskCount Requested sub-task count, capped by the broker at its binary worker count
+     * @param split TaskSplitter spec (e.g. "lines", "hash"), or null for line-aligned byte ranges
+     * @param data The task input, read until it ends (not closed)
+     * @return The task ID assigned by the broker, or -1 if failed
+     */
+    public int submitStream(String taskName, int subTaskCount, String split, InputStream data) {
+        return submitStream(taskName, subTaskCount, split, null, data);
+    }
+    
+    /**
+     * Streams a task input like submitStream, with a reduce stage on the broker.
+     * @param combine ResultCombiner spec (e.g. "sum", "top:10"), or null to keep the results per sub-task only;
+     *                the combined result is served at /api/tasks/{id}/result
+     */
+    public int submitStream(String taskName, int subTaskCount, String split, String combine, InputStream data) {
+        if (!acquirePermit()) {
+            return -1;
+        }
+        try (Socket socket = new Socket(brokerHost, brokerPort)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            WireCodec.write(uploadHeader(taskName, subTaskCount, split, combine), out);
+            try (TaskChunkOutputStream chunks = new TaskChunkOutputStream(out)) {
+                data.transferTo(chunks);
             }
             
+            // The broker answers once the whole input is spooled
+            WireMessage response = WireCodec.read(new BufferedInputStream(socket.getInputStream()));
+            log.debug("Broker response: {}", response != null ? response.type() : "connection closed");
+            if (response != null && response.type() == MessageType.TASK_ACCEPTED) {
+                rateLimiter.onAccepted();
+                return response.id(0);
+            }
+            if (response != null && response.type() == MessageType.TASK_REJECTED) {
+                log.warn("Broker rejected upload: {}", rejected(response).getMessage());
+            }
+            if (response != null && response.type() == MessageType.ERROR) {
+                log.warn("Broker rejected upload: {}", response.payloadAsString());
+            }
         } catch (IOException e) {
-            System.err.println("Error submitting task: " + e.getMessage());
-            e.printStackTrace();
+            log.warn("Error streaming task: {}", e.getMessage());
         }
-        
         return -1;
     }
     
+    /**
+     * Submits a task and keeps the connection open until the broker pushes the task's final result.
+     * @param taskData The task data to submit; an "Await:true" field is added
+     * @return a future of the final result: the combined result if the task has a Combine field, otherwise
+     *         the sub-task results joined by newlines. It fails with an IOException if the broker rejects the
+     *         task, gives up waiting (broker.maxAwaitMillis) or the connection drops; cancelling it closes the connection.
+     */
+    public CompletableFuture<String> submitAndAwait(String taskData) {
+        String line = withFields(taskData, " | Await:true");
+        for (int attempt = 0; ; attempt++) {
+            if (!acquirePermit()) {
+                return CompletableFuture.failedFuture(new InterruptedIOException("Interrupted before submitting"));
+            }
+            Socket socket = null;
+            try {
+                socket = new Socket(brokerHost, brokerPort);
+                OutputStream out = socket.getOutputStream();
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                String response = readLine(in);
+                log.debug("Broker response: {}", response);
+                if (response != null && response.startsWith("TASK_ACCEPTED:")) {
+                    rateLimiter.onAccepted();
+                    return awaitResult(socket, in, false);
+                }
+                long retryAfter = retryAfter(response);
+                if (retryAfter < 0) {
+                    throw new IOException("Broker did not accept the task: " + response);
+                }
+                rateLimiter.onRejected(retryAfter);
+                if (attempt >= maxRetries) {
+                    throw new TaskRejectedException("Broker overloaded, task rejected " + (attempt + 1) + " times", retryAfter);
+                }
+                closeQuietly(socket);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+    
+    /**
+     * Streams a task input like submitStream and keeps the connection open until the broker pushes the
+     * task's final result, as submitAndAwait does. The input is uploaded before this method returns.
+     */
+    public CompletableFuture<String> submitStreamAndAwait(String taskName, int subTaskCount, String split, String combine,
+                                                          InputStream data) {
+        if (!acquirePermit()) {
+            return CompletableFuture.failedFuture(new InterruptedIOException("Interrupted before submitting"));
+        }
+        Socket socket = null;
+        try {
+            socket = new Socket(brokerHost, brokerPort);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            WireCodec.write(uploadHeader(taskName, subTaskCount, split, combine)
+                                       .withAttribute(WireMessage.AWAIT, "true"), out);
+            try (TaskChunkOutputStream chunks = new TaskChunkOutputStream(out)) {
+                data.transferTo(chunks);
+            }
+            
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            WireMessage response = WireCodec.read(in);
+            if (response != null && response.type() == MessageType.TASK_REJECTED) {
+                throw rejected(response);
+            }
+            if (response == null || response.type() != MessageType.TASK_ACCEPTED) {
+                throw new IOException("Broker did not accept the upload: "
+                                      + (response != null ? response.payloadAsString() : "connection closed"));
+            }
+            rateLimiter.onAccepted();
+            return awaitResult(socket, in, true);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /** Waits for the rate limiter; false if interrupted. */
+    private boolean acquirePermit() {
+        try {
+            rateLimiter.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /** @return the retry hint of a "TASK_REJECTED:RETRY_AFTER:<ms>" line, or -1 for any other response */
+    private static long retryAfter(String response) {
+        String prefix = "TASK_REJECTED:RETRY_AFTER:";
+        if (response == null || !response.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(response.substring(prefix.length()).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /** Slows the rate limiter down by a TASK_REJECTED frame and describes it. */
+    private TaskRejectedException rejected(WireMessage response) {
+        long retryAfter = Long.parseLong(response.attribute(WireMessage.RETRY_AFTER));
+        rateLimiter.onRejected(retryAfter);
+        return new TaskRejectedException(response.payloadAsString() + ", retry after " + retryAfter + " ms", retryAfter);
+    }
+    
+    /** Adds this client's Tenant, Priority, Deadline and Tags fields to a submission line, if set. */
+    private String withScheduling(String taskData) {
+        return tenant == null && priority == null && deadlineMillis <= 0 && tags == null
+               ? asLine(taskData) : withFields(taskData, "");
+    }
+    
+    /** Escapes plain data so its line breaks do not end the submission line; a submission line is kept as it is. */
+    private static String asLine(String taskData) {
+        return taskData.contains("|") ? taskData : TextCodec.escapeField(taskData);
+    }
+    
+    /** Appends fields, with the Tenant, Priority, Deadline and Tags fields if set, to a submission line. */
+    private String withFields(String taskData, String fields) {
+        // A line without fields is all data; it needs the Data field once it has others
+        StringBuilder line = new StringBuilder(taskData.contains("|") ? taskData : "Data:" + asLine(taskData));
+        if (tenant != null) {
+            line.append(" | Tenant:").append(tenant);
+        }
+        if (priority != null) {
+            line.append(" | Priority:").append(priority);
+        }
+        if (deadlineMillis > 0) {
+            line.append(" | Deadline:").append(deadlineMillis);
+        }
+        if (tags != null) {
+            line.append(" | Tags:").append(tags);
+        }
+        return line.append(fields).toString();
+    }
+    
+    private WireMessage uploadHeader(String taskName, int subTaskCount, String split, String combine) {
+        return WireMessage.taskUpload(taskName, subTaskCount, split, combine)
+                          .withAttribute(WireMessage.TENANT, tenant)
+                          .withAttribute(WireMessage.PRIORITY, priority)
+                          .withAttribute(WireMessage.DEADLINE, deadlineMillis > 0 ? Long.toString(deadlineMillis) : null)
+                          .withAttribute(WireMessage.TAGS, tags);
+    }
+    
+    /** Reads the TASK_COMPLETED push on a thread of its own and closes the connection after it, or on cancel. */
+    private static CompletableFuture<String> awaitResult(Socket socket, InputStream in, boolean binary) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        // Closing the socket ends the blocked read when the caller cancels
+        result.whenComplete((value, error) -> closeQuietly(socket));
+        awaitExecutor.execute(() -> {
+            try {
+                long length;
+                if (binary) {
+                    WireMessage message = WireCodec.read(in);
+                    if (message == null || message.type() != MessageType.TASK_COMPLETED) {
+                        throw new IOException(message != null ? message.payloadAsString() : "Connection closed before the task completed");
+                    }
+                    length = Long.parseLong(message.attribute(WireMessage.LENGTH));
+                } else {
+                    String line = readLine(in);
+                    if (line == null || !line.startsWith("TASK_COMPLETED:")) {
+                        throw new IOException(line != null ? line : "Connection closed before the task completed");
+                    }
+                    length = Long.parseLong(line.substring(line.lastIndexOf(':') + 1));
+                }
+                if (length > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Result of " + length + " bytes is too large for a String");
+                }
+                byte[] bytes = in.readNBytes((int) length);
+                if (bytes.length < length) {
+                    throw new EOFException("Connection closed after " + bytes.length + " of " + length + " result bytes");
+                }
+                result.complete(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IOException | NumberFormatException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+    
+    /** One line of the text protocol; bytes after it stay in the stream, unlike with a BufferedReader. */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1) {
+                return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8).stripTrailing();
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Error closing connection: {}", e.getMessage());
+            }
+        }
+    }
+    
     /**
      * Interactive mode for submitting multiple tasks
      */
@@ -0,0 +1,92 @@
+package com.computenet.client;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * PayloadCache - Sub-task data kept by the worker, keyed by ContentHash
+ * A least-recently-used map bounded by the total data size. The broker sends a hash
+ * before the data, and the data only when this cache misses. Sub-tasks and task configs
+ * hold the cached String itself, so repeated data is stored once on the worker too.
+ */
+public class PayloadCache {
+
+    private final long capacityBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    
+    private record Entry(String data, int length) {}
+    
+    /** Cache size and counters, as shown on the worker's /api/info. */
+    public record Stats(long capacityBytes, long sizeBytes, int entries, long hits, long misses) {}
+    
+    public PayloadCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+    
+    /** @return the cached data, or null on a miss */
+    public synchronized String get(String hash) {
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.data();
+    }
+    
+    /** Looks up data without counting a hit or a miss, for display. */
+    public synchronized String peek(String hash) {
+        Entry entry = entries.get(hash);
+        return entry != null ? entry.data() : null;
+    }
+    
+    /**
+     * Adds data under its hash, evicting the least recently used entries to make room.
+     * Data larger than the whole cache is not kept.
+     *
+     * @param length size of the data in bytes, as received
+     * @return the instance to keep referring to: the one already cached for this hash, if any
+     */
+    public synchronized String put(String hash, String data, int length) {
+        Entry existing = entries.get(hash);
+        if (existing != null) {
+            return existing.data();
+        }
+        if (length > capacityBytes) {
+            return data;
+        }
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (sizeBytes + length > capacityBytes && eldest.hasNext()) {
+            sizeBytes -= eldest.next().length();
+            eldest.remove();
+        }
+        entries.put(hash, new Entry(data, length));
+        sizeBytes += length;
+        return data;
+    }
+    
+    /** Hashes of the most recently used entries, at most max of them, most recent first; advertised in heartbeats. */
+    public synchronized List<String> recentHashes(int max) {
+        ArrayDeque<String> recent = new ArrayDeque<>(Math.min(max, entries.size()));
+        for (String hash : entries.keySet()) {
+            if (max <= 0) {
+                break;
+            }
+            // Access order runs from least to most recently used
+            if (recent.size() == max) {
+                recent.pollLast();
+            }
+            recent.addFirst(hash);
+        }
+        return List.copyOf(recent);
+    }
+    
+    public synchronized Stats stats() {
+        return new Stats(capacityBytes, sizeBytes, entries.size(), hits, misses);
+    }
+}
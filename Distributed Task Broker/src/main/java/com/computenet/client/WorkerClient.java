@@ -1,10 +1,12 @@
 package com.computenet.client;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.HttpURLConnection;
@@ -13,14 +15,48 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.computenet.client.executor.ComputeEngine;
+import com.computenet.client.executor.SubTask;
+import com.computenet.client.executor.SubTaskExecutor;
+import com.computenet.protocol.ContentHash;
+import com.computenet.protocol.JsonCodec;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.PayloadCompressor;
+import com.computenet.protocol.TextCodec;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.protocol.WorkerCompletionRequest;
+import com.computenet.util.ExponentialBackoff;
+import com.computenet.util.RateLimitedLogger;
 import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * WorkerClient - The application run by the 5 members
@@ -29,14 +65,27 @@ import io.javalin.Javalin;
  *     - ExecutorService-based task splitting and distribution (Broker side)
  *     - TCP server to receive sub-tasks from broker (Worker side)
  *     - HTTP interface for manual task completion (Worker side)
+ * Sub-tasks whose task name matches a SubTaskExecutor are computed by the ComputeEngine and
+ * reported to the broker when done; the others wait for manual completion.
+ * Broker connections and completion reports run on WorkerThreads executors. When the connection
+ * limit is reached, or the ComputeEngine queue is full, the broker gets BUSY instead of an ACK
+ * and sends the sub-task elsewhere. A CANCEL from the broker drops a queued or running sub-task,
+ * whose result is then never reported.
  */
 public class WorkerClient {
     
+    private static final Logger log = LoggerFactory.getLogger(WorkerClient.class);
+    
+    // A broadcast that keeps breaking the NIO thread would otherwise be reported on every reconnect
+    private static final RateLimitedLogger nioLog = RateLimitedLogger.perSecond(log, 1);
+    
     private String brokerHost;
     private int brokerUdpPort = 5001;
     private int brokerNioPort = 5002;
     private int workerTcpPort = 6000; // Port where this worker listens for sub-tasks
     private boolean running = true;
+    private volatile boolean binaryProtocol = true; // Cleared if the broker only speaks the text protocol
+    private volatile boolean brokerAcceptsDeflate = false; // Set if the broker's REGISTERED lists deflate
     private ServerSocket tcpServer;
     private Javalin workerWebApp; // Worker's HTTP server
     
@@ -44,21 +93,64 @@ public class WorkerClient {
     private final Map<Integer, SubTaskInfo> activeSubTasks = new ConcurrentHashMap<>();
     private final AtomicInteger subTaskCounter = new AtomicInteger(0);
     
+    // Sub-task data by content hash, so data the broker already sent once is not sent again
+    private final PayloadCache payloadCache = new PayloadCache(
+        Long.getLong("worker.payloadCacheBytes", 64L * 1024 * 1024));
+    
+    // Cached payloads named in each heartbeat, so the broker places their sub-tasks here; 64 hashes take about 2 KB
+    private final int advertisedPayloads = Integer.getInteger("worker.advertisedPayloads", 64);
+    
+    // Binary registrations sent before falling back to text; each waits 5 s for the REGISTERED reply
+    private final int binaryRegisterAttempts = Math.max(1, Integer.getInteger("worker.registerAttempts", 4));
+    
+    // Capability tags the broker matches against a task's required tags, e.g. -Dworker.tags=gpu,avx512
+    private final String tags = System.getProperty("worker.tags", "");
+
+    // Inflates compressed sub-tasks and compresses large completion reports
+    private final PayloadCompressor payloadCompressor = PayloadCompressor.fromSystemProperties("worker");
+    
+    // Runs sub-tasks with the executors found on the classpath
+    private final ComputeEngine computeEngine = ComputeEngine.fromSystemProperties();
+    
+    // Queued and running computations by sub-task key, so the broker can cancel them
+    private final Map<Integer, Future<?>> computeRuns = new ConcurrentHashMap<>();
+    
+    // Broker connections being handled at once are limited, beyond that the broker is told BUSY
+    private final int maxConnections = Integer.getInteger("worker.maxConnections", 64);
+    private final Semaphore connectionPermits = new Semaphore(maxConnections);
+    private final ExecutorService connectionExecutor = WorkerThreads.newExecutor("worker-conn", maxConnections);
+    // Turned-away connections waiting for their BUSY reply hold little more than a socket each
+    private final ExecutorService busyExecutor = WorkerThreads.newBoundedExecutor("worker-busy", 2, 256);
+    private final ExecutorService notifyExecutor = WorkerThreads.newExecutor(
+        "worker-notify", Integer.getInteger("worker.notifyThreads", 4));
+    private final LongAdder busyReplies = new LongAdder();
+    
     // M4 Multicast: Manual join control
     private volatile boolean m4MulticastEnabled = false;
     private Thread multicastListenerThread = null;
     private java.net.MulticastSocket multicastSocket = null;
     
     // Store received M4 task configurations
-    private final Map<String, TaskConfigInfo> receivedConfigs = new ConcurrentHashMap<>();
+    private final Map<String, TaskConfigRef> receivedConfigs = new ConcurrentHashMap<>();
     
-    // Record to hold sub-task information
-    public record SubTaskInfo(int taskId, int subTaskId, String data, String status, long receivedTime) {}
+    // Record to hold sub-task information; inputFile holds a streamed partition, null for inline data
+    // Status: PENDING (manual), QUEUED, RUNNING, COMPLETED, FAILED or CANCELLED; result is set once it has one
+    public record SubTaskInfo(int taskId, int subTaskId, String data, String status, long receivedTime,
+                              String inputFile, String result) {
+        
+        SubTaskInfo withStatus(String status, String result) {
+            return new SubTaskInfo(taskId, subTaskId, data, status, receivedTime, inputFile, result);
+        }
+    }
     
-    // Record to hold M4 task configuration information
+    // Record to hold M4 task configuration information, as shown on the dashboard
     public record TaskConfigInfo(String taskId, String taskName, int splitCount, String taskData, 
                                   String[] subTasks, long receivedTime) {}
     
+    // M4 task configuration as received, with the data referenced by content hash
+    private record TaskConfigRef(String taskId, String taskName, int splitCount, String taskDataHash,
+                                 String[] subTaskHashes, long receivedTime) {}
+    
     public static void main(String[] args) {
         String brokerHost = args.length > 0 ? args[0] : "localhost";
         int workerPort = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
@@ -126,6 +218,7 @@ public class WorkerClient {
         
         workerWebApp = Javalin.create(config -> {
             config.staticFiles.add("/public");
+            config.jsonMapper(new JavalinJackson(JsonCodec.MAPPER, false));
         }).start(httpPort);
         
         System.out.println("Worker: Web interface started on http://localhost:" + httpPort);
@@ -144,13 +237,23 @@ public class WorkerClient {
         
         // API: Get worker info
         workerWebApp.get("/api/info", ctx -> {
-            ctx.json(Map.of(
-                "workerPort", workerTcpPort,
-                "httpPort", httpPort,
-                "brokerHost", brokerHost,
-                "status", "RUNNING",
-                "activeTaskCount", activeSubTasks.size(),
-                "m4MulticastEnabled", m4MulticastEnabled
+            ctx.json(Map.ofEntries(
+                Map.entry("workerPort", workerTcpPort),
+                Map.entry("httpPort", httpPort),
+                Map.entry("brokerHost", brokerHost),
+                Map.entry("status", "RUNNING"),
+                Map.entry("activeTaskCount", activeSubTasks.size()),
+                Map.entry("m4MulticastEnabled", m4MulticastEnabled),
+                Map.entry("payloadCache", payloadCache.stats()),
+                Map.entry("compression", payloadCompressor.stats()),
+                Map.entry("executors", computeEngine.executorNames()),
+                Map.entry("computeEngine", computeEngine.stats()),
+                Map.entry("connections", Map.of(
+                    "active", maxConnections - connectionPermits.availablePermits(),
+                    "limit", maxConnections,
+                    "busyReplies", busyReplies.sum(),
+                    "virtualThreads", WorkerThreads.virtualThreadsAvailable()
+                ))
             ));
         });
         
@@ -198,7 +301,9 @@ public class WorkerClient {
         
         // API: Get received M4 task configurations
         workerWebApp.get("/api/m4/configs", ctx -> {
-            ctx.json(receivedConfigs);
+            Map<String, TaskConfigInfo> configs = new TreeMap<>();
+            receivedConfigs.forEach((taskId, config) -> configs.put(taskId, resolveTaskConfig(config)));
+            ctx.json(configs);
         });
         
         // API: Mark sub-task as complete
@@ -209,21 +314,22 @@ public class WorkerClient {
                 int key = Integer.parseInt(subTaskKey);
                 SubTaskInfo task = activeSubTasks.get(key);
                 
-                if (task != null) {
+                if (task != null && !"PENDING".equals(task.status())) {
+                    ctx.status(409).json(Map.of(
+                        "success", false,
+                        "message", "Sub-task is " + task.status()
+                    ));
+                } else if (task != null) {
                     // Update task status to completed
-                    SubTaskInfo completedTask = new SubTaskInfo(
-                        task.taskId(),
-                        task.subTaskId(),
-                        task.data(),
-                        "COMPLETED",
-                        task.receivedTime()
-                    );
-                    activeSubTasks.put(key, completedTask);
+                    activeSubTasks.put(key, task.withStatus("COMPLETED", "Completed"));
+                    if (task.inputFile() != null) {
+                        Files.deleteIfExists(Path.of(task.inputFile()));
+                    }
                     
                     System.out.println("Worker: Sub-task " + task.subTaskId() + " marked as COMPLETED");
                     
                     // Notify broker about completion to update statistics
-                    notifyBrokerCompletion(task.taskId(), task.subTaskId());
+                    notifyBrokerCompletion(task.taskId(), task.subTaskId(), "Completed");
                     
                     ctx.json(Map.of(
                         "success", true,
@@ -245,17 +351,51 @@ public class WorkerClient {
         });
     }
     
+    /**
+     * M5: Registers with the broker via UDP
+     * Offers the binary WireCodec protocol first, sending it again with backoff while no reply
+     * arrives, since a lost datagram says nothing about the broker. If the broker answers with
+     * anything but a binary REGISTERED frame, or never answers, falls back to the text protocol
+     * for all later traffic.
+     */
     private void registerWithBroker() {
-        try {
-            DatagramSocket socket = new DatagramSocket();
-            String message = "REGISTER:" + workerTcpPort;
-            byte[] data = message.getBytes();
+        ExponentialBackoff backoff = new ExponentialBackoff(500, 5_000);
+        Registration reply = register(true);
+        for (int attempt = 1; reply == Registration.NO_REPLY && attempt < binaryRegisterAttempts; attempt++) {
+            try {
+                Thread.sleep(backoff.nextDelayMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            System.out.println("Worker: No binary registration ack, sending it again");
+            reply = register(true);
+        }
+        if (reply != Registration.REGISTERED) {
+            System.out.println("Worker: No binary registration ack, retrying with text protocol");
+            binaryProtocol = false;
+            register(false);
+        }
+    }
+    
+    private enum Registration { REGISTERED, REFUSED, NO_REPLY }
+    
+    private Registration register(boolean binary) {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            // Binary workers announce their optional features and capacity, the text protocol has no room for them
+            Map<String, String> attributes = null;
+            if (binary) {
+                attributes = new HashMap<>(resourceAttributes());
+                attributes.put(WireMessage.FEATURES, WireMessage.FEATURE_PAYLOAD_CACHE + "," + WireMessage.FEATURE_DEFLATE);
+            }
+            WireMessage message = WireMessage.register(workerTcpPort, attributes);
+            byte[] data = binary ? WireCodec.encode(message) : TextCodec.encode(message).getBytes();
             
             InetAddress brokerAddress = InetAddress.getByName(brokerHost);
             DatagramPacket packet = new DatagramPacket(data, data.length, brokerAddress, brokerUdpPort);
             
             socket.send(packet);
-            System.out.println("Worker: Sent registration to broker");
+            System.out.println("Worker: Sent " + (binary ? "binary" : "text") + " registration to broker");
             
             // Wait for acknowledgment
             byte[] buffer = new byte[1024];
@@ -263,12 +403,19 @@ public class WorkerClient {
             socket.setSoTimeout(5000);
             socket.receive(ackPacket);
             
-            String ack = new String(ackPacket.getData(), 0, ackPacket.getLength());
-            System.out.println("Worker: Registration acknowledged: " + ack);
-            
-            socket.close();
+            WireMessage ack = ackPacket.getLength() > 0 && WireCodec.isFrameStart(buffer[0])
+                    ? WireCodec.decode(ByteBuffer.wrap(buffer, 0, ackPacket.getLength()))
+                    : TextCodec.decode(new String(buffer, 0, ackPacket.getLength()));
+            System.out.println("Worker: Registration acknowledged: " + (ack != null ? ack.type() : "unknown reply"));
+            boolean registered = ack != null && ack.type() == MessageType.REGISTERED && WireCodec.isFrameStart(buffer[0]) == binary;
+            String brokerFeatures = registered ? ack.attribute(WireMessage.FEATURES) : null;
+            brokerAcceptsDeflate = brokerFeatures != null && brokerFeatures.contains(WireMessage.FEATURE_DEFLATE);
+            return registered ? Registration.REGISTERED : Registration.REFUSED;
+        } catch (SocketTimeoutException e) {
+            return Registration.NO_REPLY;
         } catch (Exception e) {
             System.err.println("Worker: Registration failed: " + e.getMessage());
+            return Registration.REGISTERED; // Only a missing or text reply triggers the text fallback
         }
     }
     
@@ -304,7 +451,7 @@ public class WorkerClient {
                         
                         String message = new String(packet.getData(), 0, packet.getLength());
                         
-                        // Parse enhanced format: "TASKCONFIG:taskId:taskName:splitCount:taskData:subTask1|subTask2|..."
+                        // Parse format: "TASKCONFIG:taskId:taskName:splitCount:taskDataHash:subTaskHash1|subTaskHash2|..."
                         if (message.startsWith("TASKCONFIG:")) {
                             parseAndStoreTaskConfig(message);
                         }
@@ -347,7 +494,7 @@ public class WorkerClient {
     
     /**
      * M4: Parse and store task configuration
-     * Format: TASKCONFIG:taskId:taskName:splitCount:taskData:subTask1|subTask2|...
+     * Format: TASKCONFIG:taskId:taskName:splitCount:taskDataHash:subTaskHash1|subTaskHash2|...
      */
     private void parseAndStoreTaskConfig(String message) {
         try {
@@ -356,13 +503,13 @@ public class WorkerClient {
                 String taskId = parts[1];
                 String taskName = parts[2];
                 int splitCount = Integer.parseInt(parts[3]);
-                String taskData = parts[4];
-                String[] subTasks = parts[5].split("\\|");
+                String taskDataHash = parts[4];
+                String[] subTaskHashes = parts[5].split("\\|");
                 
                 long receivedTime = System.currentTimeMillis();
                 
-                TaskConfigInfo config = new TaskConfigInfo(
-                    taskId, taskName, splitCount, taskData, subTasks, receivedTime
+                TaskConfigRef config = new TaskConfigRef(
+                    taskId, taskName, splitCount, taskDataHash, subTaskHashes, receivedTime
                 );
                 
                 receivedConfigs.put(taskId, config);
@@ -371,74 +518,147 @@ public class WorkerClient {
                 System.out.println("M4:   Task ID: " + taskId);
                 System.out.println("M4:   Task Name: " + taskName);
                 System.out.println("M4:   Split Count: " + splitCount);
-                System.out.println("M4:   Sub-tasks: " + subTasks.length);
+                System.out.println("M4:   Sub-tasks: " + subTaskHashes.length);
             }
         } catch (Exception e) {
             System.err.println("M4: Error parsing task config: " + e.getMessage());
         }
     }
     
+    /**
+     * M4: Looks up the data a task config refers to in the payload cache
+     * The config usually arrives before its sub-tasks, so the data shows up once they have been received.
+     */
+    private TaskConfigInfo resolveTaskConfig(TaskConfigRef config) {
+        String[] subTasks = new String[config.subTaskHashes().length];
+        for (int i = 0; i < subTasks.length; i++) {
+            subTasks[i] = cachedOrHash(config.subTaskHashes()[i]);
+        }
+        return new TaskConfigInfo(config.taskId(), config.taskName(), config.splitCount(),
+                                  cachedOrHash(config.taskDataHash()), subTasks, config.receivedTime());
+    }
+    
+    private String cachedOrHash(String hash) {
+        String data = payloadCache.peek(hash);
+        return data != null ? data : "[not cached: " + hash + "]";
+    }
+    
+    /**
+     * M3: Keeps a connection to the broker's NIO broadcast channel and prints what arrives
+     * A Selector wakes the thread only when data is there; frames and text lines are decoded
+     * from one buffer that is reused for the life of the worker and only grows for messages
+     * larger than it. The connection is made again with jittered exponential backoff when it is
+     * lost or handling a broadcast fails.
+     */
     private void connectToNIOChannel() {
-        new Thread(() -> {
-            while (running) {
-                try {
-                    SocketChannel channel = SocketChannel.open();
-                    channel.connect(new InetSocketAddress(brokerHost, brokerNioPort));
-                    channel.configureBlocking(false);
-                    
-                    System.out.println("Worker: Connected to NIO broadcast channel");
+        new Thread(this::runNioChannel, "worker-nio").start();
+    }
                     
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    boolean connected = true;
+    private void runNioChannel() {
+        ExponentialBackoff backoff = new ExponentialBackoff(250, 30_000);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (running) {
+            try (Selector selector = Selector.open();
+                 SocketChannel channel = SocketChannel.open(new InetSocketAddress(brokerHost, brokerNioPort))) {
                     
-                    while (running && connected) {
-                        buffer.clear();
-                        int bytesRead = channel.read(buffer);
-                        
-                        if (bytesRead == -1) {
-                            // Connection closed by broker
-                            System.out.println("Worker: NIO connection closed by broker. Reconnecting...");
-                            connected = false;
-                            break;
-                        } else if (bytesRead > 0) {
-                            buffer.flip();
-                            byte[] data = new byte[buffer.remaining()];
-                            buffer.get(data);
-                            String message = new String(data).trim();
-                            
-                            // M3: Just display the broadcast, don't process as a task
-                            System.out.println("NIO: Received broadcast: " + message);
-                        }
-                        
-                        Thread.sleep(100);
+                // Identify ourselves so the broker switches this channel to binary frames
+                if (binaryProtocol) {
+                    ByteBuffer hello = ByteBuffer.wrap(WireCodec.encode(WireMessage.hello(workerTcpPort)));
+                    while (hello.hasRemaining()) {
+                        channel.write(hello);
                     }
-                    
-                    channel.close();
-                    
-                    // Wait before reconnecting (if still running)
-                    if (running && !connected) {
-                        System.out.println("Worker: Waiting 2 seconds before reconnecting...");
-                        Thread.sleep(2000);
+                }
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+                
+                System.out.println("Worker: Connected to NIO broadcast channel");
+                backoff.reset();
+                buffer.clear();
+                
+                while (running) {
+                    // The timeout only bounds how long stop() takes to be noticed
+                    if (selector.select(1000) == 0) {
+                        continue;
                     }
-                    
-                } catch (Exception e) {
-                    System.err.println("Worker: NIO connection error: " + e.getMessage());
-                    
-                    // Wait before retrying if still running
-                    if (running) {
-                        try {
-                            System.out.println("Worker: Waiting 5 seconds before retry...");
-                            Thread.sleep(5000);
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
+                    selector.selectedKeys().clear();
+                    if (channel.read(buffer) == -1) {
+                        System.out.println("Worker: NIO connection closed by broker");
+                        break;
+                    }
+                    buffer.flip();
+                    printBroadcasts(buffer);
+                    buffer.compact();
+                    if (!buffer.hasRemaining()) {
+                        buffer = grow(buffer);
                     }
                 }
+            } catch (IOException e) {
+                System.err.println("Worker: NIO connection error: " + e.getMessage());
+            } catch (RuntimeException e) {
+                // A bug in handling one broadcast must not end the channel for the life of the worker
+                nioLog.warn("Worker: NIO broadcast handling failed, reconnecting", e);
             }
             
-            System.out.println("Worker: NIO connection thread stopped");
-        }).start();
+            if (running) {
+                long delay = backoff.nextDelayMillis();
+                System.out.println("Worker: Reconnecting to NIO channel in " + delay + " ms...");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        
+        System.out.println("Worker: NIO connection thread stopped");
+    }
+    
+    /** Prints every complete frame or text line in the buffer, leaving a partial one for the next read. */
+    private static void printBroadcasts(ByteBuffer buffer) throws WireCodec.WireFormatException {
+        while (buffer.hasRemaining()) {
+            String message;
+            if (WireCodec.isFrameStart(buffer.get(buffer.position()))) {
+                WireMessage frame = WireCodec.decode(buffer);
+                if (frame == null) {
+                    return; // Wait for the rest of the frame
+                }
+                message = TextCodec.encode(frame);
+            } else {
+                int end = indexOf(buffer, (byte) '\n');
+                if (end < 0) {
+                    return; // Wait for the rest of the line
+                }
+                byte[] line = new byte[end - buffer.position()];
+                buffer.get(line);
+                buffer.get(); // The line break
+                message = new String(line, StandardCharsets.UTF_8).trim();
+            }
+            
+            // M3: Just display the broadcast, don't process as a task
+            System.out.println("NIO: Received broadcast: " + message);
+        }
+    }
+    
+    private static int indexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /** Doubles a full buffer that holds one incomplete message, up to the largest frame allowed. */
+    private static ByteBuffer grow(ByteBuffer buffer) throws IOException {
+        int limit = WireCodec.MAX_BODY_LENGTH + 16;
+        if (buffer.capacity() >= limit) {
+            throw new IOException("NIO message larger than " + limit + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, limit));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
     }
     
     private void startHeartbeat() {
@@ -448,8 +668,14 @@ public class WorkerClient {
                 InetAddress brokerAddress = InetAddress.getByName(brokerHost);
                 
                 while (running) {
-                    String message = "HEARTBEAT";
-                    byte[] data = message.getBytes();
+                    WireMessage message = WireMessage.heartbeat(workerTcpPort);
+                    if (binaryProtocol) {
+                        for (Map.Entry<String, String> attribute : resourceAttributes().entrySet()) {
+                            message = message.withAttribute(attribute.getKey(), attribute.getValue());
+                        }
+                        message = message.withAttribute(WireMessage.CACHED, cachedPayloads());
+                    }
+                    byte[] data = binaryProtocol ? WireCodec.encode(message) : TextCodec.encode(message).getBytes();
                     DatagramPacket packet = new DatagramPacket(data, data.length, brokerAddress, brokerUdpPort);
                     socket.send(packet);
                     
@@ -463,33 +689,62 @@ public class WorkerClient {
         }).start();
     }
     
+    /**
+     * What the broker weighs this worker by: its cores and compute threads, the heap it can still allocate,
+     * the sub-tasks it is running or has queued, and its capability tags if it has any.
+     */
+    private Map<String, String> resourceAttributes() {
+        ComputeEngine.Stats stats = computeEngine.stats();
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(WireMessage.CORES, String.valueOf(runtime.availableProcessors()));
+        attributes.put(WireMessage.SLOTS, String.valueOf(stats.threads()));
+        attributes.put(WireMessage.FREE_MEMORY, String.valueOf(freeMemory));
+        attributes.put(WireMessage.LOAD, String.valueOf(stats.running() + stats.queued()));
+        if (!tags.isBlank()) {
+            attributes.put(WireMessage.TAGS, tags.replace(" ", ""));
+        }
+        return attributes;
+    }
+    
+    /** The hashes advertised in a heartbeat, most recently used first; null if the cache is empty. */
+    private String cachedPayloads() {
+        List<String> hashes = payloadCache.recentHashes(advertisedPayloads);
+        return hashes.isEmpty() ? null : String.join(",", hashes);
+    }
+    
     /**
      * M2: Notify broker when sub-task is completed
      * This allows broker to update worker statistics in real-time
      */
-    private void notifyBrokerCompletion(int taskId, int subTaskId) {
-        new Thread(() -> {
+    private void notifyBrokerCompletion(int taskId, int subTaskId, String result) {
+        notifyExecutor.execute(() -> {
             try {
                 // Use "localhost" to match how broker sees workers in local testing
                 // In production, this should be the actual routable IP
                 String workerAddress = "127.0.0.1";
                 
                 // Build JSON payload
-                String json = String.format(
-                    "{\"workerAddress\":\"%s\",\"workerPort\":\"%d\",\"taskId\":\"%d\",\"subTaskId\":\"%d\",\"result\":\"Completed\"}",
-                    workerAddress, workerTcpPort, taskId, subTaskId
-                );
+                byte[] body = JsonCodec.toBytes(new WorkerCompletionRequest(
+                    workerAddress, workerTcpPort, taskId, subTaskId, result
+                ));
                 
                 // Send HTTP POST to broker
                 URL url = new URL("http://" + brokerHost + ":8080/api/worker-complete");
                 HttpURLConnection conn = (HttpURLConnection) url.openConnection();
                 conn.setRequestMethod("POST");
                 conn.setRequestProperty("Content-Type", "application/json");
+                // Large results are compressed if the broker said at registration that it accepts deflate
+                byte[] compressed = brokerAcceptsDeflate ? payloadCompressor.deflate(body) : null;
+                if (compressed != null) {
+                    conn.setRequestProperty("Content-Encoding", PayloadCompressor.CONTENT_ENCODING);
+                    body = compressed;
+                }
                 conn.setDoOutput(true);
                 
                 try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = json.getBytes("utf-8");
-                    os.write(input, 0, input.length);
+                    os.write(body);
                 }
                 
                 int responseCode = conn.getResponseCode();
@@ -504,12 +759,13 @@ public class WorkerClient {
             } catch (Exception e) {
                 System.err.println("Worker: Error notifying broker of completion: " + e.getMessage());
             }
-        }).start();
+        });
     }
     
     /**
      * M2: Starts TCP server to receive sub-tasks from broker
-     * Each sub-task is sent via a new TCP connection from the broker's ExecutorService
+     * Each sub-task is sent via a new TCP connection from the broker's ExecutorService.
+     * Connections are handled on the connection executor, at most worker.maxConnections at once.
      */
     private void startTcpServer() {
         new Thread(() -> {
@@ -522,8 +778,18 @@ public class WorkerClient {
                         Socket clientSocket = tcpServer.accept();
                         System.out.println("Worker: Broker connected to send sub-task");
                         
-                        // Handle sub-task in separate thread to allow concurrent processing
-                        new Thread(() -> handleSubTask(clientSocket)).start();
+                        // Handle sub-task on the connection executor to allow concurrent processing
+                        if (connectionPermits.tryAcquire()) {
+                            connectionExecutor.execute(() -> {
+                                try {
+                                    handleSubTask(clientSocket);
+                                } finally {
+                                    connectionPermits.release();
+                                }
+                            });
+                        } else {
+                            turnAway(clientSocket);
+                        }
                         
                     } catch (SocketException e) {
                         if (!running) {
@@ -538,54 +804,106 @@ public class WorkerClient {
         }).start();
     }
     
+    /**
+     * Has a broker connection answered BUSY on the busy executor when the connection limit is reached,
+     * so the accept thread goes straight back to accepting. If even that executor is backed up, the
+     * connection is closed unanswered and the broker counts a failed dispatch.
+     */
+    private void turnAway(Socket clientSocket) {
+        busyReplies.increment();
+        try {
+            busyExecutor.execute(() -> rejectBusy(clientSocket));
+        } catch (RejectedExecutionException e) {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+                // Closing is all that was left to do
+            }
+        }
+    }
+    
+    /**
+     * Reads the sub-task's ids, skips its data without keeping it (waiting at most a second for each
+     * read) and answers BUSY in the same protocol. A streamed partition cannot be turned away before
+     * its data has been sent, so the broker's send may fail instead; it counts as a failed dispatch.
+     */
+    private void rejectBusy(Socket clientSocket) {
+        try (clientSocket;
+             BufferedInputStream in = new BufferedInputStream(clientSocket.getInputStream())) {
+            clientSocket.setSoTimeout(1000);
+            in.mark(1);
+            int firstByte = in.read();
+            in.reset();
+            if (firstByte == -1) {
+                return;
+            }
+            boolean binary = WireCodec.isFrameStart(firstByte);
+            WireMessage header = binary ? WireCodec.readHead(in) : TextCodec.decode(readLinePrefix(in));
+            int taskId = header != null && header.ids().length == 2 ? header.id(0) : 0;
+            int subTaskId = header != null && header.ids().length == 2 ? header.id(1) : 0;
+            System.err.println("Worker: " + maxConnections + " connections in progress, sub-task " + subTaskId
+                               + " of task " + taskId + " turned away");
+            sendReply(WireMessage.busy(taskId, subTaskId), binary, clientSocket.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("Worker: Error turning away sub-task: " + e.getMessage());
+        }
+    }
+    
+    /** Reads a text line to its end but keeps only its start, enough for the ids of a sub-task line. */
+    private static String readLinePrefix(InputStream in) throws IOException {
+        StringBuilder prefix = new StringBuilder();
+        for (int b = in.read(); b != -1 && b != '\n'; b = in.read()) {
+            if (prefix.length() < 64) {
+                prefix.append((char) b);
+            }
+        }
+        return prefix.toString();
+    }
+    
     /**
      * M2: Handles receiving and processing a sub-task from broker
-     * Stores sub-task for manual completion via web UI
+     * Stores the sub-task and runs it, or leaves it for manual completion via web UI
+     * The first byte tells whether the broker sent a binary frame or a text line;
+     * the acknowledgment is sent back in the same format.
      */
     private void handleSubTask(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+        try (BufferedInputStream in = new BufferedInputStream(clientSocket.getInputStream());
+             OutputStream out = clientSocket.getOutputStream()) {
             
             // Receive sub-task from broker
-            String subTaskMessage = in.readLine();
+            in.mark(1);
+            int firstByte = in.read();
+            in.reset();
             
-            if (subTaskMessage != null && subTaskMessage.startsWith("TASK:")) {
-                System.out.println("\n========================================");
-                System.out.println("Worker: Received sub-task from broker");
-                System.out.println("Worker: Sub-task data: " + subTaskMessage);
-                System.out.println("========================================");
-                
-                // Parse sub-task message: TASK:taskId:SUBTASK:subTaskId:data
-                String[] parts = subTaskMessage.split(":", 5);
-                if (parts.length >= 5) {
-                    int taskId = Integer.parseInt(parts[1]);
-                    int subTaskId = Integer.parseInt(parts[3]);
-                    String subTaskData = parts[4];
-                    
-                    // Store sub-task for manual completion
-                    int taskKey = subTaskCounter.incrementAndGet();
-                    SubTaskInfo newTask = new SubTaskInfo(
-                        taskId,
-                        subTaskId,
-                        subTaskData,
-                        "PENDING",
-                        System.currentTimeMillis()
-                    );
-                    activeSubTasks.put(taskKey, newTask);
-                    
-                    System.out.println("Worker: Sub-task stored with key " + taskKey);
-                    System.out.println("Worker: Complete it via web interface at http://localhost:" + (workerTcpPort + 1000));
-                    
-                    // Send acknowledgment to broker
-                    String ack = "ACK:SUBTASK:" + subTaskId + ":RECEIVED";
-                    out.println(ack);
-                    System.out.println("Worker: Sent acknowledgment: " + ack + "\n");
-                } else {
-                    System.err.println("Worker: Invalid sub-task message format");
-                    out.println("ACK:ERROR:INVALID_FORMAT");
+            boolean binary = firstByte != -1 && WireCodec.isFrameStart(firstByte);
+            WireMessage subTaskMessage;
+            if (binary) {
+                subTaskMessage = WireCodec.read(in);
+                if (subTaskMessage != null) {
+                    subTaskMessage = payloadCompressor.decompress(subTaskMessage);
                 }
             } else {
-                System.err.println("Worker: Received non-task message: " + subTaskMessage);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                subTaskMessage = TextCodec.decode(reader.readLine());
+            }
+            
+            if (subTaskMessage != null && subTaskMessage.type() == MessageType.SUBTASK) {
+                String subTaskData = cachePayload(ContentHash.of(subTaskMessage.payload()), subTaskMessage);
+                acceptSubTask(subTaskMessage.id(0), subTaskMessage.id(1), taskName(subTaskMessage), subTaskData,
+                              keepsResult(subTaskMessage), binary, out);
+            } else if (subTaskMessage != null && subTaskMessage.type() == MessageType.SUBTASK_REF) {
+                receiveSubTaskRef(subTaskMessage, in, out);
+            } else if (subTaskMessage != null && subTaskMessage.type() == MessageType.SUBTASK_STREAM) {
+                receiveStreamedSubTask(subTaskMessage, in, out);
+            } else if (subTaskMessage != null && subTaskMessage.type() == MessageType.CANCEL) {
+                cancelSubTask(subTaskMessage.id(0), subTaskMessage.id(1));
+                sendReply(WireMessage.subTaskAck(subTaskMessage.id(0), subTaskMessage.id(1)), binary, out);
+            } else if (subTaskMessage == null && !binary) {
+                System.err.println("Worker: Invalid sub-task message format");
+                sendReply(WireMessage.error("INVALID_FORMAT"), false, out);
+            } else {
+                System.err.println("Worker: Received non-task message: " +
+                                   (subTaskMessage != null ? subTaskMessage.type() : "nothing"));
             }
             
         } catch (IOException e) {
@@ -599,6 +917,286 @@ public class WorkerClient {
         }
     }
     
+    /**
+     * Name of the task a sub-task belongs to: sent along by the broker, or else taken from the
+     * M4 task config (the text protocol carries no name). Null if neither is known.
+     */
+    private String taskName(WireMessage subTask) {
+        String name = subTask.attribute(WireMessage.NAME);
+        if (name != null) {
+            return name;
+        }
+        TaskConfigRef config = receivedConfigs.get(String.valueOf(subTask.id(0)));
+        return config != null ? config.taskName() : null;
+    }
+    
+    /** Whether the broker asked for the sub-task's result to be kept for a later workflow stage. */
+    private static boolean keepsResult(WireMessage subTask) {
+        return Boolean.parseBoolean(subTask.attribute(WireMessage.KEEP_RESULT));
+    }
+    
+    /**
+     * Stores a received sub-task, acknowledges it, and starts it if an executor handles its task
+     *
+     * @param keepResult Whether to keep the result in the payload cache once computed
+     */
+    private void acceptSubTask(int taskId, int subTaskId, String taskName, String subTaskData, boolean keepResult,
+                               boolean binary, OutputStream out) throws IOException {
+        System.out.println("\n========================================");
+        System.out.println("Worker: Received sub-task from broker (" + (binary ? "binary" : "text") + ")");
+        System.out.println("Worker: Task " + taskId + ", sub-task " + subTaskId + ": " + subTaskData);
+        System.out.println("========================================");
+        
+        SubTaskExecutor executor = computeEngine.executorFor(taskName);
+        if (executor != null && computeEngine.isSaturated()) {
+            replyBusy(taskId, subTaskId, binary, out);
+            return;
+        }
+        int taskKey = subTaskCounter.incrementAndGet();
+        SubTaskInfo newTask = new SubTaskInfo(
+            taskId,
+            subTaskId,
+            subTaskData,
+            executor != null ? "QUEUED" : "PENDING",
+            System.currentTimeMillis(),
+            null,
+            null
+        );
+        activeSubTasks.put(taskKey, newTask);
+        
+        System.out.println("Worker: Sub-task stored with key " + taskKey);
+        if (executor == null) {
+            System.out.println("Worker: Complete it via web interface at http://localhost:" + (workerTcpPort + 1000));
+        }
+        
+        // Send acknowledgment to broker before running, so dispatch does not wait for the computation
+        sendReply(WireMessage.subTaskAck(taskId, subTaskId), binary, out);
+        System.out.println("Worker: Sent acknowledgment for sub-task " + subTaskId + "\n");
+        
+        if (executor != null) {
+            execute(taskKey, new SubTask(taskId, subTaskId, taskName, subTaskData, null), executor, keepResult);
+        }
+    }
+    
+    /**
+     * Runs a sub-task on the ComputeEngine, tracking its status on the dashboard and reporting
+     * the result to the broker. A failure is reported as "FAILED: reason", so the task still completes.
+     * A result to keep is added to the payload cache under its hash, where the next workflow stage's
+     * sub-task finds it when the broker sends that sub-task here by reference.
+     */
+    private void execute(int taskKey, SubTask subTask, SubTaskExecutor executor, boolean keepResult) {
+        Future<?> run = computeEngine.submit(subTask, executor, new ComputeEngine.Listener() {
+            @Override
+            public void started(SubTask subTask) {
+                activeSubTasks.computeIfPresent(taskKey, (key, task) -> task.withStatus("RUNNING", null));
+            }
+            
+            @Override
+            public void completed(SubTask subTask, String result, long elapsedNanos) {
+                System.out.println("Worker: Sub-task " + subTask.subTaskId() + " of task " + subTask.taskId()
+                                   + " computed by '" + executor.name() + "' in "
+                                   + elapsedNanos / 1_000_000 + " ms");
+                if (keepResult) {
+                    byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+                    payloadCache.put(ContentHash.of(bytes), result, bytes.length);
+                }
+                finish(taskKey, subTask, "COMPLETED", result);
+            }
+            
+            @Override
+            public void failed(SubTask subTask, Exception error) {
+                System.err.println("Worker: Sub-task " + subTask.subTaskId() + " of task " + subTask.taskId()
+                                   + " failed in '" + executor.name() + "': " + error);
+                finish(taskKey, subTask, "FAILED", "FAILED: " + error.getMessage());
+            }
+        });
+        computeRuns.put(taskKey, run);
+        // A sub-task that already finished, e.g. run on this thread because the queue was full, is not cancellable
+        if (run.isDone()) {
+            computeRuns.remove(taskKey, run);
+        }
+    }
+    
+    private void finish(int taskKey, SubTask subTask, String status, String result) {
+        SubTaskInfo finished = activeSubTasks.computeIfPresent(taskKey, (key, task) ->
+            "CANCELLED".equals(task.status()) ? task : task.withStatus(status, result));
+        computeRuns.remove(taskKey);
+        deleteInput(subTask.inputFile());
+        if (finished != null && "CANCELLED".equals(finished.status())) {
+            System.out.println("Worker: Sub-task " + subTask.subTaskId() + " of task " + subTask.taskId()
+                               + " was cancelled, result dropped");
+            return;
+        }
+        notifyBrokerCompletion(subTask.taskId(), subTask.subTaskId(), result);
+    }
+    
+    /**
+     * Drops this worker's unfinished copies of a sub-task at the broker's request: another worker's
+     * copy reported first, or the task's deadline passed. A queued computation never starts, a running
+     * one is interrupted, and no result is reported for either.
+     */
+    private void cancelSubTask(int taskId, int subTaskId) {
+        for (Map.Entry<Integer, SubTaskInfo> entry : activeSubTasks.entrySet()) {
+            SubTaskInfo task = entry.getValue();
+            if (task.taskId() != taskId || task.subTaskId() != subTaskId) {
+                continue;
+            }
+            SubTaskInfo cancelled = activeSubTasks.computeIfPresent(entry.getKey(), (key, current) ->
+                switch (current.status()) {
+                    case "PENDING", "QUEUED", "RUNNING" -> current.withStatus("CANCELLED", "Cancelled by broker");
+                    default -> current;
+                });
+            if (cancelled == null || !"CANCELLED".equals(cancelled.status())) {
+                continue;
+            }
+            Future<?> run = computeRuns.remove(entry.getKey());
+            if (run != null) {
+                run.cancel(true);
+            }
+            if (cancelled.inputFile() != null) {
+                deleteInput(Path.of(cancelled.inputFile()));
+            }
+            System.out.println("Worker: Sub-task " + subTaskId + " of task " + taskId + " cancelled by broker");
+        }
+    }
+    
+    private static void deleteInput(Path inputFile) {
+        if (inputFile != null) {
+            try {
+                Files.deleteIfExists(inputFile);
+            } catch (IOException e) {
+                System.err.println("Worker: Could not delete " + inputFile + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Receives a sub-task sent by content hash: the data comes from the payload cache, or on a
+     * miss the worker answers PAYLOAD_MISS and the broker sends the full SUBTASK on the same
+     * connection. Fetched data is checked against the hash before it is cached.
+     */
+    private void receiveSubTaskRef(WireMessage ref, InputStream in, OutputStream out) throws IOException {
+        int taskId = ref.id(0);
+        int subTaskId = ref.id(1);
+        String hash = ref.attribute(WireMessage.HASH);
+        if (hash == null) {
+            System.err.println("Worker: Sub-task reference without a hash");
+            sendReply(WireMessage.error("INVALID_FORMAT"), true, out);
+            return;
+        }
+        
+        // Turn the sub-task away before fetching its data if it could not run soon anyway
+        if (computeEngine.executorFor(taskName(ref)) != null && computeEngine.isSaturated()) {
+            replyBusy(taskId, subTaskId, true, out);
+            return;
+        }
+        
+        String subTaskData = payloadCache.get(hash);
+        if (subTaskData != null) {
+            System.out.println("Worker: Sub-task " + subTaskId + " data found in payload cache (" + hash + ")");
+        } else {
+            sendReply(WireMessage.payloadMiss(taskId, subTaskId), true, out);
+            WireMessage subTask = WireCodec.read(in);
+            if (subTask != null) {
+                subTask = payloadCompressor.decompress(subTask);
+            }
+            if (subTask == null || subTask.type() != MessageType.SUBTASK) {
+                System.err.println("Worker: Expected sub-task data after cache miss, got " +
+                                   (subTask != null ? subTask.type() : "nothing"));
+                return;
+            }
+            if (!hash.equals(ContentHash.of(subTask.payload()))) {
+                System.err.println("Worker: Sub-task " + subTaskId + " data does not match hash " + hash);
+                sendReply(WireMessage.error("HASH_MISMATCH"), true, out);
+                return;
+            }
+            subTaskData = cachePayload(hash, subTask);
+        }
+        acceptSubTask(taskId, subTaskId, taskName(ref), subTaskData, keepsResult(ref), true, out);
+    }
+    
+    /** Adds a sub-task's data to the payload cache and returns the cached instance to keep. */
+    private String cachePayload(String hash, WireMessage subTask) {
+        return payloadCache.put(hash, subTask.payloadAsString(), subTask.payload().length);
+    }
+    
+    /**
+     * Receives a partition of a streamed task: the raw bytes after the SUBTASK_STREAM header are
+     * copied to a local file, whatever their size, and the ACK is sent once all of them arrived.
+     * The dashboard shows the file instead of the data; it is deleted when the sub-task is completed.
+     * Executors read the file directly rather than the data.
+     */
+    private void receiveStreamedSubTask(WireMessage header, InputStream in, OutputStream out) throws IOException {
+        int taskId = header.id(0);
+        int subTaskId = header.id(1);
+        long length;
+        try {
+            length = Long.parseLong(header.attribute(WireMessage.LENGTH));
+        } catch (NumberFormatException e) {
+            System.err.println("Worker: Streamed sub-task without a valid length");
+            sendReply(WireMessage.error("INVALID_FORMAT"), true, out);
+            return;
+        }
+        
+        Path file = Files.createTempFile("subtask-" + taskId + "-" + subTaskId + "-", ".part");
+        file.toFile().deleteOnExit();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+            long position = 0;
+            while (position < length) {
+                long n = channel.transferFrom(source, position, length - position);
+                if (n == 0) {
+                    throw new EOFException("Stream ended after " + position + " of " + length + " bytes");
+                }
+                position += n;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        
+        System.out.println("\n========================================");
+        System.out.println("Worker: Received streamed sub-task from broker");
+        System.out.println("Worker: Task " + taskId + ", sub-task " + subTaskId + ": " + length + " bytes in " + file);
+        System.out.println("========================================");
+        
+        String taskName = taskName(header);
+        SubTaskExecutor executor = computeEngine.executorFor(taskName);
+        String description = "[" + length + " bytes in " + file + "]";
+        int taskKey = subTaskCounter.incrementAndGet();
+        activeSubTasks.put(taskKey, new SubTaskInfo(
+            taskId,
+            subTaskId,
+            description,
+            executor != null ? "QUEUED" : "PENDING",
+            System.currentTimeMillis(),
+            file.toString(),
+            null
+        ));
+        
+        sendReply(WireMessage.subTaskAck(taskId, subTaskId), true, out);
+        System.out.println("Worker: Sent acknowledgment for sub-task " + subTaskId + "\n");
+        
+        if (executor != null) {
+            execute(taskKey, new SubTask(taskId, subTaskId, taskName, description, file), executor, false);
+        }
+    }
+    
+    private void replyBusy(int taskId, int subTaskId, boolean binary, OutputStream out) throws IOException {
+        busyReplies.increment();
+        System.err.println("Worker: Compute queue full, sub-task " + subTaskId + " of task " + taskId + " turned away");
+        sendReply(WireMessage.busy(taskId, subTaskId), binary, out);
+    }
+    
+    private void sendReply(WireMessage reply, boolean binary, OutputStream out) throws IOException {
+        if (binary) {
+            WireCodec.write(reply, out);
+        } else {
+            out.write((TextCodec.encode(reply) + System.lineSeparator()).getBytes());
+        }
+        out.flush();
+    }
+    
     /**
      * Generate HTML for worker dashboard
      */
@@ -878,6 +1476,26 @@ public class WorkerClient {
             color: white;
         }
         
+        .status-queued {
+            background: #6c757d;
+            color: white;
+        }
+        
+        .status-running {
+            background: #17a2b8;
+            color: white;
+        }
+        
+        .status-failed {
+            background: #dc3545;
+            color: white;
+        }
+        
+        .status-cancelled {
+            background: #adb5bd;
+            color: #000;
+        }
+        
         .task-data, .config-data {
             background: white;
             padding: 15px;
@@ -1220,11 +1838,13 @@ public class WorkerClient {
                                 <div class="task-data">
                                     <strong>Data:</strong> ${task.data}
                                 </div>
+                                ${task.result ? `<div class="task-data"><strong>Result:</strong> ${task.result}</div>` : ''}
                                 <button 
                                     class="complete-btn" 
                                     onclick="completeTask('${task.key}', ${task.subTaskId})"
-                                    ${task.status === 'COMPLETED' ? 'disabled' : ''}>
-                                    ${task.status === 'COMPLETED' ? '&#x2713; Completed' : '&#x2713; Mark as Complete'}
+                                    ${task.status !== 'PENDING' ? 'disabled' : ''}>
+                                    ${task.status === 'PENDING' ? '&#x2713; Mark as Complete'
+                                      : task.status === 'COMPLETED' ? '&#x2713; Completed' : task.status}
                                 </button>
                             </div>
                         `).join('');
@@ -1335,20 +1955,29 @@ public class WorkerClient {
         """.formatted(workerTcpPort, workerTcpPort, workerTcpPort, httpPort, workerTcpPort);
     }
     
-    public void processTask(String taskData) {
-        System.out.println("Worker: Processing task: " + taskData);
-        
-        // Simulate task processing
-        try {
-            Thread.sleep(1000);
-            String result = "COMPLETED:" + taskData;
-            System.out.println("Worker: Task completed: " + result);
-        } catch (InterruptedException e) {
-            System.err.println("Worker: Task processing interrupted");
-        }
+    /**
+     * Computes a task locally with the executor its name selects, on the calling thread
+     * @return the result, or null if no executor handles the task
+     * @throws Exception if the executor fails
+     */
+    public String processTask(String taskName, String taskData) throws Exception {
+        SubTaskExecutor executor = computeEngine.executorFor(taskName);
+        if (executor == null) {
+            System.err.println("Worker: No executor for task '" + taskName + "', available: "
+                               + computeEngine.executorNames());
+            return null;
+        }
+        System.out.println("Worker: Processing task '" + taskName + "' with '" + executor.name() + "'");
+        String result = computeEngine.run(new SubTask(0, 1, taskName, taskData, null), executor);
+        System.out.println("Worker: Task completed: " + result);
+        return result;
     }
     
     public void stop() {
         running = false;
+        connectionExecutor.shutdownNow();
+        busyExecutor.shutdownNow();
+        notifyExecutor.shutdown();
+        computeEngine.close();
     }
 }
@@ -0,0 +1,72 @@
+package com.computenet.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorkerThreads - Executors for the worker's short-lived blocking work
+ * On a JDK with virtual threads (21+) every task gets its own virtual thread, which costs next to
+ * nothing while it waits on a socket. On older JDKs tasks share a fixed pool of daemon platform
+ * threads. Callers bound how much they submit themselves, e.g. with a Semaphore, since
+ * neither executor limits it. Bounded executors are for work that may be dropped instead: a few
+ * platform threads behind a queue of fixed size, rejecting what does not fit.
+ */
+final class WorkerThreads {
+
+    // Executors.newVirtualThreadPerTaskExecutor, looked up reflectively so the worker still builds and runs on 17
+    private static final Method VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+    
+    private WorkerThreads() {
+    }
+    
+    public static boolean virtualThreadsAvailable() {
+        return VIRTUAL_THREAD_EXECUTOR != null;
+    }
+    
+    /**
+     * @param name            Prefix of the platform threads' names
+     * @param platformThreads Pool size when virtual threads are not available
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        if (VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Worker: Virtual threads unavailable, using platform threads: " + e);
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(platformThreads, 1), daemonThreads(name));
+    }
+    
+    /**
+     * @param name          Prefix of the threads' names
+     * @param queueCapacity Tasks waiting for a thread; execute throws RejectedExecutionException beyond that
+     */
+    public static ExecutorService newBoundedExecutor(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)), daemonThreads(name));
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
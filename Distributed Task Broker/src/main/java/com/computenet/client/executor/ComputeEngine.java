@@ -0,0 +1,220 @@
+package com.computenet.client.executor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ComputeEngine - Runs sub-tasks with the SubTaskExecutors found on the classpath
+ * A sub-task goes to the executor named by its task name: "wordcount" and "wordcount:nightly"
+ * both select the wordcount executor, ignoring case.
+ * Sub-tasks run on a fixed pool with one thread per core behind a bounded queue. When the queue
+ * is full the receiving thread runs the sub-task itself, which slows down intake instead of
+ * letting the backlog grow without limit.
+ * A ParallelSubTaskExecutor's sub-task larger than the fork/join threshold is additionally split
+ * by lines on a ForkJoinPool shared by all sub-tasks, so a single large sub-task keeps every core
+ * busy without the broker having to cut the task into more sub-tasks.
+ */
+public class ComputeEngine implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_FORK_JOIN_THRESHOLD = 256 * 1024;
+    
+    /** Told about each sub-task's progress, on the thread that runs it. */
+    public interface Listener {
+        void started(SubTask subTask);
+        
+        void completed(SubTask subTask, String result, long elapsedNanos);
+        
+        void failed(SubTask subTask, Exception error);
+    }
+    
+    /**
+     * Pool occupancy and totals since start, as shown on the worker's /api/info.
+     * forkJoinRuns counts the sub-tasks split on the ForkJoinPool, forkJoinSteals the chunks its
+     * threads took from each other.
+     */
+    public record Stats(int threads, int queued, int running, long completed, long failed,
+                        int forkJoinParallelism, long forkJoinRuns, long forkJoinSteals) {}
+    
+    private final Map<String, SubTaskExecutor> executors = new TreeMap<>();
+    private final ThreadPoolExecutor pool;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final ForkJoinPool forkJoinPool; // Null: sub-tasks are never split
+    private final int forkJoinThreshold;
+    private final LongAdder forkJoinRuns = new LongAdder();
+    
+    /** An engine that runs every sub-task on a single thread. */
+    public ComputeEngine(Collection<SubTaskExecutor> executors, int threads, int queueCapacity) {
+        this(executors, threads, queueCapacity, 1, DEFAULT_FORK_JOIN_THRESHOLD);
+    }
+    
+    /**
+     * @param forkJoinParallelism Threads splitting large sub-tasks, or 1 to not split them
+     * @param forkJoinThreshold   Size in bytes above which a sub-task is split, and up to which chunks are
+     */
+    public ComputeEngine(Collection<SubTaskExecutor> executors, int threads, int queueCapacity,
+                         int forkJoinParallelism, int forkJoinThreshold) {
+        for (SubTaskExecutor executor : executors) {
+            String name = executor.name().toLowerCase(Locale.ROOT);
+            if (this.executors.putIfAbsent(name, executor) != null) {
+                System.err.println("Worker: Ignoring " + executor.getClass().getName()
+                                   + ", executor '" + name + "' is already provided by "
+                                   + this.executors.get(name).getClass().getName());
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "compute-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        this.forkJoinPool = forkJoinParallelism > 1 ? new ForkJoinPool(forkJoinParallelism) : null;
+        this.forkJoinThreshold = Math.max(forkJoinThreshold, 1);
+    }
+    
+    /** Loads every SubTaskExecutor registered with ServiceLoader. */
+    public static ComputeEngine load(int threads, int queueCapacity, int forkJoinParallelism, int forkJoinThreshold) {
+        return new ComputeEngine(ServiceLoader.load(SubTaskExecutor.class).stream()
+                                              .map(ServiceLoader.Provider::get)
+                                              .toList(),
+                                 threads, queueCapacity, forkJoinParallelism, forkJoinThreshold);
+    }
+    
+    /**
+     * Reads worker.threads (default: available cores), worker.queueCapacity,
+     * worker.forkJoinParallelism (default: available cores) and worker.forkJoinThreshold.
+     */
+    public static ComputeEngine fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return load(Integer.getInteger("worker.threads", cores),
+                    Integer.getInteger("worker.queueCapacity", DEFAULT_QUEUE_CAPACITY),
+                    Integer.getInteger("worker.forkJoinParallelism", cores),
+                    Integer.getInteger("worker.forkJoinThreshold", DEFAULT_FORK_JOIN_THRESHOLD));
+    }
+    
+    public Set<String> executorNames() {
+        return executors.keySet();
+    }
+    
+    /** @return the executor for a task name, or null if none matches */
+    public SubTaskExecutor executorFor(String taskName) {
+        if (taskName == null) {
+            return null;
+        }
+        int colon = taskName.indexOf(':');
+        String name = (colon >= 0 ? taskName.substring(0, colon) : taskName).trim().toLowerCase(Locale.ROOT);
+        return executors.get(name);
+    }
+    
+    /**
+     * Queues the sub-task; the listener hears about it once it starts and ends.
+     * Cancelling the returned future keeps a queued sub-task from starting and interrupts a running one,
+     * which ends as the executor reacts to the interrupt.
+     */
+    public Future<?> submit(SubTask subTask, SubTaskExecutor executor, Listener listener) {
+        return pool.submit(() -> {
+            listener.started(subTask);
+            long start = System.nanoTime();
+            String result;
+            try {
+                result = run(subTask, executor);
+            } catch (Exception e) {
+                listener.failed(subTask, e);
+                return;
+            }
+            listener.completed(subTask, result, System.nanoTime() - start);
+        });
+    }
+    
+    /**
+     * True when the queue is full, so a sub-task submitted now would run on the caller's thread.
+     * Workers turn new sub-tasks away with BUSY instead.
+     */
+    public boolean isSaturated() {
+        return pool.getQueue().remainingCapacity() == 0;
+    }
+    
+    /** Runs the sub-task on the calling thread, or split on the ForkJoinPool if it is large enough. */
+    public String run(SubTask subTask, SubTaskExecutor executor) throws Exception {
+        try {
+            String result = executor instanceof ParallelSubTaskExecutor<?> parallel && forkJoinPool != null
+                    ? runParallel(subTask, parallel)
+                    : executor.execute(subTask);
+            completed.increment();
+            return result;
+        } catch (Exception | Error e) {
+            failed.increment();
+            throw e;
+        }
+    }
+    
+    private <P> String runParallel(SubTask subTask, ParallelSubTaskExecutor<P> executor) throws Exception {
+        int threshold = executor.splitThreshold() > 0 ? executor.splitThreshold() : forkJoinThreshold;
+        long size = subTask.inputFile() != null
+                ? Files.size(subTask.inputFile())
+                : subTask.data().length(); // Chars, close enough to decide
+        // Inputs of 2 GB or more do not fit one buffer and are left to execute()
+        if (size <= threshold || size > Integer.MAX_VALUE) {
+            return executor.execute(subTask);
+        }
+        
+        ByteBuffer input = input(subTask);
+        forkJoinRuns.increment();
+        try {
+            return executor.finish(forkJoinPool.invoke(new ForkJoinRun<>(executor, input, 0, input.limit(), threshold)));
+        } catch (RuntimeException e) {
+            // The pool may rethrow a copy of the exception, with the original as its cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ForkJoinRun.ChunkFailure failure) {
+                    throw (Exception) failure.getCause();
+                }
+            }
+            throw e;
+        }
+    }
+    
+    /** The whole input in one buffer; a streamed partition is memory-mapped rather than read. */
+    private static ByteBuffer input(SubTask subTask) throws IOException {
+        if (subTask.inputFile() == null) {
+            return ByteBuffer.wrap(subTask.data().getBytes(StandardCharsets.UTF_8));
+        }
+        try (FileChannel channel = FileChannel.open(subTask.inputFile())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    public Stats stats() {
+        return new Stats(pool.getCorePoolSize(), pool.getQueue().size(), pool.getActiveCount(),
+                         completed.sum(), failed.sum(),
+                         forkJoinPool != null ? forkJoinPool.getParallelism() : 1,
+                         forkJoinRuns.sum(), forkJoinPool != null ? forkJoinPool.getStealCount() : 0);
+    }
+    
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
+    }
+}
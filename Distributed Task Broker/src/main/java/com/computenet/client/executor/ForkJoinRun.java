@@ -0,0 +1,66 @@
+package com.computenet.client.executor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task computing a ParallelSubTaskExecutor over a range of its input.
+ * Ranges above the threshold are halved at the line break nearest their middle; a range
+ * without a line break to cut at is computed whole.
+ */
+class ForkJoinRun<P> extends RecursiveTask<P> {
+
+    /** Carries a checked exception from map() out of the pool. */
+    static class ChunkFailure extends RuntimeException {
+        ChunkFailure(Exception cause) {
+            super(cause);
+        }
+    }
+    
+    private final ParallelSubTaskExecutor<P> executor;
+    private final ByteBuffer input;
+    private final int start;
+    private final int end;
+    private final int threshold;
+    
+    ForkJoinRun(ParallelSubTaskExecutor<P> executor, ByteBuffer input, int start, int end, int threshold) {
+        this.executor = executor;
+        this.input = input;
+        this.start = start;
+        this.end = end;
+        this.threshold = threshold;
+    }
+    
+    @Override
+    protected P compute() {
+        int cut = end - start > threshold ? cutPoint() : -1;
+        if (cut < 0) {
+            try {
+                return executor.map(input.slice(start, end - start).asReadOnlyBuffer());
+            } catch (Exception e) {
+                throw new ChunkFailure(e);
+            }
+        }
+        ForkJoinRun<P> left = new ForkJoinRun<>(executor, input, start, cut, threshold);
+        ForkJoinRun<P> right = new ForkJoinRun<>(executor, input, cut, end, threshold);
+        left.fork();
+        P rightResult = right.compute();
+        return executor.combine(left.join(), rightResult);
+    }
+    
+    /** @return the index just after the line break nearest the middle, or -1 if there is none inside */
+    private int cutPoint() {
+        int middle = start + (end - start) / 2;
+        for (int i = middle; i < end - 1; i++) {
+            if (input.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        for (int i = middle - 1; i >= start; i--) {
+            if (input.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,32 @@
+package com.computenet.client.executor;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * "hash": SHA-256 of the sub-task's input, as hex digits.
+ * Reads the input in 64 KB blocks, so streamed partitions of any size run in constant memory.
+ */
+public class HashExecutor implements SubTaskExecutor {
+
+    private static final int BLOCK_BYTES = 64 * 1024;
+    
+    @Override
+    public String name() {
+        return "hash";
+    }
+    
+    @Override
+    public String execute(SubTask subTask) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] block = new byte[BLOCK_BYTES];
+        try (InputStream in = subTask.openInput()) {
+            int n;
+            while ((n = in.read(block)) > 0) {
+                digest.update(block, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
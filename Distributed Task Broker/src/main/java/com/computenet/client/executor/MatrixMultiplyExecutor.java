@@ -0,0 +1,120 @@
+package com.computenet.client.executor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * "matmul": multiplies pairs of pseudo-random square matrices, a dense floating-point workload.
+ * Each non-blank input line is "n" or "n seed": two n x n matrices are generated from the seed
+ * (n if absent), multiplied, and the line's result is the sum of the product's elements.
+ * The same line always gives the same result, so runs can be compared across workers.
+ * Every line is a lot of work, so with fork/join enabled the lines are multiplied in parallel.
+ */
+public class MatrixMultiplyExecutor implements ParallelSubTaskExecutor<StringBuilder> {
+
+    /** Three matrices of this size take about 100 MB. */
+    public static final int MAX_SIZE = 2048;
+    
+    @Override
+    public String name() {
+        return "matmul";
+    }
+    
+    @Override
+    public String execute(SubTask subTask) throws Exception {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(subTask.openInput(), StandardCharsets.UTF_8))) {
+            return finish(multiplyLines(reader));
+        }
+    }
+    
+    @Override
+    public StringBuilder map(ByteBuffer chunk) throws IOException {
+        return multiplyLines(new BufferedReader(new StringReader(StandardCharsets.UTF_8.decode(chunk).toString())));
+    }
+    
+    @Override
+    public StringBuilder combine(StringBuilder left, StringBuilder right) {
+        return left.append(right);
+    }
+    
+    @Override
+    public String finish(StringBuilder lines) {
+        return lines.toString();
+    }
+    
+    /** Each line is worth splitting off on its own. */
+    @Override
+    public int splitThreshold() {
+        return 1;
+    }
+    
+    private static StringBuilder multiplyLines(BufferedReader reader) throws IOException {
+        StringBuilder result = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            int n = parseSize(fields[0]);
+            long seed = fields.length > 1 ? Long.parseLong(fields[1]) : n;
+            double checksum = sum(multiply(random(n, seed), random(n, seed + 1), n));
+            result.append(String.format(Locale.ROOT, "n=%d seed=%d checksum=%.6f%n", n, seed, checksum));
+        }
+        return result;
+    }
+    
+    private static int parseSize(String field) {
+        int n;
+        try {
+            n = Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Matrix size expected, got '" + field + "'");
+        }
+        if (n < 1 || n > MAX_SIZE) {
+            throw new IllegalArgumentException("Matrix size must be 1-" + MAX_SIZE + ": " + n);
+        }
+        return n;
+    }
+    
+    /** Row-major n x n matrix with elements in [-1, 1). */
+    static double[] random(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] matrix = new double[n * n];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = random.nextDouble(-1, 1);
+        }
+        return matrix;
+    }
+    
+    /** Plain i-k-j product: the inner loop walks rows of b and c, which is cache friendly. */
+    static double[] multiply(double[] a, double[] b, int n) {
+        double[] c = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            for (int k = 0; k < n; k++) {
+                double aik = a[row + k];
+                int bRow = k * n;
+                for (int j = 0; j < n; j++) {
+                    c[row + j] += aik * b[bRow + j];
+                }
+            }
+        }
+        return c;
+    }
+    
+    private static double sum(double[] matrix) {
+        double sum = 0;
+        for (double value : matrix) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,38 @@
+package com.computenet.client.executor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ParallelSubTaskExecutor - A SubTaskExecutor whose work can be split by lines and recombined
+ * For inputs above the fork/join threshold, ComputeEngine cuts the sub-task's data at line
+ * boundaries into chunks on its ForkJoinPool, computes a partial result per chunk with map(),
+ * merges neighbouring partials with combine() and turns the final one into the result with finish().
+ * Small inputs, and workers with fork/join disabled, still go through execute().
+ *
+ * @param <P> Partial result of one chunk
+ */
+public interface ParallelSubTaskExecutor<P> extends SubTaskExecutor {
+
+    /**
+     * Computes the partial result of one chunk of whole lines, on a fork/join thread.
+     * @param chunk Read-only bytes of the chunk, from position to limit
+     */
+    P map(ByteBuffer chunk) throws Exception;
+    
+    /**
+     * Merges the partials of two neighbouring chunks; left comes before right in the input.
+     * Either argument may be modified and returned.
+     */
+    P combine(P left, P right);
+    
+    /** Turns the partial result of the whole input into the sub-task's result. */
+    String finish(P partial) throws Exception;
+    
+    /**
+     * Largest chunk in bytes that is computed without splitting further, or 0 to use the
+     * worker's worker.forkJoinThreshold. Executors doing a lot of work per line return less.
+     */
+    default int splitThreshold() {
+        return 0;
+    }
+}
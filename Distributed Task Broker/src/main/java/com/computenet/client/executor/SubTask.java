@@ -0,0 +1,28 @@
+package com.computenet.client.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One sub-task as handed to a SubTaskExecutor.
+ * The input is either inline data or, for a streamed partition, a local file; openInput()
+ * reads either, so executors need not care which.
+ *
+ * @param taskId    Broker-assigned task ID
+ * @param subTaskId Sub-task number within the task (1-based)
+ * @param taskName  Name of the task, null if the broker did not send it
+ * @param data      Inline data, or a description of the input file
+ * @param inputFile Streamed partition, null for inline data
+ */
+public record SubTask(int taskId, int subTaskId, String taskName, String data, Path inputFile) {
+
+    public InputStream openInput() throws IOException {
+        return inputFile != null
+                ? Files.newInputStream(inputFile)
+                : new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,22 @@
+package com.computenet.client.executor;
+
+/**
+ * SubTaskExecutor - Computes the result of one sub-task on a worker
+ * Implementations are found with ServiceLoader: list them in
+ * META-INF/services/com.computenet.client.executor.SubTaskExecutor on the worker's classpath.
+ * A sub-task is run by the executor whose name matches its task name (see ComputeEngine);
+ * sub-tasks of other tasks are left for manual completion in the worker's web UI.
+ * One instance runs many sub-tasks at once, so implementations must be thread-safe.
+ */
+public interface SubTaskExecutor {
+
+    /** Name that task names are matched against, e.g. "wordcount". */
+    String name();
+    
+    /**
+     * Runs the sub-task on the calling thread.
+     * @return the result reported to the broker
+     * @throws Exception if the sub-task cannot be computed; it is reported as failed
+     */
+    String execute(SubTask subTask) throws Exception;
+}
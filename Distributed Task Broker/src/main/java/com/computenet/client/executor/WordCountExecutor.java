@@ -0,0 +1,93 @@
+package com.computenet.client.executor;
+
+import com.computenet.protocol.JsonCodec;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * "wordcount": occurrences of each word in the sub-task's input, as a JSON object sorted by word.
+ * A word is a run of letters or digits, lower-cased; everything else separates words.
+ * Counts from different sub-tasks can be merged by adding them per word.
+ * Large inputs are counted per chunk in parallel and the counts added up.
+ */
+public class WordCountExecutor implements ParallelSubTaskExecutor<Map<String, long[]>> {
+
+    @Override
+    public String name() {
+        return "wordcount";
+    }
+    
+    @Override
+    public String execute(SubTask subTask) throws Exception {
+        Counter counter = new Counter();
+        char[] buffer = new char[16 * 1024];
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(subTask.openInput(), StandardCharsets.UTF_8))) {
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                counter.accept(CharBuffer.wrap(buffer, 0, n));
+            }
+        }
+        return finish(counter.finish());
+    }
+    
+    @Override
+    public Map<String, long[]> map(ByteBuffer chunk) {
+        Counter counter = new Counter();
+        counter.accept(StandardCharsets.UTF_8.decode(chunk));
+        return counter.finish();
+    }
+    
+    @Override
+    public Map<String, long[]> combine(Map<String, long[]> left, Map<String, long[]> right) {
+        Map<String, long[]> larger = left.size() >= right.size() ? left : right;
+        Map<String, long[]> smaller = larger == left ? right : left;
+        smaller.forEach((word, count) -> larger.merge(word, count, (a, b) -> {
+            a[0] += b[0];
+            return a;
+        }));
+        return larger;
+    }
+    
+    @Override
+    public String finish(Map<String, long[]> counts) throws Exception {
+        Map<String, Long> sorted = new TreeMap<>();
+        counts.forEach((word, count) -> sorted.put(word, count[0]));
+        return JsonCodec.MAPPER.writeValueAsString(sorted);
+    }
+    
+    /** Counts the words of text fed to it in pieces; a word may span two pieces. */
+    private static class Counter {
+        private final Map<String, long[]> counts = new HashMap<>();
+        private final StringBuilder word = new StringBuilder(32);
+        
+        void accept(CharBuffer text) {
+            while (text.hasRemaining()) {
+                char c = text.get();
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(Character.toLowerCase(c));
+                } else if (word.length() > 0) {
+                    endWord();
+                }
+            }
+        }
+        
+        Map<String, long[]> finish() {
+            if (word.length() > 0) {
+                endWord();
+            }
+            return counts;
+        }
+        
+        private void endWord() {
+            counts.computeIfAbsent(word.toString(), key -> new long[1])[0]++;
+            word.setLength(0);
+        }
+    }
+}
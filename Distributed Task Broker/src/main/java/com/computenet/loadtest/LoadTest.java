@@ -0,0 +1,331 @@
+package com.computenet.loadtest;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import com.computenet.broker.persistence.DurabilityLevel;
+import com.computenet.broker.persistence.PersistenceConfig;
+import com.computenet.broker.server.BrokerServer;
+import com.computenet.client.OriginatorClient;
+import com.computenet.metrics.LatencyHistogram;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LoadTest - End-to-end load generator for the broker
+ * Starts a broker (unless --external), a SimulatedWorkerFleet on loopback, then submits
+ * tasks through OriginatorClient at a fixed target rate and reports throughput and
+ * submit-to-complete latency percentiles.
+ *
+ * The schedule is open-loop: every task has an intended send time and latency is measured
+ * from that time, so a stalled broker shows up as latency instead of silently lowering the
+ * offered load. With the same options and seed the offered load is identical between runs.
+ *
+ * Usage:
+ *   java -cp target/ComputeNet-Project-1.0.jar com.computenet.loadtest.LoadTest
+ *        [--workers 200] [--rate 50] [--duration 30] [--warmup 5] [--drain 30]
+ *        [--subtasks 4] [--processing exp:20] [--failure-rate 0.0] [--seed 42]
+ *        [--connections 32] [--worker-base-port 20000] [--broker-host localhost] [--external] [--verbose]
+ *        [--durability none]
+ *
+ * --durability applies to the in-process broker, which then keeps its WAL in a fresh temporary
+ * directory so runs never recover each other's tasks.
+ */
+public class LoadTest {
+
+    private static final int BROKER_UDP_PORT = 5001;
+    private static final int BROKER_HTTP_PORT = 8080;
+    
+    /** Run parameters, see the class comment for the flags. */
+    record Options(String brokerHost, boolean external, boolean verbose, int workers, int workerBasePort, double rate,
+                   int durationSeconds, int warmupSeconds, int drainSeconds, int subTasks,
+                   ProcessingTimeDistribution processingTime, double failureRate, long seed, int connections,
+                   DurabilityLevel durability) {
+        
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            boolean external = false;
+            boolean verbose = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--external")) {
+                    external = true;
+                } else if (args[i].equals("--verbose")) {
+                    verbose = true;
+                } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                    values.put(args[i].substring(2), args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                }
+            }
+            Options options = new Options(
+                values.getOrDefault("broker-host", "localhost"),
+                external,
+                verbose,
+                Integer.parseInt(values.getOrDefault("workers", "200")),
+                Integer.parseInt(values.getOrDefault("worker-base-port", "20000")),
+                Double.parseDouble(values.getOrDefault("rate", "50")),
+                Integer.parseInt(values.getOrDefault("duration", "30")),
+                Integer.parseInt(values.getOrDefault("warmup", "5")),
+                Integer.parseInt(values.getOrDefault("drain", "30")),
+                Integer.parseInt(values.getOrDefault("subtasks", "4")),
+                ProcessingTimeDistribution.parse(values.getOrDefault("processing", "exp:20")),
+                Double.parseDouble(values.getOrDefault("failure-rate", "0")),
+                Long.parseLong(values.getOrDefault("seed", "42")),
+                Integer.parseInt(values.getOrDefault("connections", "32")),
+                DurabilityLevel.valueOf(values.getOrDefault("durability", "none").toUpperCase(Locale.ROOT))
+            );
+            if (options.rate <= 0 || options.workers <= 0 || options.subTasks <= 0) {
+                throw new IllegalArgumentException("--rate, --workers and --subtasks must be positive");
+            }
+            return options;
+        }
+        
+        /** Sub-tasks the broker will actually create per task, it caps the count at the worker pool size. */
+        int effectiveSubTasks() {
+            return Math.min(subTasks, workers);
+        }
+    }
+    
+    /** Progress of one submitted task. Completions can arrive before submitTask returns the ID. */
+    private static final class TaskRun {
+        private long intendedStart = -1;
+        private boolean measured;
+        private int expected = Integer.MAX_VALUE;
+        private int completed;
+        private int failed;
+        
+        synchronized void submitted(long intendedStart, boolean measured, int expected) {
+            this.intendedStart = intendedStart;
+            this.measured = measured;
+            this.expected = expected;
+        }
+        
+        synchronized void subTaskCompleted() {
+            completed++;
+        }
+        
+        synchronized void subTaskFailed() {
+            failed++;
+        }
+        
+        synchronized boolean isFinished() {
+            return intendedStart >= 0 && completed + failed >= expected;
+        }
+    }
+    
+    private final Options options;
+    private final OriginatorClient originator;
+    private final Map<Integer, TaskRun> runs = new ConcurrentHashMap<>();
+    
+    private final LatencyHistogram acceptLatency = new LatencyHistogram();
+    private final LatencyHistogram completeLatency = new LatencyHistogram();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder submitFailures = new LongAdder();
+    private final LongAdder tasksCompleted = new LongAdder();
+    private final LongAdder tasksFailed = new LongAdder();
+    private final LongAdder measuredCompleted = new LongAdder();
+    private final LongAdder subTasksCompleted = new LongAdder();
+    private final LongAdder subTasksFailed = new LongAdder();
+    
+    public LoadTest(Options options) {
+        this.options = options;
+        this.originator = new OriginatorClient(options.brokerHost());
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("LoadTest: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        
+        BrokerServer broker = null;
+        if (!options.external()) {
+            if (!options.verbose()) {
+                quietBrokerLogging();
+            }
+            PersistenceConfig persistence = PersistenceConfig.fromSystemProperties().withDurability(options.durability());
+            if (persistence.enabled()) {
+                persistence = persistence.withDataDirectory(Files.createTempDirectory("loadtest-broker-"));
+            }
+            broker = new BrokerServer(persistence);
+            broker.start();
+        }
+        
+        LoadTest loadTest = new LoadTest(options);
+        try {
+            loadTest.run();
+        } finally {
+            if (broker != null) {
+                broker.stop();
+            }
+        }
+        // Broker listener threads are not daemons and have no shutdown path of their own
+        System.exit(0);
+    }
+    
+    /** Per-task INFO lines from the in-process broker would bury the report. */
+    private static void quietBrokerLogging() {
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext context) {
+            for (Logger logger : context.getLoggerList()) {
+                if (logger.getName().startsWith("com.computenet") && logger.getLevel() != null) {
+                    logger.setLevel(Level.WARN);
+                }
+            }
+        }
+    }
+    
+    public void run() throws Exception {
+        SimulatedWorkerFleet fleet = new SimulatedWorkerFleet(
+            options.brokerHost(), BROKER_UDP_PORT, BROKER_HTTP_PORT, options.workerBasePort(), options.workers(),
+            options.processingTime(), options.failureRate(), options.seed(), new SimulatedWorkerFleet.Listener() {
+                @Override
+                public void onSubTaskCompleted(int taskId, int subTaskId) {
+                    subTasksCompleted.increment();
+                    TaskRun run = runs.computeIfAbsent(taskId, id -> new TaskRun());
+                    run.subTaskCompleted();
+                    finishIfDone(taskId, run);
+                }
+                
+                @Override
+                public void onSubTaskFailed(int taskId, int subTaskId) {
+                    subTasksFailed.increment();
+                    TaskRun run = runs.computeIfAbsent(taskId, id -> new TaskRun());
+                    run.subTaskFailed();
+                    finishIfDone(taskId, run);
+                }
+            });
+        
+        ExecutorService submitters = Executors.newFixedThreadPool(options.connections());
+        try {
+            fleet.start();
+            generateLoad(submitters);
+            drain();
+            printReport(fleet);
+        } finally {
+            submitters.shutdownNow();
+            fleet.close();
+        }
+    }
+    
+    /** Issues tasks on a fixed schedule for warm-up plus measured duration. */
+    private void generateLoad(ExecutorService submitters) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate());
+        long warmupNanos = TimeUnit.SECONDS.toNanos(options.warmupSeconds());
+        long totalNanos = warmupNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        int subTasks = options.effectiveSubTasks();
+        
+        System.out.printf(Locale.ROOT, "LoadTest: offering %.1f tasks/s for %ds (+%ds warm-up)...%n",
+                          options.rate(), options.durationSeconds(), options.warmupSeconds());
+        long start = System.nanoTime();
+        for (long sequence = 0; ; sequence++) {
+            long offset = sequence * intervalNanos;
+            if (offset >= totalNanos) {
+                break;
+            }
+            long intendedStart = start + offset;
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = offset >= warmupNanos;
+            String taskData = "Name:load-" + sequence + " | Data:payload-" + sequence + " | SubTasks:" + subTasks;
+            submitters.execute(() -> submit(taskData, intendedStart, measured, subTasks));
+        }
+    }
+    
+    private void submit(String taskData, long intendedStart, boolean measured, int subTasks) {
+        submitted.increment();
+        int taskId = originator.submitTask(taskData);
+        if (taskId < 0) {
+            submitFailures.increment();
+            return;
+        }
+        if (measured) {
+            acceptLatency.recordSince(intendedStart);
+        }
+        TaskRun run = runs.computeIfAbsent(taskId, id -> new TaskRun());
+        run.submitted(intendedStart, measured, subTasks);
+        finishIfDone(taskId, run);
+    }
+    
+    private void finishIfDone(int taskId, TaskRun run) {
+        // remove(key, value) lets exactly one caller account for the finished task
+        if (!run.isFinished() || !runs.remove(taskId, run)) {
+            return;
+        }
+        synchronized (run) {
+            if (run.failed > 0) {
+                tasksFailed.increment();
+                return;
+            }
+            tasksCompleted.increment();
+            if (run.measured) {
+                completeLatency.recordSince(run.intendedStart);
+                measuredCompleted.increment();
+            }
+        }
+    }
+    
+    /** Waits for in-flight tasks, up to --drain seconds. */
+    private void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainSeconds());
+        while (System.nanoTime() < deadline && (submitted.sum() > tasksCompleted.sum() + tasksFailed.sum() + submitFailures.sum())) {
+            Thread.sleep(100);
+        }
+    }
+    
+    private void printReport(SimulatedWorkerFleet fleet) {
+        long incomplete = submitted.sum() - tasksCompleted.sum() - tasksFailed.sum() - submitFailures.sum();
+        double seconds = options.durationSeconds();
+        LatencyHistogram.Snapshot accept = acceptLatency.snapshot();
+        LatencyHistogram.Snapshot complete = completeLatency.snapshot();
+        
+        StringBuilder report = new StringBuilder();
+        report.append("\n=== ComputeNet load test report ===\n");
+        line(report, "Broker", options.external() ? "external at " + options.brokerHost()
+                               : "in-process at " + options.brokerHost() + ", durability " + options.durability());
+        line(report, "Workers", String.format(Locale.ROOT, "%d simulated, processing %s, failure rate %.3f",
+                                              options.workers(), options.processingTime().spec(), options.failureRate()));
+        line(report, "Offered load", String.format(Locale.ROOT, "%.1f tasks/s x %d sub-tasks, %ds measured after %ds warm-up, seed %d",
+                                                   options.rate(), options.effectiveSubTasks(), options.durationSeconds(),
+                                                   options.warmupSeconds(), options.seed()));
+        line(report, "Submitted", submitted.sum() + " tasks (" + submitFailures.sum() + " failed to submit)");
+        line(report, "Completed", tasksCompleted.sum() + " tasks (" + tasksFailed.sum() + " with failed sub-tasks, "
+                                  + incomplete + " unfinished after " + options.drainSeconds() + "s drain)");
+        line(report, "Sub-tasks", fleet.subTasksReceived() + " received by workers, " + subTasksCompleted.sum()
+                                  + " completed, " + subTasksFailed.sum() + " failed (" + fleet.completionErrors()
+                                  + " completion errors)");
+        line(report, "Throughput", String.format(Locale.ROOT, "%.1f tasks/s, %.1f sub-tasks/s (measured window)",
+                                                 measuredCompleted.sum() / seconds,
+                                                 measuredCompleted.sum() * options.effectiveSubTasks() / seconds));
+        report.append(String.format(Locale.ROOT, "%n%-22s %9s %9s %9s %9s %9s %9s%n",
+                                    "Latency (ms)", "count", "mean", "p50", "p99", "p99.9", "max"));
+        latencyRow(report, "submit -> accepted", accept);
+        latencyRow(report, "submit -> complete", complete);
+        System.out.println(report);
+    }
+    
+    private static void line(StringBuilder report, String label, String value) {
+        report.append(String.format(Locale.ROOT, "%-14s: %s%n", label, value));
+    }
+    
+    private static void latencyRow(StringBuilder report, String label, LatencyHistogram.Snapshot snapshot) {
+        report.append(String.format(Locale.ROOT, "%-22s %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                                    label, snapshot.count(), snapshot.mean() / 1e6,
+                                    snapshot.valueAtQuantile(0.5) / 1e6, snapshot.valueAtQuantile(0.99) / 1e6,
+                                    snapshot.valueAtQuantile(0.999) / 1e6, snapshot.max() / 1e6));
+    }
+}
@@ -0,0 +1,75 @@
+package com.computenet.loadtest;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * ProcessingTimeDistribution - How long a simulated worker spends on one sub-task
+ * Parsed from a short spec so load-test runs can be described on the command line:
+ * <pre>
+ *   fixed:MS               always MS milliseconds
+ *   uniform:MIN:MAX        uniform between MIN and MAX milliseconds
+ *   exp:MEAN               exponential with the given mean (memoryless service times)
+ *   lognormal:MEDIAN:SIGMA log-normal, heavy right tail like real task runtimes
+ * </pre>
+ */
+public interface ProcessingTimeDistribution {
+
+    /** Draws one processing time, in nanoseconds. */
+    long sampleNanos(RandomGenerator random);
+    
+    /** The spec this distribution was parsed from, echoed in the report. */
+    String spec();
+    
+    static ProcessingTimeDistribution parse(String spec) {
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed" -> {
+                    long nanos = millisToNanos(Double.parseDouble(parts[1]));
+                    return of(spec, random -> nanos);
+                }
+                case "uniform" -> {
+                    long min = millisToNanos(Double.parseDouble(parts[1]));
+                    long max = millisToNanos(Double.parseDouble(parts[2]));
+                    if (max < min) {
+                        throw new IllegalArgumentException("uniform max must be >= min");
+                    }
+                    return of(spec, random -> min + (max == min ? 0 : random.nextLong(max - min + 1)));
+                }
+                case "exp" -> {
+                    double meanNanos = millisToNanos(Double.parseDouble(parts[1]));
+                    return of(spec, random -> (long) (-meanNanos * Math.log(1.0 - random.nextDouble())));
+                }
+                case "lognormal" -> {
+                    double medianNanos = millisToNanos(Double.parseDouble(parts[1]));
+                    double sigma = Double.parseDouble(parts[2]);
+                    return of(spec, random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian())));
+                }
+                default -> throw new IllegalArgumentException("Unknown distribution '" + parts[0] + "'");
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid processing time spec '" + spec + "'", e);
+        }
+    }
+    
+    private static ProcessingTimeDistribution of(String spec, ToLongFunction<RandomGenerator> sampler) {
+        return new ProcessingTimeDistribution() {
+            @Override
+            public long sampleNanos(RandomGenerator random) {
+                return Math.max(0, sampler.applyAsLong(random));
+            }
+            
+            @Override
+            public String spec() {
+                return spec;
+            }
+        };
+    }
+    
+    private static long millisToNanos(double millis) {
+        return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,298 @@
+package com.computenet.loadtest;
+
+import com.computenet.protocol.JsonCodec;
+import com.computenet.protocol.MessageType;
+import com.computenet.protocol.WireCodec;
+import com.computenet.protocol.WireMessage;
+import com.computenet.protocol.WorkerCompletionRequest;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SimulatedWorkerFleet - Hundreds of lightweight in-process workers for load testing
+ * Each simulated worker registers with the broker over UDP (binary protocol) and listens
+ * on its own loopback TCP port like a real WorkerClient, but all of them share:
+ *   - one Selector thread that accepts sub-task connections and sends SUBTASK_ACK
+ *   - one scheduler that "processes" each sub-task by waiting a sampled processing time
+ *   - one HttpClient that reports completions to /api/worker-complete
+ * so a fleet of 500 costs a few threads instead of 500 JVMs with their own Javalin servers.
+ */
+public class SimulatedWorkerFleet implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SimulatedWorkerFleet.class);
+    private static final String LOOPBACK = "127.0.0.1";
+    
+    /** Callbacks for the load generator, invoked from fleet threads. */
+    public interface Listener {
+        /** The broker accepted the completion of a sub-task. */
+        void onSubTaskCompleted(int taskId, int subTaskId);
+        
+        /** The simulated worker failed the sub-task, no completion will be sent. */
+        void onSubTaskFailed(int taskId, int subTaskId);
+    }
+    
+    private final String brokerHost;
+    private final int brokerUdpPort;
+    private final URI completionUri;
+    private final int basePort;
+    private final int workerCount;
+    private final ProcessingTimeDistribution processingTime;
+    private final double failureRate;
+    private final Listener listener;
+    
+    // Only used on the selector thread, so a single seeded generator keeps runs reproducible
+    private final SplittableRandom random;
+    
+    private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+    private final ScheduledExecutorService processor = Executors.newScheduledThreadPool(2, daemon("sim-worker-processor"));
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newFixedThreadPool(4, daemon("sim-worker-http")))
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private Selector selector;
+    private Thread selectorThread;
+    private volatile boolean running;
+    
+    private final LongAdder subTasksReceived = new LongAdder();
+    private final LongAdder completionErrors = new LongAdder();
+    
+    public SimulatedWorkerFleet(String brokerHost, int brokerUdpPort, int brokerHttpPort, int basePort, int workerCount,
+                                ProcessingTimeDistribution processingTime, double failureRate, long seed,
+                                Listener listener) {
+        this.brokerHost = brokerHost;
+        this.brokerUdpPort = brokerUdpPort;
+        this.completionUri = URI.create("http://" + brokerHost + ":" + brokerHttpPort + "/api/worker-complete");
+        this.basePort = basePort;
+        this.workerCount = workerCount;
+        this.processingTime = processingTime;
+        this.failureRate = failureRate;
+        this.random = new SplittableRandom(seed);
+        this.listener = listener;
+    }
+    
+    /** Opens every worker port, starts the selector and registers all workers with the broker. */
+    public void start() throws IOException {
+        selector = Selector.open();
+        for (int i = 0; i < workerCount; i++) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(LOOPBACK, basePort + i), 256);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            serverChannels.add(server);
+        }
+        
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "sim-worker-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        
+        registerAll();
+    }
+    
+    public long subTasksReceived() {
+        return subTasksReceived.sum();
+    }
+    
+    public long completionErrors() {
+        return completionErrors.sum();
+    }
+    
+    /**
+     * Sends a binary REGISTER for every worker and waits for the REGISTERED replies.
+     * Replies carry no worker ID, so missing ones are handled by re-sending the whole
+     * round; registration is idempotent on the broker.
+     */
+    private void registerAll() throws IOException {
+        InetAddress broker = InetAddress.getByName(brokerHost);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            byte[] buffer = new byte[256];
+            for (int attempt = 1; attempt <= 3; attempt++) {
+                for (int i = 0; i < workerCount; i++) {
+                    byte[] data = WireCodec.encode(WireMessage.register(basePort + i, null));
+                    socket.send(new DatagramPacket(data, data.length, broker, brokerUdpPort));
+                }
+                int acknowledged = 0;
+                try {
+                    while (acknowledged < workerCount) {
+                        DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(reply);
+                        WireMessage message = WireCodec.decode(ByteBuffer.wrap(buffer, 0, reply.getLength()));
+                        if (message != null && message.type() == MessageType.REGISTERED) {
+                            acknowledged++;
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    log.warn("Registration round {}: {}/{} workers acknowledged", attempt, acknowledged, workerCount);
+                    continue;
+                }
+                log.info("Registered {} simulated workers on ports {}-{}", workerCount, basePort, basePort + workerCount - 1);
+                return;
+            }
+        }
+        throw new IOException("Broker did not acknowledge all " + workerCount + " worker registrations");
+    }
+    
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select(500);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else if (key.isReadable()) {
+                            read(key);
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.error("Simulated worker selector failed", e);
+            }
+        }
+    }
+    
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        int workerPort = ((InetSocketAddress) ((ServerSocketChannel) key.channel()).getLocalAddress()).getPort();
+        channel.register(selector, SelectionKey.OP_READ, new Connection(workerPort));
+    }
+    
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if (channel.read(connection.buffer) == -1) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+        
+        connection.buffer.flip();
+        WireMessage message = WireCodec.decode(connection.buffer);
+        connection.buffer.compact();
+        if (message == null) {
+            if (!connection.buffer.hasRemaining()) {
+                throw new IOException("Sub-task frame larger than " + connection.buffer.capacity() + " bytes");
+            }
+            return;
+        }
+        if (message.type() != MessageType.SUBTASK) {
+            throw new IOException("Unexpected " + message.type() + " on sub-task connection");
+        }
+        
+        // ACK right away like WorkerClient does, the broker closes the connection after reading it
+        int taskId = message.id(0);
+        int subTaskId = message.id(1);
+        ByteBuffer ack = ByteBuffer.wrap(WireCodec.encode(WireMessage.subTaskAck(taskId, subTaskId)));
+        while (ack.hasRemaining()) {
+            channel.write(ack);
+        }
+        key.cancel();
+        channel.close();
+        subTasksReceived.increment();
+        
+        if (random.nextDouble() < failureRate) {
+            listener.onSubTaskFailed(taskId, subTaskId);
+            return;
+        }
+        long delay = processingTime.sampleNanos(random);
+        processor.schedule(() -> complete(connection.workerPort, taskId, subTaskId), delay, TimeUnit.NANOSECONDS);
+    }
+    
+    private void complete(int workerPort, int taskId, int subTaskId) {
+        byte[] body = JsonCodec.toBytes(new WorkerCompletionRequest(LOOPBACK, workerPort, taskId, subTaskId, "Completed"));
+        HttpRequest request = HttpRequest.newBuilder(completionUri)
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() == 200) {
+                listener.onSubTaskCompleted(taskId, subTaskId);
+            } else {
+                completionErrors.increment();
+                listener.onSubTaskFailed(taskId, subTaskId);
+            }
+        });
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        processor.shutdownNow();
+        try {
+            if (selector != null) {
+                selector.wakeup();
+                selectorThread.join(1000);
+                selector.close();
+            }
+            for (ServerSocketChannel server : serverChannels) {
+                server.close();
+            }
+        } catch (IOException e) {
+            log.warn("Error closing simulated workers: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    /** Per-connection read state: the worker it belongs to and a buffer for one frame. */
+    private static final class Connection {
+        final int workerPort;
+        final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        
+        Connection(int workerPort) {
+            this.workerPort = workerPort;
+        }
+    }
+}
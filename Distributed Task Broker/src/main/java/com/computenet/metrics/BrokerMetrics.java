@@ -0,0 +1,148 @@
+package com.computenet.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * BrokerMetrics - The broker's counters and per-stage latency histograms
+ * One instance is created by BrokerServer and handed to each component, like TaskManager.
+ * Stages covered:
+ * M1: TCP accept until TASK_ACCEPTED is sent (includes executor queueing)
+ * M2: Task split, sub-task connect and send-until-ACK, dispatch-to-completion round trip,
+ *     worker payload cache hits for sub-tasks sent by reference, BUSY replies from saturated workers
+ * M4: Multicast config send
+ * Completion handling: parsing and recording a /api/worker-complete call
+ * Persistence: WAL fsyncs and snapshots
+ * Streaming ingest: spooling an uploaded task input to disk
+ */
+public class BrokerMetrics {
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    
+    // --- Counters ---
+    public final LongAdder tasksAccepted = registry.counter(
+        "broker_tasks_accepted_total", "Tasks accepted over the TCP submission port or the upload endpoint");
+    public final LongAdder subTasksDispatched = registry.counter(
+        "broker_subtasks_dispatched_total", "Sub-tasks acknowledged by a worker");
+    public final LongAdder subTasksBusy = registry.counter(
+        "broker_subtasks_busy_total", "Sub-task dispatches a saturated worker answered with BUSY");
+    public final LongAdder subTasksRerouted = registry.counter(
+        "broker_subtasks_rerouted_total", "Sub-tasks sent to another worker after a BUSY reply");
+    public final LongAdder dispatchFailures = registry.counter(
+        "broker_subtask_dispatch_failures_total", "Sub-task dispatches that failed or got no valid ACK");
+    public final LongAdder subTasksCompleted = registry.counter(
+        "broker_subtasks_completed_total", "Sub-task completions reported by workers");
+    public final LongAdder completionErrors = registry.counter(
+        "broker_completion_errors_total", "Rejected /api/worker-complete requests");
+    public final LongAdder multicastFailures = registry.counter(
+        "broker_multicast_failures_total", "Task config multicasts that failed");
+    public final LongAdder workerRegistrations = registry.counter(
+        "broker_worker_registrations_total", "Worker registrations received over UDP");
+    public final LongAdder heartbeats = registry.counter(
+        "broker_heartbeats_total", "Worker heartbeats received over UDP");
+    public final LongAdder inputBytesSpooled = registry.counter(
+        "broker_input_spooled_bytes_total", "Bytes of streamed task input written to the spool");
+    public final LongAdder payloadCacheHits = registry.counter(
+        "broker_payload_cache_hits_total", "Sub-tasks sent by reference that the worker already had cached");
+    public final LongAdder payloadCacheMisses = registry.counter(
+        "broker_payload_cache_misses_total", "Sub-tasks sent by reference that the worker had to fetch");
+    public final LongAdder payloadBytesSaved = registry.counter(
+        "broker_payload_bytes_saved_total", "Sub-task data bytes not sent because the worker had them cached");
+    public final LongAdder walRecords = registry.counter(
+        "broker_wal_records_total", "State changes appended to the write-ahead log");
+    public final LongAdder walSyncs = registry.counter(
+        "broker_wal_syncs_total", "Write-ahead log fsyncs, records per fsync is the group commit batch size");
+    
+    // --- Stage latencies ---
+    public final LatencyHistogram taskAccept = registry.histogram(
+        "broker_task_accept_seconds", "TCP accept until TASK_ACCEPTED is written");
+    public final LatencyHistogram taskSplit = registry.histogram(
+        "broker_task_split_seconds", "Splitting a task into sub-tasks");
+    public final LatencyHistogram multicastSend = registry.histogram(
+        "broker_multicast_send_seconds", "Sending the task config multicast datagram");
+    public final LatencyHistogram dispatchConnect = registry.histogram(
+        "broker_dispatch_connect_seconds", "Opening the TCP connection to a worker");
+    public final LatencyHistogram dispatchAck = registry.histogram(
+        "broker_dispatch_ack_seconds", "Sending a sub-task until the worker ACK arrives");
+    public final LatencyHistogram subTaskRoundTrip = registry.histogram(
+        "broker_subtask_roundtrip_seconds", "Sub-task dispatch until its completion is received");
+    public final LatencyHistogram completionHandling = registry.histogram(
+        "broker_completion_handling_seconds", "Parsing and recording a worker completion");
+    public final LatencyHistogram inputSpool = registry.histogram(
+        "broker_input_spool_seconds", "Receiving a streamed task input into a spool file");
+    public final LatencyHistogram walSync = registry.histogram(
+        "broker_wal_sync_seconds", "One write-ahead log fsync");
+    public final LatencyHistogram snapshotWrite = registry.histogram(
+        "broker_snapshot_write_seconds", "Writing a TaskManager snapshot and compacting the log");
+    
+    // Dispatch start per in-flight sub-task, key = taskId << 32 | subTaskId
+    private final Map<Long, Long> dispatchStartNanos = new ConcurrentHashMap<>();
+    
+    public BrokerMetrics() {
+        registry.gauge("broker_subtasks_in_flight", "Sub-tasks dispatched and not yet completed",
+                       dispatchStartNanos::size);
+    }
+    
+    /** Adds a counter read at scrape time, for totals kept by another component. */
+    public void counter(String name, String help, LongSupplier supplier) {
+        registry.counter(name, help, supplier);
+    }
+    
+    /** Adds a counter of nanoseconds read at scrape time, exported in seconds. */
+    public void secondsCounter(String name, String help, LongSupplier nanos) {
+        registry.secondsCounter(name, help, nanos);
+    }
+    
+    /** Adds a gauge read at scrape time, e.g. a queue depth owned by another component. */
+    public void gauge(String name, String help, LongSupplier supplier) {
+        registry.gauge(name, help, supplier);
+    }
+    
+    /** Adds gauges read at scrape time, one per key of the map, e.g. per tenant. */
+    public void gaugeFamily(String name, String help, String label, Supplier<Map<String, Long>> values) {
+        registry.gaugeFamily(name, help, label, values);
+    }
+    
+    /** Adds counters read at scrape time, one per key of the map. */
+    public void counterFamily(String name, String help, String label, Supplier<Map<String, Long>> values) {
+        registry.counterFamily(name, help, label, values);
+    }
+    
+    /** Adds one latency histogram per label value. */
+    public Map<String, LatencyHistogram> histogramFamily(String name, String help, String label, List<String> labelValues) {
+        return registry.histogramFamily(name, help, label, labelValues);
+    }
+    
+    /** Marks the start of a sub-task's dispatch, for the round-trip histogram. */
+    public void subTaskDispatchStarted(int taskId, int subTaskId) {
+        dispatchStartNanos.put(key(taskId, subTaskId), System.nanoTime());
+    }
+    
+    /** Stops tracking a sub-task whose dispatch failed, it will never complete. */
+    public void subTaskDispatchFailed(int taskId, int subTaskId) {
+        dispatchFailures.increment();
+        dispatchStartNanos.remove(key(taskId, subTaskId));
+    }
+    
+    /** Records a completion and its round trip, if the dispatch was seen by this broker. */
+    public void subTaskCompleted(int taskId, int subTaskId) {
+        subTasksCompleted.increment();
+        Long start = dispatchStartNanos.remove(key(taskId, subTaskId));
+        if (start != null) {
+            subTaskRoundTrip.recordSince(start);
+        }
+    }
+    
+    /** Current values in Prometheus text format. */
+    public String scrape() {
+        return registry.scrape();
+    }
+    
+    private static long key(int taskId, int subTaskId) {
+        return ((long) taskId << 32) | (subTaskId & 0xFFFFFFFFL);
+    }
+}
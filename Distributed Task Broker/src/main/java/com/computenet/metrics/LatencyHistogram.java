@@ -0,0 +1,144 @@
+package com.computenet.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram - Lock-free latency recorder with HDR-style log-linear buckets
+ * Values are recorded in nanoseconds. Each power of two is split into 32 linear
+ * sub-buckets, so any reported quantile is within ~3% of the true value, from 1ns
+ * up to ~18 minutes (larger values land in the last bucket).
+ * Recording is one atomic increment plus one LongAdder update, safe to call from
+ * any number of threads; snapshots are taken without stopping writers.
+ * Bucket counts are striped by thread so concurrent stages recording similar
+ * latencies do not all contend on the same counter.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+    }
+    
+    /** Records one latency sample. Negative values are treated as zero. */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+    
+    /** Records the time elapsed since startNanos, a value from System.nanoTime(). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+    
+    /** Point-in-time copy of the distribution, used for quantiles and export. */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long n = stripe.get(i);
+                copy[i] += n;
+                total += n;
+            }
+        }
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit >= MAX_VALUE_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    /** Largest value that maps to the given bucket. */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long top = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+    
+    /**
+     * Immutable view of a histogram at one point in time.
+     * Count is the sum of the copied buckets, so quantiles are always self-consistent.
+     */
+    public static final class Snapshot {
+    
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+        
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+        
+        public long count() {
+            return count;
+        }
+        
+        /** Sum of all recorded values, in nanoseconds. */
+        public long sum() {
+            return sum;
+        }
+        
+        public long max() {
+            return max;
+        }
+        
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+        
+        /**
+         * Value at the given quantile (0.0 - 1.0), in nanoseconds.
+         * Reports the upper bound of the bucket holding the sample, capped at the recorded max.
+         */
+        public long valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
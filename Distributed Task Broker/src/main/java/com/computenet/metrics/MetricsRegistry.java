@@ -0,0 +1,157 @@
+package com.computenet.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * MetricsRegistry - Named counters, gauges and latency histograms
+ * Renders them in the Prometheus text exposition format (version 0.0.4).
+ * Counters are LongAdders and histograms are LatencyHistograms, so updating a metric
+ * never takes a lock; all formatting work happens on the scraping thread.
+ * Families export one series per value of a single label, e.g. per tenant or per priority class.
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    
+    /** Quantiles exported for every histogram. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    
+    private interface Metric {
+        String name();
+        String help();
+    }
+    
+    private record CounterMetric(String name, String help, LongAdder adder) implements Metric {}
+    
+    private record GaugeMetric(String name, String help, LongSupplier supplier) implements Metric {}
+    
+    private record SampledCounterMetric(String name, String help, LongSupplier supplier, boolean nanosAsSeconds)
+            implements Metric {}
+    
+    private record HistogramMetric(String name, String help, LatencyHistogram histogram) implements Metric {}
+    
+    private record FamilyMetric(String name, String help, String type, String label,
+                                Supplier<Map<String, Long>> values) implements Metric {}
+    
+    private record HistogramFamilyMetric(String name, String help, String label,
+                                         Map<String, LatencyHistogram> histograms) implements Metric {}
+    
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+    
+    /** Registers a monotonically increasing counter. By convention the name ends in _total. */
+    public LongAdder counter(String name, String help) {
+        LongAdder adder = new LongAdder();
+        metrics.add(new CounterMetric(name, help, adder));
+        return adder;
+    }
+    
+    /** Registers a counter kept by another component, read from the supplier at scrape time. */
+    public void counter(String name, String help, LongSupplier supplier) {
+        metrics.add(new SampledCounterMetric(name, help, supplier, false));
+    }
+    
+    /** Like counter(name, help, supplier) for a total in nanoseconds, exported in seconds. */
+    public void secondsCounter(String name, String help, LongSupplier nanos) {
+        metrics.add(new SampledCounterMetric(name, help, nanos, true));
+    }
+    
+    /** Registers a gauge whose value is read from the supplier at scrape time. */
+    public void gauge(String name, String help, LongSupplier supplier) {
+        metrics.add(new GaugeMetric(name, help, supplier));
+    }
+    
+    /** Registers a latency histogram, exported in seconds as a Prometheus summary. */
+    public LatencyHistogram histogram(String name, String help) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        metrics.add(new HistogramMetric(name, help, histogram));
+        return histogram;
+    }
+    
+    /**
+     * Registers a family of gauges read at scrape time: one series per entry of the map,
+     * with the key as the value of label. Series appear and disappear with the keys.
+     */
+    public void gaugeFamily(String name, String help, String label, Supplier<Map<String, Long>> values) {
+        metrics.add(new FamilyMetric(name, help, "gauge", label, values));
+    }
+    
+    /** Like gaugeFamily for counters kept by another component. */
+    public void counterFamily(String name, String help, String label, Supplier<Map<String, Long>> values) {
+        metrics.add(new FamilyMetric(name, help, "counter", label, values));
+    }
+    
+    /** Registers one latency histogram per label value, all known up front. */
+    public Map<String, LatencyHistogram> histogramFamily(String name, String help, String label, List<String> labelValues) {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (String value : labelValues) {
+            histograms.put(value, new LatencyHistogram());
+        }
+        metrics.add(new HistogramFamilyMetric(name, help, label, Collections.unmodifiableMap(histograms)));
+        return histograms;
+    }
+    
+    /** Renders every registered metric in Prometheus text format. */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics) {
+            out.append("# HELP ").append(metric.name()).append(' ').append(metric.help()).append('\n');
+            if (metric instanceof CounterMetric c) {
+                out.append("# TYPE ").append(c.name()).append(" counter\n");
+                out.append(c.name()).append(' ').append(c.adder().sum()).append('\n');
+            } else if (metric instanceof SampledCounterMetric c) {
+                long value = c.supplier().getAsLong();
+                out.append("# TYPE ").append(c.name()).append(" counter\n");
+                out.append(c.name()).append(' ').append(c.nanosAsSeconds() ? seconds(value) : Long.toString(value)).append('\n');
+            } else if (metric instanceof GaugeMetric g) {
+                out.append("# TYPE ").append(g.name()).append(" gauge\n");
+                out.append(g.name()).append(' ').append(g.supplier().getAsLong()).append('\n');
+            } else if (metric instanceof HistogramMetric h) {
+                writeSummary(out, h.name(), "", h.histogram());
+            } else if (metric instanceof FamilyMetric f) {
+                out.append("# TYPE ").append(f.name()).append(' ').append(f.type()).append('\n');
+                new TreeMap<>(f.values().get()).forEach((value, count) ->
+                    out.append(f.name()).append('{').append(label(f.label(), value)).append("} ").append(count).append('\n'));
+            } else if (metric instanceof HistogramFamilyMetric h) {
+                out.append("# TYPE ").append(h.name()).append(" summary\n");
+                h.histograms().forEach((value, histogram) ->
+                    writeSamples(out, h.name(), label(h.label(), value) + ",", histogram));
+            }
+        }
+        return out.toString();
+    }
+    
+    private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        out.append("# TYPE ").append(name).append(" summary\n");
+        writeSamples(out, name, labels, histogram);
+    }
+    
+    /** @param labels Labels to put before the quantile, each followed by a comma */
+    private static void writeSamples(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append("quantile=\"").append(quantile).append("\"} ")
+               .append(seconds(snapshot.valueAtQuantile(quantile))).append('\n');
+        }
+        String sumLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_sum").append(sumLabels).append(' ').append(seconds(snapshot.sum())).append('\n');
+        out.append(name).append("_count").append(sumLabels).append(' ').append(snapshot.count()).append('\n');
+    }
+    
+    /** label="value", with the value escaped as the text format requires. */
+    private static String label(String label, String value) {
+        return label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+    
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
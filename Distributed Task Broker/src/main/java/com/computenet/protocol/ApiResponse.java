@@ -0,0 +1,15 @@
+package com.computenet.protocol;
+
+/**
+ * Generic success/failure response returned by the broker and worker REST endpoints.
+ */
+public record ApiResponse(boolean success, String message) {
+
+    public static ApiResponse ok(String message) {
+        return new ApiResponse(true, message);
+    }
+    
+    public static ApiResponse error(String message) {
+        return new ApiResponse(false, message);
+    }
+}
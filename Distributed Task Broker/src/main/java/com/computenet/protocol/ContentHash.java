@@ -0,0 +1,33 @@
+package com.computenet.protocol;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * ContentHash - Names a payload by its content
+ * The first 128 bits of its SHA-256, as 32 hex digits. Broker and workers derive the same
+ * name from the same bytes, so a worker can tell from a SUBTASK_REF whether it already
+ * holds the data, and can check data it fetched against the name it asked for.
+ */
+public final class ContentHash {
+
+    private static final int HASH_BYTES = 16;
+    
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    });
+    
+    private ContentHash() {
+    }
+    
+    public static String of(byte[] data) {
+        byte[] digest = DIGEST.get().digest(data);
+        return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+    }
+}
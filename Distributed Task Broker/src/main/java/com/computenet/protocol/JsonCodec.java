@@ -0,0 +1,177 @@
+package com.computenet.protocol;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * JsonCodec - Shared JSON layer for the broker REST API
+ * Holds the single ObjectMapper used by Javalin, the broker and the workers, and
+ * provides streaming readers for the hot request bodies so they are parsed in one
+ * pass straight into records, without building a tree or scanning the body per field.
+ */
+public final class JsonCodec {
+
+    /** Shared mapper. ObjectMapper is thread-safe once configured, so it is never re-created. */
+    public static final ObjectMapper MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+    
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+    
+    private JsonCodec() {
+    }
+    
+    /**
+     * Parses a /api/worker-complete body.
+     * Numeric fields are accepted both as JSON numbers and as quoted strings,
+     * since older workers send them quoted.
+     *
+     * @throws IllegalArgumentException if a required field is missing or not a number
+     */
+    public static WorkerCompletionRequest readCompletion(InputStream body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            return readCompletion(parser);
+        }
+    }
+    
+    public static WorkerCompletionRequest readCompletion(byte[] body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            return readCompletion(parser);
+        }
+    }
+    
+    private static WorkerCompletionRequest readCompletion(JsonParser parser) throws IOException {
+        expectObject(parser);
+        
+        String workerAddress = null;
+        String result = null;
+        int workerPort = -1;
+        int taskId = -1;
+        int subTaskId = -1;
+        
+        for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "workerAddress" -> workerAddress = parser.getValueAsString();
+                case "workerPort" -> workerPort = readInt(parser, field);
+                case "taskId" -> taskId = readInt(parser, field);
+                case "subTaskId" -> subTaskId = readInt(parser, field);
+                case "result" -> result = parser.getValueAsString();
+                default -> parser.skipChildren();
+            }
+        }
+        
+        if (workerAddress == null) {
+            throw new IllegalArgumentException("Missing field 'workerAddress'");
+        }
+        if (workerPort < 0 || taskId < 0 || subTaskId < 0) {
+            throw new IllegalArgumentException("Missing field 'workerPort', 'taskId' or 'subTaskId'");
+        }
+        return new WorkerCompletionRequest(workerAddress, workerPort, taskId, subTaskId, result);
+    }
+    
+    /**
+     * Parses a /api/submit-task body.
+     * Missing fields are returned as null and validated by the endpoint.
+     */
+    public static TaskSubmissionRequest readSubmission(InputStream body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            expectObject(parser);
+            
+            String taskId = null;
+            String taskName = null;
+            String taskData = null;
+            Integer subTaskCount = null;
+            String splitter = null;
+            String combiner = null;
+            String tenant = null;
+            String priority = null;
+            Integer deadlineMillis = null;
+            String tags = null;
+            
+            for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "taskId" -> taskId = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                    case "taskName" -> taskName = parser.getValueAsString();
+                    case "taskData" -> taskData = parser.getValueAsString();
+                    case "subTaskCount" -> subTaskCount = readOptionalInt(parser);
+                    case "splitter" -> splitter = parser.getValueAsString();
+                    case "combiner" -> combiner = parser.getValueAsString();
+                    case "tenant" -> tenant = parser.getValueAsString();
+                    case "priority" -> priority = parser.getValueAsString();
+                    case "deadlineMillis" -> deadlineMillis = readOptionalInt(parser);
+                    case "tags" -> tags = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            return new TaskSubmissionRequest(taskId, taskName, taskData, subTaskCount, splitter, combiner, tenant, priority,
+                                             deadlineMillis, tags);
+        }
+    }
+    
+    /**
+     * Parses a /api/workflows body. Workflows are submitted rarely and nest, so the body is bound
+     * by the mapper rather than read field by field.
+     * Missing fields are returned as null and validated by the WorkflowManager.
+     */
+    public static WorkflowRequest readWorkflow(InputStream body) throws IOException {
+        return MAPPER.readValue(body, WorkflowRequest.class);
+    }
+    
+    /** Serializes a value with the shared mapper. */
+    public static byte[] toBytes(Object value) {
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /** Serializes a value with the shared mapper. */
+    public static String toJson(Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static void expectObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+    }
+    
+    private static int readInt(JsonParser parser, String field) throws IOException {
+        Integer value = readOptionalInt(parser);
+        if (value == null) {
+            throw new IllegalArgumentException("Field '" + field + "' is not a number");
+        }
+        return value;
+    }
+    
+    private static Integer readOptionalInt(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Integer.parseInt(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        parser.skipChildren();
+        return null;
+    }
+}
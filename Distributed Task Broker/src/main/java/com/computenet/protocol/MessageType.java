@@ -0,0 +1,105 @@
+package com.computenet.protocol;
+
+/**
+ * Message types of the broker/worker wire protocol.
+ * Each type has a fixed one-byte code and a fixed number of varint IDs in its body,
+ * so a frame can be decoded without any per-type parsing code.
+ */
+public enum MessageType {
+    /** Worker -> Broker (UDP). IDs: worker TCP port. */
+    REGISTER(1, 1),
+    /** Broker -> Worker (UDP). */
+    REGISTERED(2, 0),
+    /** Worker -> Broker (UDP). IDs: worker TCP port (0 if unknown). */
+    HEARTBEAT(3, 1),
+    /** Broker -> Worker (UDP). */
+    HEARTBEAT_ACK(4, 0),
+    /** Broker -> Worker (TCP). IDs: task ID, sub-task ID. Payload: sub-task data. */
+    SUBTASK(5, 2),
+    /** Worker -> Broker (TCP). IDs: task ID (0 if unknown), sub-task ID. */
+    SUBTASK_ACK(6, 2),
+    /** Broker -> Worker (NIO). IDs: task ID. Payload: progress text. */
+    PROGRESS(7, 1),
+    /** Worker -> Broker (NIO). IDs: task ID, sub-task ID. Payload: result. */
+    RESULT(8, 2),
+    /** Worker -> Broker (NIO). Sent on connect to identify the channel. IDs: worker TCP port. */
+    HELLO(9, 1),
+    /** Either direction. Payload: reason. */
+    ERROR(10, 0),
+    /**
+     * Broker -> Worker (TCP). IDs: task ID, sub-task ID. Attribute "length": partition size in bytes.
+     * The partition follows the frame as raw bytes, so it is not bounded by the frame size limit.
+     */
+    SUBTASK_STREAM(11, 2),
+    /**
+     * Originator -> Broker (TCP). IDs: sub-task count. Attributes "name": task name, "split": optional
+     * TaskSplitter spec, "combine": optional ResultCombiner spec, "tenant" and "priority": optional
+     * TaskScheduler placement, "deadline": optional milliseconds the task must complete in, "await": "true"
+     * to keep the connection open for TASK_COMPLETED. Followed by TASK_CHUNK frames.
+     */
+    TASK_UPLOAD(12, 1),
+    /** Originator -> Broker (TCP). Payload: the next bytes of the task input; an empty payload ends the input. */
+    TASK_CHUNK(13, 0),
+    /** Broker -> Originator (TCP). IDs: task ID. */
+    TASK_ACCEPTED(14, 1),
+    /**
+     * Broker -> Worker (TCP). IDs: task ID, sub-task ID. Attributes "hash": ContentHash of the sub-task
+     * data, "length": its size in bytes. Sent instead of SUBTASK to workers that registered with the
+     * payload-cache feature; answered with SUBTASK_ACK on a cache hit, or PAYLOAD_MISS.
+     */
+    SUBTASK_REF(15, 2),
+    /** Worker -> Broker (TCP). IDs: task ID, sub-task ID. The broker follows up with the full SUBTASK. */
+    PAYLOAD_MISS(16, 2),
+    /**
+     * Worker -> Broker (TCP). IDs: task ID, sub-task ID (0 if not read yet). Sent instead of SUBTASK_ACK
+     * when the worker is saturated and did not take the sub-task; the broker tries another worker.
+     */
+    BUSY(17, 2),
+    /**
+     * Broker -> Originator (TCP), after TASK_ACCEPTED on an upload sent with "await". IDs: task ID.
+     * Attribute "length": size of the task's final result, which follows the frame as raw bytes.
+     */
+    TASK_COMPLETED(18, 1),
+    /**
+     * Broker -> Originator (TCP), instead of TASK_ACCEPTED when the broker is overloaded. Attribute
+     * "retryAfter": milliseconds to wait before submitting again. Payload: reason.
+     */
+    TASK_REJECTED(19, 0),
+    /**
+     * Broker -> Worker (TCP). IDs: task ID, sub-task ID. The worker drops its copy of the sub-task, queued or
+     * running, and reports no result for it; another copy has already reported, or the task's deadline has
+     * passed. Answered with SUBTASK_ACK.
+     */
+    CANCEL(20, 2);
+    
+    private static final MessageType[] BY_CODE = new MessageType[64];
+    
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+    
+    private final int code;
+    private final int idCount;
+    
+    MessageType(int code, int idCount) {
+        this.code = code;
+        this.idCount = idCount;
+    }
+    
+    public int code() {
+        return code;
+    }
+    
+    public int idCount() {
+        return idCount;
+    }
+    
+    /**
+     * @return the type for the given code, or null if the code is unknown
+     */
+    public static MessageType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,178 @@
+package com.computenet.protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PayloadCompressor - Deflate compression of message payloads
+ * Peers announce the deflate feature when they register; only then are payloads sent to them
+ * compressed. A frame whose payload is compressed has WireMessage.FLAG_DEFLATE set, HTTP bodies carry
+ * "Content-Encoding: deflate". Payloads below the threshold, or that would not get smaller,
+ * are sent as they are, so compression never costs bandwidth.
+ * Deflater and Inflater hold native buffers that are expensive to create and only freed by end()
+ * or the GC, so a small pool of each is shared by all threads and reset between messages. Per-thread
+ * instances would not be reused where every connection, or virtual thread, handles about one message.
+ */
+public class PayloadCompressor {
+
+    /** HTTP Content-Encoding of a compressed body; the same zlib format. */
+    public static final String CONTENT_ENCODING = "deflate";
+    
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    public static final int DEFAULT_THRESHOLD = 1024;
+    
+    // Idle instances kept for reuse; beyond this many, concurrent callers' instances are ended after use
+    private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    
+    private final int level;
+    private final int threshold;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    
+    // Payloads that were compressed: size before and after, and time spent both ways
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    
+    /** Totals since start, for metrics. */
+    public record Stats(long rawBytes, long compressedBytes, long compressNanos, long decompressNanos) {
+        public long bytesSaved() {
+            return rawBytes - compressedBytes;
+        }
+    }
+    
+    /**
+     * @param level     Deflater level from 1 (fastest) to 9 (smallest), or 0 to never compress
+     * @param threshold Smallest payload in bytes worth compressing
+     */
+    public PayloadCompressor(int level, int threshold) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be 0-9: " + level);
+        }
+        this.level = level;
+        this.threshold = Math.max(threshold, 1);
+    }
+    
+    /** Reads <prefix>.compression.level and <prefix>.compression.threshold, e.g. broker.compression.level. */
+    public static PayloadCompressor fromSystemProperties(String prefix) {
+        return new PayloadCompressor(
+            Integer.getInteger(prefix + ".compression.level", DEFAULT_LEVEL),
+            Integer.getInteger(prefix + ".compression.threshold", DEFAULT_THRESHOLD));
+    }
+    
+    /** False if compression is switched off with level 0; incoming compressed payloads are still accepted. */
+    public boolean enabled() {
+        return level != Deflater.NO_COMPRESSION;
+    }
+    
+    /**
+     * Compresses the message's payload if it is large enough and gets smaller.
+     * @return a copy with WireMessage.FLAG_DEFLATE and the compressed payload, or the message itself
+     */
+    public WireMessage compress(WireMessage message) {
+        if ((message.flags() & WireMessage.FLAG_DEFLATE) != 0) {
+            return message;
+        }
+        byte[] compressed = deflate(message.payload());
+        if (compressed == null) {
+            return message;
+        }
+        return new WireMessage(message.type(), message.flags() | WireMessage.FLAG_DEFLATE, message.ids(),
+                               message.attributes(), compressed);
+    }
+    
+    /**
+     * Undoes compress(); messages without WireMessage.FLAG_DEFLATE are returned as they are.
+     * @throws WireCodec.WireFormatException if the payload is not a valid zlib stream
+     */
+    public WireMessage decompress(WireMessage message) throws WireCodec.WireFormatException {
+        if ((message.flags() & WireMessage.FLAG_DEFLATE) == 0) {
+            return message;
+        }
+        return new WireMessage(message.type(), message.flags() & ~WireMessage.FLAG_DEFLATE, message.ids(),
+                               message.attributes(), inflate(message.payload()));
+    }
+    
+    /**
+     * @return the zlib-compressed data, or null if it is below the threshold, compression is
+     *         disabled, or the result would not be smaller
+     */
+    public byte[] deflate(byte[] data) {
+        if (!enabled() || data.length < threshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Deflater polled = deflaters.poll();
+        Deflater deflater = polled != null ? polled : new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            // Anything that does not fit in one byte less than the input is not worth sending
+            byte[] out = new byte[data.length - 1];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            rawBytes.add(data.length);
+            compressedBytes.add(length);
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+            compressNanos.add(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Decompresses a zlib stream of at most WireCodec.MAX_BODY_LENGTH bytes once inflated.
+     * @throws WireCodec.WireFormatException if the data is corrupt, truncated or inflates too far
+     */
+    public byte[] inflate(byte[] data) throws WireCodec.WireFormatException {
+        long start = System.nanoTime();
+        Inflater polled = inflaters.poll();
+        Inflater inflater = polled != null ? polled : new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[Math.max(64, Math.min(data.length * 4, WireCodec.MAX_BODY_LENGTH))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    if (out.length == WireCodec.MAX_BODY_LENGTH) {
+                        throw new WireCodec.WireFormatException("Compressed payload inflates beyond "
+                                                                + WireCodec.MAX_BODY_LENGTH + " bytes");
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(out.length * 2L, WireCodec.MAX_BODY_LENGTH));
+                }
+                int n = inflater.inflate(out, length, out.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new WireCodec.WireFormatException("Truncated compressed payload");
+                }
+                length += n;
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } catch (DataFormatException e) {
+            throw new WireCodec.WireFormatException("Corrupt compressed payload: " + e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+            decompressNanos.add(System.nanoTime() - start);
+        }
+    }
+    
+    public Stats stats() {
+        return new Stats(rawBytes.sum(), compressedBytes.sum(), compressNanos.sum(), decompressNanos.sum());
+    }
+}
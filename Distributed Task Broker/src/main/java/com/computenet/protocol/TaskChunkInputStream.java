@@ -0,0 +1,75 @@
+package com.computenet.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * TaskChunkInputStream - Reads the task input of a TASK_UPLOAD as a plain stream
+ * Unwraps the TASK_CHUNK frames that follow the upload header and ends at the empty chunk,
+ * leaving the underlying stream positioned after it. Only one chunk is held at a time,
+ * so memory use is bounded by the chunk size the originator picked, not by the input.
+ */
+public class TaskChunkInputStream extends InputStream {
+
+    private final InputStream in;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private boolean finished;
+    
+    public TaskChunkInputStream(InputStream in) {
+        this.in = in;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+    
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+    
+    /** Makes sure unread chunk bytes are available, reading the next frame if needed. */
+    private boolean fill() throws IOException {
+        while (position == chunk.length) {
+            if (finished) {
+                return false;
+            }
+            WireMessage message = WireCodec.read(in);
+            if (message == null) {
+                throw new EOFException("Upload ended without its final chunk");
+            }
+            if (message.type() != MessageType.TASK_CHUNK) {
+                throw new WireCodec.WireFormatException("Expected TASK_CHUNK, got " + message.type());
+            }
+            chunk = message.payload();
+            position = 0;
+            finished = chunk.length == 0;
+        }
+        return true;
+    }
+    
+    /** Leaves the underlying stream open, the reply is written on the same connection. */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,84 @@
+package com.computenet.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * TaskChunkOutputStream - Writes a task input as TASK_CHUNK frames
+ * The counterpart of TaskChunkInputStream. Bytes are collected into chunks of a fixed size,
+ * so the total input length does not have to be known up front. close() writes the empty
+ * final chunk and flushes, but leaves the underlying stream open for reading the reply.
+ */
+public class TaskChunkOutputStream extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+    private boolean closed;
+    
+    public TaskChunkOutputStream(OutputStream out) {
+        this(out, DEFAULT_CHUNK_SIZE);
+    }
+    
+    public TaskChunkOutputStream(OutputStream out, int chunkSize) {
+        if (chunkSize < 1 || chunkSize > WireCodec.MAX_BODY_LENGTH - 16) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.out = out;
+        this.buffer = new byte[chunkSize];
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+    
+    /** Sends the bytes collected so far as a (short) chunk. */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk();
+        }
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            writeChunk();
+        }
+        WireCodec.write(WireMessage.taskChunk(new byte[0]), out);
+        out.flush();
+    }
+    
+    private void writeChunk() throws IOException {
+        // A full buffer is passed as is, encode() copies it into the frame before it is reused
+        byte[] payload = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+        WireCodec.write(WireMessage.taskChunk(payload), out);
+        count = 0;
+    }
+}
@@ -0,0 +1,21 @@
+package com.computenet.protocol;
+
+/**
+ * Body of POST /api/submit-task, sent by the web UI.
+ * Fields are kept nullable so the endpoint can report exactly which one is missing.
+ *
+ * @param taskId         Client-side task identifier (optional)
+ * @param taskName       Human readable task name
+ * @param taskData       Task payload
+ * @param subTaskCount   Requested number of sub-tasks, null if missing or not a number
+ * @param splitter       TaskSplitter spec (optional), without one the data is cut into line-aligned byte ranges
+ * @param combiner       ResultCombiner spec (optional), without one the results are kept per sub-task only
+ * @param tenant         Submitter identity for the TaskScheduler (optional)
+ * @param priority       Priority class: interactive, normal or bulk (optional)
+ * @param deadlineMillis Milliseconds the task must complete in (optional), null for the broker default
+ * @param tags           Comma-separated tags a worker must have to run the sub-tasks (optional)
+ */
+public record TaskSubmissionRequest(String taskId, String taskName, String taskData, Integer subTaskCount,
+                                    String splitter, String combiner, String tenant, String priority,
+                                    Integer deadlineMillis, String tags) {
+}
@@ -0,0 +1,8 @@
+package com.computenet.protocol;
+
+/**
+ * Successful response of POST /api/submit-task and POST /api/tasks/upload.
+ */
+public record TaskSubmissionResponse(boolean success, String message, int taskId, String originalTaskId,
+                                     String taskName, int subTaskCount) {
+}
@@ -0,0 +1,149 @@
+package com.computenet.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TextCodec - The original colon-delimited text protocol
+ * Kept so workers and brokers that predate WireCodec keep working. Workers that
+ * register with a binary REGISTER frame are switched to WireCodec, everyone else
+ * keeps talking text.
+ *
+ * Formats:
+ *   REGISTER:port | REGISTERED | HEARTBEAT | ACK
+ *   TASK:taskId:SUBTASK:subTaskId:data | ACK:SUBTASK:subTaskId:RECEIVED | ACK:BUSY:subTaskId | ACK:ERROR:reason
+ *   CANCEL:taskId:subTaskId
+ *   PROGRESS:taskId:text | RESULT:taskId:subTaskId:result
+ *
+ * Task submission lines from originators ("Name:x | Data:y | ...") are a sequence of fields
+ * separated by '|'; escapeField and splitFields let a field hold line breaks and pipes.
+ */
+public final class TextCodec {
+
+    private TextCodec() {
+    }
+    
+    /**
+     * Converts a text line into a message.
+     * @return the message, or null if the line is not a recognised text message
+     */
+    public static WireMessage decode(String line) {
+        if (line == null) {
+            return null;
+        }
+        line = line.trim();
+        try {
+            if (line.startsWith("TASK:")) {
+                String[] parts = line.split(":", 5);
+                if (parts.length >= 5 && parts[2].equals("SUBTASK")) {
+                    return WireMessage.subTask(Integer.parseInt(parts[1]), Integer.parseInt(parts[3]), utf8(parts[4]));
+                }
+            } else if (line.startsWith("ACK:SUBTASK:")) {
+                String[] parts = line.split(":", 4);
+                return WireMessage.subTaskAck(0, Integer.parseInt(parts[2]));
+            } else if (line.startsWith("ACK:BUSY:")) {
+                String[] parts = line.split(":", 4);
+                return WireMessage.busy(0, Integer.parseInt(parts[2]));
+            } else if (line.startsWith("CANCEL:")) {
+                String[] parts = line.split(":", 4);
+                return WireMessage.cancel(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            } else if (line.startsWith("ACK:ERROR:")) {
+                return WireMessage.error(line.substring("ACK:ERROR:".length()));
+            } else if (line.equals("ACK")) {
+                return WireMessage.heartbeatAck();
+            } else if (line.startsWith("REGISTER:")) {
+                String[] parts = line.split(":");
+                return WireMessage.register(Integer.parseInt(parts[1]), null);
+            } else if (line.equals("REGISTERED")) {
+                return WireMessage.registered();
+            } else if (line.equals("HEARTBEAT")) {
+                return WireMessage.heartbeat(0);
+            } else if (line.startsWith("PROGRESS:")) {
+                String[] parts = line.split(":", 3);
+                if (parts.length >= 3) {
+                    return WireMessage.progress(Integer.parseInt(parts[1]), parts[2]);
+                }
+            } else if (line.startsWith("RESULT:")) {
+                String[] parts = line.split(":", 4);
+                if (parts.length >= 3) {
+                    return WireMessage.result(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            utf8(parts.length > 3 ? parts[3] : ""));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Malformed number or missing field: treat as unrecognised
+        }
+        return null;
+    }
+    
+    /** Converts a message into its text line (without line terminator). */
+    public static String encode(WireMessage message) {
+        return switch (message.type()) {
+            case REGISTER -> "REGISTER:" + message.id(0);
+            case REGISTERED -> "REGISTERED";
+            case HEARTBEAT -> "HEARTBEAT";
+            case HEARTBEAT_ACK -> "ACK";
+            case SUBTASK -> "TASK:" + message.id(0) + ":SUBTASK:" + message.id(1) + ":" + message.payloadAsString();
+            case SUBTASK_ACK -> "ACK:SUBTASK:" + message.id(1) + ":RECEIVED";
+            case BUSY -> "ACK:BUSY:" + message.id(1);
+            case CANCEL -> "CANCEL:" + message.id(0) + ":" + message.id(1);
+            case PROGRESS -> "PROGRESS:" + message.id(0) + ":" + message.payloadAsString();
+            case RESULT -> "RESULT:" + message.id(0) + ":" + message.id(1) + ":" + message.payloadAsString();
+            case ERROR -> "ACK:ERROR:" + message.payloadAsString();
+            default -> throw new IllegalArgumentException(message.type() + " has no text form");
+        };
+    }
+    
+    /**
+     * Escapes a field of a submission line, so multi-line data fits on the line:
+     * a line feed becomes \n, a carriage return \r, a pipe \| and a backslash \\.
+     */
+    public static String escapeField(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '|' -> escaped.append("\\|");
+                case '\\' -> escaped.append("\\\\");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    /**
+     * Splits a submission line at its unescaped pipes and undoes escapeField in every field.
+     * A backslash before any other character is kept as it is.
+     */
+    public static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '|') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(i + 1);
+                switch (next) {
+                    case 'n' -> field.append('\n');
+                    case 'r' -> field.append('\r');
+                    case '|', '\\' -> field.append(next);
+                    default -> field.append(c).append(next);
+                }
+                i++;
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
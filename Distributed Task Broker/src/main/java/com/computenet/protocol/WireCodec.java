@@ -0,0 +1,303 @@
+package com.computenet.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * WireCodec - Binary framing for broker/worker traffic (TCP, UDP and NIO)
+ *
+ * Frame layout:
+ * <pre>
+ *   magic(1) version(1) type(1) flags(1) bodyLength(varint) body
+ *   body = id(varint) x type.idCount()
+ *          attributeCount(varint) [keyLength(varint) key valueLength(varint) value]...
+ *          payload (remaining bytes of the body, raw)
+ * </pre>
+ * The magic byte is outside the ASCII range, so a receiver can tell a binary frame
+ * from a legacy text message by looking at the first byte only.
+ */
+public final class WireCodec {
+
+    public static final byte MAGIC = (byte) 0xCB;
+    public static final int VERSION = 1;
+    
+    /** Upper bound on a frame body, protects receivers from corrupt length prefixes. */
+    public static final int MAX_BODY_LENGTH = 64 * 1024 * 1024;
+    
+    private static final int HEADER_LENGTH = 4;
+    
+    private WireCodec() {
+    }
+    
+    /** Thrown when bytes that claim to be a frame cannot be decoded. */
+    public static class WireFormatException extends IOException {
+        public WireFormatException(String message) {
+            super(message);
+        }
+    }
+    
+    /** True if the given first byte of a message starts a binary frame. */
+    public static boolean isFrameStart(int firstByte) {
+        return (byte) firstByte == MAGIC;
+    }
+    
+    // --- Encoding ---
+    
+    /** Encodes a message into a new array holding exactly one frame. */
+    public static byte[] encode(WireMessage message) {
+        byte[][] attributes = encodeAttributes(message.attributes());
+        int bodyLength = bodyLength(message, attributes);
+        
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + varIntSize(bodyLength) + bodyLength);
+        out.put(MAGIC)
+           .put((byte) VERSION)
+           .put((byte) message.type().code())
+           .put((byte) message.flags());
+        putVarInt(out, bodyLength);
+        for (int id : message.ids()) {
+            putVarInt(out, id);
+        }
+        putVarInt(out, attributes.length / 2);
+        for (byte[] part : attributes) {
+            putVarInt(out, part.length);
+            out.put(part);
+        }
+        out.put(message.payload());
+        return out.array();
+    }
+    
+    public static void write(WireMessage message, OutputStream out) throws IOException {
+        out.write(encode(message));
+    }
+    
+    private static byte[][] encodeAttributes(Map<String, String> attributes) {
+        byte[][] parts = new byte[attributes.size() * 2][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            parts[i++] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            parts[i++] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+        return parts;
+    }
+    
+    private static int bodyLength(WireMessage message, byte[][] attributes) {
+        int length = 0;
+        for (int id : message.ids()) {
+            length += varIntSize(id);
+        }
+        length += varIntSize(attributes.length / 2);
+        for (byte[] part : attributes) {
+            length += varIntSize(part.length) + part.length;
+        }
+        return length + message.payload().length;
+    }
+    
+    // --- Decoding ---
+    
+    /**
+     * Decodes one frame from a buffer in read mode.
+     * If the buffer does not yet hold a complete frame, nothing is consumed and null is returned,
+     * so NIO readers can simply call this again after the next read.
+     */
+    public static WireMessage decode(ByteBuffer in) throws WireFormatException {
+        int start = in.position();
+        if (in.remaining() < HEADER_LENGTH + 1) {
+            return null;
+        }
+        int bodyLength;
+        int version;
+        int typeCode;
+        int flags;
+        try {
+            if (in.get() != MAGIC) {
+                throw new WireFormatException("Bad frame magic");
+            }
+            version = in.get() & 0xFF;
+            typeCode = in.get() & 0xFF;
+            flags = in.get() & 0xFF;
+            bodyLength = getVarInt(in);
+        } catch (BufferUnderflowException e) {
+            in.position(start);
+            return null;
+        } catch (IllegalArgumentException e) {
+            throw new WireFormatException("Malformed frame header: " + e.getMessage());
+        }
+        checkHeader(version, bodyLength);
+        if (in.remaining() < bodyLength) {
+            in.position(start);
+            return null;
+        }
+        ByteBuffer body = in.slice();
+        body.limit(bodyLength);
+        in.position(in.position() + bodyLength);
+        return decodeBody(typeCode, flags, body);
+    }
+    
+    /**
+     * Reads one frame from a blocking stream.
+     * @return the message, or null if the stream ended before a new frame started
+     */
+    public static WireMessage read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        if (!isFrameStart(first)) {
+            throw new WireFormatException("Bad frame magic");
+        }
+        int version = readByte(in);
+        int typeCode = readByte(in);
+        int flags = readByte(in);
+        int bodyLength = readVarInt(in);
+        checkHeader(version, bodyLength);
+        
+        byte[] body = in.readNBytes(bodyLength);
+        if (body.length < bodyLength) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+        return decodeBody(typeCode, flags, ByteBuffer.wrap(body));
+    }
+    
+    /**
+     * Reads one frame's type and ids from a blocking stream and skips the rest of its body, for
+     * answering a frame whose attributes and payload are not wanted without buffering them.
+     * @return the message without attributes or payload, or null if the stream ended before a new frame started
+     */
+    public static WireMessage readHead(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        if (!isFrameStart(first)) {
+            throw new WireFormatException("Bad frame magic");
+        }
+        int version = readByte(in);
+        int typeCode = readByte(in);
+        int flags = readByte(in);
+        int bodyLength = readVarInt(in);
+        checkHeader(version, bodyLength);
+        MessageType type = MessageType.fromCode(typeCode);
+        if (type == null) {
+            throw new WireFormatException("Unknown message type " + typeCode);
+        }
+        
+        int[] ids = new int[type.idCount()];
+        int idBytes = 0;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = readVarInt(in);
+            idBytes += varIntSize(ids[i]);
+        }
+        if (idBytes > bodyLength) {
+            throw new WireFormatException("Malformed " + type + " frame");
+        }
+        in.skipNBytes(bodyLength - idBytes);
+        return new WireMessage(type, flags, ids, Map.of(), null);
+    }
+    
+    private static void checkHeader(int version, int bodyLength) throws WireFormatException {
+        if (version < 1 || version > VERSION) {
+            throw new WireFormatException("Unsupported protocol version " + version);
+        }
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+            throw new WireFormatException("Invalid frame length " + bodyLength);
+        }
+    }
+    
+    private static WireMessage decodeBody(int typeCode, int flags, ByteBuffer body) throws WireFormatException {
+        MessageType type = MessageType.fromCode(typeCode);
+        if (type == null) {
+            throw new WireFormatException("Unknown message type " + typeCode);
+        }
+        try {
+            int[] ids = new int[type.idCount()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = getVarInt(body);
+            }
+            int attributeCount = getVarInt(body);
+            Map<String, String> attributes = attributeCount == 0 ? Map.of() : new LinkedHashMap<>();
+            for (int i = 0; i < attributeCount; i++) {
+                String key = getString(body);
+                attributes.put(key, getString(body));
+            }
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+            return new WireMessage(type, flags, ids, attributes, payload);
+        } catch (RuntimeException e) {
+            // Truncated fields, over-long varints, negative lengths or ids the type does not take
+            throw new WireFormatException("Malformed " + type + " frame");
+        }
+    }
+    
+    private static String getString(ByteBuffer in) {
+        int length = getVarInt(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Stream ended inside a frame header");
+        }
+        return b;
+    }
+    
+    // --- Varints (unsigned LEB128, at most 5 bytes for an int) ---
+    
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    public static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    public static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+    
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new WireFormatException("Varint too long");
+    }
+}
@@ -0,0 +1,201 @@
+package com.computenet.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single broker/worker protocol message, independent of how it travels
+ * (binary frames via WireCodec, or legacy colon-delimited text via TextCodec).
+ *
+ * @param type       Message type
+ * @param flags      Per-message option bits (0 = none)
+ * @param ids        Numeric IDs, exactly type.idCount() of them
+ * @param attributes Optional key/value metadata, never null
+ * @param payload    Raw payload bytes, never null
+ */
+public record WireMessage(MessageType type, int flags, int[] ids, Map<String, String> attributes, byte[] payload) {
+
+    private static final byte[] EMPTY = new byte[0];
+    
+    /** Attribute of SUBTASK_STREAM and TASK_COMPLETED: number of raw bytes following the frame. */
+    public static final String LENGTH = "length";
+    /** Attribute of TASK_UPLOAD: task name. Optional on SUBTASK, SUBTASK_REF and SUBTASK_STREAM, where it selects the worker's executor. */
+    public static final String NAME = "name";
+    /** Optional attribute of TASK_UPLOAD: how the input is split into sub-tasks. */
+    public static final String SPLIT = "split";
+    /** Optional attribute of TASK_UPLOAD: how sub-task results are combined into one, see ResultCombiner. */
+    public static final String COMBINE = "combine";
+    /** Optional attribute of TASK_UPLOAD: submitter identity the TaskScheduler shares dispatches by. */
+    public static final String TENANT = "tenant";
+    /** Optional attribute of TASK_UPLOAD: priority class, interactive, normal or bulk. */
+    public static final String PRIORITY = "priority";
+    /** Optional attribute of TASK_UPLOAD: milliseconds after acceptance by which the task must complete. */
+    public static final String DEADLINE = "deadline";
+    /** Optional attribute of TASK_UPLOAD: "true" to keep the connection open until TASK_COMPLETED. */
+    public static final String AWAIT = "await";
+    /** Attribute of TASK_REJECTED: milliseconds the originator should wait before submitting again. */
+    public static final String RETRY_AFTER = "retryAfter";
+    /** Attribute of SUBTASK_REF: content hash of the referenced sub-task data. */
+    public static final String HASH = "hash";
+    /**
+     * Optional attribute of SUBTASK and SUBTASK_REF: "true" if the result feeds a later workflow stage. A payload-cache
+     * worker then keeps the result in its cache, so that stage's sub-task can be sent to it by hash alone.
+     */
+    public static final String KEEP_RESULT = "keepResult";
+    /**
+     * Optional attribute of HEARTBEAT: comma-separated content hashes in a payload-cache worker's cache, most
+     * recently used first. The broker places sub-tasks with that data on the worker when it can.
+     */
+    public static final String CACHED = "cached";
+    /** Optional attribute of REGISTER and HEARTBEAT: processors available to the worker. */
+    public static final String CORES = "cores";
+    /** Optional attribute of REGISTER and HEARTBEAT: sub-tasks the worker computes at once. */
+    public static final String SLOTS = "slots";
+    /** Optional attribute of REGISTER and HEARTBEAT: bytes of heap the worker can still allocate. */
+    public static final String FREE_MEMORY = "freeMemory";
+    /** Optional attribute of REGISTER and HEARTBEAT: sub-tasks the worker is running or has queued. */
+    public static final String LOAD = "load";
+    /**
+     * Optional attribute of REGISTER and HEARTBEAT: comma-separated capability tags of the worker. Optional on
+     * TASK_UPLOAD: tags a worker must all have to be sent the task's sub-tasks.
+     */
+    public static final String TAGS = "tags";
+    /** Optional attribute of REGISTER: comma-separated protocol features the worker supports. */
+    public static final String FEATURES = "features";
+    
+    /** Feature: the worker caches sub-task data by hash and understands SUBTASK_REF. */
+    public static final String FEATURE_PAYLOAD_CACHE = "payload-cache";
+    /** Feature: the peer accepts payloads compressed by PayloadCompressor. Also announced by the broker in REGISTERED. */
+    public static final String FEATURE_DEFLATE = "deflate";
+    
+    /** Flag: the payload is a zlib stream of the original payload, see PayloadCompressor. */
+    public static final int FLAG_DEFLATE = 0x01;
+    
+    public WireMessage {
+        if (ids.length != type.idCount()) {
+            throw new IllegalArgumentException(type + " expects " + type.idCount() + " IDs, got " + ids.length);
+        }
+        attributes = attributes != null ? attributes : Map.of();
+        payload = payload != null ? payload : EMPTY;
+    }
+    
+    public static WireMessage of(MessageType type, byte[] payload, int... ids) {
+        return new WireMessage(type, 0, ids, Map.of(), payload);
+    }
+    
+    public static WireMessage register(int tcpPort, Map<String, String> attributes) {
+        return new WireMessage(MessageType.REGISTER, 0, new int[] {tcpPort}, attributes, EMPTY);
+    }
+    
+    public static WireMessage registered() {
+        return of(MessageType.REGISTERED, EMPTY);
+    }
+    
+    public static WireMessage registered(Map<String, String> attributes) {
+        return new WireMessage(MessageType.REGISTERED, 0, new int[0], attributes, EMPTY);
+    }
+    
+    public static WireMessage heartbeat(int tcpPort) {
+        return of(MessageType.HEARTBEAT, EMPTY, tcpPort);
+    }
+    
+    public static WireMessage heartbeatAck() {
+        return of(MessageType.HEARTBEAT_ACK, EMPTY);
+    }
+    
+    public static WireMessage subTask(int taskId, int subTaskId, byte[] data) {
+        return of(MessageType.SUBTASK, data, taskId, subTaskId);
+    }
+    
+    public static WireMessage subTaskStream(int taskId, int subTaskId, long length) {
+        return new WireMessage(MessageType.SUBTASK_STREAM, 0, new int[] {taskId, subTaskId},
+                               Map.of(LENGTH, Long.toString(length)), EMPTY);
+    }
+    
+    public static WireMessage subTaskRef(int taskId, int subTaskId, String hash, int length) {
+        return new WireMessage(MessageType.SUBTASK_REF, 0, new int[] {taskId, subTaskId},
+                               Map.of(HASH, hash, LENGTH, Integer.toString(length)), EMPTY);
+    }
+    
+    public static WireMessage payloadMiss(int taskId, int subTaskId) {
+        return of(MessageType.PAYLOAD_MISS, EMPTY, taskId, subTaskId);
+    }
+    
+    public static WireMessage subTaskAck(int taskId, int subTaskId) {
+        return of(MessageType.SUBTASK_ACK, EMPTY, taskId, subTaskId);
+    }
+    
+    public static WireMessage busy(int taskId, int subTaskId) {
+        return of(MessageType.BUSY, EMPTY, taskId, subTaskId);
+    }
+    
+    public static WireMessage cancel(int taskId, int subTaskId) {
+        return of(MessageType.CANCEL, EMPTY, taskId, subTaskId);
+    }
+    
+    public static WireMessage progress(int taskId, String progress) {
+        return of(MessageType.PROGRESS, progress.getBytes(StandardCharsets.UTF_8), taskId);
+    }
+    
+    public static WireMessage result(int taskId, int subTaskId, byte[] result) {
+        return of(MessageType.RESULT, result, taskId, subTaskId);
+    }
+    
+    public static WireMessage hello(int tcpPort) {
+        return of(MessageType.HELLO, EMPTY, tcpPort);
+    }
+    
+    public static WireMessage taskUpload(String taskName, int subTaskCount, String split) {
+        Map<String, String> attributes = split != null ? Map.of(NAME, taskName, SPLIT, split) : Map.of(NAME, taskName);
+        return new WireMessage(MessageType.TASK_UPLOAD, 0, new int[] {subTaskCount}, attributes, EMPTY);
+    }
+    
+    public static WireMessage taskUpload(String taskName, int subTaskCount, String split, String combine) {
+        return taskUpload(taskName, subTaskCount, split).withAttribute(COMBINE, combine);
+    }
+    
+    public static WireMessage taskChunk(byte[] data) {
+        return of(MessageType.TASK_CHUNK, data);
+    }
+    
+    public static WireMessage taskAccepted(int taskId) {
+        return of(MessageType.TASK_ACCEPTED, EMPTY, taskId);
+    }
+    
+    public static WireMessage taskCompleted(int taskId, long length) {
+        return new WireMessage(MessageType.TASK_COMPLETED, 0, new int[] {taskId},
+                               Map.of(LENGTH, Long.toString(length)), EMPTY);
+    }
+    
+    public static WireMessage taskRejected(String reason, long retryAfterMillis) {
+        return new WireMessage(MessageType.TASK_REJECTED, 0, new int[0],
+                               Map.of(RETRY_AFTER, Long.toString(retryAfterMillis)), reason.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    public static WireMessage error(String reason) {
+        return of(MessageType.ERROR, reason.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /** @return a copy with the attribute added or replaced, or this message if value is null */
+    public WireMessage withAttribute(String key, String value) {
+        if (value == null) {
+            return this;
+        }
+        Map<String, String> copy = new HashMap<>(attributes);
+        copy.put(key, value);
+        return new WireMessage(type, flags, ids, Map.copyOf(copy), payload);
+    }
+    
+    public int id(int index) {
+        return ids[index];
+    }
+    
+    public String attribute(String key) {
+        return attributes.get(key);
+    }
+    
+    public String payloadAsString() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,19 @@
+package com.computenet.protocol;
+
+/**
+ * Body of POST /api/worker-complete, sent by a worker when a sub-task finishes.
+ *
+ * @param workerAddress Address the worker registered with
+ * @param workerPort    TCP port the worker listens on for sub-tasks
+ * @param taskId        Broker-assigned task ID
+ * @param subTaskId     Sub-task number within the task (1-based)
+ * @param result        Result produced by the worker, may be null
+ */
+public record WorkerCompletionRequest(String workerAddress, int workerPort, int taskId, int subTaskId,
+                                      String result) {
+    
+    /** Key used by TaskManager to identify the worker (IP:Port). */
+    public String workerKey() {
+        return workerAddress + ":" + workerPort;
+    }
+}
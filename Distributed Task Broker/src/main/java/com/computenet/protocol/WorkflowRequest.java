@@ -0,0 +1,32 @@
+package com.computenet.protocol;
+
+import java.util.List;
+
+/**
+ * Body of POST /api/workflows: a pipeline of stages, each run as a task once the stages it depends on
+ * have delivered. Fields are kept nullable so the broker can report exactly which one is missing.
+ *
+ * @param name     Human readable workflow name (optional)
+ * @param tenant   Submitter identity for the TaskScheduler, shared by every stage (optional)
+ * @param priority Priority class of every stage: interactive, normal or bulk (optional)
+ * @param stages   The stages, in any order
+ */
+public record WorkflowRequest(String name, String tenant, String priority, List<Stage> stages) {
+
+    /**
+     * One stage of a workflow.
+     *
+     * @param id             Name the other stages refer to it by, unique within the workflow
+     * @param taskName       Task name, which selects the workers' executor
+     * @param data           Task data of a stage without dependencies; the others take their upstream results
+     * @param subTaskCount   Requested number of sub-tasks (optional), by default one per worker
+     * @param splitter       TaskSplitter spec (optional), without one the data is cut into line-aligned byte ranges
+     * @param combiner       ResultCombiner spec (optional), without one the results are kept per sub-task only
+     * @param dependsOn      IDs of the stages whose results are this stage's input (optional)
+     * @param deadlineMillis Milliseconds the stage's task must complete in once started (optional)
+     * @param tags           Comma-separated tags a worker must have to run the stage's sub-tasks (optional)
+     */
+    public record Stage(String id, String taskName, String data, Integer subTaskCount, String splitter,
+                        String combiner, List<String> dependsOn, Integer deadlineMillis, String tags) {
+    }
+}
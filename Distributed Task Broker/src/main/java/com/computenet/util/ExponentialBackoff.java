@@ -0,0 +1,37 @@
+package com.computenet.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ExponentialBackoff - Delays between reconnect attempts
+ * The delay doubles with every failed attempt up to a cap, and is drawn at random from the
+ * upper half of that range so that many clients losing the same server do not all come
+ * back in the same instant. reset() after a success starts again from the base delay.
+ * Not thread-safe: each reconnect loop keeps its own.
+ */
+public final class ExponentialBackoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private int attempts;
+    
+    public ExponentialBackoff(long baseMillis, long maxMillis) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Need 0 < base <= max: " + baseMillis + ", " + maxMillis);
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+    
+    /** @return how long to wait before the next attempt, and counts the attempt */
+    public long nextDelayMillis() {
+        // Capping the shift keeps the multiplication from overflowing after many failures
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempts, 30));
+        attempts++;
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+    
+    public void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.computenet.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
+/**
+ * RateLimitedLogger - Caps how often a per-message event is logged
+ * Used for events that happen once per connection, sub-task or broadcast, so a burst of
+ * traffic cannot turn logging into the bottleneck. At most maxPerWindow messages are
+ * written per window; the rest are counted and the count is reported with the next
+ * message that gets through. Lock-free: one CAS per window roll-over, otherwise a
+ * single atomic increment.
+ */
+public final class RateLimitedLogger {
+
+    private final Logger logger;
+    private final int maxPerWindow;
+    private final long windowNanos;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger countInWindow = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+    
+    public RateLimitedLogger(Logger logger, int maxPerWindow, long window, TimeUnit unit) {
+        this.logger = logger;
+        this.maxPerWindow = maxPerWindow;
+        this.windowNanos = unit.toNanos(window);
+    }
+    
+    /** Allows up to maxPerSecond messages per second. */
+    public static RateLimitedLogger perSecond(Logger logger, int maxPerSecond) {
+        return new RateLimitedLogger(logger, maxPerSecond, 1, TimeUnit.SECONDS);
+    }
+    
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+    
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+    
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+    
+    /** Number of messages dropped since the last one that was written. */
+    public long suppressedCount() {
+        return suppressed.sum();
+    }
+    
+    private boolean tryAcquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            countInWindow.set(0);
+        }
+        if (countInWindow.incrementAndGet() <= maxPerWindow) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+    
+    private void log(Level level, String format, Object[] args) {
+        if (!logger.isEnabledForLevel(level) || !tryAcquire()) {
+            return;
+        }
+        long dropped = suppressed.sumThenReset();
+        if (dropped == 0) {
+            logger.atLevel(level).log(format, args);
+            return;
+        }
+        // Insert the count before a trailing Throwable so SLF4J still treats that as the exception
+        int insertAt = args.length > 0 && args[args.length - 1] instanceof Throwable ? args.length - 1 : args.length;
+        Object[] extended = new Object[args.length + 1];
+        System.arraycopy(args, 0, extended, 0, insertAt);
+        extended[insertAt] = dropped;
+        System.arraycopy(args, insertAt, extended, insertAt + 1, args.length - insertAt);
+        logger.atLevel(level).log(format + " (+{} similar messages suppressed)", extended);
+    }
+}
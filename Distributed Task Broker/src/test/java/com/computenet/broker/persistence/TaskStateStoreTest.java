@@ -0,0 +1,68 @@
+package com.computenet.broker.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.computenet.broker.service.TaskManager;
+import com.computenet.broker.storage.ResultRef;
+import com.computenet.broker.storage.ResultStore;
+import com.computenet.metrics.BrokerMetrics;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TaskStateStoreTest {
+
+    @TempDir
+    Path directory;
+    
+    @Test
+    void recoveryReplaysTheLogOverTheSnapshot() throws Exception {
+        PersistenceConfig config = new PersistenceConfig(directory, DurabilityLevel.GROUP_COMMIT, 0, 3600, 64L * 1024 * 1024);
+        TaskManager before = new TaskManager(ResultStore.open(directory.resolve("results"), 1024 * 1024));
+        TaskStateStore store = TaskStateStore.open(config, before, new BrokerMetrics());
+        before.registerWorker("127.0.0.1", 6000);
+        before.registerWorker("127.0.0.1", 6001);
+        
+        int first = before.createTask("first", "a\nb\n", 2);
+        before.submitSubTaskResult(first, 1, "one");
+        store.snapshot();
+        assertEquals(1, count("snapshot-"));
+        
+        // After the snapshot: only in the log
+        int second = before.createTask("second", "c\n", 1);
+        before.submitSubTaskResult(first, 2, "two");
+        before.submitSubTaskResultAsync(second, 1, "three".getBytes(StandardCharsets.UTF_8), "127.0.0.1:6001")
+              .get(5, TimeUnit.SECONDS);
+        
+        // A crash: the store is never closed, so no final snapshot is written
+        TaskManager after = new TaskManager(ResultStore.open(directory.resolve("results"), 1024 * 1024));
+        try (TaskStateStore recovered = TaskStateStore.open(config, after, new BrokerMetrics())) {
+            assertEquals(2, after.getAvailableWorkers().size());
+            assertEquals(Map.of(1, "one", 2, "two"), results(after, first));
+            assertEquals(Map.of(1, "three"), results(after, second));
+            assertEquals("100% (2/2)", after.getTaskProgress(first));
+            assertTrue(after.createTask("third", "d\n", 1) > second, "task IDs are not reused");
+        }
+    }
+    
+    private static Map<Integer, String> results(TaskManager taskManager, int taskId) {
+        Map<Integer, ResultRef> refs = taskManager.getTaskResults(taskId);
+        Map<Integer, String> results = new HashMap<>();
+        refs.forEach((subTaskId, ref) -> results.put(subTaskId, taskManager.getResultStore().readString(ref)));
+        return results;
+    }
+    
+    private long count(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.computenet.broker.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.computenet.metrics.BrokerMetrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+    private static final List<WalRecord> RECORDS = List.of(
+        new WalRecord.TaskCreated(1001, "wordcount", "a b\nc", 2, "sum", 0),
+        new WalRecord.SubTaskAssigned("127.0.0.1:6000", 1001, 1),
+        new WalRecord.SubTaskReleased("127.0.0.1:6000", 1001, 1)
+    );
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void replayReturnsAppendedRecordsInOrder() throws IOException {
+        writeLog(DurabilityLevel.GROUP_COMMIT, RECORDS);
+        
+        List<WalRecord> replayed = new ArrayList<>();
+        assertEquals(3, WriteAheadLog.replay(directory, 0, replayed::add));
+        assertEquals(RECORDS, replayed);
+        
+        replayed.clear();
+        assertEquals(3, WriteAheadLog.replay(directory, 2, replayed::add));
+        assertEquals(RECORDS.subList(2, 3), replayed);
+    }
+    
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        writeLog(DurabilityLevel.GROUP_COMMIT, RECORDS);
+        Path segment = onlySegment();
+        long intact = Files.size(segment);
+        // A crash in the middle of a write: the header promises more bytes than follow
+        ByteBuffer torn = ByteBuffer.allocate(18).putInt(100).putInt(0x12345678);
+        Files.write(segment, torn.array(), StandardOpenOption.APPEND);
+        
+        List<WalRecord> replayed = new ArrayList<>();
+        assertEquals(3, WriteAheadLog.replay(directory, 0, replayed::add));
+        assertEquals(RECORDS, replayed);
+        assertEquals(intact, Files.size(segment));
+        
+        // The log continues after the truncated tail
+        WalRecord next = new WalRecord.SubTaskAssigned("127.0.0.1:6001", 1001, 2);
+        try (WriteAheadLog wal = open(DurabilityLevel.GROUP_COMMIT, 4)) {
+            assertEquals(4, wal.append(next));
+        }
+        replayed.clear();
+        assertEquals(4, WriteAheadLog.replay(directory, 0, replayed::add));
+        assertEquals(next, replayed.get(3));
+    }
+    
+    @Test
+    void corruptTailRecordIsDropped() throws IOException {
+        writeLog(DurabilityLevel.GROUP_COMMIT, RECORDS.subList(0, 2));
+        Path segment = onlySegment();
+        long intact = Files.size(segment);
+        writeLog(DurabilityLevel.GROUP_COMMIT, 3, RECORDS.subList(2, 3));
+        Path second = segments().get(1);
+        flipLastByte(second);
+        
+        List<WalRecord> replayed = new ArrayList<>();
+        assertEquals(2, WriteAheadLog.replay(directory, 0, replayed::add));
+        assertEquals(RECORDS.subList(0, 2), replayed);
+        assertEquals(intact, Files.size(segment));
+        assertEquals(0, Files.size(second));
+    }
+    
+    @Test
+    void corruptionBeforeTheNewestSegmentFailsReplay() throws IOException {
+        writeLog(DurabilityLevel.GROUP_COMMIT, RECORDS.subList(0, 2));
+        writeLog(DurabilityLevel.GROUP_COMMIT, 3, RECORDS.subList(2, 3));
+        flipLastByte(segments().get(0));
+        
+        // Acknowledged records are missing, which must not pass for a torn write
+        assertThrows(IOException.class, () -> WriteAheadLog.replay(directory, 0, record -> { }));
+    }
+    
+    @Test
+    void appendAsyncCompletesOnceDurable() throws Exception {
+        for (DurabilityLevel durability : List.of(DurabilityLevel.GROUP_COMMIT, DurabilityLevel.SYNC)) {
+            Path levelDirectory = Files.createDirectory(directory.resolve(durability.name()));
+            try (WriteAheadLog wal = WriteAheadLog.open(config(durability).withDataDirectory(levelDirectory), 1,
+                                                        new BrokerMetrics(), () -> { })) {
+                assertEquals(1, wal.appendAsync(RECORDS.get(0)).get(5, TimeUnit.SECONDS));
+                assertEquals(2, wal.appendAsync(RECORDS.get(1)).get(5, TimeUnit.SECONDS));
+                
+                // Durable means on disk before the log is closed
+                List<WalRecord> replayed = new ArrayList<>();
+                WriteAheadLog.replay(levelDirectory, 0, replayed::add);
+                assertEquals(RECORDS.subList(0, 2), replayed, durability.name());
+            }
+        }
+    }
+    
+    private void writeLog(DurabilityLevel durability, List<WalRecord> records) throws IOException {
+        writeLog(durability, 1, records);
+    }
+    
+    private void writeLog(DurabilityLevel durability, long firstLsn, List<WalRecord> records) throws IOException {
+        try (WriteAheadLog wal = open(durability, firstLsn)) {
+            for (WalRecord record : records) {
+                wal.append(record);
+            }
+        }
+    }
+    
+    private WriteAheadLog open(DurabilityLevel durability, long nextLsn) throws IOException {
+        return WriteAheadLog.open(config(durability), nextLsn, new BrokerMetrics(), () -> { });
+    }
+    
+    private PersistenceConfig config(DurabilityLevel durability) {
+        return new PersistenceConfig(directory, durability, 0, 3600, 64L * 1024 * 1024);
+    }
+    
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("wal-")).sorted().toList();
+        }
+    }
+    
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+    
+    private static void flipLastByte(Path segment) throws IOException {
+        byte[] bytes = Files.readAllBytes(segment);
+        assertTrue(bytes.length > 0);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(segment, bytes);
+    }
+}
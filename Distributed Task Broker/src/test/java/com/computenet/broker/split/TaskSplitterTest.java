@@ -0,0 +1,146 @@
+package com.computenet.broker.split;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class TaskSplitterTest {
+
+    @Test
+    void bytesCutsEqualRangesAtLineEnds() throws IOException {
+        assertEquals(List.of("aa\nbb\n", "cc\ndd\n"), split("bytes", "aa\nbb\ncc\ndd\n", 2));
+        // The ideal boundary at byte 5 falls inside the long line, which stays whole in the first partition
+        assertEquals(List.of("a\nbbbbbb\n", "c\n"), split("bytes", "a\nbbbbbb\nc\n", 2));
+    }
+    
+    @Test
+    void bytesLeavesLaterPartitionsEmptyWhenOneLineFillsThem() throws IOException {
+        assertEquals(List.of("abcdefgh\n", "", ""), split("bytes", "abcdefgh\n", 3));
+    }
+    
+    @Test
+    void rawBytesCutsExactRanges() throws IOException {
+        assertEquals(List.of("ab", "cde", "fgh"), split("bytes:raw", "abcdefgh", 3));
+    }
+    
+    @Test
+    void linesSplitsByLineCount() throws IOException {
+        assertEquals(List.of("1\n2\n", "3\n4\n5\n"), split("lines", "1\n2\n3\n4\n5\n", 2));
+        assertEquals(List.of("1\n", "2\n3\n", "4\n5\n"), split("lines", "1\n2\n3\n4\n5\n", 3));
+    }
+    
+    @Test
+    void linesKeepsAFinalLineWithoutNewline() throws IOException {
+        assertEquals(List.of("1\n", "2\n", "3"), split("lines", "1\n2\n3", 3));
+    }
+    
+    @Test
+    void linesProducesEmptyPartitionsWhenThereAreFewerLines() throws IOException {
+        assertEquals(List.of("", "1\n", "", "2\n"), split("lines", "1\n2\n", 4));
+    }
+    
+    @Test
+    void linesCountsPastTheSampleInterval() throws IOException {
+        int records = RecordCountSplitter.SAMPLE_INTERVAL * 3 + 7;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            input.append(i).append('\n');
+        }
+        List<String> partitions = split("lines", input.toString(), 4);
+        
+        assertEquals(input.toString(), String.join("", partitions));
+        for (int i = 0; i < partitions.size(); i++) {
+            long expected = (long) records * (i + 1) / 4 - (long) records * i / 4;
+            assertEquals(expected, partitions.get(i).chars().filter(c -> c == '\n').count(), "partition " + i);
+        }
+    }
+    
+    @Test
+    void delimiterSplitsByRecordCount() throws IOException {
+        assertEquals(List.of("a;b;", "c;d;"), split("delimiter:;", "a;b;c;d;", 2));
+        assertEquals(List.of("a||", "b||c||"), split("delimiter:||", "a||b||c||", 2));
+    }
+    
+    @Test
+    void delimiterUnescapesNewline() throws IOException {
+        assertEquals(split("lines", "1\n2\n3\n", 2), split("delimiter:\\n", "1\n2\n3\n", 2));
+    }
+    
+    @Test
+    void hashKeepsEqualKeysTogether() throws IOException {
+        String input = "k1,a\nk2,b\nk1,c\nk3,d\nk2,e\nk1,f\n";
+        List<String> partitions = split("hash", input, 3);
+        
+        assertEquals(3, partitions.size());
+        assertSameRecords(input, partitions);
+        assertKeysTogether(partitions, line -> line.split(",")[0]);
+        // Records keep their input order within a partition
+        for (String partition : partitions) {
+            List<String> lines = lines(partition);
+            List<String> inInputOrder = new ArrayList<>(lines);
+            inInputOrder.sort((a, b) -> Integer.compare(input.indexOf(a), input.indexOf(b)));
+            assertEquals(inInputOrder, lines);
+        }
+    }
+    
+    @Test
+    void hashUsesTheGivenSeparatorAndField() throws IOException {
+        String input = "a;x;1\nb;y;2\nc;x;3\nd;z;4\ne;y;5\n";
+        List<String> partitions = split("hash:;:1", input, 2);
+        
+        assertSameRecords(input, partitions);
+        assertKeysTogether(partitions, line -> line.split(";")[1]);
+    }
+    
+    @Test
+    void parseRejectsUnknownSpecs() {
+        assertThrows(IllegalArgumentException.class, () -> TaskSplitter.parse("words"));
+        assertThrows(IllegalArgumentException.class, () -> TaskSplitter.parse("hash:ab:0"));
+        assertThrows(IllegalArgumentException.class, () -> TaskSplitter.parse("hash:,:x"));
+    }
+    
+    private static List<String> split(String spec, String input, int partitions) throws IOException {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        HeapPartitionSink sink = new HeapPartitionSink(bytes, partitions);
+        TaskSplitter.parse(spec).split(SplitInput.of(bytes), partitions, sink);
+        return sink.toStrings();
+    }
+    
+    private static List<String> lines(String partition) {
+        return partition.isEmpty() ? List.of() : Arrays.asList(partition.split("\n"));
+    }
+    
+    private static void assertKeysTogether(List<String> partitions, Function<String, String> keyOf) {
+        Map<String, Integer> partitionOfKey = new HashMap<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            int partition = i;
+            for (String line : lines(partitions.get(i))) {
+                String key = keyOf.apply(line);
+                assertEquals(partition, partitionOfKey.computeIfAbsent(key, k -> partition), "key " + key);
+            }
+        }
+    }
+    
+    /** Every input record is in exactly one partition, whole. */
+    private static void assertSameRecords(String input, List<String> partitions) {
+        List<String> expected = new ArrayList<>(lines(input));
+        List<String> actual = new ArrayList<>();
+        for (String partition : partitions) {
+            assertTrue(partition.isEmpty() || partition.endsWith("\n"), "record cut: " + partition);
+            actual.addAll(lines(partition));
+        }
+        expected.sort(null);
+        actual.sort(null);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,28 @@
+package com.computenet.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TextCodecTest {
+
+    @Test
+    void escapedFieldsSurviveASubmissionLine() {
+        String data = "a,1\nb|2\r\nc\\3";
+        String line = "Name:t | Data:" + TextCodec.escapeField(data) + " | SubTasks:2";
+        
+        assertEquals(-1, line.indexOf('\n'));
+        assertEquals(List.of("Name:t ", " Data:" + data + " ", " SubTasks:2"), TextCodec.splitFields(line));
+    }
+    
+    @Test
+    void splitFieldsKeepsUnknownEscapes() {
+        assertEquals(List.of("C:\\tmp\\x", "y"), TextCodec.splitFields("C:\\tmp\\x|y"));
+    }
+    
+    @Test
+    void lineWithoutPipesIsOneField() {
+        assertEquals(List.of("one\ntwo"), TextCodec.splitFields("one\\ntwo"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.computenet.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class WireCodecTest {
+
+    @Test
+    void decodeReturnsWhatWasEncoded() throws IOException {
+        WireMessage subTask = WireMessage.subTask(42, 300, "line 1\nline 2".getBytes(StandardCharsets.UTF_8));
+        assertSameMessage(subTask, WireCodec.decode(ByteBuffer.wrap(WireCodec.encode(subTask))));
+        
+        WireMessage register = WireMessage.register(6000, Map.of(WireMessage.FEATURES, "payload-cache,deflate"));
+        assertSameMessage(register, WireCodec.decode(ByteBuffer.wrap(WireCodec.encode(register))));
+    }
+    
+    @Test
+    void readReturnsWhatWasEncoded() throws IOException {
+        WireMessage result = WireMessage.result(7, 1, new byte[200_000]);
+        assertSameMessage(result, WireCodec.read(new ByteArrayInputStream(WireCodec.encode(result))));
+    }
+    
+    @Test
+    void partialFrameIsLeftInTheBuffer() throws IOException {
+        byte[] frame = WireCodec.encode(WireMessage.subTask(1, 2, new byte[300]));
+        for (int length = 0; length < frame.length; length++) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+            assertNull(WireCodec.decode(buffer), "prefix of " + length + " bytes");
+            assertEquals(0, buffer.position(), "prefix of " + length + " bytes");
+        }
+    }
+    
+    @Test
+    void consecutiveFramesDecodeOneAtATime() throws IOException {
+        WireMessage first = WireMessage.heartbeat(6000);
+        WireMessage second = WireMessage.progress(3, "50%");
+        byte[] a = WireCodec.encode(first);
+        byte[] b = WireCodec.encode(second);
+        ByteBuffer buffer = ByteBuffer.allocate(a.length + b.length - 1).put(a).put(b, 0, b.length - 1).flip();
+        
+        assertSameMessage(first, WireCodec.decode(buffer));
+        assertNull(WireCodec.decode(buffer));
+        assertEquals(a.length, buffer.position());
+        
+        // The rest of the second frame arrives with the next read
+        buffer.compact().put(b[b.length - 1]).flip();
+        assertSameMessage(second, WireCodec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+    
+    @Test
+    void oversizedLengthIsRejected() {
+        byte[] header = header(WireCodec.MAX_BODY_LENGTH + 1);
+        assertThrows(WireCodec.WireFormatException.class, () -> WireCodec.decode(ByteBuffer.wrap(header)));
+        assertThrows(WireCodec.WireFormatException.class, () -> WireCodec.read(new ByteArrayInputStream(header)));
+    }
+    
+    @Test
+    void maximumLengthWaitsForTheBody() throws IOException {
+        // Allowed, so a decoder must wait for the body instead of failing
+        assertNull(WireCodec.decode(ByteBuffer.wrap(header(WireCodec.MAX_BODY_LENGTH))));
+    }
+    
+    @Test
+    void badMagicAndVersionAreRejected() {
+        byte[] frame = WireCodec.encode(WireMessage.heartbeatAck());
+        frame[0] = 'X';
+        assertThrows(WireCodec.WireFormatException.class, () -> WireCodec.decode(ByteBuffer.wrap(frame)));
+        
+        byte[] future = WireCodec.encode(WireMessage.heartbeatAck());
+        future[1] = (byte) (WireCodec.VERSION + 1);
+        assertThrows(WireCodec.WireFormatException.class, () -> WireCodec.decode(ByteBuffer.wrap(future)));
+    }
+    
+    /** A SUBTASK frame header announcing the given body length, without the body. */
+    private static byte[] header(int bodyLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(WireCodec.MAGIC).put((byte) WireCodec.VERSION).put((byte) MessageType.SUBTASK.code()).put((byte) 0);
+        WireCodec.putVarInt(buffer, bodyLength);
+        byte[] header = new byte[buffer.position()];
+        buffer.flip().get(header);
+        return header;
+    }
+    
+    private static void assertSameMessage(WireMessage expected, WireMessage actual) {
+        assertEquals(expected.type(), actual.type());
+        assertEquals(expected.flags(), actual.flags());
+        assertArrayEquals(expected.ids(), actual.ids());
+        assertEquals(expected.attributes(), actual.attributes());
+        assertArrayEquals(expected.payload(), actual.payload());
+    }
+}